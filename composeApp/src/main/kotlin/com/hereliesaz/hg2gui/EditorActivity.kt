@@ -11,10 +11,13 @@ import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.setValue
+import com.hereliesaz.hg2gui.managers.VfsManager
 import com.hereliesaz.hg2gui.ui.ConfirmDialog
 import com.hereliesaz.hg2gui.ui.HG2GuiTheme
 import com.hereliesaz.hg2gui.ui.editor.EditorScreen
+import com.hereliesaz.hg2gui.ui.editor.PieceTable
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.File
@@ -69,7 +72,7 @@ class EditorActivity : ComponentActivity() {
         }
 
         setContent {
-            var content by remember { mutableStateOf<String?>(null) }
+            var document by remember { mutableStateOf<PieceTable?>(null) }
             var error by remember { mutableStateOf<String?>(null) }
             var dirty by remember { mutableStateOf(false) }
             // SYS-2: dirty existed only to show/hide the Save pill - neither exit path ever
@@ -95,7 +98,8 @@ class EditorActivity : ComponentActivity() {
                         if (file.looksBinary()) {
                             null to "This looks like a binary file - can't edit it here."
                         } else {
-                            file.readText() to null
+                            // Mapped and indexed, not read into a String - see PieceTable.
+                            PieceTable.open(file) to null
                         }
                     } catch (e: OutOfMemoryError) {
                         null to "This file is too big to edit here - try a real editor for it."
@@ -103,23 +107,40 @@ class EditorActivity : ComponentActivity() {
                         null to (e.message ?: "Could not read this file.")
                     }
                 }
-                content = loaded
+                document = loaded
                 error = loadError
             }
 
+            // Something writing the file in place - a shell's `>` - leaves the mapping reading
+            // bytes the line index no longer matches, or, truncated, bytes that are gone. Once
+            // that's seen, the document is dropped before anything reads from it again; its edits
+            // can't be saved over the new contents anyway (see PieceTable.Snapshot.saveTo).
+            LaunchedEffect(document) {
+                val current = document ?: return@LaunchedEffect
+                while (!withContext(Dispatchers.IO) { current.changedOnDisk() }) delay(CHANGE_CHECK_MS)
+                document = null
+                dirty = false
+                error = "${file.name} was changed by something else while open here - reopen it to edit it."
+            }
+
             HG2GuiTheme {
                 EditorScreen(
                     fileName = file.name,
-                    content = content,
+                    document = document,
                     error = error,
                     dirty = dirty,
-                    onContentChange = { content = it; dirty = true },
+                    onEdit = { dirty = true },
                     onSave = {
-                        val current = content ?: return@EditorScreen
+                        val current = document ?: return@EditorScreen
+                        // Taken here, where edits happen, so typing on while it's written can't
+                        // tear what's saved.
+                        val snapshot = current.snapshot()
                         scope.launch(Dispatchers.IO) {
                             try {
-                                file.writeText(current)
-                                dirty = false
+                                snapshot.saveTo(file)
+                                // Its size and mtime just changed without its folder's changing.
+                                VfsManager.changed(file)
+                                dirty = current.edits != snapshot.edits
                             } catch (e: Exception) {
                                 error = e.message ?: "Could not save this file."
                             }
@@ -142,6 +163,8 @@ class EditorActivity : ComponentActivity() {
     }
 
     companion object {
+        private const val CHANGE_CHECK_MS = 1_000L
+
         // Set by a trusted in-process caller (see TerminalActivity's "open in editor"/edit-command
         // launch site) immediately before starting this Activity, then consumed once in onCreate.
         // Deliberately NOT an Intent extra - an exported Activity can be started by any other app
@@ -24,12 +24,15 @@ import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateMapOf
 import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.setValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.geometry.Rect
+import androidx.compose.ui.graphics.ImageBitmap
+import androidx.compose.ui.graphics.asImageBitmap
 import androidx.compose.ui.platform.LocalConfiguration
 import androidx.compose.ui.platform.LocalDensity
 import androidx.compose.ui.unit.dp
@@ -49,16 +52,22 @@ import com.hereliesaz.hg2gui.azp.AzpTrust
 import com.hereliesaz.hg2gui.azp.ScriptInstaller
 import com.hereliesaz.hg2gui.managers.AiSettings
 import com.hereliesaz.hg2gui.managers.AzpLibrary
+import com.hereliesaz.hg2gui.managers.CommandHistoryStore
 import com.hereliesaz.hg2gui.managers.ContactManager
 import com.hereliesaz.hg2gui.managers.OsContextStore
 import com.hereliesaz.hg2gui.managers.PtyPreference
 import com.hereliesaz.hg2gui.managers.SshPresets
 import com.hereliesaz.hg2gui.managers.TerminalHistoryEntry
+import com.hereliesaz.hg2gui.managers.ThumbnailCache
 import com.hereliesaz.hg2gui.managers.VfsManager
 import com.hereliesaz.hg2gui.managers.WorkflowStore
 import com.hereliesaz.hg2gui.mcp.McpServerService
+import com.hereliesaz.hg2gui.terminal.AptCatalog
 import com.hereliesaz.hg2gui.terminal.Builtins
+import com.hereliesaz.hg2gui.terminal.CommandHistory
 import com.hereliesaz.hg2gui.terminal.DistroManager
+import com.hereliesaz.hg2gui.terminal.FuzzyDictionary
+import com.hereliesaz.hg2gui.terminal.HelpCatalog
 import com.hereliesaz.hg2gui.terminal.TerminalEngine
 import com.hereliesaz.hg2gui.util.GenericFileProvider
 import com.hereliesaz.hg2gui.util.Utils
@@ -79,10 +88,16 @@ import com.hereliesaz.hg2gui.ui.files.FilesScreen
 import com.hereliesaz.hg2gui.ui.files.PathPickerScreen
 import com.hereliesaz.hg2gui.ui.files.StorageCategoryStat
 import com.hereliesaz.hg2gui.ui.files.StorageStats
+import com.hereliesaz.hg2gui.ui.files.VfsDuplicateGroup
 import com.hereliesaz.hg2gui.ui.files.VfsEntry
+import com.hereliesaz.hg2gui.ui.files.VfsGrepHit
 import com.hereliesaz.hg2gui.ui.files.VfsSearchResult
+import com.hereliesaz.hg2gui.ui.files.VfsTransferProgress
+import com.hereliesaz.hg2gui.ui.files.vfsChildPath
 import com.hereliesaz.hg2gui.ui.guide.CommandGuideScreen
 import com.hereliesaz.hg2gui.ui.menu.Azphalt
+import com.hereliesaz.hg2gui.ui.menu.ChildrenCache
+import com.hereliesaz.hg2gui.ui.menu.CommandIndex
 import com.hereliesaz.hg2gui.ui.menu.CommandTree
 import com.hereliesaz.hg2gui.ui.menu.FileBrowser
 import com.hereliesaz.hg2gui.ui.menu.MenuNode
@@ -95,6 +110,11 @@ import java.io.File
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
@@ -161,7 +181,8 @@ class TerminalActivity : FragmentActivity() {
 
     private data class InitResult(
         val engine: TerminalEngine,
-        val tree: List<MenuNode>,
+        // The last launch's tree, from CommandTree's snapshot - null on a first launch.
+        val tree: List<MenuNode>?,
         val fullscreen: Boolean,
         val fontScalePercent: Int,
         val usePty: Boolean
@@ -212,6 +233,51 @@ class TerminalActivity : FragmentActivity() {
 
         setContent {
             var tree by remember { mutableStateOf<List<MenuNode>?>(null) }
+            // One for the activity's life, not one per tree: a rebuild hands back the same nodes
+            // for everything it didn't change (see CommandTree.from), and the only resolved
+            // children a rebuild can make stale are the install pills' - invalidated by id after
+            // each package-manager run below. Saves that change one node's children without a
+            // rebuild (ssh presets, workflows) invalidate just that node too.
+            val childrenCache = remember { ChildrenCache() }
+            // apt's package names for TerminalScreen's search index - only reachable behind the
+            // `install` pill's resolver, so the index can't find them by walking the tree itself.
+            val searchExtras by produceState(emptyList<CommandIndex.Entry>(), tree) {
+                val built = tree ?: return@produceState
+                value = withContext(Dispatchers.IO) { CommandTree.searchEntries(this@TerminalActivity, built) }
+            }
+            // Every session's runs across launches - see CommandHistoryStore. Loaded once, then
+            // only ever added to from the main thread; each run is appended to the log off it.
+            // A run that finishes while the log is still loading waits in [unloadedRuns] and is
+            // appended only once the load is done - before, the load might replay it a second time.
+            val unloadedRuns = remember { mutableListOf<CommandHistory.Record>() }
+            val commandHistory by produceState<CommandHistory?>(null) {
+                val loaded = withContext(Dispatchers.IO) { CommandHistoryStore.load(this@TerminalActivity) }
+                val early = unloadedRuns.toList()
+                unloadedRuns.clear()
+                early.forEach(loaded::add)
+                value = loaded
+                if (early.isNotEmpty()) {
+                    withContext(Dispatchers.IO) { early.forEach { CommandHistoryStore.append(this@TerminalActivity, it) } }
+                }
+            }
+            // Did-you-mean over PATH, the alias table and the apt index - one instance for the
+            // activity's life, re-synced (not rebuilt) whenever the tree is, since that's when a
+            // package manager run may have changed what's installed.
+            val dictionary = remember { FuzzyDictionary() }
+            LaunchedEffect(tree) {
+                if (tree == null) return@LaunchedEffect
+                withContext(Dispatchers.IO) {
+                    dictionary.sync(FuzzyDictionary.Source.COMMAND, CommandTree.binaryNames(this@TerminalActivity))
+                    val packages = AptCatalog.all(DistroManager.prefixDir(this@TerminalActivity)).map { it.name }
+                    dictionary.sync(FuzzyDictionary.Source.PACKAGE, packages)
+                }
+            }
+            // And over every command the user has run. The words are read here, on the thread
+            // that owns the history; only the tree's inserts go off it.
+            LaunchedEffect(commandHistory) {
+                val words = commandHistory?.commandWords() ?: return@LaunchedEffect
+                withContext(Dispatchers.IO) { dictionary.sync(FuzzyDictionary.Source.HISTORY, words) }
+            }
             var activeSessionId by remember { mutableStateOf("") }
             var screen by remember {
                 mutableStateOf(if (intent?.getBooleanExtra(McpServerService.EXTRA_OPEN_MCP, false) == true) Screen.Mcp else Screen.Terminal)
@@ -354,22 +420,26 @@ class TerminalActivity : FragmentActivity() {
 
             suspend fun vfsListDir(path: String): List<VfsEntry> = withContext(Dispatchers.IO) {
                 val dir = VfsManager.resolve(this@TerminalActivity, path) ?: return@withContext emptyList()
-                (dir.listFiles() ?: emptyArray())
+                VfsManager.startWatching(this@TerminalActivity)
+                // Children's paths joined onto the folder's own, not canonicalized one by one -
+                // the listing already did the only disk I/O this needs.
+                val dirPath = VfsManager.pathOf(this@TerminalActivity, dir)
+                VfsManager.listDir(dir)
                     .sortedWith(compareBy({ !it.isDirectory }, { it.name.lowercase() }))
                     .map { f ->
                         VfsEntry(
                             name = f.name,
-                            path = VfsManager.pathOf(this@TerminalActivity, f),
+                            path = vfsChildPath(dirPath, f.name),
                             isDirectory = f.isDirectory,
-                            sizeBytes = if (f.isFile) f.length() else 0L,
-                            modifiedAt = f.lastModified(),
-                            isImage = f.isFile && VfsManager.isImage(f)
+                            sizeBytes = f.size,
+                            modifiedAt = f.modifiedAt,
+                            isImage = !f.isDirectory && VfsManager.isImage(File(f.name))
                         )
                     }
             }
 
-            suspend fun vfsSearch(query: String): List<VfsSearchResult> = withContext(Dispatchers.IO) {
-                VfsManager.search(this@TerminalActivity, query).map { f ->
+            fun vfsSearch(query: String): Flow<VfsSearchResult> =
+                VfsManager.searchFlow(this@TerminalActivity, query).map { f ->
                     VfsSearchResult(
                         entry = VfsEntry(
                             name = f.name,
@@ -381,7 +451,70 @@ class TerminalActivity : FragmentActivity() {
                         ),
                         parentPath = VfsManager.pathOf(this@TerminalActivity, f.parentFile ?: f)
                     )
+                }.flowOn(Dispatchers.IO)
+
+            // A regex isn't offered here, only a literal, so the pattern can't fail to compile.
+            fun vfsGrep(query: String): Flow<VfsGrepHit> =
+                VfsManager.grep(this@TerminalActivity, query).map { hit ->
+                    val f = hit.file
+                    VfsGrepHit(
+                        entry = VfsEntry(
+                            name = f.name,
+                            path = VfsManager.pathOf(this@TerminalActivity, f),
+                            isDirectory = false,
+                            sizeBytes = f.length(),
+                            modifiedAt = f.lastModified(),
+                            isImage = VfsManager.isImage(f)
+                        ),
+                        lineNumber = hit.lineNumber,
+                        line = hit.line,
+                        before = hit.before,
+                        after = hit.after
+                    )
+                }.flowOn(Dispatchers.IO)
+
+            // Paths that don't resolve are failed up front; the rest are reported back under the
+            // same path strings the screen asked with.
+            fun vfsTransfer(paths: Set<String>, targetDirPath: String, move: Boolean): Flow<VfsTransferProgress> = flow {
+                val target = VfsManager.resolve(this@TerminalActivity, targetDirPath)
+                if (target == null) {
+                    emit(VfsTransferProgress(paths.size, paths.size, 0L, 0L, 0L, paths))
+                    return@flow
                 }
+                val byFile = paths.mapNotNull { path -> VfsManager.resolve(this@TerminalActivity, path)?.let { it to path } }.toMap()
+                val unresolved = paths - byFile.values.toSet()
+                emitAll(VfsManager.transferInto(byFile.keys.toList(), target, move).map { p ->
+                    VfsTransferProgress(
+                        itemsDone = p.itemsDone + unresolved.size,
+                        itemsTotal = paths.size,
+                        bytesDone = p.bytesDone,
+                        bytesTotal = p.bytesTotal,
+                        bytesPerSecond = p.bytesPerSecond,
+                        failedPaths = p.failed.mapNotNull { byFile[it] }.toSet() + unresolved
+                    )
+                })
+            }.flowOn(Dispatchers.IO)
+
+            fun vfsDuplicates(): Flow<VfsDuplicateGroup> =
+                VfsManager.duplicates(this@TerminalActivity).map { group ->
+                    VfsDuplicateGroup(
+                        sizeBytes = group.size,
+                        files = group.files.map { f ->
+                            VfsEntry(
+                                name = f.name,
+                                path = VfsManager.pathOf(this@TerminalActivity, f),
+                                isDirectory = false,
+                                sizeBytes = group.size,
+                                modifiedAt = f.lastModified(),
+                                isImage = VfsManager.isImage(f)
+                            )
+                        }
+                    )
+                }.flowOn(Dispatchers.IO)
+
+            suspend fun vfsThumbnail(entry: VfsEntry): ImageBitmap? = withContext(Dispatchers.IO) {
+                val file = VfsManager.resolve(this@TerminalActivity, entry.path) ?: return@withContext null
+                ThumbnailCache.load(this@TerminalActivity, file)?.asImageBitmap()
             }
 
             suspend fun vfsStorageStats(): StorageStats = withContext(Dispatchers.IO) {
@@ -419,15 +552,21 @@ class TerminalActivity : FragmentActivity() {
             }
 
             LaunchedEffect(Unit) {
+                // Each phase is logged from launch, so `logcat -s hg2gui` shows where a cold
+                // start's time went.
+                val launchedAt = System.nanoTime()
                 val built = withContext(Dispatchers.Default) {
                     // A no-op before a bootstrap exists; picks up an install from before these
                     // scripts existed too, not just a fresh one.
                     DistroManager.ensureBundledScripts(this@TerminalActivity)
+                    Utils.logTiming("startup: bundled scripts", launchedAt)
                     val builtEngine = TerminalEngine(this@TerminalActivity)
-                    val builtTree = CommandTree.from(this@TerminalActivity)
+                    Utils.logTiming("startup: engine", launchedAt)
+                    val restoredTree = CommandTree.restore(this@TerminalActivity)
+                    Utils.logTiming("startup: tree snapshot", launchedAt)
                     InitResult(
                         engine = builtEngine,
-                        tree = builtTree,
+                        tree = restoredTree,
                         fullscreen = prefs.getBoolean(PREF_FULLSCREEN, false),
                         fontScalePercent = prefs.getInt(PREF_FONT_SCALE_PERCENT, 100),
                         usePty = PtyPreference.isEnabled(this@TerminalActivity)
@@ -437,10 +576,18 @@ class TerminalActivity : FragmentActivity() {
                 val firstUi = SessionUiState(id = "1", name = "main", cwd = built.engine.workingDirectory)
                 sessions = listOf(TerminalSession(firstUi, built.engine))
                 activeSessionId = firstUi.id
-                tree = built.tree
                 fullscreen = built.fullscreen
                 fontScalePercent = built.fontScalePercent
                 usePty = built.usePty
+                if (built.tree != null) {
+                    tree = built.tree
+                    Utils.logTiming("startup: first frame (snapshot)", launchedAt)
+                }
+                // The live scan, always - but against a restored snapshot it only ever replaces
+                // it if the prefix actually changed since; CommandTree.from hands back the
+                // restored list itself otherwise, and assigning that is a no-op.
+                tree = withContext(Dispatchers.Default) { CommandTree.from(this@TerminalActivity) }
+                Utils.logTiming(if (built.tree != null) "startup: live tree" else "startup: first frame (live)", launchedAt)
 
                 // Real Termux never shows an empty shell either - it installs its own bootstrap
                 // automatically, once, before the first prompt appears. Match that instead of
@@ -774,11 +921,13 @@ class TerminalActivity : FragmentActivity() {
                                 wizardId == "ssh-new" && session != null -> scope.launch {
                                     SshFlow.runNewConnectionWizard(session.ui) { preset ->
                                         withContext(Dispatchers.IO) { SshPresets.save(this@TerminalActivity, preset) }
+                                        childrenCache.invalidate(CommandTree.SSH_ID)
                                     }
                                 }
                                 wizardId == "workflow-new" && session != null -> scope.launch {
                                     WorkflowFlow.runNewWorkflowWizard(session.ui) { workflow ->
                                         withContext(Dispatchers.IO) { WorkflowStore.save(this@TerminalActivity, workflow) }
+                                        childrenCache.invalidate(CommandTree.WORKFLOWS_ID)
                                     }
                                 }
                                 wizardId.startsWith("workflow-run:") && session != null -> {
@@ -816,6 +965,28 @@ class TerminalActivity : FragmentActivity() {
                                 }
                             }
                         },
+                        childrenCache = childrenCache,
+                        searchExtras = searchExtras,
+                        // Whatever the user opens gets its binaries' --help probed first, if
+                        // the background warm-up hasn't reached them yet.
+                        onMenuOpen = { node -> HelpCatalog.prioritize(CommandTree.binariesUnder(node)) },
+                        searchPackages = { query ->
+                            withContext(Dispatchers.IO) { CommandTree.searchPackages(this@TerminalActivity, currentTree, query) }
+                        },
+                        history = commandHistory,
+                        dictionary = dictionary,
+                        onCommandFinished = { line, cwd, exitCode ->
+                            val run = CommandHistory.Record(line, 1, System.currentTimeMillis(), cwd, exitCode)
+                            val history = commandHistory
+                            if (history == null) {
+                                unloadedRuns += run
+                            } else {
+                                history.add(run)
+                                scope.launch(Dispatchers.IO) { CommandHistoryStore.append(this@TerminalActivity, run) }
+                                val words = history.commandWords()
+                                scope.launch(Dispatchers.IO) { dictionary.sync(FuzzyDictionary.Source.HISTORY, words) }
+                            }
+                        },
                         onInterrupt = { sessionId ->
                             sessions.firstOrNull { it.ui.id == sessionId }?.engine?.interrupt()
                         },
@@ -832,6 +1003,10 @@ class TerminalActivity : FragmentActivity() {
                             // wasted file I/O and a pointless menu recomposition.
                             val ranCommand = line.trim().substringBefore(' ')
                             if (ranCommand in CommandTree.PACKAGE_MANAGER_COMMANDS) {
+                                // An `apt update` changes the index lists; rebuild the catalog's
+                                // snapshot now, once, rather than in whichever of the install pill,
+                                // search index or dictionary asks for it first.
+                                scope.launch(Dispatchers.IO) { AptCatalog.warm(DistroManager.prefixDir(this@TerminalActivity)) }
                                 tree = withContext(Dispatchers.IO) {
                                     // A fresh install can add binaries this pill menu has never
                                     // probed for --help flags before; catch those up here too,
@@ -839,6 +1014,7 @@ class TerminalActivity : FragmentActivity() {
                                     CommandTree.warmHelpCache(this@TerminalActivity)
                                     CommandTree.from(this@TerminalActivity)
                                 }
+                                CommandTree.INSTALL_IDS.forEach(childrenCache::invalidate)
                             }
                         }
                     )
@@ -877,7 +1053,10 @@ class TerminalActivity : FragmentActivity() {
                             nowMillis = System.currentTimeMillis(),
                             listDir = { path -> vfsListDir(path) },
                             search = { query -> vfsSearch(query) },
+                            grep = { query -> vfsGrep(query) },
+                            thumbnail = { entry -> vfsThumbnail(entry) },
                             storageStats = { vfsStorageStats() },
+                            findDuplicates = { vfsDuplicates() },
                             onOpenFile = { path ->
                                 scope.launch {
                                     val file = withContext(Dispatchers.IO) {
@@ -911,20 +1090,7 @@ class TerminalActivity : FragmentActivity() {
                                     VfsManager.resolve(this@TerminalActivity, path)?.let { VfsManager.rename(it, newName) } ?: false
                                 }
                             },
-                            onMove = { path, targetDirPath ->
-                                withContext(Dispatchers.IO) {
-                                    val file = VfsManager.resolve(this@TerminalActivity, path)
-                                    val target = VfsManager.resolve(this@TerminalActivity, targetDirPath)
-                                    if (file != null && target != null) VfsManager.moveInto(file, target) else false
-                                }
-                            },
-                            onCopy = { path, targetDirPath ->
-                                withContext(Dispatchers.IO) {
-                                    val file = VfsManager.resolve(this@TerminalActivity, path)
-                                    val target = VfsManager.resolve(this@TerminalActivity, targetDirPath)
-                                    if (file != null && target != null) VfsManager.copyInto(file, target) else false
-                                }
-                            },
+                            transfer = { paths, targetDirPath, move -> vfsTransfer(paths, targetDirPath, move) },
                             onShare = { path ->
                                 scope.launch {
                                     val file = withContext(Dispatchers.IO) {
@@ -21,14 +21,9 @@ import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
-import kotlinx.serialization.json.JsonObject
-import kotlinx.serialization.json.JsonPrimitive
 import java.io.BufferedReader
-import java.io.InputStreamReader
-import java.io.OutputStreamWriter
 import java.net.InetAddress
 import java.net.ServerSocket
-import java.net.Socket
 import java.security.MessageDigest
 import java.security.SecureRandom
 
@@ -66,21 +61,14 @@ private const val PREF_SHELL_EXEC_ENABLED = "shell_exec_enabled"
 private const val CHANNEL_ID = "mcp_server"
 private const val NOTIFICATION_ID = 4201
 private const val DEFAULT_PORT = 4827
-// MCP-2: any app with just INTERNET can open the loopback socket and send nothing - without a
-// read timeout, the pre-auth readLine() blocks forever, and since v1 handles one client at a
-// time, that one silent connection wedges the server shut for everyone else permanently.
-private const val SOCKET_READ_TIMEOUT_MS = 15_000
-// MCP-3: readLine() has no size cap of its own - an attacker-controlled line with no newline
-// would otherwise buffer unbounded in memory, on the same pre-auth path, before the token is
-// ever checked.
-private const val MAX_LINE_CHARS = 1 shl 16
 
 /**
  * A loopback-only JSON-RPC 2.0 server (newline-delimited, matching MCP's own stdio framing) an
  * external AI agent can pair with to drive HG2Gui's sandboxed filesystem and, once separately
  * enabled, its real shell - see McpJsonRpc/McpTools for the protocol and tool surface, and
- * McpServerScreen for the UI this is started/stopped from. Foreground so the socket survives
- * backgrounding while running; started only by explicit user action, never on its own.
+ * McpServerScreen for the UI this is started/stopped from, and McpSocketServer for how its clients
+ * are served side by side. Foreground so the socket survives backgrounding while running; started
+ * only by explicit user action, never on its own.
  */
 class McpServerService : Service() {
 
@@ -133,13 +121,8 @@ class McpServerService : Service() {
     }
 
     private val scope = CoroutineScope(Dispatchers.IO + Job())
-    private var serverSocket: ServerSocket? = null
-    // MCP-4: stopServer() only ever closed the listening socket, never the one client actually
-    // connected at the time - its in-flight readLine() could still resolve and dispatch one more
-    // tool call after the user had already tapped off.
-    private var currentClient: Socket? = null
-    private var engine: TerminalEngine? = null
-    private var tools: McpTools? = null
+    private var server: McpSocketServer? = null
+    private var shells: McpShellPool? = null
 
     override fun onBind(intent: Intent?): IBinder? = null
 
@@ -162,8 +145,9 @@ class McpServerService : Service() {
     // MCP-9: isRunning only flips true once the bind coroutine actually runs, on Dispatchers.IO -
     // onStartCommand itself runs synchronously on the main thread, so a second START intent
     // (a double-tap on the UI toggle) can land before that coroutine has had a chance to set it,
-    // sail past the isRunning check below, and build a second TerminalEngine that immediately
-    // loses the port race. This flag closes that window without waiting on the coroutine at all.
+    // sail past the isRunning check below, and build a second shell pool and server that
+    // immediately lose the port race. This flag closes that window without waiting on the
+    // coroutine at all.
     private var starting = false
 
     private fun startServer() {
@@ -171,114 +155,51 @@ class McpServerService : Service() {
         starting = true
 
         val generatedToken = generateToken()
-        val builtEngine = TerminalEngine(applicationContext)
-        engine = builtEngine
-        tools = McpTools(applicationContext, shellExecEnabled, builtEngine)
+        val pool = McpShellPool(scope) { TerminalEngine(applicationContext) }
+        shells = pool
 
         startForeground(NOTIFICATION_ID, buildNotification())
 
         scope.launch {
             try {
-                val socket = ServerSocket(port.value, 0, InetAddress.getByName("127.0.0.1"))
-                serverSocket = socket
+                val socket = ServerSocket(port.value, MAX_CLIENTS, InetAddress.getByName("127.0.0.1"))
+                // One McpTools per client, each taking its own shell from the pool on first use.
+                val built = McpSocketServer(socket, generatedToken) {
+                    McpTools(applicationContext, shellExecEnabled, pool)
+                }
+                server = built
                 token.value = generatedToken
                 isRunning.value = true
                 starting = false
-                while (isRunning.value) {
-                    val client = try {
-                        socket.accept()
-                    } catch (e: Exception) {
-                        break
-                    }
-                    currentClient = client
-                    try {
-                        // One bad client (a malformed line, a timeout) must only cost that one
-                        // connection - letting it escape here used to fall into the outer catch
-                        // below, which tears the whole server down as though the bind itself had
-                        // failed.
-                        handleClient(client, generatedToken)
-                    } catch (e: Exception) {
-                        // Already logged nothing, intentionally - a client-triggered exception
-                        // isn't an operator error worth surfacing, just a connection to drop.
-                    } finally {
-                        currentClient = null
-                    }
-                }
+                if (shellExecEnabled.value) pool.prewarm()
+                // One bad client (a malformed line, a timeout) only ever costs its own
+                // connection - McpSocketServer catches it there, so nothing client-triggered
+                // reaches the catch below and tears the whole server down as though the bind
+                // itself had failed.
+                built.serve()
             } catch (e: Exception) {
-                // MCP-5: the engine/tools were already constructed above - a bind failure (most
-                // likely the port already taken) must not leave that shell alive with nothing
-                // pointing at it, and must not leave the "running" notification up for a server
-                // that never actually started.
+                // MCP-5: the shell pool was already constructed above - a bind failure (most
+                // likely the port already taken) must not leave a shell it warmed alive with
+                // nothing pointing at it, and must not leave the "running" notification up for a
+                // server that never actually started.
                 isRunning.value = false
                 starting = false
                 token.value = null
-                engine?.destroy()
-                engine = null
-                tools = null
+                shells?.close()
+                shells = null
+                server = null
                 stopForeground(STOP_FOREGROUND_REMOVE)
             }
         }
     }
 
-    /** One client at a time for v1: the accept loop above calls this inline rather than
-     *  launching it concurrently, so a second connection simply queues at the OS accept backlog
-     *  until this one closes. */
-    private suspend fun handleClient(client: Socket, expectedToken: String) {
-        // A connection that never sends anything - the whole point of MCP-2 - now times out
-        // instead of blocking the single-client accept loop forever.
-        client.soTimeout = SOCKET_READ_TIMEOUT_MS
-        client.use { socket ->
-            val reader = BufferedReader(InputStreamReader(socket.getInputStream()))
-            val writer = OutputStreamWriter(socket.getOutputStream())
-
-            // The pairing token rides as one bespoke line before any JSON-RPC traffic - layered
-            // under MCP's own newline-delimited framing rather than baked into it, so a stock
-            // stdio MCP client speaking plain JSON-RPC still works once paired.
-            val authLine = reader.readLineBounded(MAX_LINE_CHARS) ?: return
-            val authorized = try {
-                val obj = McpJsonRpc.json.parseToJsonElement(authLine) as? JsonObject
-                (obj?.get("token") as? JsonPrimitive)?.content?.let { constantTimeEquals(it, expectedToken) } == true
-            } catch (e: Exception) {
-                false
-            }
-
-            if (!authorized) {
-                writer.write("{\"authorized\":false}\n")
-                writer.flush()
-                return
-            }
-            writer.write("{\"authorized\":true}\n")
-            writer.flush()
-
-            val currentTools = tools ?: return
-            while (isRunning.value) {
-                val line = reader.readLineBounded(MAX_LINE_CHARS) ?: break
-                if (line.isBlank()) continue
-                val response = McpJsonRpc.handleLine(line, currentTools)
-                writer.write(response)
-                writer.write("\n")
-                writer.flush()
-            }
-        }
-    }
-
     private fun stopServer() {
         isRunning.value = false
-        try {
-            serverSocket?.close()
-        } catch (e: Exception) {
-            // Already closed or never opened - nothing to clean up.
-        }
-        serverSocket = null
-        try {
-            currentClient?.close()
-        } catch (e: Exception) {
-            // Already closed - nothing to clean up.
-        }
-        currentClient = null
-        engine?.destroy()
-        engine = null
-        tools = null
+        // Closes every connected client too, each of which hands its shell back as it goes.
+        server?.close()
+        server = null
+        shells?.close()
+        shells = null
         token.value = null
         stopForeground(STOP_FOREGROUND_REMOVE)
     }
@@ -0,0 +1,201 @@
+package com.hereliesaz.hg2gui.mcp
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+// MCP-2: any app with just INTERNET can open the loopback socket and send nothing - without a
+// read timeout, the pre-auth readLine() blocks forever, and each such silent connection holds one
+// of the [McpSocketServer.maxPending] slots for good; enough of them shut the server for everyone.
+// Only for that first line: once paired, an agent may sit idle between calls as long as it likes.
+private const val AUTH_TIMEOUT_MS = 15_000
+// MCP-3: readLine() has no size cap of its own - an attacker-controlled line with no newline
+// would otherwise buffer unbounded in memory, on the same pre-auth path, before the token is
+// ever checked.
+private const val MAX_LINE_CHARS = 1 shl 16
+internal const val MAX_CLIENTS = 8
+internal const val MAX_PENDING_CLIENTS = 8
+internal const val MAX_RUNNING_CALLS = 4
+private const val TOO_MANY_CLIENTS = "{\"authorized\":false,\"error\":\"too many clients\"}\n"
+
+/**
+ * The accept loop and per-connection protocol behind McpServerService, kept apart from the
+ * Service itself so McpSocketServerTest can drive it over a real loopback socket on a plain JVM.
+ *
+ * Each connection gets a coroutine and, once paired, a [McpToolProvider] of its own from
+ * [newTools] - on the real server, that means its own shell session too - up to [maxClients]
+ * paired at once. Connections still to send their token are capped apart, at [maxPending], so
+ * sockets that never pair can't take a paired agent's place. A connection past either limit is
+ * told so and closed, rather than left sitting in the accept backlog, where it would look like a
+ * hang.
+ *
+ * Fairness: a connection is served one request at a time, in order. That's also the only way to
+ * keep one stream's replies in step with its requests, and it means no client ever has more than
+ * one call in play, however many it has pipelined. Calls then wait for one of [maxRunning] slots on
+ * a semaphore, which resumes waiters first come first served. A client sending request after
+ * request so rejoins the back of the line after each one, behind everyone already waiting - round
+ * robin, with no per-client bookkeeping. shell.* calls skip the slots: each runs on its own
+ * client's shell, mostly waiting on it, and a long build holding a slot would only stall everyone
+ * else's file calls.
+ */
+internal class McpSocketServer(
+    private val server: ServerSocket,
+    private val token: String,
+    private val maxClients: Int = MAX_CLIENTS,
+    maxRunning: Int = MAX_RUNNING_CALLS,
+    private val maxPending: Int = MAX_PENDING_CLIENTS,
+    private val authTimeoutMs: Int = AUTH_TIMEOUT_MS,
+    private val newTools: () -> McpToolProvider
+) {
+    // MCP-4: close() has to reach every connected client, not just the listening socket - an
+    // in-flight readLine() could otherwise still resolve and dispatch one more tool call after the
+    // user had already tapped off.
+    private val clients: MutableSet<Socket> = ConcurrentHashMap.newKeySet()
+    private val running = Semaphore(maxRunning)
+
+    // Connections still to send their token, and ones that have - see the class doc.
+    private val pending = AtomicInteger()
+    private val paired = AtomicInteger()
+
+    @Volatile
+    private var open = true
+
+    /** Accepts until [close], then returns once every connection it took has ended. */
+    suspend fun serve() = coroutineScope {
+        while (open) {
+            val client = try {
+                server.accept()
+            } catch (e: IOException) {
+                break
+            }
+            if (!open) {
+                // Accepted just as close() ran, after it had already closed everyone else.
+                client.close()
+                break
+            }
+            // Only this loop ever adds, so the check can't be raced past.
+            if (pending.get() >= maxPending) {
+                refuse(client)
+                continue
+            }
+            pending.incrementAndGet()
+            clients.add(client)
+            launch(Dispatchers.IO) {
+                try {
+                    handleClient(client)
+                } catch (e: Exception) {
+                    // A client-triggered failure (a malformed line, a timeout) costs only that
+                    // connection, and isn't an operator error worth surfacing.
+                } finally {
+                    clients.remove(client)
+                }
+            }
+        }
+    }
+
+    fun close() {
+        open = false
+        try {
+            server.close()
+        } catch (e: IOException) {
+            // Already closed - nothing to clean up.
+        }
+        for (client in clients) {
+            try {
+                client.close()
+            } catch (e: IOException) {
+                // Already closed - nothing to clean up.
+            }
+        }
+    }
+
+    private fun refuse(client: Socket) {
+        client.use {
+            try {
+                it.getOutputStream().write(TOO_MANY_CLIENTS.toByteArray())
+            } catch (e: IOException) {
+                // Gone already - refused either way.
+            }
+        }
+    }
+
+    private suspend fun handleClient(client: Socket) {
+        client.use { socket ->
+            val reader = BufferedReader(InputStreamReader(socket.getInputStream()))
+            val writer = OutputStreamWriter(socket.getOutputStream())
+
+            // The pairing token rides as one bespoke line before any JSON-RPC traffic - layered
+            // under MCP's own newline-delimited framing rather than baked into it, so a stock
+            // stdio MCP client speaking plain JSON-RPC still works once paired.
+            val authorized = try {
+                socket.soTimeout = authTimeoutMs
+                val authLine = reader.readLineBounded(MAX_LINE_CHARS) ?: return
+                try {
+                    val obj = McpJsonRpc.json.parseToJsonElement(authLine) as? JsonObject
+                    (obj?.get("token") as? JsonPrimitive)?.content?.let { constantTimeEquals(it, token) } == true
+                } catch (e: Exception) {
+                    false
+                }
+            } finally {
+                pending.decrementAndGet()
+            }
+
+            if (!authorized) {
+                writer.write("{\"authorized\":false}\n")
+                writer.flush()
+                return
+            }
+            if (paired.incrementAndGet() > maxClients) {
+                paired.decrementAndGet()
+                writer.write(TOO_MANY_CLIENTS)
+                writer.flush()
+                return
+            }
+            try {
+                socket.soTimeout = 0
+                writer.write("{\"authorized\":true}\n")
+                writer.flush()
+
+                val tools = Queued(newTools())
+                try {
+                    while (open) {
+                        val line = reader.readLineBounded(MAX_LINE_CHARS) ?: break
+                        if (line.isBlank()) continue
+                        val response = McpJsonRpc.handleLine(line, tools)
+                        writer.write(response)
+                        writer.write("\n")
+                        writer.flush()
+                    }
+                } finally {
+                    tools.close()
+                }
+            } finally {
+                paired.decrementAndGet()
+            }
+        }
+    }
+
+    /** [tools], with every call but shell.* taking its turn for one of the [running] slots. */
+    private inner class Queued(private val tools: McpToolProvider) : McpToolProvider {
+        override fun listTools(): JsonArray = tools.listTools()
+
+        override suspend fun callTool(name: String, arguments: JsonObject?): ToolCallResult =
+            if (isShellTool(name)) tools.callTool(name, arguments)
+            else running.withPermit { tools.callTool(name, arguments) }
+
+        override fun close() = tools.close()
+    }
+}
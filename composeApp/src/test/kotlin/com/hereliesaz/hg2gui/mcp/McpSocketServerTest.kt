@@ -0,0 +1,238 @@
+package com.hereliesaz.hg2gui.mcp
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A local load test: real loopback sockets, real JSON-RPC lines, against tools that do nothing but
+ * take [CALL_MS] - so what's checked is the server's own concurrency and queueing. Checked by what
+ * ran alongside what and in which order, never by the clock, which a busy host can stretch.
+ */
+class McpSocketServerTest {
+
+    private val scope = CoroutineScope(Dispatchers.IO + Job())
+    private var server: McpSocketServer? = null
+
+    private val inFlight = AtomicInteger()
+    private val peak = AtomicInteger()
+    private val closed = AtomicInteger()
+    private val completed = AtomicInteger()
+
+    private inner class SlowTools : McpToolProvider {
+        override fun listTools() = JsonArray(emptyList())
+
+        override suspend fun callTool(name: String, arguments: JsonObject?): ToolCallResult {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+            try {
+                delay(CALL_MS)
+            } finally {
+                inFlight.decrementAndGet()
+            }
+            completed.incrementAndGet()
+            return ToolCallResult.Success(JsonPrimitive(name))
+        }
+
+        override fun close() {
+            closed.incrementAndGet()
+        }
+    }
+
+    private fun start(
+        maxClients: Int = MAX_CLIENTS,
+        maxRunning: Int = MAX_RUNNING_CALLS,
+        maxPending: Int = MAX_PENDING_CLIENTS,
+        authTimeoutMs: Int = 15_000
+    ): Int {
+        val socket = ServerSocket(0, maxClients + maxPending, InetAddress.getLoopbackAddress())
+        val built = McpSocketServer(socket, TOKEN, maxClients, maxRunning, maxPending, authTimeoutMs) { SlowTools() }
+        server = built
+        scope.launch { built.serve() }
+        return socket.localPort
+    }
+
+    @After
+    fun tearDown() {
+        server?.close()
+        scope.cancel()
+    }
+
+    private class Client(port: Int) : AutoCloseable {
+        private val socket = Socket(InetAddress.getLoopbackAddress(), port)
+        private val reader = BufferedReader(InputStreamReader(socket.getInputStream()))
+        private val writer = OutputStreamWriter(socket.getOutputStream())
+
+        fun send(line: String) {
+            writer.write(line)
+            writer.write("\n")
+            writer.flush()
+        }
+
+        fun read(): String = reader.readLine()
+
+        fun readOrNull(): String? = reader.readLine()
+
+        fun pair(): String {
+            send("{\"token\":\"$TOKEN\"}")
+            return read()
+        }
+
+        fun request(id: Int) = send(
+            "{\"jsonrpc\":\"2.0\",\"id\":$id,\"method\":\"tools/call\",\"params\":{\"name\":\"vfs.list\",\"arguments\":{}}}"
+        )
+
+        fun replyId(): Int = McpJsonRpc.json.parseToJsonElement(read()).jsonObject.getValue("id").jsonPrimitive.content.toInt()
+
+        override fun close() = socket.close()
+    }
+
+    @Test
+    fun manyClients_areServedSideBySide() = runBlocking {
+        val port = start()
+        val replies = (0 until MAX_CLIENTS).map { c ->
+            async(Dispatchers.IO) {
+                Client(port).use { client ->
+                    assertEquals("{\"authorized\":true}", client.pair())
+                    (0 until CALLS).map { i ->
+                        client.request(c * CALLS + i)
+                        client.replyId()
+                    }
+                }
+            }
+        }.awaitAll()
+
+        // Every reply came back to the client that asked, in order.
+        assertEquals((0 until MAX_CLIENTS).map { c -> (0 until CALLS).map { c * CALLS + it } }, replies)
+        // As many at once as there are slots, never more.
+        assertEquals(MAX_RUNNING_CALLS, peak.get())
+        // Each client's tools were closed - its shell given back - once it hung up.
+        waitFor { closed.get() == MAX_CLIENTS }
+    }
+
+    @Test
+    fun aPipeliningClient_doesNotHoldUpAnother() = runBlocking {
+        val port = start(maxRunning = 1)
+        Client(port).use { chatty ->
+            chatty.pair()
+            repeat(CALLS) { chatty.request(it) }
+            Client(port).use { quiet ->
+                quiet.pair()
+                quiet.request(-1)
+                assertEquals(-1, quiet.replyId())
+                // Served behind the call or two chatty had going, not after all CALLS it queued.
+                val done = completed.get()
+                assertTrue("$done calls finished first", done < CALLS)
+            }
+            repeat(CALLS) { assertEquals(it, chatty.replyId()) }
+        }
+    }
+
+    @Test
+    fun aClientPastTheLimit_isToldSo_notLeftWaiting() = runBlocking {
+        val port = start(maxClients = 2)
+        Client(port).use { first ->
+            Client(port).use { second ->
+                first.pair()
+                second.pair()
+                Client(port).use { third ->
+                    assertTrue(third.pair().contains("too many clients"))
+                }
+            }
+        }
+        // The slots free up again once those two hang up.
+        waitFor {
+            try {
+                Client(port).use { it.pair() } == "{\"authorized\":true}"
+            } catch (e: IOException) {
+                false // Refused, and reset before the refusal could be read.
+            }
+        }
+    }
+
+    @Test
+    fun silentConnections_doNotTakeAPairedAgentsPlace() = runBlocking {
+        val port = start(maxClients = 1, maxPending = 2)
+        Client(port).use { silent1 ->
+            Client(port).use { silent2 ->
+                // Past the pre-auth cap, still waiting on the first two to speak.
+                Client(port).use { third -> assertTrue(third.read().contains("too many clients")) }
+                // Once one of them does, the agent it pairs is served - the other silent one
+                // holds no paired slot.
+                assertEquals("{\"authorized\":true}", silent1.pair())
+                silent1.request(7)
+                assertEquals(7, silent1.replyId())
+            }
+        }
+    }
+
+    @Test
+    fun anIdlePairedClient_outlivesThePairingTimeout() = runBlocking {
+        val port = start(authTimeoutMs = 200)
+        Client(port).use { client ->
+            assertEquals("{\"authorized\":true}", client.pair())
+            delay(600)
+            client.request(1)
+            assertEquals(1, client.replyId())
+        }
+    }
+
+    @Test
+    fun aClientThatNeverPairs_isDroppedAtTheTimeout() = runBlocking {
+        val port = start(authTimeoutMs = 200)
+        Client(port).use { silent ->
+            // The server hangs up: end of stream, or a reset.
+            val line = try {
+                silent.readOrNull()
+            } catch (e: IOException) {
+                null
+            }
+            assertEquals(null, line)
+        }
+    }
+
+    @Test
+    fun aWrongToken_isRefused() = runBlocking {
+        val port = start()
+        Client(port).use { client ->
+            client.send("{\"token\":\"not-it\"}")
+            assertEquals("{\"authorized\":false}", client.read())
+        }
+    }
+
+    private suspend fun waitFor(condition: () -> Boolean) {
+        repeat(200) {
+            if (condition()) return
+            delay(10)
+        }
+        assertTrue("timed out waiting", condition())
+    }
+
+    private companion object {
+        const val TOKEN = "test-token"
+        const val CALLS = 40
+        const val CALL_MS = 10L
+    }
+}
@@ -0,0 +1,29 @@
+package com.hereliesaz.hg2gui.managers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+
+class ThumbnailCacheTest {
+
+    @Test
+    fun sampleSize_neverDropsBelowTheTarget() {
+        // A 12MP camera photo down to a 256px tile: 3000 / 8 = 375 still covers it, / 16 wouldn't.
+        assertEquals(8, ThumbnailCache.sampleSize(4000, 3000, 256))
+        assertEquals(8, ThumbnailCache.sampleSize(3000, 4000, 256))
+        assertEquals(1, ThumbnailCache.sampleSize(300, 300, 256))
+        // Already smaller than the tile - decoded as is, never sampled further down.
+        assertEquals(1, ThumbnailCache.sampleSize(100, 80, 256))
+        assertEquals(2, ThumbnailCache.sampleSize(512, 512, 256))
+    }
+
+    @Test
+    fun diskName_changesWithMtimeOrSize() {
+        val name = ThumbnailCache.diskName(ThumbnailCache.keyOf("/photos/a.jpg", 1000L, 5000L))
+
+        assertEquals(40, name.length)
+        assertEquals(name, ThumbnailCache.diskName(ThumbnailCache.keyOf("/photos/a.jpg", 1000L, 5000L)))
+        assertNotEquals(name, ThumbnailCache.diskName(ThumbnailCache.keyOf("/photos/a.jpg", 2000L, 5000L)))
+        assertNotEquals(name, ThumbnailCache.diskName(ThumbnailCache.keyOf("/photos/a.jpg", 1000L, 5001L)))
+    }
+}
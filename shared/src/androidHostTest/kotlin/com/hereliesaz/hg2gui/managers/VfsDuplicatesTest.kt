@@ -0,0 +1,86 @@
+package com.hereliesaz.hg2gui.managers
+
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+
+class VfsDuplicatesTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun file(name: String, bytes: ByteArray) = File(tmp.root, name).apply { writeBytes(bytes) }
+
+    private fun candidates() = tmp.root.walk()
+        .filter { it.isFile && it.extension == "bin" }
+        .map { VfsDuplicates.Candidate(it, it.length()) }
+        .toList()
+
+    private fun groups(finder: VfsDuplicates) = runBlocking {
+        finder.find(candidates()).toList().map { group -> group.files.map { it.name }.toSet() }.toSet()
+    }
+
+    @Test
+    fun groupsIdenticalFiles_andNotSameSizedOnes() {
+        val photo = Random(1).nextBytes(200_000)
+        file("a.bin", photo)
+        file("b.bin", photo)
+        file("c.bin", photo)
+        // Same size, same first and last blocks, different in the middle - only the full hash
+        // can tell this one apart.
+        file("d.bin", photo.copyOf().also { it[100_000] = (it[100_000] + 1).toByte() })
+        // Same size, different from the first byte.
+        file("e.bin", Random(2).nextBytes(200_000))
+        val small = "tiny and identical".toByteArray()
+        file("f.bin", small)
+        file("g.bin", small)
+        file("h.bin", ByteArray(0))
+        file("i.bin", ByteArray(0))
+
+        val found = runBlocking { VfsDuplicates(File(tmp.root, "hashes.cache")).find(candidates()).toList() }
+
+        assertEquals(setOf(setOf("a.bin", "b.bin", "c.bin"), setOf("f.bin", "g.bin")), found.map { g -> g.files.map { it.name }.toSet() }.toSet())
+        assertEquals(400_000L, found.single { it.files.size == 3 }.reclaimableBytes)
+    }
+
+    @Test
+    fun hashesAreCached_acrossFinders_untilAFileChanges() {
+        val bytes = Random(3).nextBytes(100_000)
+        file("a.bin", bytes)
+        val b = file("b.bin", bytes)
+        val cache = File(tmp.root, "hashes.cache")
+
+        assertEquals(setOf(setOf("a.bin", "b.bin")), groups(VfsDuplicates(cache)))
+        assertTrue(cache.isFile)
+
+        // A fresh finder reads the cache rather than starting from nothing...
+        assertEquals(setOf(setOf("a.bin", "b.bin")), groups(VfsDuplicates(cache)))
+
+        // ...but a file whose mtime moved is hashed again, not vouched for by its old entry.
+        b.writeBytes(bytes.copyOf().also { it[50_000] = (it[50_000] + 1).toByte() })
+        b.setLastModified(b.lastModified() + 5_000)
+        assertEquals(emptySet<Set<String>>(), groups(VfsDuplicates(cache)))
+    }
+
+    @Test
+    fun linksToOneFile_areNotItsDuplicates() {
+        val real = file("a.bin", Random(4).nextBytes(50_000))
+        Files.createSymbolicLink(File(tmp.root, "soft.bin").toPath(), real.toPath())
+        Files.createLink(File(tmp.root, "hard.bin").toPath(), real.toPath())
+
+        assertEquals(emptySet<Set<String>>(), groups(VfsDuplicates(File(tmp.root, "hashes.cache"))))
+
+        // A real copy still is one - of whichever name the real file was found under first.
+        file("copy.bin", real.readBytes())
+        val found = groups(VfsDuplicates(File(tmp.root, "hashes.cache"))).single()
+        assertEquals(2, found.size)
+        assertTrue("copy.bin" in found && "soft.bin" !in found)
+    }
+}
@@ -0,0 +1,105 @@
+package com.hereliesaz.hg2gui.managers
+
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class VfsGrepTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun literal(query: String, ignoreCase: Boolean = true) = VfsGrep.matcher(query, regex = false, ignoreCase = ignoreCase)
+
+    @Test
+    fun literal_reportsLineNumbersAndContext() {
+        val file = tmp.newFile("notes.txt").apply { writeText("alpha\nbeta\nGamma ray\ndelta\nepsilon\r\ngamma again") }
+        val hits = VfsGrep.scan(file, literal("gamma"), context = 1, limit = 10)
+
+        assertEquals(listOf(3, 6), hits.map { it.lineNumber })
+        assertEquals(listOf("beta"), hits[0].before)
+        assertEquals("Gamma ray", hits[0].line)
+        assertEquals(listOf("delta"), hits[0].after)
+        // CRLF line endings don't leak a trailing \r into the reported text.
+        assertEquals(listOf("epsilon"), hits[1].before)
+        assertEquals(emptyList<String>(), hits[1].after)
+    }
+
+    @Test
+    fun closeHits_shareNoContextLines() {
+        val file = tmp.newFile("close.txt").apply { writeText((1..10).joinToString("\n") { if (it == 4 || it == 6 || it == 7) "hit $it" else "line $it" }) }
+        val hits = VfsGrep.scan(file, literal("hit"), context = 2, limit = 10)
+
+        assertEquals(listOf(4, 6, 7), hits.map { it.lineNumber })
+        assertEquals(listOf("line 2", "line 3"), hits[0].before)
+        // Line 5 is the first hit's; line 6 is a hit of its own, not the first one's context.
+        assertEquals(listOf("line 5"), hits[0].after)
+        assertEquals(emptyList<String>(), hits[1].before)
+        assertEquals(emptyList<String>(), hits[1].after)
+        assertEquals(emptyList<String>(), hits[2].before)
+        assertEquals(listOf("line 8", "line 9"), hits[2].after)
+    }
+
+    @Test
+    fun caseSensitive_andRegex() {
+        val file = tmp.newFile("code.kt").apply { writeText("val Count = 1\nval count = 2\nfun countAll() = 3\n") }
+
+        assertEquals(listOf(2, 3), VfsGrep.scan(file, literal("count", ignoreCase = false), 0, 10).map { it.lineNumber })
+        val regex = VfsGrep.matcher("^val \\w+ = [12]$", regex = true, ignoreCase = false)
+        assertEquals(listOf(1, 2), VfsGrep.scan(file, regex, 0, 10).map { it.lineNumber })
+        // Non-ASCII with ignoreCase goes through a Unicode-aware pattern rather than byte folding.
+        val unicode = tmp.newFile("u.txt").apply { writeText("ÉCOLE\nautre\n") }
+        assertEquals(listOf(1), VfsGrep.scan(unicode, literal("école"), 0, 10).map { it.lineNumber })
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun badRegex_isRejectedUpFront() {
+        VfsGrep.matcher("(unclosed", regex = true, ignoreCase = false)
+    }
+
+    @Test
+    fun binaryFiles_areSkipped() {
+        val binary = tmp.newFile("app.so").apply { writeBytes(ByteArray(8192) { (it % 7).toByte() } + "needle".toByteArray()) }
+        assertEquals(emptyList<VfsGrep.Hit>(), VfsGrep.scan(binary, literal("needle"), 0, 10))
+    }
+
+    @Test
+    fun linesAcrossAWindowBoundary_areFoundWhole() {
+        // Comfortably past one 16MB window, so some line straddles the boundary.
+        val file = tmp.newFile("big.log")
+        file.bufferedWriter().use { out ->
+            for (i in 1..LINES) out.write("line $i of the log, padded out to something like a real one\n")
+        }
+        assertTrue(file.length() > 16L * 1024 * 1024)
+        val boundaryLine = (16L * 1024 * 1024 / (file.length() / LINES)).toInt()
+
+        for (n in listOf(1, boundaryLine, boundaryLine + 1, LINES)) {
+            val hits = VfsGrep.scan(file, literal("line $n of"), 0, 10)
+            assertEquals(listOf(n), hits.map { it.lineNumber })
+            assertEquals("line $n of the log, padded out to something like a real one", hits.single().line)
+        }
+    }
+
+    @Test
+    fun search_spreadsFilesAcrossWorkers_andStopsAtTheLimit() = runBlocking {
+        val files = (1..FILES).map { i ->
+            File(tmp.root, "f$i.txt").apply { writeText((1..20).joinToString("\n") { if (it % 5 == 0) "match $it" else "plain $it" }) }
+        }
+        val all = VfsGrep.search(files, literal("match"), VfsGrep.Options(contextLines = 0, limit = Int.MAX_VALUE)).toList()
+        assertEquals(FILES * 4, all.size)
+        // A file's own hits arrive together and in order.
+        all.groupBy { it.file }.values.forEach { hits -> assertEquals(listOf(5, 10, 15, 20), hits.map { it.lineNumber }) }
+
+        assertEquals(7, VfsGrep.search(files, literal("match"), VfsGrep.Options(limit = 7)).toList().size)
+    }
+
+    private companion object {
+        const val LINES = 300_000
+        const val FILES = 64
+    }
+}
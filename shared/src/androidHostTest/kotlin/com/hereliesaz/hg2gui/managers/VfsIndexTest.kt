@@ -0,0 +1,164 @@
+package com.hereliesaz.hg2gui.managers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/** VfsIndex against a small sandbox on disk - watching off, so every change below is one the
+ *  index is told about explicitly, the way VfsManager's own mutators do. */
+class VfsIndexTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var root: File
+    private lateinit var snapshot: File
+
+    @Before
+    fun sandbox() {
+        root = tmp.newFolder("vfs")
+        snapshot = File(tmp.root, "vfs-index.bin")
+        File(root, "Pictures/Trips").mkdirs()
+        File(root, "Pictures/Trips/beach.png").writeBytes(ByteArray(3000))
+        File(root, "Pictures/cat.JPG").writeBytes(ByteArray(2000))
+        File(root, "Documents").mkdirs()
+        File(root, "Documents/notes.md").writeText("notes")
+        File(root, "main.kt").writeText("fun main() {}")
+    }
+
+    private fun index() = VfsIndex(root, snapshot, watchChanges = false)
+
+    private fun names(entries: List<VfsIndex.Entry>) = entries.map { it.path }
+
+    @Test
+    fun search_matchesNamesAnywhereUnderTheScope_shallowestFirst() {
+        val index = index()
+
+        assertEquals(
+            listOf("Pictures", "Pictures/Trips", "Pictures/cat.JPG", "Pictures/Trips/beach.png"),
+            names(index.search("p"))
+        )
+        assertEquals(listOf("Pictures/cat.JPG"), names(index.search("CAT")))
+        assertEquals(listOf("Pictures/Trips/beach.png"), names(index.search("a", under = "Pictures/Trips")))
+        assertEquals(1, index.search("e", limit = 1).size)
+    }
+
+    @Test
+    fun searchPages_resumeWhereTheLastEnded_evenIfItsCursorWasRemoved() {
+        val index = index()
+        val paged = mutableListOf<String>()
+        var page = index.searchPage("", "", null, scan = 3)
+        paged += names(page.matches)
+        // The cursor itself goes before the next page is asked for.
+        File(root, page.next!!.path).deleteRecursively()
+        index.remove(File(root, page.next!!.path))
+        while (page.next != null) {
+            page = index.searchPage("", "", page.next, scan = 2)
+            paged += names(page.matches)
+        }
+
+        assertEquals(
+            listOf("Documents", "Pictures", "main.kt", "Documents/notes.md", "Pictures/Trips", "Pictures/cat.JPG", "Pictures/Trips/beach.png"),
+            paged
+        )
+    }
+
+    @Test
+    fun breakdown_sumsByCategory() {
+        val breakdown = index().breakdown(2)
+
+        assertEquals(5000L + 5 + 13, breakdown.totalBytes)
+        assertEquals(5000L, breakdown.byCategory[VfsManager.StorageCategory.IMAGES])
+        assertEquals(13L, breakdown.byCategory[VfsManager.StorageCategory.CODE])
+        assertEquals(listOf("beach.png", "cat.JPG"), breakdown.largestFiles.map { it.name })
+    }
+
+    @Test
+    fun breakdown_ofAFolder_usesItsSubtotal() {
+        val index = index()
+        val pictures = index.breakdown(1, under = "Pictures")
+
+        assertEquals(5000L, pictures.totalBytes)
+        assertEquals(listOf("beach.png"), pictures.largestFiles.map { it.name })
+
+        File(root, "Pictures/Trips/beach.png").delete()
+        index.remove(File(root, "Pictures/Trips/beach.png"))
+        assertEquals(2000L, index.breakdown(1, under = "Pictures").totalBytes)
+        assertEquals(0L, index.breakdown(1, under = "Pictures/Trips").totalBytes)
+    }
+
+    @Test
+    fun rescan_seesChangesThatLeftAFoldersMtimeAlone() {
+        val index = index()
+        index.ensureLoaded()
+        val documents = File(root, "Documents")
+        val trips = File(root, "Pictures/Trips")
+        val documentsMtime = documents.lastModified()
+
+        // Same mtime afterwards - a folder's mtime is no sign that nothing in it changed.
+        File(documents, "hidden.txt").writeText("x")
+        File(documents, "notes.md").writeText("longer notes")
+        documents.setLastModified(documentsMtime)
+        File(trips, "dunes.png").writeBytes(ByteArray(10))
+        trips.setLastModified(trips.lastModified() + 60_000)
+        index.rescan()
+
+        assertEquals(listOf("Documents/hidden.txt"), names(index.search("hidden")))
+        assertEquals(listOf("Pictures/Trips/dunes.png"), names(index.search("dunes")))
+        assertEquals(5010L, index.breakdown(1, under = "Pictures").totalBytes)
+        assertEquals(13L, index.breakdown(1, under = "Documents").totalBytes)
+    }
+
+    @Test
+    fun incrementalUpdates_matchAFreshScan() {
+        val index = index()
+        index.ensureLoaded()
+
+        val song = File(root, "Music/song.mp3")
+        song.parentFile!!.mkdirs()
+        song.writeBytes(ByteArray(700))
+        index.update(song.parentFile!!)
+        File(root, "Documents/notes.md").writeText("longer notes")
+        index.update(File(root, "Documents/notes.md"))
+        File(root, "Pictures").deleteRecursively()
+        index.remove(File(root, "Pictures"))
+        File(root, "Documents").renameTo(File(root, "Docs"))
+        index.remove(File(root, "Documents"))
+        index.reindex(File(root, "Docs"))
+
+        val fresh = VfsIndex(root, File(tmp.root, "other.bin"), watchChanges = false)
+        assertEquals(names(fresh.search("")), names(index.search("")))
+        assertEquals(fresh.breakdown(10).byCategory, index.breakdown(10).byCategory)
+        assertEquals(700L + 12 + 13, index.breakdown(10).totalBytes)
+    }
+
+    @Test
+    fun snapshot_isRestoredAndThenReconciled() {
+        val first = index()
+        first.ensureLoaded()
+        first.save()
+        assertTrue(snapshot.isFile)
+
+        val restored = index()
+        assertEquals(names(first.search("")), names(restored.search("")))
+
+        // Changed while nothing was watching - a walk catches up. Rescans run one at a time, so
+        // this one lands after (or instead of) the restore's own background reconcile.
+        File(root, "main.kt").delete()
+        restored.rescan()
+        assertEquals(emptyList<String>(), names(restored.search("main")))
+    }
+
+    @Test
+    fun snapshotOfAnotherRoot_isIgnored() {
+        val other = tmp.newFolder("elsewhere")
+        File(other, "stray.txt").writeText("x")
+        VfsIndex(other, snapshot, watchChanges = false).apply { ensureLoaded(); save() }
+
+        assertEquals(emptyList<String>(), names(index().search("stray")))
+    }
+}
@@ -0,0 +1,41 @@
+package com.hereliesaz.hg2gui.managers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class VfsListDirTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    @Test
+    fun listDir_readsEachEntryOnce_untilTheFolderChanges() {
+        val dir = tmp.newFolder("docs")
+        File(dir, "notes.md").writeText("hello")
+        File(dir, "drafts").mkdirs()
+
+        val first = VfsManager.listDir(dir)
+        val byName = first.associateBy { it.name }
+        assertEquals(setOf("notes.md", "drafts"), byName.keys)
+        assertEquals(5L, byName.getValue("notes.md").size)
+        assertTrue(byName.getValue("drafts").isDirectory)
+        assertEquals(0L, byName.getValue("drafts").size)
+
+        // Nothing moved the folder's mtime - the same listing, not a re-read.
+        assertSame(first, VfsManager.listDir(dir))
+
+        File(dir, "todo.txt").writeText("x")
+        dir.setLastModified(dir.lastModified() + 1_000)
+        assertEquals(setOf("notes.md", "drafts", "todo.txt"), VfsManager.listDir(dir).map { it.name }.toSet())
+    }
+
+    @Test
+    fun listDir_ofAMissingFolder_isEmpty() {
+        assertEquals(emptyList<VfsManager.Listed>(), VfsManager.listDir(File(tmp.root, "nope")))
+    }
+}
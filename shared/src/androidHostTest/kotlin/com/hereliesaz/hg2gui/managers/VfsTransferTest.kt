@@ -0,0 +1,126 @@
+package com.hereliesaz.hg2gui.managers
+
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.last
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+
+class VfsTransferTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun tree(root: File, files: Int, bytes: Int): File {
+        val random = Random(files)
+        repeat(files) { i ->
+            File(root, "d${i % 3}/f$i.bin").apply { parentFile!!.mkdirs() }.writeBytes(random.nextBytes(bytes))
+        }
+        return root
+    }
+
+    private fun contents(root: File): Map<String, List<Byte>> =
+        root.walk().filter { it.isFile }.associate { it.relativeTo(root).path to it.readBytes().toList() }
+
+    @Test
+    fun copy_reproducesTheTree_andMergesIntoWhatsThere() = runBlocking {
+        val source = tree(tmp.newFolder("src"), FILES, 4096)
+        val target = tmp.newFolder("dst")
+        File(target, "d0").mkdirs()
+        File(target, "d0/f0.bin").writeText("replaced")
+        File(target, "d0/kept.txt").writeText("kept")
+
+        val done = VfsTransfer.copy(listOf(source to target)).last()
+
+        assertEquals(emptySet<File>(), done.failed)
+        assertEquals(1, done.itemsDone)
+        assertEquals(FILES * 4096L, done.bytesTotal)
+        assertEquals(done.bytesTotal, done.bytesDone)
+        assertEquals(contents(source) + ("d0/kept.txt" to "kept".toByteArray().toList()), contents(target))
+        assertTrue(target.walk().none { it.name.endsWith(".part") })
+    }
+
+    @Test
+    fun move_withinOneFilesystem_isARename() = runBlocking {
+        val source = tree(tmp.newFolder("src"), FILES, 1024)
+        val expected = contents(source)
+        val target = File(tmp.root, "moved")
+
+        val done = VfsTransfer.move(listOf(source to target)).last()
+
+        assertEquals(0L, done.bytesTotal)
+        assertEquals(1, done.itemsDone)
+        assertFalse(source.exists())
+        assertEquals(expected, contents(target))
+    }
+
+    @Test
+    fun move_ontoAFolderWithThingsInIt_isRefused_notMerged() = runBlocking {
+        val source = tree(tmp.newFolder("src"), FILES, 1024)
+        val expected = contents(source)
+        val target = tmp.newFolder("dst")
+        File(target, "kept.txt").writeText("kept")
+
+        val done = VfsTransfer.move(listOf(source to target)).last()
+
+        assertEquals(setOf(source), done.failed)
+        assertEquals(1, done.itemsDone)
+        assertEquals(expected, contents(source))
+        assertEquals(mapOf("kept.txt" to "kept".toByteArray().toList()), contents(target))
+    }
+
+    @Test
+    fun move_intoTheFolderItsAlreadyIn_leavesItAlone() = runBlocking {
+        val parent = tmp.newFolder("parent")
+        val file = File(parent, "keep.txt").apply { writeText("only copy") }
+        val folder = tree(File(parent, "sub"), FILES, 1024)
+        val expected = contents(folder)
+
+        val done = VfsTransfer.move(listOf(file to File(parent, file.name), folder to File(parent, folder.name))).last()
+
+        assertEquals(emptySet<File>(), done.failed)
+        assertEquals(2, done.itemsDone)
+        assertEquals("only copy", file.readText())
+        assertEquals(expected, contents(folder))
+    }
+
+    @Test
+    fun missingSource_failsAlone() = runBlocking {
+        val present = tmp.newFile("here.txt").apply { writeText("x") }
+        val missing = File(tmp.root, "gone.txt")
+        val dir = tmp.newFolder("out")
+
+        val done = VfsTransfer.copy(listOf(missing to File(dir, "gone.txt"), present to File(dir, "here.txt"))).last()
+
+        assertEquals(setOf(missing), done.failed)
+        assertEquals(2, done.itemsDone)
+        assertEquals("x", File(dir, "here.txt").readText())
+    }
+
+    @Test
+    fun cancelling_leavesEachSourceWhollyCopiedOrNotAtAll() = runBlocking {
+        // Big enough that the first progress report - where first() cancels - usually lands
+        // mid-copy; the check holds wherever it lands.
+        val sources = (1..SOURCES).map { tree(tmp.newFolder("src$it"), FILES, 512 * 1024) }
+        val out = tmp.newFolder("out")
+        val pairs = sources.map { it to File(out, it.name) }
+
+        VfsTransfer.copy(pairs).first()
+
+        for ((source, target) in pairs) {
+            if (target.exists()) assertEquals(contents(source), contents(target))
+        }
+        assertTrue(out.walk().none { it.name.endsWith(".part") })
+    }
+
+    private companion object {
+        const val FILES = 24
+        const val SOURCES = 6
+    }
+}
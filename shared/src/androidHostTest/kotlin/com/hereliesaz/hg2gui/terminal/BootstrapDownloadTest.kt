@@ -0,0 +1,165 @@
+package com.hereliesaz.hg2gui.terminal
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import okhttp3.OkHttpClient
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.security.MessageDigest
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/** BootstrapDownload against a local server that honours Range/If-Range the way GitHub's
+ *  release CDN does - and that can be told to drop the connection partway through. */
+class BootstrapDownloadTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var server: HttpServer
+    private val client = OkHttpClient()
+
+    @Volatile private var payload = Random(SEED).nextBytes(PAYLOAD_BYTES)
+    @Volatile private var etag = "\"v1\""
+    @Volatile private var dropAfter = -1
+    @Volatile private var lastRange: String? = null
+
+    @Before
+    fun serve() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0).apply {
+            createContext("/bootstrap.zip", ::respond)
+            start()
+        }
+    }
+
+    @After
+    fun stop() = server.stop(0)
+
+    private fun respond(exchange: HttpExchange) {
+        val body = payload
+        val range = exchange.requestHeaders.getFirst("Range")
+        lastRange = range
+        val from = range?.removePrefix("bytes=")?.removeSuffix("-")?.toIntOrNull()
+        val honoured = from != null && exchange.requestHeaders.getFirst("If-Range") == etag
+        exchange.responseHeaders.add("ETag", etag)
+        try {
+            when {
+                honoured && from != null && from >= body.size -> {
+                    exchange.responseHeaders.add("Content-Range", "bytes */${body.size}")
+                    exchange.sendResponseHeaders(416, -1)
+                }
+                honoured && from != null -> {
+                    exchange.responseHeaders.add("Content-Range", "bytes $from-${body.size - 1}/${body.size}")
+                    send(exchange, 206, body.copyOfRange(from, body.size))
+                }
+                else -> send(exchange, 200, body)
+            }
+        } catch (e: IOException) {
+            // The deliberately dropped connection.
+        } finally {
+            exchange.close()
+        }
+    }
+
+    private fun send(exchange: HttpExchange, code: Int, bytes: ByteArray) {
+        exchange.sendResponseHeaders(code, bytes.size.toLong())
+        val cut = dropAfter
+        exchange.responseBody.write(bytes, 0, if (cut in 0 until bytes.size) cut else bytes.size)
+        exchange.responseBody.flush()
+    }
+
+    private val url get() = "http://127.0.0.1:${server.address.port}/bootstrap.zip"
+    private val partFile by lazy { File(tmp.root, "bootstrap.zip.part") }
+
+    /** One install attempt's view of the archive - everything the extractor side read - or null
+     *  if the attempt failed. */
+    private fun attempt(download: BootstrapDownload = BootstrapDownload(partFile)): ByteArray? =
+        try {
+            client.newCall(download.request(url)).execute().use { response ->
+                download.begin(url, response)
+                val pipe = BoundedPipe(PIPE_CHUNKS)
+                val network = thread { download.pump(response.body!!.byteStream(), pipe) }
+                val read = ByteArrayOutputStream()
+                try {
+                    pipe.source.copyTo(read)
+                } finally {
+                    network.join()
+                }
+                read.toByteArray()
+            }
+        } catch (e: IOException) {
+            null
+        }
+
+    private fun sha256(bytes: ByteArray) = MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    @Test
+    fun droppedConnection_resumesFromWhatWasReceived() {
+        dropAfter = PAYLOAD_BYTES / 2
+        assertNull(attempt())
+        val kept = partFile.length()
+        assertTrue(kept in 1 until PAYLOAD_BYTES)
+
+        dropAfter = -1
+        val download = BootstrapDownload(partFile)
+        val read = attempt(download)
+
+        assertEquals("bytes=$kept-", lastRange)
+        assertEquals(kept, download.resumedBytes)
+        assertArrayEquals(payload, read)
+        assertEquals(sha256(payload), download.sha256)
+    }
+
+    @Test
+    fun changedRelease_restartsFromZero() {
+        dropAfter = PAYLOAD_BYTES / 3
+        assertNull(attempt())
+
+        dropAfter = -1
+        payload = Random(SEED + 1).nextBytes(PAYLOAD_BYTES)
+        etag = "\"v2\""
+        val download = BootstrapDownload(partFile)
+        val read = attempt(download)
+
+        assertEquals(0L, download.resumedBytes)
+        assertArrayEquals(payload, read)
+        assertEquals(sha256(payload), download.sha256)
+    }
+
+    @Test
+    fun completePartLeftByAFailedInstall_needsNoMoreNetwork() {
+        assertArrayEquals(payload, attempt())
+        // Not discarded - as if extraction had failed after the download finished.
+        val download = BootstrapDownload(partFile)
+        val read = attempt(download)
+
+        assertEquals(PAYLOAD_BYTES.toLong(), download.resumedBytes)
+        assertArrayEquals(payload, read)
+        assertEquals(sha256(payload), download.sha256)
+    }
+
+    @Test
+    fun digestFor_readsEitherColumnOrder() {
+        val hash = "a".repeat(64)
+        assertEquals(hash, BootstrapDownload.digestFor("$hash  bootstrap-aarch64.zip\n", "bootstrap-aarch64.zip"))
+        assertEquals(hash, BootstrapDownload.digestFor("bootstrap-arm.zip ${"b".repeat(64)}\nbootstrap-aarch64.zip $hash", "bootstrap-aarch64.zip"))
+        assertNull(BootstrapDownload.digestFor("$hash  bootstrap-x86_64.zip", "bootstrap-aarch64.zip"))
+    }
+
+    private companion object {
+        const val SEED = 39
+        const val PAYLOAD_BYTES = 3 * 1024 * 1024
+        const val PIPE_CHUNKS = 16
+    }
+}
@@ -0,0 +1,174 @@
+package com.hereliesaz.hg2gui.terminal
+
+import com.sun.net.httpserver.HttpServer
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/**
+ * DistroManager's streamed install against a local HTTP stand-in for the release server,
+ * serving a synthetic bootstrap-shaped zip - a few hundred files across bin/, lib/ and share/,
+ * a manifest-covered binary, and a SYMLINKS.txt. Compared with the two-pass install it replaced:
+ * download to a file, then extract from it.
+ */
+class BootstrapStreamTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var server: HttpServer
+    private lateinit var archive: ByteArray
+    private val client = OkHttpClient()
+
+    @Before
+    fun serve() {
+        archive = syntheticBootstrap()
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0).apply {
+            createContext("/bootstrap.zip") { exchange ->
+                exchange.sendResponseHeaders(200, archive.size.toLong())
+                exchange.responseBody.use { it.write(archive) }
+            }
+            start()
+        }
+    }
+
+    @After
+    fun stop() = server.stop(0)
+
+    private val url get() = "http://127.0.0.1:${server.address.port}/bootstrap.zip"
+
+    private fun syntheticBootstrap(): ByteArray {
+        val random = Random(SEED)
+        val bytes = ByteArrayOutputStream()
+        ZipOutputStream(bytes).use { zip ->
+            for (dir in listOf("bin/", "lib/", "share/doc/")) {
+                zip.putNextEntry(ZipEntry(dir))
+                zip.closeEntry()
+            }
+            repeat(FILES) { i ->
+                val dir = listOf("bin", "lib", "share/doc")[i % 3]
+                zip.putNextEntry(ZipEntry("$dir/file$i"))
+                zip.write(random.nextBytes(random.nextInt(FILE_BYTES)))
+                zip.closeEntry()
+            }
+            zip.putNextEntry(ZipEntry(MANIFEST_ENTRY))
+            zip.write(random.nextBytes(FILE_BYTES))
+            zip.closeEntry()
+            zip.putNextEntry(ZipEntry("SYMLINKS.txt"))
+            zip.write("file0←bin/alias0\nfile3←bin/alias3\n".toByteArray())
+            zip.closeEntry()
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun streamedInstall(prefix: File): String {
+        val download = BootstrapDownload(File(tmp.newFolder(), "bootstrap.zip.part"))
+        return client.newCall(download.request(url)).execute().use { response ->
+            download.begin(url, response)
+            val pipe = BoundedPipe(PIPE_CHUNKS)
+            val network = thread { download.pump(response.body!!.byteStream(), pipe) }
+            val symlinks = DistroManager.unpackEntries(pipe.source, prefix, setOf(MANIFEST_ENTRY))
+            network.join()
+            symlinks
+        }
+    }
+
+    private fun twoPassInstall(prefix: File): String {
+        val downloaded = tmp.newFile()
+        client.newCall(Request.Builder().url(url).build()).execute().use { response ->
+            response.body!!.byteStream().use { input -> downloaded.outputStream().use { input.copyTo(it) } }
+        }
+        return downloaded.inputStream().buffered().use { DistroManager.unpackEntries(it, prefix, setOf(MANIFEST_ENTRY)) }
+    }
+
+    private fun contents(prefix: File): Map<String, List<Byte>> =
+        prefix.walk().filter { it.isFile }.associate { it.relativeTo(prefix).path to it.readBytes().toList() }
+
+    @Test
+    fun streamedInstall_matchesTwoPassInstall() {
+        val streamed = tmp.newFolder()
+        val twoPass = tmp.newFolder()
+        val streamedLinks = streamedInstall(streamed)
+        val twoPassLinks = twoPassInstall(twoPass)
+
+        assertEquals(twoPassLinks, streamedLinks)
+        assertTrue(streamedLinks.contains("bin/alias3"))
+        assertEquals(contents(twoPass), contents(streamed))
+        assertEquals(FILES, contents(streamed).size)
+        assertFalse(File(streamed, MANIFEST_ENTRY).exists())
+        assertTrue(File(streamed, MANIFEST_ENTRY).parentFile!!.isDirectory)
+    }
+
+    @Test(expected = IOException::class)
+    fun connectionDroppedMidArchive_failsTheExtraction() {
+        val pipe = BoundedPipe(PIPE_CHUNKS)
+        thread {
+            pipe.write(archive, 0, archive.size / 2)
+            pipe.fail(IOException("connection reset"))
+        }
+        DistroManager.unpackEntries(pipe.source, tmp.newFolder(), emptySet())
+    }
+
+    @Test
+    fun scriptsAreRewrittenAndBinariesMadeExecutable_asTheyLand() {
+        val termuxPrefix = "/data/data/com.termux/files/usr"
+        val script = "#!$termuxPrefix/bin/bash\nexec $termuxPrefix/bin/apt \"$@\"\n"
+        val bytes = ByteArrayOutputStream()
+        ZipOutputStream(bytes).use { zip ->
+            zip.putNextEntry(ZipEntry("bin/pkg"))
+            zip.write(script.toByteArray())
+            zip.closeEntry()
+            zip.putNextEntry(ZipEntry("share/doc/README"))
+            zip.write("see $termuxPrefix\n".toByteArray())
+            zip.closeEntry()
+        }
+        val prefix = tmp.newFolder()
+        DistroManager.unpackEntries(bytes.toByteArray().inputStream(), prefix, emptySet())
+
+        val pkg = File(prefix, "bin/pkg")
+        assertEquals(script.replace(termuxPrefix, prefix.absolutePath), pkg.readText())
+        assertTrue(pkg.canExecute())
+        // Not a script, so left byte-for-byte alone - and not under bin/, lib/ or libexec/.
+        val readme = File(prefix, "share/doc/README")
+        assertEquals("see $termuxPrefix\n", readme.readText())
+        assertFalse(readme.canExecute())
+    }
+
+    @Test
+    fun readerStoppingEarly_freesABlockedWriter() {
+        val pipe = BoundedPipe(1)
+        val writer = thread {
+            // Far more than one chunk of capacity - blocks until the reader cancels.
+            repeat(PIPE_CHUNKS) { pipe.write(archive, 0, 1024) }
+            pipe.finish()
+        }
+        pipe.source.read(ByteArray(16))
+        pipe.source.close()
+        writer.join(JOIN_TIMEOUT_MS)
+        assertFalse(writer.isAlive)
+    }
+
+    private companion object {
+        const val SEED = 38
+        const val FILES = 300
+        const val FILE_BYTES = 48 * 1024
+        const val PIPE_CHUNKS = 32
+        const val JOIN_TIMEOUT_MS = 5_000L
+        const val MANIFEST_ENTRY = "bin/bash"
+    }
+}
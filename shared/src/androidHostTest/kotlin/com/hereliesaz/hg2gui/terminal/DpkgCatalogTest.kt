@@ -0,0 +1,83 @@
+package com.hereliesaz.hg2gui.terminal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class DpkgCatalogTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun writeList(prefix: File, pkg: String, vararg paths: String): File =
+        File(prefix, "var/lib/dpkg/info/$pkg.list").apply {
+            parentFile.mkdirs()
+            writeText(paths.joinToString("\n", postfix = "\n"))
+        }
+
+    @Test
+    fun indexAnswersBothWays() {
+        val prefix = tmp.newFolder()
+        writeList(prefix, "coreutils", "/usr", "/usr/bin/", "/usr/bin/ls", "/usr/bin/cat")
+        writeList(prefix, "git", "/usr/bin/git", "/usr/share/doc/git/README")
+        val index = DpkgCatalog.index(prefix)
+        assertEquals("coreutils", index.packageOf("cat"))
+        assertEquals(listOf("git"), index.binariesOf("git"))
+        assertNull(index.packageOf("README"))
+    }
+
+    @Test
+    fun aSharedBinary_keepsItsFirstOwner_whicheverListWasReadLast() {
+        val prefix = tmp.newFolder()
+        writeList(prefix, "vim", "/usr/bin/vi")
+        val busybox = writeList(prefix, "busybox", "/usr/bin/vi")
+        DpkgCatalog.index(prefix)
+        busybox.setLastModified(busybox.lastModified() + 2_000)
+        val index = DpkgCatalog.index(prefix)
+        assertEquals("busybox", index.packageOf("vi"))
+        assertEquals(listOf("busybox", "vim"), index.packagesOf("vi"))
+    }
+
+    @Test
+    fun unchangedListIsNotReRead() {
+        val prefix = tmp.newFolder()
+        val list = writeList(prefix, "nano", "/usr/bin/nano")
+        DpkgCatalog.index(prefix)
+        // Same length, same mtime, different content: only a re-read would notice.
+        val stamp = list.lastModified()
+        list.writeText("/usr/bin/pico\n")
+        list.setLastModified(stamp)
+        assertEquals(listOf("nano"), DpkgCatalog.index(prefix).binariesOf("nano"))
+    }
+
+    @Test
+    fun changedAddedAndRemovedListsAreRescanned() {
+        val prefix = tmp.newFolder()
+        val vim = writeList(prefix, "vim", "/usr/bin/vim")
+        val nano = writeList(prefix, "nano", "/usr/bin/nano")
+        DpkgCatalog.index(prefix)
+        vim.writeText("/usr/bin/vim\n/usr/bin/vimdiff\n")
+        vim.setLastModified(vim.lastModified() + 2_000)
+        nano.delete()
+        writeList(prefix, "htop", "/usr/bin/htop")
+        val index = DpkgCatalog.index(prefix)
+        assertEquals(listOf("vim", "vimdiff"), index.binariesOf("vim"))
+        assertEquals(setOf("vim", "htop"), index.packages)
+    }
+
+    @Test
+    fun persistedIndexSurvivesANewPrefixMemo() {
+        val first = tmp.newFolder()
+        writeList(first, "curl", "/usr/bin/curl")
+        DpkgCatalog.index(first)
+        val second = tmp.newFolder()
+        writeList(second, "wget", "/usr/bin/wget")
+        DpkgCatalog.index(second)
+        // Back to the first prefix: the in-memory state is now the second's, so this comes
+        // from the file written beside the first.
+        assertEquals("curl", DpkgCatalog.index(first).packageOf("curl"))
+    }
+}
@@ -0,0 +1,45 @@
+package com.hereliesaz.hg2gui.terminal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PackageIndexTest {
+
+    private val entries = listOf(
+        AptCatalog.Entry("imagemagick", "Suite to create, edit, compose, or convert bitmap images"),
+        AptCatalog.Entry("ffmpeg", "Tools and libraries to record, convert and stream audio and video"),
+        AptCatalog.Entry("libpng", "Official PNG reference library"),
+        AptCatalog.Entry("nano", "Small, free and friendly text editor"),
+        AptCatalog.Entry("pngquant", "Lossy PNG image compressor"),
+        AptCatalog.Entry("convert-utils", "Assorted unit helpers")
+    )
+    private val index = PackageIndex(entries)
+
+    private fun search(query: String) = index.search(query, 10).map { entries[it].name }
+
+    @Test
+    fun descriptionWordsFindThePackage() {
+        assertEquals("imagemagick", search("convert images").first())
+    }
+
+    @Test
+    fun nameMatchOutweighsADescriptionMention() {
+        assertEquals("convert-utils", search("convert").first())
+    }
+
+    @Test
+    fun unfinishedWordMatchesAsAPrefix() {
+        assertTrue("nano" in search("edi"))
+    }
+
+    @Test
+    fun exactNameRanksFirst() {
+        assertEquals("libpng", search("libpng").first())
+    }
+
+    @Test
+    fun stopWordsAloneMatchNothing() {
+        assertTrue(search("the and of").isEmpty())
+    }
+}
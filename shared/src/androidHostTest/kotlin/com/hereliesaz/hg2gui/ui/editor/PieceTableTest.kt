@@ -0,0 +1,136 @@
+package com.hereliesaz.hg2gui.ui.editor
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+
+class PieceTableTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun open(text: String): Pair<File, PieceTable> {
+        val file = tmp.newFile().apply { writeText(text) }
+        return file to PieceTable.open(file)
+    }
+
+    private fun PieceTable.text() = (0 until lineCount).joinToString("\n") { line(it) }
+
+    @Test
+    fun reads_linesOfTheMappedFile() {
+        val (_, doc) = open("one\ntwo\r\n\nfour")
+        assertEquals(4, doc.lineCount)
+        assertEquals(listOf("one", "two\r", "", "four"), (0 until 4).map { doc.line(it) })
+
+        assertEquals(1, open("").second.lineCount)
+        assertEquals(listOf("a", ""), open("a\n").second.let { d -> (0 until d.lineCount).map { d.line(it) } })
+    }
+
+    @Test
+    fun edits_splitJoinAndRetypeLines() {
+        val lines = (1..2000).map { "line $it" }
+        val (_, doc) = open(lines.joinToString("\n"))
+        val expected = lines.toMutableList()
+
+        doc.replaceLines(999, 999, "edited")
+        expected[999] = "edited"
+        // Enter in the middle of a line.
+        doc.replaceLines(10, 10, "li\nne 11")
+        expected[10] = "li"; expected.add(11, "ne 11")
+        // Backspace at the start of a line.
+        doc.replaceLines(0, 1, "line 1line 2")
+        expected[0] = "line 1line 2"; expected.removeAt(1)
+        // A line retyped key by key, as the editor does.
+        for (n in 1..50) doc.replaceLines(1500, 1500, "x".repeat(n))
+        expected[1500] = "x".repeat(50)
+        doc.replaceLines(doc.lineCount - 1, doc.lineCount - 1, "last\n")
+        expected[expected.lastIndex] = "last"; expected.add("")
+
+        assertEquals(expected.size, doc.lineCount)
+        assertEquals(expected.joinToString("\n"), doc.text())
+    }
+
+    @Test
+    fun save_writesThePieces_andKeepsUntouchedBytesExactly() {
+        // Not valid UTF-8 - a line nobody edits must go back as it came.
+        val odd = byteArrayOf('a'.code.toByte(), 0xC3.toByte(), '\n'.code.toByte())
+        val file = tmp.newFile().apply { writeBytes(odd + "keep\nchange me".toByteArray()) }
+        val doc = PieceTable.open(file)
+
+        doc.replaceLines(2, 2, "changed")
+        val snapshot = doc.snapshot()
+        // Edits after the snapshot are not in what it saves.
+        doc.replaceLines(1, 1, "later")
+        snapshot.saveTo(file)
+
+        assertArrayEquals(odd + "keep\nchanged".toByteArray(), file.readBytes())
+        assertEquals(listOf(file.name), tmp.root.list()!!.toList())
+        // The document still reads from the file it was opened on, not the one that replaced it.
+        assertEquals("later", doc.line(1))
+        doc.snapshot().saveTo(file)
+        assertArrayEquals(odd + "later\nchanged".toByteArray(), file.readBytes())
+    }
+
+    @Test
+    fun save_keepsTheFilesPermissions() {
+        val (file, doc) = open("#!/bin/sh\necho hi\n")
+        assertTrue(file.setExecutable(true))
+
+        doc.replaceLines(1, 1, "echo bye")
+        doc.snapshot().saveTo(file)
+
+        assertTrue(file.canExecute())
+    }
+
+    @Test
+    fun save_throughASymlink_writesTheFileItPointsAt() {
+        val real = tmp.newFile("real.conf").apply { writeText("old\n") }
+        val link = File(tmp.root, "link.conf")
+        Files.createSymbolicLink(link.toPath(), real.toPath())
+        val doc = PieceTable.open(link)
+
+        doc.replaceLines(0, 0, "new")
+        doc.snapshot().saveTo(link)
+
+        assertTrue(Files.isSymbolicLink(link.toPath()))
+        assertEquals("new\n", real.readText())
+        assertEquals(setOf("real.conf", "link.conf"), tmp.root.list()!!.toSet())
+    }
+
+    @Test
+    fun aFileRewrittenInPlace_isNoticed_andNotSavedOver() {
+        val (file, doc) = open("one\ntwo\n")
+        doc.replaceLines(0, 0, "uno")
+        val snapshot = doc.snapshot()
+        assertFalse(doc.changedOnDisk())
+
+        file.writeText("something else entirely\n")
+        file.setLastModified(file.lastModified() + 2_000)
+
+        assertTrue(doc.changedOnDisk())
+        try {
+            snapshot.saveTo(file)
+            throw AssertionError("saved over a file changed since it was opened")
+        } catch (e: IOException) {
+            // Refused.
+        }
+        assertEquals("something else entirely\n", file.readText())
+    }
+
+    @Test
+    fun aFileReplacedByRename_isNotAChangeToTheMapping() {
+        val (file, doc) = open("one\ntwo\n")
+        val replacement = tmp.newFile().apply { writeText("other\n") }
+        assertTrue(replacement.renameTo(file))
+
+        assertFalse(doc.changedOnDisk())
+        assertEquals("one", doc.line(0))
+    }
+}
@@ -0,0 +1,101 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import android.content.Context
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.Mockito
+
+/**
+ * CommandTree.shellCategories over a synthetic prefix - 2000 binaries in families and loose
+ * names across a dozen categories, the size of a well-used real install. The context is a mock:
+ * it's only ever captured by the install/ssh resolvers, never called while building.
+ */
+class CommandTreeRebuildTest {
+
+    private val categories = listOf(
+        "Archives", "Database", "Development", "Editors", "Network", "Other",
+        "Package management", "Security", "Shells", "System", "Text & files", "Tools"
+    )
+
+    private fun syntheticBinaries(count: Int): List<String> = List(count) { i ->
+        // Every fourth name joins a hyphenated family of its neighbours, like apt-get/apt-key.
+        if (i % 4 == 0) "fam${i / 40}-tool$i" else "bin$i"
+    }.sorted()
+
+    private fun categoryOf(name: String): String =
+        if (name == "jq") "Text & files" else categories[Math.floorMod(name.hashCode(), categories.size)]
+
+    private fun hintsOf(name: String): List<String> = if (name.hashCode() % 3 == 0) listOf("-h", "--version") else emptyList()
+
+    private fun build(context: Context, names: List<String>, hints: (String) -> List<String> = ::hintsOf) =
+        CommandTree.shellCategories(context, names, ::categoryOf, hints)
+
+    @Test
+    fun unchangedBinaries_returnEveryCategoryByIdentity() {
+        val context = Mockito.mock(Context::class.java)
+        val names = syntheticBinaries(BINARIES)
+        val first = build(context, names)
+        val second = build(context, names)
+
+        assertEquals(first.size, second.size)
+        first.indices.forEach { assertSame(first[it], second[it]) }
+    }
+
+    @Test
+    fun installingOneBinary_rebuildsOnlyItsCategory() {
+        val context = Mockito.mock(Context::class.java)
+        val names = syntheticBinaries(BINARIES)
+        val before = build(context, names).associateBy { it.id }
+        val after = build(context, (names + "jq").sorted()).associateBy { it.id }
+
+        assertEquals(before.keys, after.keys)
+        for ((id, node) in after) {
+            if (id == "sh/Text & files") assertNotSame(before[id], node) else assertSame(before[id], node)
+        }
+        assertEquals(true, after.getValue("sh/Text & files").children.any { it.id == "sh/jq" })
+    }
+
+    @Test
+    fun newlyDiscoveredHints_rebuildOnlyTheirCategory() {
+        val context = Mockito.mock(Context::class.java)
+        val names = syntheticBinaries(BINARIES)
+        val probed = names.first { hintsOf(it).isEmpty() }
+        val before = build(context, names).associateBy { it.id }
+        val after = build(context, names) { name -> if (name == probed) listOf("--all") else hintsOf(name) }
+            .associateBy { it.id }
+
+        val changed = after.filter { (id, node) -> before[id] !== node }.keys
+        assertEquals(setOf("sh/${categoryOf(probed)}"), changed)
+    }
+
+    @Test
+    fun restoredNodes_areKeptThroughLaterRebuilds() {
+        val context = Mockito.mock(Context::class.java)
+        val names = syntheticBinaries(BINARIES)
+        // Same shape, other instances - what a cold start reads back from the snapshot.
+        val restored = build(Mockito.mock(Context::class.java), names)
+        val first = CommandTree.keepShown(restored, build(context, names))
+        restored.indices.forEach { assertSame(restored[it], first[it]) }
+
+        // The install rebuilds its own category; every other one is still the restored node.
+        val after = build(context, (names + "jq").sorted()).associateBy { it.id }
+        for (node in restored) {
+            if (node.id == "sh/Text & files") assertNotSame(node, after[node.id]) else assertSame(node, after[node.id])
+        }
+    }
+
+    @Test
+    fun anotherContext_neverReusesNodes() {
+        val names = syntheticBinaries(BINARIES)
+        val first = build(Mockito.mock(Context::class.java), names)
+        val second = build(Mockito.mock(Context::class.java), names)
+
+        first.indices.forEach { assertNotSame(first[it], second[it]) }
+    }
+
+    private companion object {
+        const val BINARIES = 2000
+    }
+}
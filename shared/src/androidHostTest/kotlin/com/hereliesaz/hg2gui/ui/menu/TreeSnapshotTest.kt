@@ -0,0 +1,84 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.ByteBuffer
+
+class TreeSnapshotTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val resolver: suspend () -> List<MenuNode> = { emptyList() }
+
+    private val tree = listOf(
+        MenuNode(
+            id = "sh/Package management",
+            label = "Package management",
+            cap = "1",
+            emitsToken = false,
+            children = listOf(
+                MenuNode(
+                    id = "sh/apt",
+                    label = "apt",
+                    cap = "2",
+                    value = "apt",
+                    children = listOf(
+                        MenuNode(id = "sh/apt/install", label = "install", cap = "browse", resolveChildren = resolver),
+                        FileBrowser.pickerNode("sh/apt/file")
+                    )
+                )
+            )
+        ),
+        MenuNode(id = "find", label = "find…", emitsToken = false, jumpTo = listOf("sh/Package management", "sh/apt"))
+    )
+
+    @Test
+    fun roundTripsEveryFieldButTheResolver() {
+        val file = File(tmp.root, "tree.bin")
+        TreeSnapshot.write(file, tree)
+        val read = TreeSnapshot.read(file) { id -> if (id == "sh/apt/install") resolver else null }
+
+        // MenuNode equality compares the resolver by identity - the same one is handed back here.
+        assertEquals(tree, read)
+    }
+
+    @Test
+    fun aResolverTheCallerCantSupply_leavesTheNodeWithout() {
+        val file = File(tmp.root, "tree.bin")
+        TreeSnapshot.write(file, tree)
+        val install = TreeSnapshot.read(file) { null }!![0].children[0].children[0]
+
+        assertEquals("sh/apt/install", install.id)
+        assertNull(install.resolveChildren)
+    }
+
+    @Test
+    fun truncatedOrMissingSnapshot_readsAsNone() {
+        val file = File(tmp.root, "tree.bin")
+        assertNull(TreeSnapshot.read(file) { null })
+
+        TreeSnapshot.write(file, tree)
+        assertNotNull(TreeSnapshot.read(file) { null })
+        file.writeBytes(file.readBytes().copyOf(file.length().toInt() / 2))
+        assertNull(TreeSnapshot.read(file) { null })
+    }
+
+    @Test
+    fun aCorruptCount_readsAsNone() {
+        val file = File(tmp.root, "tree.bin")
+        TreeSnapshot.write(file, tree)
+        val bytes = file.readBytes()
+        // The root count, just past the magic and version.
+        for (count in listOf(-1, Int.MAX_VALUE)) {
+            ByteBuffer.wrap(bytes).putInt(8, count)
+            file.writeBytes(bytes)
+            assertNull(TreeSnapshot.read(file) { null })
+        }
+    }
+}
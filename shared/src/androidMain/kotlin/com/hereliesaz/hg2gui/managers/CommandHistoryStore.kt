@@ -0,0 +1,79 @@
+package com.hereliesaz.hg2gui.managers
+
+import android.content.Context
+import com.hereliesaz.hg2gui.terminal.CommandHistory
+import com.hereliesaz.hg2gui.util.Utils
+import java.io.File
+import java.io.IOException
+
+private const val FILE_NAME = "command_history.log"
+
+// A log at least this long, and at least this many times longer than the distinct lines it
+// describes, is rewritten on the next load - below that, replaying it costs less than a rewrite.
+private const val COMPACT_MIN_LINES = 2_000
+private const val COMPACT_RATIO = 2
+
+/**
+ * [CommandHistory]'s file on disk - not SharedPreferences like every other store here, because
+ * the whole point is tens of thousands of entries, and rewriting one prefs XML of that size per
+ * command run is exactly the cost this avoids. An append-only log of encoded runs instead: each
+ * command that finishes adds one line (see [append]), and [load] replays them all. Once the log
+ * has grown well past the distinct lines it holds, [load] compacts it down to one line per
+ * record - written beside it and renamed over it, so a crash mid-compaction leaves the old log.
+ */
+object CommandHistoryStore {
+    private val lock = Any()
+
+    private fun file(context: Context) = File(context.filesDir, FILE_NAME)
+
+    /** Every recorded run, replayed into a fresh [CommandHistory]. Blocking file I/O - call off
+     *  the main thread. An unreadable log loads as an empty history rather than failing startup. */
+    fun load(context: Context): CommandHistory = synchronized(lock) {
+        val history = CommandHistory()
+        val log = file(context)
+        if (!log.exists()) return history
+        var lines = 0
+        try {
+            log.bufferedReader().useLines { seq ->
+                seq.forEach { encoded ->
+                    lines++
+                    CommandHistory.decode(encoded)?.let(history::add)
+                }
+            }
+        } catch (e: IOException) {
+            Utils.log(e)
+            return history
+        }
+        if (lines >= COMPACT_MIN_LINES && lines >= history.size * COMPACT_RATIO) compact(log, history)
+        history
+    }
+
+    /** Adds one finished run to the log. Blocking file I/O - call off the main thread. */
+    fun append(context: Context, run: CommandHistory.Record) {
+        synchronized(lock) {
+            try {
+                file(context).appendText(CommandHistory.encode(run) + "\n")
+            } catch (e: IOException) {
+                // Losing one line of history isn't worth surfacing; the in-memory history
+                // already has it for the rest of this launch.
+                Utils.log(e)
+            }
+        }
+    }
+
+    private fun compact(log: File, history: CommandHistory) {
+        val tmp = File(log.parentFile, "$FILE_NAME.tmp")
+        try {
+            tmp.bufferedWriter().use { out ->
+                for (record in history.snapshot()) {
+                    out.write(CommandHistory.encode(record))
+                    out.newLine()
+                }
+            }
+            if (!tmp.renameTo(log)) tmp.delete()
+        } catch (e: IOException) {
+            Utils.log(e)
+            tmp.delete()
+        }
+    }
+}
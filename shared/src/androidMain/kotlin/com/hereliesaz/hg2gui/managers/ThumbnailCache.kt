@@ -0,0 +1,161 @@
+package com.hereliesaz.hg2gui.managers
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import android.util.LruCache
+import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Thumbnails for the Files screen's photo grid - decoded once, downsampled to tile size, then
+ * kept at two levels so scrolling back over a folder of camera photos never decodes a
+ * full-resolution JPEG again:
+ *
+ *  - memory: an LRU of bitmaps bounded by their actual byte size, not their count - one
+ *    panorama-shaped thumbnail shouldn't count the same as a tiny icon.
+ *  - disk: the downsampled bitmap re-encoded under the app's cache dir, so the next launch (or
+ *    a folder the memory cache has since evicted) costs one small decode instead of one huge one.
+ *    Keyed by path + mtime + size, so an edited or replaced photo just misses and re-decodes -
+ *    the stale entry is left for [trimDisk] to age out rather than tracked down.
+ *
+ * Decodes are the expensive part and run at most [DECODE_PARALLELISM] at a time. A caller that's
+ * cancelled (its tile scrolled away) while still waiting for a permit never decodes at all.
+ */
+object ThumbnailCache {
+
+    // Built on first use rather than with the object, so the key and sample-size logic below
+    // stays usable where android.util isn't (host tests).
+    private val memory by lazy {
+        object : LruCache<String, Bitmap>(memoryBudget()) {
+            override fun sizeOf(key: String, value: Bitmap) = value.allocationByteCount
+        }
+    }
+
+    private val decodes = Semaphore(DECODE_PARALLELISM)
+
+    @Volatile
+    private var writesSinceTrim = 0
+
+    /** [file]'s thumbnail, no smaller than [sizePx] on its short side - from memory, then disk,
+     *  then a fresh downsampled decode. Null if it can't be decoded (not really an image,
+     *  truncated, gone). */
+    suspend fun load(context: Context, file: File, sizePx: Int = THUMB_PX): Bitmap? {
+        val key = keyOf(file.path, file.lastModified(), file.length())
+        memory.get(key)?.let { return it }
+        return decodes.withPermit {
+            // Another tile for the same file may have filled it while this one waited.
+            memory.get(key) ?: withContext(Dispatchers.IO) {
+                val stored = File(diskDir(context), diskName(key))
+                val bitmap = readDisk(stored) ?: run {
+                    ensureActive()
+                    decode(file, sizePx)?.also { writeDisk(context, stored, it) }
+                }
+                bitmap?.also { memory.put(key, it) }
+            }
+        }
+    }
+
+    internal fun keyOf(path: String, modifiedAt: Long, size: Long) = "$path|$modifiedAt|$size"
+
+    internal fun diskName(key: String): String =
+        MessageDigest.getInstance("SHA-1").digest(key.toByteArray()).joinToString("") { "%02x".format(it) }
+
+    /** The largest power of two that still leaves a [width] x [height] image at least [target]
+     *  on its short side - BitmapFactory only honours powers of two, and rounding the other way
+     *  would hand the tile a blurry upscale. */
+    internal fun sampleSize(width: Int, height: Int, target: Int): Int {
+        var sample = 1
+        while (minOf(width, height) / (sample * 2) >= target) sample *= 2
+        return sample
+    }
+
+    private fun decode(file: File, sizePx: Int): Bitmap? {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(file.path, bounds)
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, sizePx)
+            // No alpha to keep in a thumbnail tile, and half the bytes per pixel of ARGB_8888.
+            if (bounds.outMimeType == "image/jpeg") inPreferredConfig = Bitmap.Config.RGB_565
+        }
+        val bitmap = BitmapFactory.decodeFile(file.path, options) ?: return null
+        return upright(file, bitmap)
+    }
+
+    // Camera JPEGs are stored sensor-side up with the rotation in EXIF - baked into the thumbnail
+    // here, so the disk copy (which carries no EXIF) comes back the right way up too.
+    private fun upright(file: File, bitmap: Bitmap): Bitmap {
+        val degrees = try {
+            when (ExifInterface(file.path).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                ExifInterface.ORIENTATION_ROTATE_90 -> 90f
+                ExifInterface.ORIENTATION_ROTATE_180 -> 180f
+                ExifInterface.ORIENTATION_ROTATE_270 -> 270f
+                else -> return bitmap
+            }
+        } catch (e: IOException) {
+            return bitmap
+        }
+        val rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, Matrix().apply { postRotate(degrees) }, true)
+        if (rotated !== bitmap) bitmap.recycle()
+        return rotated
+    }
+
+    private fun readDisk(stored: File): Bitmap? {
+        if (!stored.isFile) return null
+        // Touched on every hit, so [trimDisk] drops the least recently used first.
+        stored.setLastModified(System.currentTimeMillis())
+        return BitmapFactory.decodeFile(stored.path)
+    }
+
+    private fun writeDisk(context: Context, stored: File, bitmap: Bitmap) {
+        val tmp = File(stored.path + ".tmp")
+        try {
+            tmp.outputStream().use { out ->
+                if (bitmap.hasAlpha()) bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)
+                else bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)
+            }
+            if (!tmp.renameTo(stored)) tmp.delete()
+        } catch (e: IOException) {
+            Utils.log(e)
+            tmp.delete()
+        }
+        if (++writesSinceTrim >= TRIM_EVERY) {
+            writesSinceTrim = 0
+            trimDisk(diskDir(context))
+        }
+    }
+
+    /** Deletes the least recently used thumbnails until the cache is back under [DISK_BUDGET]. */
+    private fun trimDisk(dir: File) {
+        val files = dir.listFiles()?.sortedBy { it.lastModified() } ?: return
+        var total = files.sumOf { it.length() }
+        for (f in files) {
+            if (total <= DISK_BUDGET) break
+            total -= f.length()
+            f.delete()
+        }
+    }
+
+    private fun diskDir(context: Context) = File(context.cacheDir, DISK_DIR).apply { mkdirs() }
+
+    private fun memoryBudget() = (Runtime.getRuntime().maxMemory() / 8).coerceAtMost(MAX_MEMORY_BYTES).toInt()
+
+    // A third of a phone screen's width, roughly - what one grid tile actually draws at.
+    const val THUMB_PX = 256
+    private const val DECODE_PARALLELISM = 3
+    private const val JPEG_QUALITY = 85
+    private const val DISK_DIR = "thumbnails"
+    private const val DISK_BUDGET = 64L * 1024 * 1024
+    private const val MAX_MEMORY_BYTES = 64L * 1024 * 1024
+    private const val TRIM_EVERY = 50
+}
@@ -0,0 +1,231 @@
+package com.hereliesaz.hg2gui.managers
+
+import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.onCompletion
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Finds files with identical contents, for the storage screen's DUPLICATES tab.
+ *
+ * Reading every file in full would cost as much as the sandbox is big, so each stage only
+ * looks at what the stage before it couldn't rule out:
+ *
+ *  1. size - free, straight from the index; a file with a size nobody else has is unique.
+ *  2. a hash of its first and last [BLOCK_BYTES] - two small reads, enough to tell apart
+ *     nearly every same-sized pair (different photos, different builds of one library).
+ *  3. a full hash, only for files whose size and both ends still agree.
+ *
+ * Sizes are shared out across up to [MAX_WORKERS] workers, and each group is sent the moment
+ * it's confirmed, most reclaimable first as far as sizes alone can tell. Both hashes are kept in
+ * [cacheFile] against each file's mtime and size, so a second run only reads what changed since
+ * the first.
+ */
+internal class VfsDuplicates(private val cacheFile: File) {
+
+    /** A file to consider, with the size the index has for it - checked against the disk
+     *  before anything is read. */
+    class Candidate(val file: File, val size: Long)
+
+    /** [files], every one [size] bytes and identical - all but one of them could go. */
+    class Group(val size: Long, val files: List<File>) {
+        val reclaimableBytes: Long get() = size * (files.size - 1)
+    }
+
+    private class Hashes(val modifiedAt: Long, val size: Long) {
+        @Volatile
+        var ends: String? = null
+        @Volatile
+        var full: String? = null
+    }
+
+    // Keyed by absolute path. Loaded from [cacheFile] on the first run, written back after each.
+    private var cache: ConcurrentHashMap<String, Hashes>? = null
+
+    fun find(candidates: List<Candidate>): Flow<Group> {
+        val hashes = loaded()
+        return channelFlow {
+            val sizes = candidates.filter { it.size > 0 }.groupBy { it.size }.values
+                .filter { it.size > 1 }
+                .sortedByDescending { it[0].size * (it.size - 1) }
+            val queue = ConcurrentLinkedQueue(sizes)
+            repeat(Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_WORKERS)) {
+                launch(Dispatchers.IO) {
+                    while (isActive) {
+                        val sameSize = queue.poll() ?: break
+                        identical(sameSize, hashes) { isActive }.forEach { send(it) }
+                    }
+                }
+            }
+        }.onCompletion {
+            // However the run ended, what it hashed is kept. Files no longer candidates (gone, or
+            // their size now unique) drop out, so the cache never outgrows the sandbox.
+            val live = candidates.mapTo(HashSet()) { it.file.path }
+            save(hashes.filterKeys { it in live })
+        }
+    }
+
+    private fun identical(sameSize: List<Candidate>, hashes: ConcurrentHashMap<String, Hashes>, active: () -> Boolean): List<Group> {
+        val size = sameSize[0].size
+        // The index's idea of the file, checked against the disk - a hash cached against an mtime
+        // the index missed a change to would otherwise vouch for contents that aren't there.
+        // Only regular files, and each only once: a symlink, a hard link, or the same file reached
+        // again through a symlinked folder is the very same bytes, not a copy of them - offered as
+        // the "extra" one, deleting it would take the only real file with it.
+        val inodes = HashSet<Any>()
+        val current = sameSize.mapNotNull { c ->
+            val attributes = try {
+                Files.readAttributes(c.file.toPath(), BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+            } catch (e: IOException) {
+                return@mapNotNull null
+            }
+            if (!attributes.isRegularFile || attributes.size() != size) return@mapNotNull null
+            if (!inodes.add(attributes.fileKey() ?: c.file.canonicalPath)) return@mapNotNull null
+            val modifiedAt = attributes.lastModifiedTime().toMillis()
+            val entry = hashes[c.file.path]?.takeIf { it.modifiedAt == modifiedAt && it.size == size }
+                ?: Hashes(modifiedAt, size).also { hashes[c.file.path] = it }
+            c.file to entry
+        }
+        val groups = mutableListOf<Group>()
+        for (sameEnds in sharing(current) { file, entry -> entry.ends ?: hashEnds(file, size)?.also { entry.ends = it } }) {
+            if (!active()) break
+            // Small enough that both ends already covered every byte.
+            val confirmed = if (size <= 2L * BLOCK_BYTES) listOf(sameEnds) else {
+                sharing(sameEnds) { file, entry -> entry.full ?: hashFull(file, active)?.also { entry.full = it } }
+            }
+            confirmed.forEach { pairs -> groups.add(Group(size, pairs.map { it.first })) }
+        }
+        return groups
+    }
+
+    // Groups of two or more sharing a [hash]; a file [hash] gives up on (unreadable) is left out.
+    private inline fun sharing(files: List<Pair<File, Hashes>>, hash: (File, Hashes) -> String?): List<List<Pair<File, Hashes>>> =
+        files.mapNotNull { pair -> hash(pair.first, pair.second)?.let { it to pair } }
+            .groupBy({ it.first }, { it.second })
+            .values.filter { it.size > 1 }
+
+    private fun hashEnds(file: File, size: Long): String? = try {
+        RandomAccessFile(file, "r").use { raf ->
+            val digest = MessageDigest.getInstance(ALGORITHM)
+            val block = ByteArray(minOf(size, BLOCK_BYTES.toLong()).toInt())
+            raf.readFully(block)
+            digest.update(block)
+            if (size > BLOCK_BYTES) {
+                raf.seek(size - block.size)
+                raf.readFully(block)
+                digest.update(block)
+            }
+            hex(digest.digest())
+        }
+    } catch (e: IOException) {
+        Utils.log(e)
+        null
+    }
+
+    /** Null if unreadable, or if [active] turned false partway - a half-read file isn't hashed. */
+    private fun hashFull(file: File, active: () -> Boolean): String? = try {
+        FileInputStream(file).use { input ->
+            val digest = MessageDigest.getInstance(ALGORITHM)
+            val buffer = ByteArray(READ_BYTES)
+            while (true) {
+                if (!active()) return null
+                val read = input.read(buffer)
+                if (read < 0) break
+                digest.update(buffer, 0, read)
+            }
+            hex(digest.digest())
+        }
+    } catch (e: IOException) {
+        Utils.log(e)
+        null
+    }
+
+    private fun hex(bytes: ByteArray): String = buildString(bytes.size * 2) {
+        for (b in bytes) {
+            append(HEX[(b.toInt() shr 4) and 0xF])
+            append(HEX[b.toInt() and 0xF])
+        }
+    }
+
+    @Synchronized
+    private fun loaded(): ConcurrentHashMap<String, Hashes> =
+        cache ?: ConcurrentHashMap(read()).also { cache = it }
+
+    private fun read(): Map<String, Hashes> {
+        if (!cacheFile.isFile) return emptyMap()
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(cacheFile))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) return emptyMap()
+                val count = input.readInt()
+                HashMap<String, Hashes>(count).apply {
+                    repeat(count) {
+                        val path = input.readUTF()
+                        put(path, Hashes(input.readLong(), input.readLong()).apply {
+                            ends = input.readUTF().ifEmpty { null }
+                            full = input.readUTF().ifEmpty { null }
+                        })
+                    }
+                }
+            }
+        } catch (e: EOFException) {
+            emptyMap()
+        } catch (e: IOException) {
+            Utils.log(e)
+            emptyMap()
+        }
+    }
+
+    @Synchronized
+    private fun save(hashes: Map<String, Hashes>) {
+        val tmp = File(cacheFile.path + ".tmp")
+        try {
+            cacheFile.parentFile?.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                out.writeInt(hashes.size)
+                for ((path, entry) in hashes) {
+                    out.writeUTF(path)
+                    out.writeLong(entry.modifiedAt)
+                    out.writeLong(entry.size)
+                    out.writeUTF(entry.ends ?: "")
+                    out.writeUTF(entry.full ?: "")
+                }
+            }
+            if (!tmp.renameTo(cacheFile)) tmp.delete()
+        } catch (e: IOException) {
+            // Only the next run pays, by hashing again.
+            Utils.log(e)
+            tmp.delete()
+        }
+    }
+
+    private companion object {
+        const val MAGIC = 0x48474448 // "HGDH"
+        const val VERSION = 1
+        const val ALGORITHM = "SHA-256"
+        const val BLOCK_BYTES = 16 * 1024
+        const val READ_BYTES = 256 * 1024
+        const val MAX_WORKERS = 4
+        const val HEX = "0123456789abcdef"
+    }
+}
@@ -0,0 +1,306 @@
+package com.hereliesaz.hg2gui.managers
+
+import com.hereliesaz.hg2gui.ui.looksLikeBinary
+import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.transform
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Content search ("grep") over files in the VFS sandbox - the engine behind the Files screen's
+ * text search and the MCP `vfs.grep` tool.
+ *
+ * Files are shared out across one worker per core. A file past [MAP_THRESHOLD_BYTES] is read
+ * through memory-mapped windows rather than a stream: the kernel pages it in straight from the
+ * page cache with no copy into a Java buffer. Anything smaller - most of a sandbox - is one
+ * positional read into the worker's own [ReadBuffer], reused from file to file; mapping it would
+ * cost a mapping per file, each left for the GC to unmap. Either way a plain literal is matched
+ * against the bytes themselves, so nothing but a matching line (and its context) is ever
+ * decoded into a String. A regex does need characters - each line is decoded for it, which is
+ * the price of asking for one. Anything whose first block [looksLikeBinary] is skipped whole, the
+ * same test the terminal uses to refuse to typeset binary output.
+ */
+object VfsGrep {
+
+    /** Line [lineNumber] (1-based) of [file] matched, with up to [before]/[after] lines of
+     *  context. Lines are cut at [MAX_LINE_CHARS] - a minified file is one very long line. Hits
+     *  close together share no lines: a line already given as an earlier hit's context or as a
+     *  hit itself isn't repeated as a later one's, the way grep merges overlapping context. */
+    data class Hit(val file: File, val lineNumber: Int, val line: String, val before: List<String>, val after: List<String>)
+
+    /** [contextLines] either side of each hit, at most [limit] hits in all. Case-insensitive by
+     *  default, like the Files screen's name search. */
+    data class Options(
+        val regex: Boolean = false,
+        val ignoreCase: Boolean = true,
+        val contextLines: Int = 1,
+        val limit: Int = 500
+    )
+
+    /** How a line is tested - built once per search by [matcher]. */
+    internal sealed interface Matcher
+
+    // UTF-8 bytes of the literal; lowercased when [ignoreCase], which only ever applies to an
+    // ASCII literal - anything else goes through a regex, where case folding is Unicode-aware.
+    internal class Literal(val bytes: ByteArray, val ignoreCase: Boolean) : Matcher
+
+    internal class Expression(val pattern: Pattern) : Matcher
+
+    /** [query] as a [Matcher]: a regex if [regex], else a literal. Throws
+     *  IllegalArgumentException for a regex that doesn't compile. */
+    internal fun matcher(query: String, regex: Boolean, ignoreCase: Boolean): Matcher {
+        require(query.isNotEmpty()) { "Empty pattern" }
+        val flags = if (ignoreCase) Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE else 0
+        return try {
+            when {
+                regex -> Expression(Pattern.compile(query, flags))
+                ignoreCase && query.any { it.code >= ASCII_LIMIT } -> Expression(Pattern.compile(Pattern.quote(query), flags))
+                else -> Literal((if (ignoreCase) query.lowercase() else query).toByteArray(Charsets.UTF_8), ignoreCase)
+            }
+        } catch (e: PatternSyntaxException) {
+            throw IllegalArgumentException(e.description, e)
+        }
+    }
+
+    /**
+     * Every [Hit] for [matcher] across [files], a file's own hits together and in order, files
+     * in whatever order the workers finish them. Stops - cancelling every worker between
+     * windows - once [limit] hits have been emitted or the collector goes away. A file
+     * [readable] turns down is skipped unopened - checked by the worker, since it may cost a
+     * stat or a readlink per file.
+     */
+    internal fun search(files: List<File>, matcher: Matcher, options: Options, readable: (File) -> Boolean = { true }): Flow<Hit> {
+        val context = options.contextLines.coerceAtLeast(0)
+        val limit = options.limit.coerceAtLeast(1)
+        return channelFlow {
+            val queue = ConcurrentLinkedQueue(files)
+            repeat(Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_WORKERS)) {
+                launch(Dispatchers.IO) {
+                    val buffer = ReadBuffer()
+                    while (isActive) {
+                        val file = queue.poll() ?: break
+                        if (!readable(file)) continue
+                        val hits = scan(file, matcher, context, limit, buffer) { isActive }
+                        if (hits.isNotEmpty()) send(hits)
+                    }
+                }
+            }
+        }.transform { hits -> hits.forEach { emit(it) } }.take(limit)
+    }
+
+    /** One worker's buffer for files under [MAP_THRESHOLD_BYTES], grown to the largest it has
+     *  read so far and reused for every file after. Not thread-safe - one per worker. */
+    internal class ReadBuffer {
+        private var bytes: ByteBuffer = ByteBuffer.allocate(0)
+
+        fun sized(size: Int): ByteBuffer {
+            if (bytes.capacity() < size) bytes = ByteBuffer.allocate(maxOf(size, minOf(bytes.capacity() * 2, MAP_THRESHOLD_BYTES)))
+            return bytes.apply {
+                clear()
+                limit(size)
+            }
+        }
+    }
+
+    /**
+     * [file]'s hits, at most [limit] of them - none if it looks binary or can't be read.
+     * [active] is polled between windows, so a cancelled search doesn't finish a huge file first.
+     */
+    internal fun scan(
+        file: File,
+        matcher: Matcher,
+        context: Int,
+        limit: Int,
+        buffer: ReadBuffer = ReadBuffer(),
+        active: () -> Boolean = { true }
+    ): List<Hit> =
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+                Scan(file, channel, matcher, context, limit, active).run(buffer)
+            }
+        } catch (e: IOException) {
+            // Unreadable (or gone since the index listed it) - nothing to report in it.
+            Utils.log(e)
+            emptyList()
+        }
+
+    private fun looksBinary(channel: FileChannel): Boolean {
+        val head = ByteBuffer.allocate(SNIFF_BYTES)
+        readFully(channel, head, 0L)
+        return looksBinary(head, head.limit())
+    }
+
+    private fun looksBinary(bytes: ByteBuffer, length: Int): Boolean {
+        if (length == 0) return false
+        val head = bytes.duplicate().apply {
+            position(0)
+            limit(minOf(length, SNIFF_BYTES))
+        }
+        return looksLikeBinary(Charsets.UTF_8.decode(head).toString())
+    }
+
+    /** One file's scan: read whole or windows mapped in turn, lines cut at '\n', each tested by
+     *  [matcher]. */
+    private class Scan(
+        private val file: File,
+        private val channel: FileChannel,
+        private val matcher: Matcher,
+        private val context: Int,
+        private val limit: Int,
+        private val active: () -> Boolean
+    ) {
+        private val hits = mutableListOf<Hit>()
+        private var lineNumber = 0
+
+        // The last [context] lines' offsets in the file and line numbers, oldest first - decoded
+        // only if the next line matches, by a positional read, since their window may already be
+        // unmapped.
+        private val recent = ArrayDeque<LongArray>()
+
+        // The hit still collecting its after-context, and how many lines it wants in all. Only
+        // ever the latest: a new hit ends the one before's context where it starts.
+        private var awaitingAfter: MutableList<String>? = null
+
+        // The last line already part of some hit, as the hit or its context - never repeated.
+        private var lastShown = 0
+
+        fun run(buffer: ReadBuffer): List<Hit> {
+            val size = channel.size()
+            if (size <= MAP_THRESHOLD_BYTES) {
+                val bytes = buffer.sized(size.toInt())
+                readFully(channel, bytes, 0L)
+                if (!looksBinary(bytes, bytes.limit())) window(bytes, 0L, bytes.limit(), last = true)
+                return hits
+            }
+            if (looksBinary(channel)) return hits
+            var position = 0L
+            while (position < size && hits.size < limit && active()) {
+                val length = minOf(WINDOW_BYTES.toLong(), size - position).toInt()
+                val window = channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                position += window(window, position, length, last = position + length == size)
+            }
+            return hits
+        }
+
+        // Every line of [window] that ends in it, and the rest too if it's the [last]. Returns
+        // how far into the file that got.
+        private fun window(window: ByteBuffer, position: Long, length: Int, last: Boolean): Long {
+            var lineStart = 0
+            for (i in 0 until length) {
+                if (window.get(i) == NEWLINE) {
+                    line(window, position, lineStart, i)
+                    lineStart = i + 1
+                }
+            }
+            return when {
+                last -> {
+                    if (lineStart < length) line(window, position, lineStart, length)
+                    length.toLong()
+                }
+                // One line longer than a whole window: cut it there rather than map ever more.
+                lineStart == 0 -> {
+                    line(window, position, 0, length)
+                    length.toLong()
+                }
+                else -> lineStart.toLong()
+            }
+        }
+
+        private fun line(window: ByteBuffer, base: Long, start: Int, end: Int) {
+            lineNumber++
+            if (hits.size < limit && matches(window, start, end)) {
+                val before = recent.filter { it[2] > lastShown }.map { read(it[0], it[1]) }
+                val after = mutableListOf<String>()
+                hits.add(Hit(file, lineNumber, decode(window, start, end), before, after))
+                awaitingAfter = after.takeIf { context > 0 }
+                lastShown = lineNumber
+            } else {
+                awaitingAfter?.let { after ->
+                    after.add(decode(window, start, end))
+                    lastShown = lineNumber
+                    if (after.size >= context) awaitingAfter = null
+                }
+            }
+            if (context > 0) {
+                if (recent.size == context) recent.removeFirst()
+                recent.addLast(longArrayOf(base + start, base + end, lineNumber.toLong()))
+            }
+        }
+
+        private fun matches(window: ByteBuffer, start: Int, end: Int): Boolean = when (matcher) {
+            is Literal -> indexOf(window, start, end, matcher.bytes, matcher.ignoreCase) >= 0
+            is Expression -> matcher.pattern.matcher(decode(window, start, end)).find()
+        }
+
+        private fun read(from: Long, to: Long): String {
+            val buffer = ByteBuffer.allocate(minOf(to - from, MAX_LINE_BYTES.toLong()).toInt())
+            readFully(channel, buffer, from)
+            return clip(Charsets.UTF_8.decode(buffer).toString())
+        }
+
+        private fun decode(window: ByteBuffer, start: Int, end: Int): String {
+            val slice = window.duplicate()
+            slice.position(start)
+            slice.limit(minOf(end, start + MAX_LINE_BYTES))
+            return clip(Charsets.UTF_8.decode(slice).toString())
+        }
+    }
+
+    /** Where [pattern] first occurs in [buffer] between [start] and [end], or -1. A plain scan for
+     *  the first byte, then a compare - [ignoreCase] folds ASCII letters only, which is all a
+     *  [Literal] ever has to fold. */
+    internal fun indexOf(buffer: ByteBuffer, start: Int, end: Int, pattern: ByteArray, ignoreCase: Boolean): Int {
+        val first = pattern[0]
+        val lastStart = end - pattern.size
+        var i = start
+        while (i <= lastStart) {
+            if (fold(buffer.get(i), ignoreCase) == first) {
+                var j = 1
+                while (j < pattern.size && fold(buffer.get(i + j), ignoreCase) == pattern[j]) j++
+                if (j == pattern.size) return i
+            }
+            i++
+        }
+        return -1
+    }
+
+    /** Fills [buffer] from [channel] at [from], short only at end of file, and flips it. */
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, from: Long) {
+        var read: Int
+        do {
+            read = if (buffer.hasRemaining()) channel.read(buffer, from + buffer.position()) else -1
+        } while (read > 0)
+        buffer.flip()
+    }
+
+    private fun fold(b: Byte, ignoreCase: Boolean): Byte =
+        if (ignoreCase && b >= 'A'.code.toByte() && b <= 'Z'.code.toByte()) (b + CASE_OFFSET).toByte() else b
+
+    private fun clip(line: String): String = line.trimEnd('\r').let { if (it.length > MAX_LINE_CHARS) it.take(MAX_LINE_CHARS) + "…" else it }
+
+    private const val NEWLINE = '\n'.code.toByte()
+    private const val ASCII_LIMIT = 0x80
+    private const val CASE_OFFSET = 'a'.code - 'A'.code
+    private const val SNIFF_BYTES = 4096
+    // Below this a file is one read into a reused buffer: a mapping's setup and teardown cost
+    // more than the copy, and each would otherwise wait on the GC to be unmapped.
+    private const val MAP_THRESHOLD_BYTES = 1024 * 1024
+    // Big enough that mapping costs nothing next to scanning, small enough that a phone's
+    // address space never has to find room for a multi-gigabyte file in one piece.
+    private const val WINDOW_BYTES = 16 * 1024 * 1024
+    private const val MAX_LINE_BYTES = 4096
+    private const val MAX_WORKERS = 8
+    private const val MAX_LINE_CHARS = 500
+}
@@ -0,0 +1,477 @@
+package com.hereliesaz.hg2gui.managers
+
+import android.os.FileObserver
+import com.hereliesaz.hg2gui.util.Utils
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.PriorityQueue
+import java.util.TreeMap
+import java.util.TreeSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveTask
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+/**
+ * Metadata for everything under the VFS sandbox's [root] - path, name, size, mtime, category -
+ * so search and the storage breakdown are lookups in memory rather than a recursive walk of the
+ * whole sandbox on every keystroke and every visit to the storage screen.
+ *
+ * Kept current incrementally: VfsManager's own mutators report exactly what they touched
+ * ([update], [remove], [reindex]), and with [watchChanges] a FileObserver on every directory
+ * picks up what anything else does - a shell session's `cp`, the editor saving, an agent's
+ * `vfs.write`. Persisted to [snapshot] (written beside itself and renamed over it, like every
+ * other cache here) a couple of seconds after the last change, so a cold start answers from the
+ * last session's index straight away while one background walk catches up with whatever changed
+ * while nothing was watching.
+ *
+ * Paths are relative to [root] with `/` separators - "Downloads/photo.png" - and "" is the root
+ * itself, which has no entry of its own.
+ *
+ * [onChange] hears about every file a watcher sees change, written in place included - on the
+ * watcher's thread, before the index itself is updated.
+ */
+internal class VfsIndex(
+    root: File,
+    private val snapshot: File,
+    private val watchChanges: Boolean,
+    private val onChange: (File) -> Unit = {}
+) {
+
+    class Entry(val path: String, val isDirectory: Boolean, val size: Long, val modifiedAt: Long) {
+        val name: String = path.substringAfterLast('/')
+        val parent: String = path.substringBeforeLast('/', "")
+        val category: VfsManager.StorageCategory? = if (isDirectory) null else VfsManager.categoryOf(name)
+        val depth: Int = path.count { it == '/' }
+
+        // Search is case-insensitive; lowercasing once here beats once per entry per query.
+        internal val key: String = name.lowercase()
+    }
+
+    val root: File = root.canonicalFile
+
+    // Sorted by path, so a directory's whole subtree is one contiguous range - [subtree] - for
+    // a scoped search or dropping a deleted folder, with no per-directory child lists to keep in
+    // step. Everything below is guarded by [lock]; FileObserver events arrive on their own thread.
+    private val lock = Any()
+    private val entries = TreeMap<String, Entry>()
+
+    // The same entries again, shallowest first - the order search hands results back in, so a
+    // hit near the top of the sandbox never waits behind one buried ten folders down.
+    private val byDepth = TreeSet<Entry>(compareBy<Entry>({ it.depth }, { it.path }))
+
+    /** Bumped on every change, so a caller holding on to earlier results can tell whether they
+     *  still describe the index. */
+    @Volatile var generation = 0L
+        private set
+
+    // Bytes per category under each directory, by ordinal - "" is the whole sandbox. Taken whole
+    // from a [ScanTask] walk, then kept by [account] as entries come and go.
+    private val subtotals = HashMap<String, LongArray>()
+
+    // Non-null while [rescan] is walking: paths changed meanwhile, re-read once its result has
+    // replaced the index, so a write that lands mid-walk isn't lost to a listing taken before it.
+    private var touchedDuringRescan: MutableSet<String>? = null
+
+    private val watchers = HashMap<String, FileObserver>()
+
+    @Volatile private var loaded = false
+    private val loadLock = Any()
+    private val rescanLock = Any()
+
+    private val savePending = AtomicBoolean(false)
+    private val saver = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "VfsIndex-save").apply { isDaemon = true }
+    }
+
+    /** Loads the index on first use: from [snapshot] if there is one - reconciled with the disk
+     *  in the background - else by walking the sandbox once, right now. */
+    fun ensureLoaded() {
+        if (loaded) return
+        synchronized(loadLock) {
+            if (loaded) return
+            val restored = readSnapshot()
+            if (restored != null) {
+                replaceAll(restored, null)
+                loaded = true
+                thread(name = "VfsIndex-reconcile", isDaemon = true) { rescan() }
+            } else {
+                rescan()
+                loaded = true
+            }
+        }
+    }
+
+    /** [file]'s path in this index, or null if it isn't under [root]. */
+    fun pathOf(file: File): String? {
+        val canonical = file.canonicalPath
+        if (canonical == root.path) return ""
+        val prefix = root.path + File.separator
+        return if (canonical.startsWith(prefix)) canonical.removePrefix(prefix).replace(File.separatorChar, '/') else null
+    }
+
+    fun fileOf(path: String): File = if (path.isEmpty()) root else File(root, path)
+
+    /** [file] was created or written. A directory not already indexed is indexed whole - it may
+     *  have arrived with contents (a move, a copy) - but an existing one isn't re-walked; use
+     *  [reindex] for a folder whose contents were replaced. */
+    fun update(file: File) {
+        val path = pathOf(file)?.takeIf { it.isNotEmpty() } ?: return
+        if (!file.exists()) {
+            remove(file)
+            return
+        }
+        val entry = entryOf(path, file)
+        val newDirectory = synchronized(lock) {
+            touchedDuringRescan?.add(path)
+            val old = put(entry)
+            entry.isDirectory && old?.isDirectory != true
+        }
+        if (newDirectory) reindex(file) else scheduleSave()
+    }
+
+    /** [file] - and, if it was a directory, everything that was under it - is gone. */
+    fun remove(file: File) {
+        val path = pathOf(file)?.takeIf { it.isNotEmpty() } ?: return
+        synchronized(lock) {
+            touchedDuringRescan?.add(path)
+            subtree(path).keys.toList().forEach { removeEntry(it) }
+            removeEntry(path)
+        }
+        scheduleSave()
+    }
+
+    /** Re-reads [file] and, for a directory, its whole subtree from disk - for a copy or move
+     *  that may have replaced a folder's contents wholesale. */
+    fun reindex(file: File) {
+        val path = pathOf(file)?.takeIf { it.isNotEmpty() } ?: return
+        if (!file.exists()) {
+            remove(file)
+            return
+        }
+        val entry = entryOf(path, file)
+        // Watch before walking, so nothing created in between is missed.
+        if (entry.isDirectory) watch(path)
+        val walk = Walk()
+        if (entry.isDirectory) ForkJoinPool.commonPool().invoke(ScanTask(entry, file, walk, 0))
+        val found = walk.found
+        synchronized(lock) {
+            touchedDuringRescan?.add(path)
+            subtree(path).keys.toList().forEach { removeEntry(it) }
+            put(entry)
+            found.forEach { put(it) }
+        }
+        found.filter { it.isDirectory }.forEach { watch(it.path) }
+        scheduleSave()
+    }
+
+    /** Up to [limit] entries under [under] (the whole sandbox by default) whose name contains
+     *  [query], case-insensitively, shallowest first. */
+    fun search(query: String, under: String = "", limit: Int = Int.MAX_VALUE): List<Entry> {
+        val results = mutableListOf<Entry>()
+        var after: Entry? = null
+        do {
+            val page = searchPage(query, under, after)
+            results.addAll(page.matches.take(limit - results.size))
+            after = page.next
+        } while (after != null && results.size < limit)
+        return results
+    }
+
+    /** One page of [search]: the matches among at most [scan] entries after [after] - from the
+     *  top if null - and where the next page starts, null once there's nothing left. */
+    class Page(val matches: List<Entry>, val next: Entry?)
+
+    /** [search] a page at a time, so a caller streaming results holds [lock] for one page and
+     *  not across everything it does with them. [after] may since have left the index - the
+     *  next page still starts where it would have been. */
+    fun searchPage(query: String, under: String, after: Entry?, scan: Int = SEARCH_PAGE): Page {
+        ensureLoaded()
+        val q = query.lowercase()
+        val prefix = if (under.isEmpty()) "" else "$under/"
+        synchronized(lock) {
+            // Nothing shallower than [under]'s own children can be in scope - start there.
+            val start = after ?: if (under.isEmpty()) null else Entry(prefix, true, 0L, 0L)
+            val rest = if (start == null) byDepth else byDepth.tailSet(start, false)
+            val matches = mutableListOf<Entry>()
+            var last: Entry? = null
+            var scanned = 0
+            for (entry in rest) {
+                if (scanned++ == scan) return Page(matches, last)
+                last = entry
+                if (entry.path.startsWith(prefix) && entry.key.contains(q)) matches.add(entry)
+            }
+            return Page(matches, null)
+        }
+    }
+
+    /** Every file under [under] (the whole sandbox by default), shallowest first. */
+    fun files(under: String = ""): List<Entry> {
+        ensureLoaded()
+        val prefix = if (under.isEmpty()) "" else "$under/"
+        synchronized(lock) {
+            return byDepth.filter { !it.isDirectory && it.path.startsWith(prefix) }
+        }
+    }
+
+    /** Total file bytes and bytes per category under [under] (the whole sandbox by default),
+     *  both kept as the index changes, and its [top] largest files. */
+    fun breakdown(top: Int, under: String = ""): VfsManager.StorageBreakdown {
+        ensureLoaded()
+        synchronized(lock) {
+            val sums = subtotals[under] ?: LongArray(CATEGORIES.size)
+            val byCategory = CATEGORIES.filter { sums[it.ordinal] > 0 }.associateWith { sums[it.ordinal] }
+            // A min-heap of at most [top]: its smallest is the one a bigger file evicts, so the
+            // ranking is one pass at O(n log top) rather than a sort of every file.
+            val heap = PriorityQueue<Entry>(top + 1, compareBy { it.size })
+            val scope = if (under.isEmpty()) entries else subtree(under)
+            for (entry in scope.values) {
+                if (entry.isDirectory || top <= 0) continue
+                if (heap.size < top) {
+                    heap.add(entry)
+                } else if (entry.size > heap.peek()!!.size) {
+                    heap.poll()
+                    heap.add(entry)
+                }
+            }
+            val largest = heap.sortedByDescending { it.size }.map { fileOf(it.path) }
+            return VfsManager.StorageBreakdown(sums.sum(), byCategory, largest)
+        }
+    }
+
+    /** Walks the whole sandbox and makes the index match it. One at a time - the launch's
+     *  background reconcile and any other caller would otherwise share [touchedDuringRescan]. */
+    fun rescan() = synchronized(rescanLock) {
+        synchronized(lock) { touchedDuringRescan = mutableSetOf() }
+        val walk = Walk()
+        ForkJoinPool.commonPool().invoke(ScanTask(null, root, walk, 0))
+        val touched = synchronized(lock) {
+            replaceAll(walk.found, walk.totals)
+            touchedDuringRescan.also { touchedDuringRescan = null }
+        }
+        // Re-read whole: a folder created mid-walk may have been listed before its contents were.
+        touched?.forEach { reindex(fileOf(it)) }
+        scheduleSave()
+    }
+
+    /** What one walk shares across its [ScanTask]s - all safe to touch from any pool thread. */
+    private class Walk {
+        val seen: MutableSet<String> = ConcurrentHashMap.newKeySet()
+        val found = ConcurrentLinkedQueue<Entry>()
+        val totals = ConcurrentHashMap<String, LongArray>()
+    }
+
+    /**
+     * One directory of a walk - [entry]'s, or the root's for null. Forks a task per subdirectory
+     * onto the common ForkJoinPool, so a folder of folders is listed and stat'ed in parallel
+     * rather than one syscall at a time, and returns its subtree's bytes per category - recorded
+     * in [Walk.totals] on the way back up, so every directory's subtotal comes out of the same
+     * pass as the listing.
+     *
+     * Nothing is reused from the index being replaced, even for a directory whose mtime hasn't
+     * moved: a file rewritten in place doesn't touch its directory's mtime, and a shell session,
+     * an agent's `vfs.write` or anything in a folder past MAX_WATCHED_DIRS can do that unseen. So
+     * every child would need its stat anyway, and a fresh listing costs little on top of that.
+     *
+     * Same guards as VfsManager's walks: [Walk.seen] skips a symlink back onto a folder already
+     * walked, MAX_WALK_DEPTH backstops any cycle it doesn't catch.
+     */
+    private inner class ScanTask(
+        private val entry: Entry?,
+        private val dir: File,
+        private val walk: Walk,
+        private val depth: Int
+    ) : RecursiveTask<LongArray>() {
+
+        override fun compute(): LongArray {
+            val sums = LongArray(CATEGORIES.size)
+            val path = entry?.path ?: ""
+            if (depth >= MAX_WALK_DEPTH || !walk.seen.add(dir.canonicalPath)) return sums
+            val children = dir.listFiles()?.map { entryOf(if (path.isEmpty()) it.name else "$path/${it.name}", it) }.orEmpty()
+            val subdirectories = mutableListOf<ScanTask>()
+            for (child in children) {
+                walk.found.add(child)
+                child.category?.let { sums[it.ordinal] += child.size }
+                if (child.isDirectory) subdirectories.add(ScanTask(child, fileOf(child.path), walk, depth + 1))
+            }
+            for (task in ForkJoinTask.invokeAll(subdirectories)) {
+                task.join().forEachIndexed { i, bytes -> sums[i] += bytes }
+            }
+            walk.totals[path] = sums
+            return sums
+        }
+    }
+
+    private fun entryOf(path: String, file: File): Entry {
+        val isDirectory = file.isDirectory
+        return Entry(path, isDirectory, if (isDirectory) 0L else file.length(), file.lastModified())
+    }
+
+    private fun subtree(path: String) = entries.subMap("$path/", true, "$path/\uFFFF", true)
+
+    // --- Under [lock] -----------------------------------------------------------------------
+
+    private fun put(entry: Entry): Entry? {
+        val old = entries.put(entry.path, entry)
+        if (old != null) byDepth.remove(old)
+        byDepth.add(entry)
+        account(old, -1)
+        account(entry, 1)
+        generation++
+        return old
+    }
+
+    // A directory's own contents are removed first, so its subtotal is spent by the time it goes.
+    private fun removeEntry(path: String) {
+        val old = entries.remove(path) ?: return
+        byDepth.remove(old)
+        account(old, -1)
+        generation++
+        if (old.isDirectory) {
+            subtotals.remove(path)
+            watchers.remove(path)?.stopWatching()
+        }
+    }
+
+    // A file's bytes count towards every directory above it, up to the root's "".
+    private fun account(entry: Entry?, sign: Int) {
+        val category = entry?.category ?: return
+        var dir = entry.parent
+        while (true) {
+            subtotals.getOrPut(dir) { LongArray(CATEGORIES.size) }[category.ordinal] += sign * entry.size
+            if (dir.isEmpty()) break
+            dir = dir.substringBeforeLast('/', "")
+        }
+    }
+
+    /** Makes [found] the whole index - with [totals] as its subtotals if a walk already summed
+     *  them, else summed here. */
+    private fun replaceAll(found: Collection<Entry>, totals: Map<String, LongArray>?) {
+        synchronized(lock) {
+            entries.clear()
+            byDepth.clear()
+            subtotals.clear()
+            if (totals != null) {
+                found.forEach { entries[it.path] = it }
+                byDepth.addAll(found)
+                subtotals.putAll(totals)
+            } else {
+                found.forEach { put(it) }
+            }
+            generation++
+            val directories = found.filter { it.isDirectory }.mapTo(HashSet()) { it.path }
+            watchers.keys.filter { it.isNotEmpty() && it !in directories }.forEach { watchers.remove(it)?.stopWatching() }
+        }
+        watch("")
+        found.filter { it.isDirectory }.forEach { watch(it.path) }
+    }
+
+    // --- Watching -----------------------------------------------------------------------------
+
+    // One inotify watch per directory - FileObserver isn't recursive before API 29, and even
+    // then only over a fixed list. Capped well under the kernel's per-user limit (8192 on older
+    // devices), shared with every other app's uid-mates; past it, changes in the unwatched
+    // folders are only picked up by the next launch's reconcile.
+    private fun watch(path: String) {
+        if (!watchChanges) return
+        synchronized(lock) {
+            if (path in watchers || watchers.size >= MAX_WATCHED_DIRS) return
+            val observer = DirectoryObserver(path)
+            watchers[path] = observer
+            observer.startWatching()
+        }
+    }
+
+    @Suppress("DEPRECATION") // FileObserver(File, Int) is API 29+; minSdk is 24.
+    private inner class DirectoryObserver(private val path: String) : FileObserver(fileOf(path).path, WATCH_MASK) {
+        override fun onEvent(event: Int, name: String?) {
+            if (name.isNullOrEmpty()) return
+            val child = fileOf(if (path.isEmpty()) name else "$path/$name")
+            onChange(child)
+            when (event and ALL_EVENTS) {
+                // Mid-write: only [onChange] cares. The index waits for the CLOSE_WRITE.
+                MODIFY -> Unit
+                DELETE, MOVED_FROM -> remove(child)
+                MOVED_TO -> reindex(child)
+                else -> update(child)
+            }
+        }
+    }
+
+    // --- Persistence --------------------------------------------------------------------------
+
+    private fun scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            saver.schedule({
+                savePending.set(false)
+                save()
+            }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    fun save() {
+        val copy = synchronized(lock) { entries.values.toList() }
+        val tmp = File(snapshot.path + ".tmp")
+        try {
+            snapshot.parentFile?.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                out.writeUTF(root.path)
+                out.writeInt(copy.size)
+                for (entry in copy) {
+                    out.writeUTF(entry.path)
+                    out.writeBoolean(entry.isDirectory)
+                    out.writeLong(entry.size)
+                    out.writeLong(entry.modifiedAt)
+                }
+            }
+            if (!tmp.renameTo(snapshot)) tmp.delete()
+        } catch (e: IOException) {
+            // Only the next cold start pays - it walks the sandbox, as search always used to.
+            Utils.log(e)
+            tmp.delete()
+        }
+    }
+
+    private fun readSnapshot(): List<Entry>? {
+        if (!snapshot.isFile) return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(snapshot))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readUTF() != root.path) return null
+                List(input.readInt()) {
+                    Entry(input.readUTF(), input.readBoolean(), input.readLong(), input.readLong())
+                }
+            }
+        } catch (e: EOFException) {
+            null
+        } catch (e: IOException) {
+            Utils.log(e)
+            null
+        }
+    }
+
+    private companion object {
+        const val MAGIC = 0x48475649 // "HGVI"
+        const val VERSION = 1
+        const val MAX_WALK_DEPTH = 64
+        val CATEGORIES = VfsManager.StorageCategory.values()
+        const val MAX_WATCHED_DIRS = 4096
+        const val SEARCH_PAGE = 2048
+        const val SAVE_DELAY_MS = 2_000L
+        const val WATCH_MASK = FileObserver.CREATE or FileObserver.DELETE or FileObserver.MOVED_FROM or
+            FileObserver.MOVED_TO or FileObserver.CLOSE_WRITE or FileObserver.ATTRIB or FileObserver.MODIFY
+    }
+}
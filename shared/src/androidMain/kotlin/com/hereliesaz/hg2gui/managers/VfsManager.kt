@@ -1,7 +1,22 @@
 package com.hereliesaz.hg2gui.managers
 
 import android.content.Context
+import com.hereliesaz.hg2gui.util.replaceFile
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.last
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onCompletion
 import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+import kotlin.concurrent.thread
 
 /**
  * A sandboxed filesystem rooted at the app's private storage, so `mkdir`/`touch`/editing
@@ -25,6 +40,17 @@ object VfsManager {
     @Volatile
     private var relativePath: String = ""
 
+    // Created with the first search or storage breakdown, not at init - a session that never
+    // asks either shouldn't pay for loading it or for a FileObserver on every folder. Until
+    // then the mutators below have nothing to keep current.
+    @Volatile
+    private var index: VfsIndex? = null
+
+    // Holds the content-hash cache once a duplicate scan has loaded it, so the next scan in the
+    // same session doesn't re-read it from disk.
+    @Volatile
+    private var duplicateFinder: VfsDuplicates? = null
+
     fun init(context: Context): File {
         val existing = root
         if (existing != null) return existing
@@ -33,6 +59,36 @@ object VfsManager {
         return created
     }
 
+    private fun index(context: Context): VfsIndex {
+        index?.let { return it }
+        synchronized(this) {
+            // A file rewritten in place leaves its folder's mtime alone - the watcher is what
+            // tells [listDir]'s cache about it.
+            return index ?: VfsIndex(init(context), File(context.filesDir, INDEX_FILE), watchChanges = true) { changed ->
+                forgetListing(changed.parentFile)
+            }.also { index = it }
+        }
+    }
+
+    /** Loads the index in the background if nothing has yet, for the watchers that keep
+     *  [listDir]'s cache honest - see [listDir]. For the Files screen, which lists before it
+     *  ever searches. */
+    fun startWatching(context: Context) {
+        if (index != null) return
+        val created = index(context)
+        thread(name = "VfsIndex-load", isDaemon = true) { created.ensureLoaded() }
+    }
+
+    /** Tells the index, if there is one yet, what a mutator just did - true/false passed through. */
+    private inline fun indexed(done: Boolean, block: (VfsIndex) -> Unit): Boolean {
+        if (done) index?.let(block)
+        return done
+    }
+
+    private const val INDEX_FILE = "vfs-index.bin"
+    private const val MAX_LISTINGS = 64
+    private const val HASHES_FILE = "vfs-hashes.bin"
+
     /** The directory currently open in the explorer / used by relative `vfs` commands. */
     fun currentDir(context: Context): File {
         val r = init(context)
@@ -65,6 +121,63 @@ object VfsManager {
         }
     }
 
+    /** One entry of a [listDir] listing - everything the Files screen shows about it. */
+    class Listed(val name: String, val isDirectory: Boolean, val size: Long, val modifiedAt: Long)
+
+    // Listings by folder path, each with the folder mtime it was read at. Access-ordered, so the
+    // eldest is the least recently opened folder once there are more than MAX_LISTINGS.
+    private val listings = object : LinkedHashMap<String, Pair<FileTime, List<Listed>>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Pair<FileTime, List<Listed>>>) = size > MAX_LISTINGS
+    }
+
+    /**
+     * [dir]'s entries, read with one stat each - a directory stream plus readAttributes, rather
+     * than listFiles() and then isDirectory/isFile/length/lastModified as four separate stats per
+     * entry. Kept until [dir]'s own mtime moves, which every create, delete and rename inside it
+     * does. A file rewritten in place doesn't move it: [changed] and [writeText] forget the
+     * listing themselves, and once [startWatching] has the index up, its FileObserver does for
+     * every other writer - a shell session, an agent. Empty if [dir] can't be read.
+     */
+    fun listDir(dir: File): List<Listed> {
+        val path = dir.toPath()
+        // Read before listing: a change made mid-listing then moves the mtime past the one
+        // stored, and the next call re-reads rather than trusting a half-stale listing.
+        // Compared at full precision, not millis - two changes within one millisecond of a
+        // listing would otherwise look like none.
+        val mtime = try {
+            Files.getLastModifiedTime(path)
+        } catch (e: IOException) {
+            return emptyList()
+        }
+        synchronized(listings) {
+            listings[dir.path]?.let { (cachedAt, cached) -> if (cachedAt == mtime) return cached }
+        }
+        val listed = try {
+            Files.newDirectoryStream(path).use { stream ->
+                stream.mapNotNull { child ->
+                    try {
+                        val attrs = Files.readAttributes(child, BasicFileAttributes::class.java)
+                        Listed(
+                            child.fileName.toString(), attrs.isDirectory,
+                            if (attrs.isRegularFile) attrs.size() else 0L, attrs.lastModifiedTime().toMillis()
+                        )
+                    } catch (e: IOException) {
+                        // Gone between the listing and the stat, or a dangling link.
+                        null
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            return emptyList()
+        }
+        synchronized(listings) { listings[dir.path] = mtime to listed }
+        return listed
+    }
+
+    private fun forgetListing(dir: File?) {
+        if (dir != null) synchronized(listings) { listings.remove(dir.path) }
+    }
+
     fun list(context: Context): List<File> =
         currentDir(context).listFiles()
             ?.sortedWith(compareBy({ !it.isDirectory }, { it.name.lowercase() }))
@@ -95,11 +208,14 @@ object VfsManager {
         return true
     }
 
-    fun mkdir(context: Context, name: String): Boolean = resolve(context, name)?.mkdirs() ?: false
+    fun mkdir(context: Context, name: String): Boolean {
+        val f = resolve(context, name) ?: return false
+        return indexed(f.mkdirs()) { it.update(f) }
+    }
 
     fun touch(context: Context, name: String): Boolean {
         val f = resolve(context, name) ?: return false
-        return f.exists() || f.createNewFile()
+        return indexed(f.exists() || f.createNewFile()) { it.update(f) }
     }
 
     // MCP-11: the MCP vfs.read tool routes straight through this with no cap of its own - a
@@ -113,32 +229,52 @@ object VfsManager {
             ?.takeIf { it.isFile && it.length() <= MAX_READ_TEXT_BYTES }
             ?.readText()
 
+    // Replaced by a rename, never rewritten in place - the editor may have the old file mapped.
     fun writeText(context: Context, name: String, text: String): Boolean {
         val f = resolve(context, name) ?: return false
-        return try {
-            f.writeText(text)
+        val written = try {
+            replaceFile(f) { it.write(text.toByteArray()) }
             true
         } catch (e: Exception) {
             false
         }
+        if (written) forgetListing(f.parentFile)
+        return indexed(written) { it.update(f) }
+    }
+
+    /** For a file rewritten in place by something other than the mutators here (the editor) -
+     *  the one kind of change its folder's mtime doesn't record. */
+    fun changed(file: File) {
+        if (!contains(file)) return
+        forgetListing(file.parentFile)
+        index?.update(file)
     }
 
-    fun delete(context: Context, name: String): Boolean = resolve(context, name)?.deleteRecursively() ?: false
+    // deleteRecursively can fail partway, having deleted some of the tree - the index is told
+    // either way and re-reads whatever is left.
+    fun delete(context: Context, name: String): Boolean {
+        val f = resolve(context, name) ?: return false
+        val deleted = f.deleteRecursively()
+        index?.reindex(f)
+        return deleted
+    }
 
     fun move(context: Context, from: String, to: String): Boolean {
         val f = resolve(context, from) ?: return false
         val t = resolve(context, to) ?: return false
-        return f.renameTo(t)
+        return indexed(f.renameTo(t)) {
+            it.remove(f)
+            it.reindex(t)
+        }
     }
 
-    fun copy(context: Context, from: String, to: String): Boolean {
+    // For `vfs cp` and the MCP tool - suspends until the whole copy is done, on the caller's own
+    // coroutine, so cancelling it (an agent disconnecting) stops and rolls back the copy.
+    suspend fun copy(context: Context, from: String, to: String): Boolean {
         val f = resolve(context, from) ?: return false
         val t = resolve(context, to) ?: return false
-        return try {
-            if (f.isDirectory) f.copyRecursively(t, overwrite = true) else { f.copyTo(t, overwrite = true); true }
-        } catch (e: Exception) {
-            false
-        }
+        if (f.isDirectory && isSelfOrDescendant(f, t)) return false
+        return transfer(listOf(f to t), move = false).last().failed.isEmpty()
     }
 
     /** True if [file] is a real path inside the sandbox root - the safety check every File-based
@@ -164,7 +300,7 @@ object VfsManager {
     fun mkdir(dir: File, name: String): Boolean {
         if (!contains(dir)) return false
         val target = File(dir, name)
-        return contains(target) && target.mkdirs()
+        return indexed(contains(target) && target.mkdirs()) { it.update(target) }
     }
 
     // VFS-13: this backs the Files screen's own "+ New File" - unlike the string-based touch()
@@ -175,89 +311,156 @@ object VfsManager {
         if (!contains(dir)) return false
         val target = File(dir, name)
         if (!contains(target) || target.exists()) return false
-        return target.createNewFile()
+        return indexed(target.createNewFile()) { it.update(target) }
     }
 
-    fun delete(file: File): Boolean = contains(file) && file.deleteRecursively()
+    fun delete(file: File): Boolean {
+        if (!contains(file)) return false
+        val deleted = file.deleteRecursively()
+        index?.reindex(file)
+        return deleted
+    }
 
     fun rename(file: File, newName: String): Boolean {
         if (!contains(file)) return false
         val parent = file.parentFile ?: return false
         val target = File(parent, newName)
-        return contains(target) && file.renameTo(target)
+        return indexed(contains(target) && file.renameTo(target)) {
+            it.remove(file)
+            it.reindex(target)
+        }
     }
 
     /** True iff [target] is [ancestor] itself or sits somewhere underneath it - the check
-     *  moveInto/copyInto need before touching a folder, since neither `renameTo` nor
-     *  `copyRecursively` reject a destination that's actually inside the source they're reading
-     *  from; the folder picker offers exactly that target with nothing else stopping it. */
+     *  transferInto/copy need before touching a folder, since neither a rename nor a recursive
+     *  copy rejects a destination that's actually inside the source it's reading from; the
+     *  folder picker offers exactly that target with nothing else stopping it. */
     private fun isSelfOrDescendant(ancestor: File, target: File): Boolean {
         val a = ancestor.canonicalFile
         val t = target.canonicalFile
         return t == a || t.path.startsWith(a.path + File.separator)
     }
 
-    fun moveInto(file: File, targetDir: File): Boolean {
-        if (!contains(file) || !contains(targetDir)) return false
-        if (file.isDirectory && isSelfOrDescendant(file, targetDir)) return false
-        return file.renameTo(File(targetDir, file.name))
+    /**
+     * Moves or copies every one of [files] into [targetDir] as one batch - see [VfsTransfer] -
+     * reporting progress as it goes. A file outside the sandbox, or a folder asked to go inside
+     * itself, is reported failed without being touched - done from the first report on, since
+     * nothing more will happen to it - and the rest go ahead regardless. One that's already in
+     * [targetDir] is left where it is and counted done.
+     */
+    fun transferInto(files: List<File>, targetDir: File, move: Boolean): Flow<VfsTransfer.Progress> {
+        val (allowed, refused) = files.partition {
+            contains(it) && contains(targetDir) && !(it.isDirectory && isSelfOrDescendant(it, targetDir))
+        }
+        return transfer(allowed.map { it to File(targetDir, it.name) }, move)
+            .map {
+                it.copy(
+                    itemsDone = it.itemsDone + refused.size,
+                    itemsTotal = it.itemsTotal + refused.size,
+                    failed = it.failed + refused
+                )
+            }
     }
 
-    fun copyInto(file: File, targetDir: File): Boolean {
-        if (!contains(file) || !contains(targetDir)) return false
-        if (file.isDirectory && isSelfOrDescendant(file, targetDir)) return false
-        val target = File(targetDir, file.name)
-        return try {
-            if (file.isDirectory) file.copyRecursively(target, overwrite = true) else { file.copyTo(target, overwrite = true); true }
-        } catch (e: Exception) {
-            false
+    // The index catches up once the batch is over - however it ended, since a cancelled or
+    // failed one has still moved, copied or rolled back something. Both ends are re-read:
+    // a source that failed to move is still where it was.
+    private fun transfer(pairs: List<Pair<File, File>>, move: Boolean): Flow<VfsTransfer.Progress> =
+        (if (move) VfsTransfer.move(pairs) else VfsTransfer.copy(pairs)).onCompletion {
+            index?.let { index ->
+                pairs.forEach { (source, target) ->
+                    if (move) index.reindex(source)
+                    index.reindex(target)
+                }
+            }
         }
+
+    /** Every name under [dir] (defaulting to the sandbox root) containing [query], case
+     *  insensitive - real recursive search, not just the one open directory. Answered from
+     *  [VfsIndex] rather than by walking the tree - no disk I/O per query, however big the
+     *  sandbox is; the first call of a session loads the index (see [VfsIndex.ensureLoaded]). */
+    fun search(context: Context, query: String, dir: File = init(context), limit: Int = 200): List<File> {
+        if (query.isBlank()) return emptyList()
+        val index = index(context)
+        val under = index.pathOf(dir) ?: return emptyList()
+        return index.search(query, under, limit).map { index.fileOf(it.path) }
     }
 
-    // A guard shared by every recursive walk below: [seen] catches a symlink cycle (an inward-
-    // pointing link resolves to a canonical path already on this walk's own stack, so it's
-    // skipped rather than recursed into forever) and MAX_WALK_DEPTH backstops any cycle [seen]
-    // doesn't - a real filesystem is never this deep, so hitting it means something's wrong, not
-    // that there's more to see.
-    private const val MAX_WALK_DEPTH = 64
+    /** A search that saw every match - all that [searchFlow] needs to answer a narrower one. */
+    private class CompletedSearch(val query: String, val under: String, val generation: Long, val matches: List<VfsIndex.Entry>)
 
-    /** Every file and directory under [dir] (or the whole sandbox, by default), depth-first,
-     *  directories before their own contents - the walk every recursive feature below shares. */
-    private fun walk(dir: File, into: MutableList<File>, seen: MutableSet<String> = mutableSetOf(), depth: Int = 0) {
-        if (depth >= MAX_WALK_DEPTH || !seen.add(dir.canonicalPath)) return
-        val children = dir.listFiles()
-            ?.sortedWith(compareBy({ !it.isDirectory }, { it.name.lowercase() }))
-            ?: return
-        for (child in children) {
-            into.add(child)
-            if (child.isDirectory) walk(child, into, seen, depth + 1)
+    @Volatile
+    private var lastSearch: CompletedSearch? = null
+
+    /**
+     * [search] as a cold Flow: matches are emitted as they're found, shallowest first, one page
+     * of the index at a time - the index isn't locked across an emit, and a collector that's
+     * cancelled (the Files screen cancels on every keystroke) stops at the next page.
+     *
+     * A query that extends the last one to run to completion ("repo" after "rep") can only match
+     * a subset of what that one did, so as long as nothing in the index has changed since, those
+     * matches are filtered instead of the index being scanned again. A search cut off at [limit]
+     * isn't reusable - the narrower query's matches may be among the ones it never reached.
+     */
+    fun searchFlow(context: Context, query: String, dir: File = init(context), limit: Int = 200): Flow<File> = flow {
+        if (query.isBlank()) return@flow
+        val index = index(context)
+        val under = index.pathOf(dir) ?: return@flow
+        val q = query.lowercase()
+        val generation = index.generation
+        val previous = lastSearch
+        if (previous != null && previous.under == under && previous.generation == generation && q.contains(previous.query)) {
+            val matches = previous.matches.filter { it.key.contains(q) }
+            lastSearch = CompletedSearch(q, under, generation, matches)
+            matches.take(limit).forEach { emit(index.fileOf(it.path)) }
+            return@flow
         }
+        val matches = mutableListOf<VfsIndex.Entry>()
+        var after: VfsIndex.Entry? = null
+        do {
+            currentCoroutineContext().ensureActive()
+            val page = index.searchPage(q, under, after)
+            for (entry in page.matches) {
+                if (matches.size == limit) return@flow
+                matches.add(entry)
+                emit(index.fileOf(entry.path))
+            }
+            after = page.next
+        } while (after != null)
+        lastSearch = CompletedSearch(q, under, generation, matches)
     }
 
-    /** Every name under [dir] (defaulting to the sandbox root) containing [query], case
-     *  insensitive - real recursive search, not just the one open directory. Stops as soon as
-     *  [limit] matches are found rather than materializing the whole tree first and truncating
-     *  after - a query that matches broadly (a single common letter) shouldn't have to finish
-     *  walking an unbounded tree before the first [limit] results can come back. */
-    fun search(context: Context, query: String, dir: File = init(context), limit: Int = 200): List<File> {
-        if (query.isBlank()) return emptyList()
-        val results = mutableListOf<File>()
-        searchWalk(dir, query.lowercase(), results, limit)
-        return results
+    /**
+     * Lines in files under [dir] matching [query], streamed as [VfsGrep] finds them - see
+     * [VfsGrep.Options]. Which files exist comes from the index, so nothing walks the tree. A
+     * regex that doesn't compile throws IllegalArgumentException here, before anything is read.
+     *
+     * The index follows symlinked folders, so a path it holds can lead out of the sandbox; each
+     * file is held to [contains] before it's opened, the same line [resolve] draws for a typed
+     * path - vfs.grep must not read what vfs.read would refuse.
+     */
+    fun grep(context: Context, query: String, options: VfsGrep.Options = VfsGrep.Options(), dir: File = init(context)): Flow<VfsGrep.Hit> {
+        if (query.isEmpty()) return emptyFlow()
+        val matcher = VfsGrep.matcher(query, options.regex, options.ignoreCase)
+        return flow {
+            val index = index(context)
+            val under = index.pathOf(dir) ?: return@flow
+            emitAll(VfsGrep.search(index.files(under).map { index.fileOf(it.path) }, matcher, options, ::contains))
+        }
     }
 
-    private fun searchWalk(
-        dir: File, q: String, into: MutableList<File>, limit: Int,
-        seen: MutableSet<String> = mutableSetOf(), depth: Int = 0
-    ) {
-        if (into.size >= limit || depth >= MAX_WALK_DEPTH || !seen.add(dir.canonicalPath)) return
-        val children = dir.listFiles()
-            ?.sortedWith(compareBy({ !it.isDirectory }, { it.name.lowercase() }))
-            ?: return
-        for (child in children) {
-            if (into.size >= limit) return
-            if (child.name.lowercase().contains(q)) into.add(child)
-            if (child.isDirectory) searchWalk(child, q, into, limit, seen, depth + 1)
+    /** Every set of identical files in the sandbox, streamed as each is confirmed - see
+     *  [VfsDuplicates]. Candidates come from the index, so nothing is walked to find them. */
+    fun duplicates(context: Context): Flow<VfsDuplicates.Group> = flow {
+        val index = index(context)
+        val candidates = index.files().map { VfsDuplicates.Candidate(index.fileOf(it.path), it.size) }
+        emitAll(duplicateFinder(context).find(candidates))
+    }
+
+    private fun duplicateFinder(context: Context): VfsDuplicates {
+        duplicateFinder?.let { return it }
+        synchronized(this) {
+            return duplicateFinder ?: VfsDuplicates(File(context.cacheDir, HASHES_FILE)).also { duplicateFinder = it }
         }
     }
 
@@ -272,7 +475,9 @@ object VfsManager {
 
     fun isImage(file: File): Boolean = file.extension.lowercase() in IMAGE_EXT
 
-    private fun categoryOf(file: File): StorageCategory = when (file.extension.lowercase()) {
+    /** [name]'s category, by extension - a name rather than a File so [VfsIndex] can categorize
+     *  entries it only has the metadata of. */
+    internal fun categoryOf(name: String): StorageCategory = when (name.substringAfterLast('.', "").lowercase()) {
         in IMAGE_EXT -> StorageCategory.IMAGES
         in DOCUMENT_EXT -> StorageCategory.DOCUMENTS
         in CODE_EXT -> StorageCategory.CODE
@@ -286,17 +491,9 @@ object VfsManager {
         val largestFiles: List<File>
     )
 
-    /** Recursively sizes the whole sandbox by [StorageCategory] - this is storage used inside
-     *  HG2Gui's own private sandbox, not the device's, since that's the only filesystem [vfs]
-     *  actually models; a device-wide figure would be claiming knowledge this sandbox doesn't
-     *  have. */
-    fun storageByType(context: Context): StorageBreakdown {
-        val all = mutableListOf<File>()
-        walk(init(context), all)
-        val files = all.filter { it.isFile }
-        val byCategory = files.groupingBy { categoryOf(it) }.fold(0L) { acc, f -> acc + f.length() }
-        val total = files.sumOf { it.length() }
-        val largest = files.sortedByDescending { it.length() }.take(10)
-        return StorageBreakdown(total, byCategory, largest)
-    }
+    /** Sizes the whole sandbox by [StorageCategory] - this is storage used inside HG2Gui's own
+     *  private sandbox, not the device's, since that's the only filesystem [vfs] actually
+     *  models; a device-wide figure would be claiming knowledge this sandbox doesn't have. The
+     *  totals are kept by [VfsIndex] as files change, so this is a read, not a walk. */
+    fun storageByType(context: Context): StorageBreakdown = index(context).breakdown(10)
 }
@@ -0,0 +1,266 @@
+package com.hereliesaz.hg2gui.managers
+
+import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Copies and moves for the VFS - the engine behind the Files screen's batch MOVE/COPY and
+ * `vfs cp`.
+ *
+ * A move is a rename wherever it can be: inside one filesystem (the whole sandbox, short of a
+ * `vfs mount`) that moves a tree of any size without reading a byte of it. Only across
+ * filesystems does it fall back to a copy followed by deleting the source. Like renameTo, it
+ * replaces a file or empty folder in the way but refuses a folder with anything in it, rather
+ * than quietly merging into it. A copy goes file to file through
+ * [FileChannel.transferTo][java.nio.channels.FileChannel.transferTo] - on Linux, sendfile(2), so
+ * the bytes never surface into a Java buffer - with up to [PARALLEL_COPIES] files in flight at
+ * once, since a folder of small files is bound by per-file open/close latency far more than by
+ * bandwidth.
+ *
+ * Each source in a batch is all-or-nothing: every file is written to a `.part` sibling and only
+ * renamed into place once complete, and a source that fails - or is still unfinished when the
+ * collector cancels - has whatever it had created so far deleted again. A file it *replaced*
+ * stays replaced; there's no backup to put back, which is why the Files screen asks before
+ * overwriting.
+ */
+object VfsTransfer {
+
+    /**
+     * Where a transfer has got to. [itemsDone] of [itemsTotal] counts the sources asked for, not
+     * the files inside them; [bytesDone] of [bytesTotal] counts only bytes that actually have to
+     * be copied, so a move that's just a rename is 0 of 0. [failed] is every source that won't
+     * be (or wasn't) transferred - final only on the last emission.
+     */
+    data class Progress(
+        val itemsDone: Int,
+        val itemsTotal: Int,
+        val bytesDone: Long,
+        val bytesTotal: Long,
+        val bytesPerSecond: Long,
+        val failed: Set<File>
+    )
+
+    /** Copies each source onto its destination, replacing what's there and merging into an
+     *  existing folder the way `copyRecursively(overwrite = true)` did. */
+    fun copy(pairs: List<Pair<File, File>>): Flow<Progress> = transfer(pairs, move = false)
+
+    /** Moves each source onto its destination - renamed where possible, copied then deleted
+     *  where not. A destination folder that isn't empty fails that source, untouched. */
+    fun move(pairs: List<Pair<File, File>>): Flow<Progress> = transfer(pairs, move = true)
+
+    /**
+     * Progress every [PROGRESS_INTERVAL_MS] while the batch runs, then once more when it's over.
+     * Cancelling the collector stops every copy between chunks and rolls back whatever hadn't
+     * finished before the flow completes.
+     */
+    private fun transfer(pairs: List<Pair<File, File>>, move: Boolean): Flow<Progress> = channelFlow {
+        val batch = Batch(pairs.map { (source, target) -> Item(source, target) }, move)
+        val work = launch(Dispatchers.IO) { batch.run() }
+        var lastBytes = 0L
+        var lastAt = System.nanoTime()
+        var rate = 0.0
+        while (!work.isCompleted) {
+            delay(PROGRESS_INTERVAL_MS)
+            // Smoothed over the last few samples: a run of tiny files then one big one would
+            // otherwise swing the figure wildly from one tick to the next.
+            val now = System.nanoTime()
+            val bytes = batch.bytesDone.get()
+            val instant = (bytes - lastBytes) * NANOS_PER_SECOND / (now - lastAt).coerceAtLeast(1)
+            rate = if (lastBytes == 0L) instant else rate + RATE_SMOOTHING * (instant - rate)
+            lastBytes = bytes
+            lastAt = now
+            send(batch.progress(rate.toLong()))
+        }
+        send(batch.progress(rate.toLong()))
+    }
+
+    /** One source and where it's going, plus everything its transfer has created so far. */
+    private class Item(val source: File, val target: File) {
+        @Volatile
+        var failed = false
+        @Volatile
+        var done = false
+        // Files still to copy; the item completes when it reaches zero.
+        val remaining = AtomicInteger()
+        // Paths this item brought into existence, in creation order - what a rollback deletes.
+        val created = ConcurrentLinkedQueue<File>()
+    }
+
+    private class FileCopy(val item: Item, val source: File, val target: File)
+
+    private class Batch(private val items: List<Item>, private val move: Boolean) {
+        val bytesDone = AtomicLong()
+        private val bytesTotal = AtomicLong()
+        private val itemsDone = AtomicInteger()
+
+        fun progress(bytesPerSecond: Long) = Progress(
+            itemsDone.get(), items.size, bytesDone.get(), bytesTotal.get(), bytesPerSecond,
+            items.filter { it.failed }.mapTo(LinkedHashSet()) { it.source }
+        )
+
+        suspend fun run() {
+            try {
+                val queue = ConcurrentLinkedQueue<FileCopy>()
+                for (item in items) {
+                    currentCoroutineContext().ensureActive()
+                    when {
+                        // Already where it's going - the folder picker offers a file's own folder.
+                        // Nothing to do, and a move must not go on to delete its only copy.
+                        isSameFile(item) -> alreadyThere(item)
+                        !move -> plan(item, queue)
+                        rename(item) -> finish(item, copied = false)
+                        isNonEmptyDirectory(item.target) -> fail(item)
+                        else -> plan(item, queue)
+                    }
+                }
+                coroutineScope {
+                    repeat(PARALLEL_COPIES) {
+                        launch {
+                            while (true) copy(queue.poll() ?: break)
+                        }
+                    }
+                }
+                items.filterNot { it.done }.forEach { rollBack(it) }
+            } catch (e: CancellationException) {
+                items.filterNot { it.done }.forEach { rollBack(it) }
+                throw e
+            }
+        }
+
+        // Replaces a file or empty folder in the way, as renameTo did - and for a folder, won't
+        // quietly turn into a copy it can't report progress on or cancel.
+        private fun rename(item: Item): Boolean = try {
+            Files.move(item.source.toPath(), item.target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            true
+        } catch (e: IOException) {
+            // Another filesystem - copy, then delete - or a non-empty folder already in the way.
+            false
+        }
+
+        private fun isNonEmptyDirectory(file: File): Boolean = file.list()?.isNotEmpty() == true
+
+        private fun isSameFile(item: Item): Boolean = try {
+            item.target.exists() && Files.isSameFile(item.source.toPath(), item.target.toPath())
+        } catch (e: IOException) {
+            false
+        }
+
+        /** Creates [item]'s folders up front and queues its files, so the workers only ever
+         *  copy files into folders that already exist. */
+        private fun plan(item: Item, queue: ConcurrentLinkedQueue<FileCopy>) {
+            if (!item.source.exists()) {
+                fail(item)
+                return
+            }
+            val copies = mutableListOf<FileCopy>()
+            for (source in item.source.walkTopDown()) {
+                val target = File(item.target, source.relativeTo(item.source).path)
+                if (source.isDirectory) {
+                    if (!target.isDirectory) {
+                        if (!target.mkdir()) {
+                            fail(item)
+                            return
+                        }
+                        item.created.add(target)
+                    }
+                } else {
+                    copies.add(FileCopy(item, source, target))
+                    bytesTotal.addAndGet(source.length())
+                }
+            }
+            item.remaining.set(copies.size)
+            if (copies.isEmpty()) finish(item, copied = true) else queue.addAll(copies)
+        }
+
+        private suspend fun copy(copy: FileCopy) {
+            val item = copy.item
+            if (item.failed) {
+                fileDone(item)
+                return
+            }
+            val part = File(copy.target.parentFile, ".${copy.target.name}.part")
+            val existed = copy.target.exists()
+            try {
+                FileInputStream(copy.source).channel.use { input ->
+                    FileOutputStream(part).channel.use { output ->
+                        val size = input.size()
+                        var position = 0L
+                        while (position < size) {
+                            // Chunked so a cancel lands mid-file, not after a multi-gigabyte one.
+                            currentCoroutineContext().ensureActive()
+                            val sent = input.transferTo(position, minOf(CHUNK_BYTES, size - position), output)
+                            if (sent <= 0) break
+                            position += sent
+                            bytesDone.addAndGet(sent)
+                        }
+                    }
+                }
+                if (!part.renameTo(copy.target)) throw IOException("Couldn't replace ${copy.target}")
+                if (!existed) item.created.add(copy.target)
+            } catch (e: IOException) {
+                Utils.log(e)
+                part.delete()
+                item.failed = true
+            } catch (e: CancellationException) {
+                part.delete()
+                throw e
+            }
+            fileDone(item)
+        }
+
+        private fun fileDone(item: Item) {
+            if (item.remaining.decrementAndGet() == 0) {
+                if (item.failed) itemsDone.incrementAndGet() else finish(item, copied = true)
+            }
+        }
+
+        // A done item is never rolled back - not even a move whose source then couldn't be
+        // deleted in full, since by then the target is the only complete copy there is.
+        private fun finish(item: Item, copied: Boolean) {
+            // A move that had to be copied is only a move once its source is gone too. One that
+            // was renamed has no source left to delete - whatever's at that path now isn't it.
+            if (move && copied && item.source.exists() && !item.source.deleteRecursively()) item.failed = true
+            item.done = true
+            itemsDone.incrementAndGet()
+        }
+
+        private fun alreadyThere(item: Item) {
+            item.done = true
+            itemsDone.incrementAndGet()
+        }
+
+        private fun fail(item: Item) {
+            item.failed = true
+            itemsDone.incrementAndGet()
+        }
+
+        // Newest first, so every file is gone before the folder that held it.
+        private fun rollBack(item: Item) {
+            item.created.reversed().forEach { it.delete() }
+            item.created.clear()
+        }
+    }
+
+    private const val PARALLEL_COPIES = 4
+    private const val CHUNK_BYTES = 8L * 1024 * 1024
+    private const val PROGRESS_INTERVAL_MS = 100L
+    private const val NANOS_PER_SECOND = 1_000_000_000.0
+    private const val RATE_SMOOTHING = 0.3
+}
@@ -48,6 +48,9 @@ sealed interface ToolCallResult {
 interface McpToolProvider {
     fun listTools(): JsonArray
     suspend fun callTool(name: String, arguments: JsonObject?): ToolCallResult
+
+    /** Called once, when the client this provider was made for disconnects. */
+    fun close() {}
 }
 
 object McpJsonRpc {
@@ -0,0 +1,71 @@
+package com.hereliesaz.hg2gui.mcp
+
+import com.hereliesaz.hg2gui.terminal.TerminalEngine
+import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+
+/**
+ * Shell sessions for MCP clients, one per client. Starting one isn't free - a login bash, plus
+ * ShellSession's startup probe sleeping to see it survive - so [warm] are kept started ahead, and
+ * a client's first shell.exec takes one instead of waiting on that.
+ *
+ * Never reused: a session that served one agent keeps its cwd, its exports and its background
+ * jobs, none of which the next agent should inherit. [release] ends it, and [acquire] has already
+ * started a fresh one to take its place.
+ */
+class McpShellPool(
+    private val scope: CoroutineScope,
+    private val warm: Int = 1,
+    private val newEngine: () -> TerminalEngine
+) {
+    // Everything below is guarded by [lock]; acquire/release come from every client's coroutine.
+    private val lock = Any()
+    private val idle = ArrayDeque<TerminalEngine>()
+    private var starting = 0
+    private var closed = false
+
+    /** A session of the caller's own - blocking, if none is ready, while one starts. */
+    fun acquire(): TerminalEngine {
+        val ready = synchronized(lock) { idle.removeFirstOrNull() }
+        prewarm()
+        return ready ?: newEngine()
+    }
+
+    fun release(engine: TerminalEngine) {
+        engine.destroy()
+    }
+
+    /** Starts sessions in the background until [warm] are ready or on their way. */
+    fun prewarm() {
+        val more = synchronized(lock) {
+            if (closed) 0 else (warm - idle.size - starting).coerceAtLeast(0).also { starting += it }
+        }
+        repeat(more) {
+            scope.launch(Dispatchers.IO) {
+                val engine = try {
+                    newEngine()
+                } catch (e: Exception) {
+                    Utils.log(e)
+                    null
+                }
+                val kept = synchronized(lock) {
+                    starting--
+                    if (engine != null && !closed) idle.addLast(engine)
+                    !closed
+                }
+                if (!kept) engine?.destroy()
+            }
+        }
+    }
+
+    /** Ends the sessions nobody has taken. Ones in use end as their clients disconnect. */
+    fun close() {
+        val unused = synchronized(lock) {
+            closed = true
+            idle.toList().also { idle.clear() }
+        }
+        unused.forEach { it.destroy() }
+    }
+}
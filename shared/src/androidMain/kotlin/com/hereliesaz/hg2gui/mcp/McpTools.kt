@@ -1,10 +1,16 @@
 package com.hereliesaz.hg2gui.mcp
 
 import android.content.Context
+import com.hereliesaz.hg2gui.managers.VfsGrep
 import com.hereliesaz.hg2gui.managers.VfsManager
+import com.hereliesaz.hg2gui.terminal.AptCatalog
+import com.hereliesaz.hg2gui.terminal.DistroManager
 import com.hereliesaz.hg2gui.terminal.TerminalEngine
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.withContext
 import kotlinx.serialization.json.JsonArray
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
@@ -15,6 +21,13 @@ import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.put
 import kotlinx.serialization.json.putJsonArray
 
+private const val DEFAULT_SEARCH_LIMIT = 20
+private const val MAX_SEARCH_LIMIT = 200
+private const val DEFAULT_GREP_LIMIT = 100
+private const val MAX_GREP_LIMIT = 1000
+private const val DEFAULT_GREP_CONTEXT = 2
+private const val MAX_GREP_CONTEXT = 10
+
 private fun JsonObject.stringArg(key: String): String? = (this[key] as? JsonPrimitive)?.content
 
 /**
@@ -34,8 +47,9 @@ private fun textContent(text: String): JsonArray = buildJsonArray {
 
 /**
  * The MCP tool registry: `vfs.*` wraps VfsManager 1:1 (sandbox-escape-proof for free, via
- * VfsManager.resolve's own containment check), `shell.*` wraps a Service-owned TerminalEngine
- * kept separate from the user's visible terminal tabs. The shell-exec gate is enforced here, in
+ * VfsManager.resolve's own containment check), `pkg.search` queries AptCatalog's index, `shell.*` wraps a TerminalEngine
+ * of this client's own from [shells], kept separate from the user's visible terminal tabs and from
+ * every other client's. One instance per connected client - see McpSocketServer. The shell-exec gate is enforced here, in
  * callTool - the one place every "tools/call" request for a shell.* name actually passes through
  * - not just by what tools/list chooses to advertise (it always advertises both groups, for
  * honest discoverability).
@@ -43,9 +57,21 @@ private fun textContent(text: String): JsonArray = buildJsonArray {
 class McpTools(
     private val context: Context,
     private val shellExecEnabled: StateFlow<Boolean>,
-    private val shellEngine: TerminalEngine
+    private val shells: McpShellPool
 ) : McpToolProvider {
 
+    // Taken from [shells] on this client's first shell.* call - most agents only ever use vfs.*,
+    // and shouldn't each cost a running shell for it.
+    private var shellEngine: TerminalEngine? = null
+
+    private suspend fun shell(): TerminalEngine =
+        shellEngine ?: withContext(Dispatchers.IO) { shells.acquire() }.also { shellEngine = it }
+
+    override fun close() {
+        shellEngine?.let(shells::release)
+        shellEngine = null
+    }
+
     private data class ToolSpec(
         val name: String,
         val description: String,
@@ -64,6 +90,16 @@ class McpTools(
         put("description", description)
     }
 
+    private fun intProp(description: String): JsonObject = buildJsonObject {
+        put("type", "integer")
+        put("description", description)
+    }
+
+    private fun boolProp(description: String): JsonObject = buildJsonObject {
+        put("type", "boolean")
+        put("description", description)
+    }
+
     private fun props(vararg pairs: Pair<String, JsonObject>): JsonObject = buildJsonObject {
         pairs.forEach { (k, v) -> put(k, v) }
     }
@@ -164,14 +200,58 @@ class McpTools(
                 ?: return@ToolSpec ToolCallResult.Failure(McpJsonRpc.INVALID_PARAMS, "Missing \"to\"")
             if (VfsManager.copy(context, from, to)) ToolCallResult.Success(textContent("ok"))
             else ToolCallResult.Failure(McpJsonRpc.INTERNAL_ERROR, "Failed to copy $from -> $to")
+        },
+        ToolSpec(
+            "vfs.grep",
+            "Search the contents of text files in HG2Gui's app-private sandboxed filesystem, grep-style: " +
+                "each match as path:line:text, with context lines as path-line-text. Binary files are skipped.",
+            schema(
+                props(
+                    "pattern" to stringProp("Text to find - a regular expression if \"regex\" is true"),
+                    "path" to stringProp("Directory to search under (default \"/\")"),
+                    "regex" to boolProp("Treat pattern as a Java regular expression (default false)"),
+                    "ignore_case" to boolProp("Match case-insensitively (default true)"),
+                    "context" to intProp("Lines of context either side of each match (default 2)"),
+                    "limit" to intProp("Maximum number of matches (default 100)")
+                ),
+                listOf("pattern")
+            )
+        ) { args ->
+            val pattern = args?.stringArg("pattern")?.takeIf { it.isNotEmpty() }
+                ?: return@ToolSpec ToolCallResult.Failure(McpJsonRpc.INVALID_PARAMS, "Missing \"pattern\"")
+            val path = args.absPathArg("path") ?: "/"
+            val dir = VfsManager.resolve(context, path)?.takeIf { it.isDirectory }
+                ?: return@ToolSpec ToolCallResult.Failure(McpJsonRpc.INVALID_PARAMS, "Not a directory: $path")
+            val options = VfsGrep.Options(
+                regex = args.stringArg("regex")?.toBooleanStrictOrNull() ?: false,
+                ignoreCase = args.stringArg("ignore_case")?.toBooleanStrictOrNull() ?: true,
+                contextLines = args.stringArg("context")?.toIntOrNull()?.coerceIn(0, MAX_GREP_CONTEXT) ?: DEFAULT_GREP_CONTEXT,
+                limit = args.stringArg("limit")?.toIntOrNull()?.coerceIn(1, MAX_GREP_LIMIT) ?: DEFAULT_GREP_LIMIT
+            )
+            val hits = try {
+                VfsManager.grep(context, pattern, options, dir).flowOn(Dispatchers.IO).toList()
+            } catch (e: IllegalArgumentException) {
+                return@ToolSpec ToolCallResult.Failure(McpJsonRpc.INVALID_PARAMS, "Bad pattern: ${e.message}")
+            }
+            val text = hits.joinToString("\n--\n") { hit ->
+                val file = VfsManager.pathOf(context, hit.file)
+                val first = hit.lineNumber - hit.before.size
+                buildList {
+                    hit.before.forEachIndexed { i, line -> add("$file-${first + i}-$line") }
+                    add("$file:${hit.lineNumber}:${hit.line}")
+                    hit.after.forEachIndexed { i, line -> add("$file-${hit.lineNumber + 1 + i}-$line") }
+                }.joinToString("\n")
+            }
+            ToolCallResult.Success(textContent(text.ifEmpty { "(no matches)" }))
         }
     )
 
     private val shellTools: List<ToolSpec> = listOf(
         ToolSpec(
             "shell.exec",
-            "Run a shell command in HG2Gui's real Termux environment, on a session separate from " +
-                "the user's own visible terminal tabs. Disabled unless the user has explicitly " +
+            "Run a shell command in HG2Gui's real Termux environment, on a session of this " +
+                "connection's own - separate from the user's visible terminal tabs and from other " +
+                "connections', and kept for as long as this connection is. Disabled unless the user has explicitly " +
                 "enabled shell execution for the MCP server (a biometric-gated toggle in-app).",
             schema(props("command" to stringProp("The shell command line to run")), listOf("command"))
         ) { args ->
@@ -183,12 +263,38 @@ class McpTools(
             // an empty answer is the closest equivalent this API can express; most confirmation
             // prompts will reject it, and the idle-gap timeout reclaims control either way rather
             // than hanging forever.
-            val output = shellEngine.run(command, onNeedInput = { "" }).toList().lastOrNull().orEmpty()
+            val output = shell().run(command, onNeedInput = { "" }).toList().lastOrNull().orEmpty()
             ToolCallResult.Success(textContent(output))
         }
     )
 
-    private val allTools: List<ToolSpec> = vfsTools + shellTools
+    // Read-only - searches the apt index `apt update` last fetched, installs nothing - so not
+    // behind the shell-exec gate; installing what it finds still takes shell.exec.
+    private val pkgTools: List<ToolSpec> = listOf(
+        ToolSpec(
+            "pkg.search",
+            "Search the packages installable in HG2Gui's Termux environment by name and description, " +
+                "best match first. Empty until `apt update` has run at least once.",
+            schema(
+                props(
+                    "query" to stringProp("Words to search for, e.g. \"convert images\""),
+                    "limit" to intProp("Maximum number of results (default 20)")
+                ),
+                listOf("query")
+            )
+        ) { args ->
+            val query = args?.stringArg("query")
+                ?: return@ToolSpec ToolCallResult.Failure(McpJsonRpc.INVALID_PARAMS, "Missing \"query\"")
+            val limit = args.stringArg("limit")?.toIntOrNull()?.coerceIn(1, MAX_SEARCH_LIMIT) ?: DEFAULT_SEARCH_LIMIT
+            val hits = withContext(Dispatchers.IO) {
+                AptCatalog.search(DistroManager.prefixDir(context), query, limit)
+            }
+            val text = hits.joinToString("\n") { "${it.name} ${it.version} [${it.category}] - ${it.description}" }
+            ToolCallResult.Success(textContent(text.ifEmpty { "(no matches)" }))
+        }
+    )
+
+    private val allTools: List<ToolSpec> = vfsTools + pkgTools + shellTools
 
     override fun listTools(): JsonArray = buildJsonArray {
         allTools.forEach { tool ->
@@ -1,8 +1,15 @@
 package com.hereliesaz.hg2gui.terminal
 
 import com.hereliesaz.hg2gui.util.Utils
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
 import java.io.File
+import java.io.FileOutputStream
 import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 
 /**
  * The full set of packages `apt install` could actually install - not just what's already on
@@ -16,25 +23,83 @@ import java.io.IOException
  * categories by. [categoryOf] is a name/description heuristic instead - Termux's own naming
  * conventions (`python-*`, `lib*`, `*-dev`, ...) cover a lot of ground reliably; anything it
  * can't place lands in "Other" rather than being left out.
+ *
+ * Those index files run to tens of MB, and [all] is asked for them by the install pill, the
+ * search index and the did-you-mean dictionary alike - so the parse (and every [categoryOf]
+ * regex run) happens once per `apt update`, not once per caller. The parsed catalog is kept in
+ * memory and in a compact binary snapshot, stamped with every list file's name, size and mtime;
+ * a later open, this launch or the next, memory-maps that snapshot instead of re-parsing,
+ * and any change to the lists (an `apt update`) makes it stale.
  */
 object AptCatalog {
 
-    data class Entry(val name: String, val description: String)
+    data class Entry(
+        val name: String,
+        val description: String,
+        val category: String = AptCatalog.categoryOf(name, description),
+        val version: String = "",
+        // The .deb's own download size (Size) and its unpacked size (Installed-Size, which the
+        // index gives in KiB), both in bytes - 0 when the stanza doesn't say.
+        val sizeBytes: Long = 0,
+        val installedBytes: Long = 0,
+        // Package names only: version constraints dropped, and of an "a | b" alternative, just a.
+        val depends: List<String> = emptyList()
+    )
+
+    // The snapshot lives outside var/lib/apt/lists itself: apt's own update cleans that
+    // directory of every file it didn't fetch, and would delete it on every run.
+    private const val SNAPSHOT_PATH = "var/cache/hg2gui/apt-catalog.bin"
+    private const val SNAPSHOT_MAGIC = 0x48474143 // "HGAC"
+    private const val SNAPSHOT_VERSION = 1
+    private const val KIB = 1024L
+    private const val DEFAULT_SEARCH_LIMIT = 20
+
+    private data class ListStamp(val name: String, val size: Long, val modifiedAt: Long)
+
+    private val lock = Any()
+    private var memo: Pair<List<ListStamp>, List<Entry>>? = null
+    private var indexMemo: Pair<List<Entry>, PackageIndex>? = null
 
     /** True once `apt update` has actually run - before that there's no index to read at all. */
     fun hasIndex(prefix: File): Boolean = listPackagesFiles(prefix).isNotEmpty()
 
-    fun all(prefix: File): List<Entry> {
-        val result = LinkedHashMap<String, Entry>()
-        for (file in listPackagesFiles(prefix)) {
-            try {
-                parseInto(file, result)
-            } catch (e: IOException) {
-                // This index file is unreadable - skip it, keep whatever the others contributed.
-                Utils.log(e)
-            }
+    /**
+     * Every package in the index. Near-instant unless the lists changed since the last call (or,
+     * for the first call of a launch, since the snapshot was written), in which case this is the
+     * one call that re-parses them - concurrent callers wait for it rather than parsing too.
+     * Blocking file I/O either way; call off the main thread.
+     */
+    fun all(prefix: File): List<Entry> = synchronized(lock) {
+        val files = listPackagesFiles(prefix).sortedBy { it.name }
+        val stamps = files.map { ListStamp(it.name, it.length(), it.lastModified()) }
+        memo?.let { (memoStamps, entries) -> if (memoStamps == stamps) return entries }
+        val snapshot = File(prefix, SNAPSHOT_PATH)
+        val entries = readSnapshot(snapshot, stamps) ?: parseAll(files).also { writeSnapshot(snapshot, stamps, it) }
+        memo = stamps to entries
+        entries
+    }
+
+    /** Brings the snapshot and its search index up to date with the lists - the background
+     *  rebuild after `apt update`, so the next pill or search that needs them finds them ready. */
+    fun warm(prefix: File) {
+        if (hasIndex(prefix)) index(prefix)
+    }
+
+    /**
+     * Packages matching [query] by name or description, best first - see [PackageIndex]. The
+     * index is built with the catalog it searches, and rebuilt only when that is; a query itself
+     * never reads the lists. Blocking on the first call after a change; call off the main thread.
+     */
+    fun search(prefix: File, query: String, limit: Int = DEFAULT_SEARCH_LIMIT): List<Entry> {
+        val (entries, index) = index(prefix)
+        return index.search(query, limit).map { entries[it] }
+    }
+
+    private fun index(prefix: File): Pair<List<Entry>, PackageIndex> {
+        val entries = all(prefix)
+        return synchronized(lock) {
+            indexMemo?.takeIf { it.first === entries } ?: (entries to PackageIndex(entries)).also { indexMemo = it }
         }
-        return result.values.toList()
     }
 
     fun categoryOf(name: String, description: String): String {
@@ -49,28 +114,142 @@ object AptCatalog {
         return listsDir.listFiles { f -> f.isFile && f.name.endsWith("_Packages") }.orEmpty().toList()
     }
 
+    private fun parseAll(files: List<File>): List<Entry> {
+        val result = LinkedHashMap<String, Entry>()
+        for (file in files) {
+            try {
+                parseInto(file, result)
+            } catch (e: IOException) {
+                // This index file is unreadable - skip it, keep whatever the others contributed.
+                Utils.log(e)
+            }
+        }
+        return result.values.toList()
+    }
+
     // A control-file stanza is one package: consecutive "Field: value" lines, terminated by a
-    // blank line (or end of file). Every field but Package/Description is irrelevant here -
-    // Version, Depends, SHA256, etc. are apt's own concern, not this catalog's.
+    // blank line (or end of file). Only the fields an Entry carries are kept - SHA256, Filename,
+    // Maintainer, etc. are apt's own concern, not this catalog's.
     private fun parseInto(file: File, into: MutableMap<String, Entry>) {
-        var name: String? = null
-        var description = ""
+        val fields = HashMap<String, String>()
         fun flush() {
-            val n = name
-            if (n != null) into[n] = Entry(n, description)
-            name = null
-            description = ""
+            val name = fields["Package"]
+            if (name != null) {
+                val description = fields["Description"].orEmpty()
+                into[name] = Entry(
+                    name = name,
+                    description = description,
+                    version = fields["Version"].orEmpty(),
+                    sizeBytes = fields["Size"]?.toLongOrNull() ?: 0,
+                    installedBytes = (fields["Installed-Size"]?.toLongOrNull() ?: 0) * KIB,
+                    depends = parseDepends(fields["Depends"].orEmpty())
+                )
+            }
+            fields.clear()
         }
         file.forEachLine { line ->
             when {
-                line.startsWith("Package: ") -> name = line.removePrefix("Package: ").trim()
-                line.startsWith("Description: ") -> description = line.removePrefix("Description: ").trim()
                 line.isBlank() -> flush()
+                // A continuation line (a multi-line Description's body) - only the summary on
+                // the field's own line is kept.
+                line[0] == ' ' || line[0] == '\t' -> Unit
+                else -> {
+                    val colon = line.indexOf(':')
+                    if (colon > 0 && line.substring(0, colon) in KEPT_FIELDS) {
+                        fields[line.substring(0, colon)] = line.substring(colon + 1).trim()
+                    }
+                }
             }
         }
         flush()
     }
 
+    private val KEPT_FIELDS = setOf("Package", "Description", "Version", "Size", "Installed-Size", "Depends")
+
+    private fun parseDepends(raw: String): List<String> =
+        raw.split(',').mapNotNull { group ->
+            group.substringBefore('|').substringBefore('(').trim().takeIf { it.isNotEmpty() }
+        }
+
+    private fun writeSnapshot(file: File, stamps: List<ListStamp>, entries: List<Entry>) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(SNAPSHOT_MAGIC)
+                out.writeInt(SNAPSHOT_VERSION)
+                out.writeInt(stamps.size)
+                for (stamp in stamps) {
+                    out.writeString(stamp.name)
+                    out.writeLong(stamp.size)
+                    out.writeLong(stamp.modifiedAt)
+                }
+                out.writeInt(entries.size)
+                for (e in entries) {
+                    out.writeString(e.name)
+                    out.writeString(e.description)
+                    out.writeString(e.category)
+                    out.writeString(e.version)
+                    out.writeLong(e.sizeBytes)
+                    out.writeLong(e.installedBytes)
+                    out.writeInt(e.depends.size)
+                    e.depends.forEach { out.writeString(it) }
+                }
+            }
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: IOException) {
+            // Only the next launch's speed depends on this - the catalog itself is already parsed.
+            Utils.log(e)
+            tmp.delete()
+        }
+    }
+
+    /** The snapshot's entries, or null if it's missing, unreadable, from another format version,
+     *  or stamped with anything other than exactly [stamps]. */
+    private fun readSnapshot(file: File, stamps: List<ListStamp>): List<Entry>? {
+        if (!file.isFile) return null
+        return try {
+            RandomAccessFile(file, "r").use { raf ->
+                val buf = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                if (buf.int != SNAPSHOT_MAGIC || buf.int != SNAPSHOT_VERSION || buf.int != stamps.size) return null
+                for (stamp in stamps) {
+                    if (buf.string() != stamp.name || buf.long != stamp.size || buf.long != stamp.modifiedAt) return null
+                }
+                List(buf.int) {
+                    Entry(
+                        name = buf.string(),
+                        description = buf.string(),
+                        category = buf.string(),
+                        version = buf.string(),
+                        sizeBytes = buf.long,
+                        installedBytes = buf.long,
+                        depends = List(buf.int) { buf.string() }
+                    )
+                }
+            }
+        } catch (e: IOException) {
+            Utils.log(e)
+            null
+        } catch (e: BufferUnderflowException) {
+            // Truncated - written by a process that died mid-snapshot. Re-parse and rewrite it.
+            null
+        }
+    }
+
+    private fun DataOutputStream.writeString(s: String) {
+        val bytes = s.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun ByteBuffer.string(): String {
+        val length = int
+        if (length < 0 || length > remaining()) throw BufferUnderflowException()
+        val bytes = ByteArray(length)
+        get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
     private const val UNCATEGORIZED = "Other"
 
     // Checked in order, first match wins - specific language/tool families before the broad
@@ -0,0 +1,178 @@
+package com.hereliesaz.hg2gui.terminal
+
+import com.hereliesaz.hg2gui.util.Utils
+import okhttp3.Request
+import okhttp3.Response
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.MessageDigest
+
+/**
+ * One bootstrap archive download that survives being interrupted. Everything received is kept
+ * in [partFile], beside a small sidecar recording the validators (ETag / Last-Modified) it came
+ * with; the next attempt asks only for the rest, with a `Range` request conditional on those
+ * validators still matching (`If-Range`), so a release that changed in between - or a server
+ * that ignores ranges - just sends the whole archive again, and the stale part is dropped.
+ *
+ * The extractor still reads the archive from its first byte on every attempt (a failed attempt's
+ * half-extracted prefix is wiped), so [pump] replays what's already on disk into the pipe before
+ * carrying on from the network - only the network transfer resumes. Every byte also goes through
+ * SHA-256, so the finished archive can be checked against a published digest ([sha256]).
+ */
+internal class BootstrapDownload(private val partFile: File) {
+
+    private val metaFile = File(partFile.path + ".meta")
+    private val digest = MessageDigest.getInstance("SHA-256")
+
+    // What the part on disk already holds, once [begin] has decided whether it's still usable.
+    private var resumeFrom = 0L
+
+    /** Bytes of the archive received so far, this attempt's and any earlier one's. */
+    @Volatile var received = 0L
+        private set
+
+    /** The whole archive's size, once known - -1 if the server didn't say. */
+    var total = -1L
+        private set
+
+    /** Bytes [received] by earlier attempts - excluded from throughput, since they cost nothing. */
+    val resumedBytes: Long get() = resumeFrom
+
+    /** Lowercase hex SHA-256 of the whole archive, set once [pump] has read all of it. */
+    @Volatile var sha256: String? = null
+        private set
+
+    /** [url], asking for only what [partFile] is missing if an earlier attempt left one behind. */
+    fun request(url: String): Request {
+        val builder = Request.Builder().url(url)
+        val validator = readValidator(url)
+        val have = partFile.length()
+        if (validator != null && have > 0) {
+            builder.header("Range", "bytes=$have-")
+            builder.header("If-Range", validator)
+        }
+        return builder.build()
+    }
+
+    /**
+     * Decides, from [response] to [request], whether the part on disk is still the start of this
+     * archive - a 206 starting exactly where it ends - or has to be thrown away, and records the
+     * response's validators for the next attempt. Throws for anything but a usable 200/206.
+     */
+    fun begin(url: String, response: Response) {
+        val have = partFile.length()
+        val rangeStart = response.header("Content-Range")
+            ?.let { CONTENT_RANGE.find(it) }
+            ?.groupValues?.get(1)?.toLongOrNull()
+        // An earlier attempt that got the whole archive and then failed to install it asks for
+        // bytes past the end; the server answers with the size, and the part is all there is.
+        val completeSize = response.header("Content-Range")
+            ?.let { UNSATISFIED_RANGE.find(it) }
+            ?.groupValues?.get(1)?.toLongOrNull()
+        resumeFrom = when {
+            response.code == HTTP_PARTIAL && rangeStart == have -> have
+            response.code == HTTP_RANGE_NOT_SATISFIABLE && completeSize == have && have > 0 -> have
+            response.code == HTTP_RANGE_NOT_SATISFIABLE -> {
+                discard()
+                throw IOException("Partial download no longer matches the archive - try again")
+            }
+            response.code == HTTP_PARTIAL -> throw IOException("Server resumed at byte $rangeStart, expected $have")
+            response.isSuccessful -> 0L
+            else -> throw IOException("Download failed: HTTP ${response.code}")
+        }
+        if (resumeFrom == 0L) partFile.delete()
+        val length = if (response.code == HTTP_RANGE_NOT_SATISFIABLE) 0L else response.body?.contentLength() ?: -1L
+        total = if (length >= 0) resumeFrom + length else -1L
+        received = resumeFrom
+        // Only a strong validator makes a later If-Range meaningful; without one, a partial
+        // download can't be told apart from a stale one, so it isn't resumed.
+        val validator = response.header("ETag")?.takeUnless { it.startsWith("W/") } ?: response.header("Last-Modified")
+        writeValidator(url, validator)
+    }
+
+    /**
+     * The network side of the install: replays [partFile] into [pipe], then appends everything
+     * [input] yields to both. Keeps reading the network after the extractor stops early (a zip's
+     * central directory is never read) so the digest covers the whole archive; always ends
+     * [pipe] one way or the other. A failure leaves [partFile] holding everything received.
+     */
+    fun pump(input: InputStream, pipe: BoundedPipe) {
+        var piping = true
+        try {
+            val buffer = ByteArray(CHUNK_BYTES)
+            if (resumeFrom > 0) {
+                partFile.inputStream().use { part ->
+                    var left = resumeFrom
+                    while (left > 0) {
+                        val n = part.read(buffer, 0, minOf(buffer.size.toLong(), left).toInt())
+                        if (n < 0) throw IOException("Partial download shrank while resuming")
+                        digest.update(buffer, 0, n)
+                        piping = piping && pipe.write(buffer, 0, n)
+                        left -= n
+                    }
+                }
+            }
+            FileOutputStream(partFile, resumeFrom > 0).use { out ->
+                input.use {
+                    while (received != total) {
+                        val n = input.read(buffer)
+                        if (n < 0) break
+                        out.write(buffer, 0, n)
+                        digest.update(buffer, 0, n)
+                        received += n
+                        piping = piping && pipe.write(buffer, 0, n)
+                    }
+                }
+            }
+            if (total >= 0 && received != total) throw IOException("Download ended at $received of $total bytes")
+            sha256 = digest.digest().joinToString("") { "%02x".format(it) }
+            pipe.finish()
+        } catch (e: IOException) {
+            pipe.fail(e)
+        } finally {
+            pipe.fail(IOException("Download interrupted"))
+        }
+    }
+
+    /** The archive is installed (or was bad) - nothing of it is worth resuming any more. */
+    fun discard() {
+        partFile.delete()
+        metaFile.delete()
+    }
+
+    // The sidecar: the URL the part came from, then its validator - a part of some other
+    // archive (another ABI, an older pinned release) is never resumed into this one.
+    private fun readValidator(url: String): String? = try {
+        metaFile.takeIf { it.isFile }?.readLines()?.takeIf { it.size >= 2 && it[0] == url }?.get(1)?.ifBlank { null }
+    } catch (e: IOException) {
+        Utils.log(e)
+        null
+    }
+
+    private fun writeValidator(url: String, validator: String?) {
+        try {
+            if (validator == null) metaFile.delete() else metaFile.writeText("$url\n$validator\n")
+        } catch (e: IOException) {
+            // Only costs the next attempt its resume.
+            Utils.log(e)
+        }
+    }
+
+    companion object {
+        private const val HTTP_PARTIAL = 206
+        private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+        private const val CHUNK_BYTES = 64 * 1024
+        private val CONTENT_RANGE = Regex("""bytes (\d+)-""")
+        private val UNSATISFIED_RANGE = Regex("""bytes \*/(\d+)""")
+        private val SHA256_HEX = Regex("""\b[0-9a-fA-F]{64}\b""")
+
+        /** The digest a checksums file (`sha256sum` output, either column order) lists for
+         *  [fileName], or null if it doesn't mention it. */
+        fun digestFor(checksums: String, fileName: String): String? =
+            checksums.lineSequence()
+                .filter { line -> line.split(Regex("\\s+")).any { it.removePrefix("*") == fileName } }
+                .firstNotNullOfOrNull { SHA256_HEX.find(it)?.value?.lowercase() }
+    }
+}
@@ -0,0 +1,109 @@
+package com.hereliesaz.hg2gui.terminal
+
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+
+/**
+ * A byte stream handed from one thread to another through at most [capacity] chunks in flight -
+ * the bootstrap's network side writes the HTTP body in, the zip extractor reads it out of
+ * [source]. Bounded so a fast connection on slow flash can't buffer the whole archive in memory,
+ * which is exactly the cost streaming the install was meant to avoid.
+ *
+ * java.io's PipedInputStream has the same shape, but polls its writer once a second and declares
+ * the pipe broken whenever the last thread to write to it has exited - both wrong for writers
+ * running on a coroutine dispatcher's pooled threads.
+ *
+ * The writer must end with exactly one [finish] or [fail]; after the first, both are no-ops. The
+ * reader calls [cancel] if it stops reading early, which unblocks (and thereafter drops) writes.
+ */
+internal class BoundedPipe(capacity: Int) {
+
+    private object End
+    private class Failed(val cause: IOException)
+
+    private val chunks = ArrayBlockingQueue<Any>(capacity)
+
+    @Volatile private var cancelled = false
+    @Volatile private var terminated = false
+
+    /** Bytes [source] has handed to its reader so far - for progress, read from any thread. */
+    @Volatile var consumed = 0L
+        private set
+
+    /** Queues a copy of [length] bytes of [bytes], blocking while the pipe is full. False once
+     *  the reader has [cancel]led - nothing more is worth writing. */
+    fun write(bytes: ByteArray, offset: Int, length: Int): Boolean =
+        length == 0 || put(bytes.copyOfRange(offset, offset + length))
+
+    /** The stream ended normally; [source] reads -1 once it has drained. */
+    fun finish() {
+        if (terminated) return
+        terminated = true
+        put(End)
+    }
+
+    /** The stream broke; [source] throws [cause] once it has drained what came before. */
+    fun fail(cause: IOException) {
+        if (terminated) return
+        terminated = true
+        put(Failed(cause))
+    }
+
+    fun cancel() {
+        cancelled = true
+        chunks.clear()
+    }
+
+    private fun put(item: Any): Boolean {
+        // Timed, not a plain put(): a reader that cancels while this waits must still free it.
+        while (!cancelled) {
+            if (chunks.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) return true
+        }
+        return false
+    }
+
+    val source: InputStream = object : InputStream() {
+        private var current = EMPTY
+        private var at = 0
+        private var ended = false
+
+        override fun read(): Int {
+            val one = ByteArray(1)
+            return if (read(one, 0, 1) < 0) -1 else one[0].toInt() and BYTE_MASK
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            while (at == current.size) {
+                if (ended) return -1
+                when (val item = chunks.take()) {
+                    End -> ended = true
+                    is Failed -> {
+                        ended = true
+                        throw IOException(item.cause.message, item.cause)
+                    }
+                    else -> {
+                        current = item as ByteArray
+                        at = 0
+                    }
+                }
+            }
+            val n = min(len, current.size - at)
+            System.arraycopy(current, at, b, off, n)
+            at += n
+            consumed += n
+            return n
+        }
+
+        override fun close() = cancel()
+    }
+
+    private companion object {
+        const val POLL_MS = 100L
+        const val BYTE_MASK = 0xFF
+        val EMPTY = ByteArray(0)
+    }
+}
@@ -38,7 +38,7 @@ object Builtins {
     )
 
     @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-    fun run(context: Context, line: String): String {
+    suspend fun run(context: Context, line: String): String {
         val parts = line.trim().split(Regex("\\s+")).filter { it.isNotEmpty() }
         val verb = parts.firstOrNull() ?: return ""
         val args = parts.drop(1)
@@ -330,7 +330,7 @@ object Builtins {
 
     private const val VFS_USAGE = "Usage: vfs <ls|cd|pwd|mkdir|touch|cat|rm|mv|cp|mount> [args]"
 
-    private fun vfs(context: Context, args: List<String>): String {
+    private suspend fun vfs(context: Context, args: List<String>): String {
         val sub = args.getOrNull(0)?.lowercase() ?: return VFS_USAGE
         val rest = args.drop(1)
         return when (sub) {
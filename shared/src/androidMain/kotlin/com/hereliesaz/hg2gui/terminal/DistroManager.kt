@@ -4,16 +4,25 @@ import android.content.Context
 import android.os.Build
 import android.system.Os
 import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.nio.file.Files
+import java.util.concurrent.Callable
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import java.util.zip.ZipEntry
 import java.util.zip.ZipInputStream
 
@@ -34,14 +43,30 @@ object DistroManager {
     private const val BOOTSTRAP_RELEASE_TAG = "bootstrap-2026.08.16-r1+apt.android-7"
     private const val BOOTSTRAP_BASE_URL =
         "https://github.com/termux/termux-packages/releases/download/$BOOTSTRAP_RELEASE_TAG"
-    private const val BOOTSTRAP_FILE = "bootstrap.zip"
+    // Kept in cacheDir between attempts - see BootstrapDownload.
+    private const val BOOTSTRAP_PART_FILE = "bootstrap.zip.part"
+    // Published beside the bootstrap zips in every bootstrap release - `sha256sum` output.
+    private const val CHECKSUMS_FILE = "CHECKSUMS-sha256.txt"
+    // Arch -> lowercase hex SHA-256 of that arch's zip in BOOTSTRAP_RELEASE_TAG. Pinning a digest
+    // here takes the published checksums file (and the extra request) out of the trust path;
+    // set these when bumping the tag, from the same release BootstrapManifest is generated from.
+    private val PINNED_SHA256: Map<String, String> = emptyMap()
+    // What the network side may run ahead of the extractor by: 32 reads of up to 64KB, 2MB in all.
+    private const val PIPE_CHUNKS = 32
+    // Top-level prefix dirs whose regular files are all made executable as they're extracted.
+    private val EXECUTABLE_DIRS = setOf("bin", "libexec", "lib")
+    private const val LINK_PARALLELISM = 4
+    private const val LINK_IDLE_SECONDS = 5L
+    private const val PROGRESS_INTERVAL_MS = 500L
+    private const val MB = 1024 * 1024
+    private const val NANOS_PER_SECOND = 1e9
     private const val SYMLINKS_ENTRY = "SYMLINKS.txt"
     // U+2190 LEFTWARDS ARROW - the field separator Termux's own bootstrap builder puts between
     // a symlink's target and the path it should be created at.
     private const val SYMLINK_SEPARATOR = "←"
 
     // The absolute prefix a handful of SYMLINKS.txt targets hardcode against Termux's own
-    // package name - see extractBootstrap's symlink pass for why this needs rewriting.
+    // package name - see finishBootstrap's symlink pass for why this needs rewriting.
     private const val HARDCODED_TERMUX_PREFIX = "/data/data/com.termux/files/usr"
 
     private fun bootstrapArch(): String? = when (Build.SUPPORTED_ABIS.firstOrNull()) {
@@ -83,7 +108,7 @@ object DistroManager {
      * the CURRENT [Context.getApplicationInfo]`.nativeLibraryDir`. Android assigns that directory a
      * new path on every reinstall or update of this APK - even though the rest of a bootstrap
      * install ([prefixDir], extracted once) is completely unaffected by that - so the links
-     * [extractBootstrap] created against the PREVIOUS install's nativeLibraryDir go stale purely
+     * [finishBootstrap] created against the PREVIOUS install's nativeLibraryDir go stale purely
      * from updating the app, with nothing actually wrong in the extracted rootfs itself. A no-op
      * when [prefixDir] doesn't exist yet (nothing to repair before a first bootstrap) and equally a
      * no-op once every link already resolves, so safe to call unconditionally.
@@ -94,6 +119,19 @@ object DistroManager {
         linkManifestEntries(prefix, context.applicationInfo.nativeLibraryDir)
     }
 
+    /**
+     * Downloads and installs the bootstrap in one pass: the HTTP body is streamed straight into
+     * the zip extractor through a [BoundedPipe], rather than landing whole in cacheDir first and
+     * being read back - half the flash traffic. The network side runs on its own coroutine, so a
+     * slow write never stalls the socket until the pipe is actually full.
+     *
+     * What's received is also kept (see [BootstrapDownload]), so an attempt cut off at 90% -
+     * backgrounded, a flaky connection - resumes from there next time instead of from zero, and
+     * the whole archive is checked against the release's SHA-256 ([expectedSha256]) before the
+     * install counts as done. That check necessarily lands after extraction has streamed past,
+     * so a mismatch is handled exactly like any other failure: the prefix is wiped before
+     * anything in it has ever run.
+     */
     fun bootstrap(context: Context, client: OkHttpClient): Flow<String> = flow {
         val arch = bootstrapArch()
         if (arch == null) {
@@ -101,80 +139,131 @@ object DistroManager {
             return@flow
         }
 
-        val url = "$BOOTSTRAP_BASE_URL/bootstrap-$arch.zip"
+        val archive = "bootstrap-$arch.zip"
+        val url = "$BOOTSTRAP_BASE_URL/$archive"
         emit("Starting bootstrap process...")
-
-        val destFile = File(context.cacheDir, BOOTSTRAP_FILE)
-        if (destFile.exists()) destFile.delete()
-
-        emit("Downloading rootfs from $url...")
+        val startedAt = System.nanoTime()
 
         try {
-            val request = Request.Builder().url(url).build()
-            client.newCall(request).execute().use { response ->
-                if (!response.isSuccessful) throw Exception("Download failed: HTTP ${response.code}")
-
-                val body = response.body ?: throw Exception("Empty response body")
-                val totalBytes = body.contentLength()
-                var downloadedBytes = 0L
-
-                body.byteStream().use { input ->
-                    FileOutputStream(destFile).use { output ->
-                        val buffer = ByteArray(8192)
-                        var bytesRead: Int
-                        while (input.read(buffer).also { bytesRead = it } != -1) {
-                            output.write(buffer, 0, bytesRead)
-                            downloadedBytes += bytesRead
-                            // Progress update every ~1MB
-                            if (downloadedBytes % (1024 * 1024) < 8192) {
-                                val total = if (totalBytes > 0) "${totalBytes / (1024 * 1024)}MB" else "?"
-                                emit("Downloaded: ${downloadedBytes / (1024 * 1024)}MB / $total")
-                            }
+            val expected = expectedSha256(client, arch)
+            if (expected == null) emit("Warning: no published checksum found for $archive - it can't be verified.")
+
+            val prefix = prefixDir(context)
+            val download = BootstrapDownload(File(context.cacheDir, BOOTSTRAP_PART_FILE))
+            val symlinksText = client.newCall(download.request(url)).execute().use { response ->
+                download.begin(url, response)
+                val body = response.body ?: throw IOException("Empty response body")
+                if (download.resumedBytes > 0) {
+                    emit("Resuming download of $url at ${download.resumedBytes / MB}MB...")
+                } else {
+                    emit("Downloading and extracting rootfs from $url...")
+                }
+                val pipe = BoundedPipe(PIPE_CHUNKS)
+
+                coroutineScope {
+                    val network = launch(Dispatchers.IO) { download.pump(body.byteStream(), pipe) }
+                    val extraction = async(Dispatchers.IO) {
+                        try {
+                            unpackEntries(pipe.source, prefix, BootstrapManifest.ENTRIES.toMap().keys)
+                        } catch (e: Exception) {
+                            // Frees the network side, whether it's waiting on the pipe or the socket.
+                            pipe.cancel()
+                            response.close()
+                            throw e
+                        }
+                    }
+                    val downloadStartedAt = System.nanoTime()
+                    var reportedMb = download.received / MB
+                    while (withTimeoutOrNull(PROGRESS_INTERVAL_MS) { network.join() } == null) {
+                        val mb = download.received / MB
+                        if (mb > reportedMb) {
+                            reportedMb = mb
+                            emit(progressLine(download, downloadStartedAt))
                         }
                     }
+                    extraction.await()
                 }
             }
 
-            emit("Download complete. Extracting...")
-
-            val prefix = prefixDir(context)
-            extractBootstrap(destFile, prefix, context.applicationInfo.nativeLibraryDir)
+            val actual = download.sha256 ?: throw IOException("Download ended early")
+            if (expected != null && actual != expected) {
+                // Not worth resuming: whatever is on disk is what didn't match.
+                download.discard()
+                throw IOException("Checksum mismatch for $archive: expected $expected, got $actual")
+            }
+            Utils.logTiming("bootstrap: extracted", startedAt)
+            emit("Extraction complete. Linking...")
+            finishBootstrap(symlinksText, prefix, context.applicationInfo.nativeLibraryDir)
             homeDir(context).mkdirs()
-
-            emit("Extraction complete. Fixing permissions...")
-            makeBinariesExecutable(prefix)
+            download.discard()
+            Utils.logTiming("bootstrap: ready", startedAt)
 
             emit("Bootstrap successful! You can now use 'apt', 'pkg', and real coreutils.")
         } catch (e: Exception) {
             // UX-6: isInstalled() is existence-only (prefix/ and prefix/bin/ both exist) - and
-            // extractBootstrap() creates prefix/bin/ the moment its first file lands, long before
+            // the extractor creates prefix/bin/ the moment its first file lands, long before
             // the archive finishes. A failure partway through (storage full, backgrounded,
-            // corrupted archive) used to leave exactly that directory behind: "installed" forever,
-            // with no retry, same as AzpInstaller already rolls back a partial install to avoid.
+            // corrupted archive, a dropped connection) used to leave exactly that directory
+            // behind: "installed" forever, with no retry, same as AzpInstaller already rolls
+            // back a partial install to avoid. The download itself is kept, to resume from.
             prefixDir(context).deleteRecursively()
+            if (e is CancellationException) throw e
             emit("Error during bootstrap: ${e.message}")
             Utils.log(e)
-        } finally {
-            if (destFile.exists()) destFile.delete()
         }
     }.flowOn(Dispatchers.IO)
 
+    // "Downloaded: 12MB / 30MB at 2.4MB/s, about 8s left" - the rate only counts this attempt's
+    // own bytes, not a resumed part that was already on disk.
+    private fun progressLine(download: BootstrapDownload, since: Long): String {
+        val seconds = (System.nanoTime() - since) / NANOS_PER_SECOND
+        val rate = if (seconds > 0) (download.received - download.resumedBytes) / seconds else 0.0
+        val total = download.total
+        val of = if (total > 0) " / ${total / MB}MB" else ""
+        val eta = if (total > 0 && rate > 0) ", about ${((total - download.received) / rate).toLong()}s left" else ""
+        return "Downloaded: ${download.received / MB}MB$of at ${"%.1f".format(rate / MB)}MB/s$eta"
+    }
+
     /**
-     * Extracts a Termux bootstrap zip into [prefix]. Regular files unpack directly, except for
-     * the ~330 executables/libraries [BootstrapManifest] covers - those are skipped here (their
-     * content from the zip would just be inert, blocked from ever executing - see that file's own
-     * doc comment) and symlinked to their bundled, exec-exempt counterpart in [nativeLibraryDir]
-     * instead, once every other file has landed. A zip can't carry real symlinks either, so
-     * Termux's bootstrap builder lists those separately in a root-level SYMLINKS.txt (one per
-     * line, "<target><SEPARATOR><link path>") and they're created here as their own pass, once
-     * every real file they might point at already exists.
+     * The SHA-256 [bootstrap] checks the archive against: [PINNED_SHA256]'s, if this release's
+     * digest for [arch] was pinned alongside [BOOTSTRAP_RELEASE_TAG], else the one the release
+     * itself publishes in its checksums file. Null if neither is available.
      */
-    private fun extractBootstrap(zipFile: File, prefix: File, nativeLibraryDir: String) {
+    private fun expectedSha256(client: OkHttpClient, arch: String): String? {
+        PINNED_SHA256[arch]?.let { return it }
+        val request = Request.Builder().url("$BOOTSTRAP_BASE_URL/$CHECKSUMS_FILE").build()
+        return try {
+            client.newCall(request).execute().use { response ->
+                if (!response.isSuccessful) return null
+                BootstrapDownload.digestFor(response.body?.string().orEmpty(), "bootstrap-$arch.zip")
+            }
+        } catch (e: IOException) {
+            Utils.log(e)
+            null
+        }
+    }
+
+    /**
+     * Extracts a Termux bootstrap zip, read sequentially from [source], into [prefix] and returns
+     * its SYMLINKS.txt. Regular files unpack directly, except for the ~330 executables/libraries
+     * [BootstrapManifest] covers, named in [skip] - those are skipped here (their content from
+     * the zip would just be inert, blocked from ever executing - see that file's own doc comment)
+     * and linked to their bundled, exec-exempt counterpart by [finishBootstrap] instead, once
+     * every other file has landed. A zip can't carry real symlinks either, so Termux's bootstrap
+     * builder lists those separately in a root-level SYMLINKS.txt (one per line,
+     * "<target><SEPARATOR><link path>"), collected here as it streams past and created afterwards.
+     *
+     * Each file is finished as it's written - a script's hardcoded prefix rewritten on its way to
+     * disk (see [writeEntry]), and anything under [EXECUTABLE_DIRS] made executable - rather
+     * than by walking and re-reading the whole prefix once it's all landed. The archive's own
+     * unix modes would be the better source for that bit, but they live only in the zip's
+     * central directory, at the end of the stream, after every file has already been written.
+     */
+    internal fun unpackEntries(source: InputStream, prefix: File, skip: Set<String>): String {
         prefix.mkdirs()
         val symlinksText = StringBuilder()
-        val manifest = BootstrapManifest.ENTRIES.toMap()
 
-        ZipInputStream(zipFile.inputStream().buffered()).use { zis ->
+        ZipInputStream(source).use { zis ->
             var entry: ZipEntry? = zis.nextEntry
             while (entry != null) {
                 when {
@@ -184,7 +273,7 @@ object DistroManager {
                     entry.isDirectory -> {
                         File(prefix, entry.name).mkdirs()
                     }
-                    entry.name in manifest -> {
+                    entry.name in skip -> {
                         // Still needs its own directory to exist, for whatever else in this same
                         // directory isn't manifest-covered - just not this file's own content.
                         File(prefix, entry.name).parentFile?.mkdirs()
@@ -192,18 +281,24 @@ object DistroManager {
                     else -> {
                         val outFile = File(prefix, entry.name)
                         outFile.parentFile?.mkdirs()
-                        outFile.outputStream().buffered().use { out -> zis.copyTo(out) }
-                        rewriteShebangIfNeeded(outFile, prefix)
+                        writeEntry(zis, outFile, prefix)
+                        if (entry.name.substringBefore('/') in EXECUTABLE_DIRS) outFile.setExecutable(true)
                     }
                 }
                 zis.closeEntry()
                 entry = zis.nextEntry
             }
         }
+        return symlinksText.toString()
+    }
 
-        symlinksText.lineSequence().filter { it.isNotBlank() }.forEach { line ->
+    /** Everything a bootstrap install needs once its files have landed: SYMLINKS.txt's links,
+     *  the manifest's exec-exempt links and apt's config. */
+    private fun finishBootstrap(symlinksText: String, prefix: File, nativeLibraryDir: String) {
+        val lines = symlinksText.lineSequence().filter { it.contains(SYMLINK_SEPARATOR) }.toList()
+        lines.mapTo(HashSet()) { File(prefix, it.substringAfter(SYMLINK_SEPARATOR)).parentFile }.forEach { it?.mkdirs() }
+        forEachInParallel(lines) { line ->
             val separatorIndex = line.indexOf(SYMLINK_SEPARATOR)
-            if (separatorIndex < 0) return@forEach
             val rawTarget = line.substring(0, separatorIndex)
             // A handful of targets (apt/pacman keyring files, a couple of bin/ aliases) are
             // absolute paths baked in at Termux's own build time against ITS package name -
@@ -218,7 +313,6 @@ object DistroManager {
             }
             val linkPath = line.substring(separatorIndex + SYMLINK_SEPARATOR.length)
             val linkFile = File(prefix, linkPath)
-            linkFile.parentFile?.mkdirs()
             // unlink()s the path itself rather than whatever it points to - a no-op if nothing
             // was there yet, and clears a stale symlink left by a prior failed bootstrap attempt.
             linkFile.delete()
@@ -233,13 +327,13 @@ object DistroManager {
         writeAptConf(prefix)
     }
 
-    // Shared by extractBootstrap (fresh install) and repairExecLinks (an existing install whose
+    // Shared by finishBootstrap (fresh install) and repairExecLinks (an existing install whose
     // links now point at a previous, no-longer-valid nativeLibraryDir) - see repairExecLinks's own
     // doc comment for why that happens on nothing more than a routine app update.
     private fun linkManifestEntries(prefix: File, nativeLibraryDir: String) {
-        for ((realPath, flatName) in BootstrapManifest.ENTRIES) {
+        BootstrapManifest.ENTRIES.mapTo(HashSet()) { (realPath, _) -> File(prefix, realPath).parentFile }.forEach { it?.mkdirs() }
+        forEachInParallel(BootstrapManifest.ENTRIES) { (realPath, flatName) ->
             val linkFile = File(prefix, realPath)
-            linkFile.parentFile?.mkdirs()
             linkFile.delete()
             val realFile = File(nativeLibraryDir, flatName)
             try {
@@ -261,6 +355,22 @@ object DistroManager {
         }
     }
 
+    // Creating a link is a couple of syscalls that mostly wait on the filesystem, so the few
+    // hundred a bootstrap needs overlap well - across a small fixed pool, since flash stops
+    // getting faster after a handful in flight. Parent directories must already exist: mkdirs
+    // racing itself from two threads can fail for the loser. Returns once every action has run.
+    private fun <T> forEachInParallel(items: List<T>, action: (T) -> Unit) {
+        linkPool.invokeAll(items.map { item -> Callable { action(item) } })
+    }
+
+    // One pool for every link pass rather than a fresh one per call - isInstalled's repair can run
+    // on any launch. Its threads end after [LINK_IDLE_SECONDS] idle, so between passes it holds none.
+    private val linkPool by lazy {
+        ThreadPoolExecutor(LINK_PARALLELISM, LINK_PARALLELISM, LINK_IDLE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue()) { runnable ->
+            Thread(runnable, "DistroManager-link").apply { isDaemon = true }
+        }.apply { allowCoreThreadTimeOut(true) }
+    }
+
     // The bootstrap zip's own SYMLINKS.txt wires every *community* keyring under
     // share/termux-keyring/ into etc/apt/trusted.gpg.d/ (so apt trusts it without ever running
     // `apt-key add`) - every one of them except termux-pacman.gpg, the key that actually signs
@@ -286,7 +396,7 @@ object DistroManager {
     // Every script Termux's bootstrap builder compiled - `pkg` among them - gets a shebang line
     // baked at ITS build time against ITS package: `#!/data/data/com.termux/files/usr/bin/bash`.
     // That path doesn't exist under this app's sandbox, so the kernel's own "bad interpreter"
-    // check fails before bash (or whatever's named) ever runs - a real command extractBootstrap
+    // check fails before bash (or whatever's named) ever runs - a real command unpackEntries
     // never touches otherwise, since only the ~330 manifest-covered ELF files need the
     // exec-exemption trick; a plain script just needs its own first line to name a real path.
     //
@@ -299,13 +409,32 @@ object DistroManager {
     // corrupting a byte sequence inside a real binary that only coincidentally matches this
     // text), every occurrence of the hardcoded prefix throughout its whole body is rewritten, not
     // just the first line.
-    private fun rewriteShebangIfNeeded(file: File, prefix: File) {
-        if (file.length() < 3) return
-        val bytes = file.readBytes()
-        if (bytes.size < 2 || bytes[0] != '#'.code.toByte() || bytes[1] != '!'.code.toByte()) return
-        val text = String(bytes, Charsets.UTF_8)
-        if (!text.contains(HARDCODED_TERMUX_PREFIX)) return
-        file.writeBytes(text.replace(HARDCODED_TERMUX_PREFIX, prefix.absolutePath).toByteArray(Charsets.UTF_8))
+    //
+    // Checked on the way to disk, from the entry's first two bytes: anything else streams
+    // straight through, and a script - small, always - is read whole and written once, already
+    // rewritten, instead of being written, read back in full and written again.
+    private fun writeEntry(entry: InputStream, outFile: File, prefix: File) {
+        val head = ByteArray(2)
+        var headLength = 0
+        while (headLength < head.size) {
+            val n = entry.read(head, headLength, head.size - headLength)
+            if (n < 0) break
+            headLength += n
+        }
+        outFile.outputStream().buffered().use { out ->
+            if (headLength == 2 && head[0] == '#'.code.toByte() && head[1] == '!'.code.toByte()) {
+                val bytes = head + entry.readBytes()
+                val text = String(bytes, Charsets.UTF_8)
+                if (text.contains(HARDCODED_TERMUX_PREFIX)) {
+                    out.write(text.replace(HARDCODED_TERMUX_PREFIX, prefix.absolutePath).toByteArray(Charsets.UTF_8))
+                } else {
+                    out.write(bytes)
+                }
+            } else {
+                out.write(head, 0, headLength)
+                entry.copyTo(out)
+            }
+        }
     }
 
     // apt's own Dir::* settings (where it looks for apt.conf.d, sources.list, its package cache,
@@ -367,18 +496,6 @@ object DistroManager {
         )
     }
 
-    private fun makeBinariesExecutable(prefix: File) {
-        val manifestPaths = BootstrapManifest.ENTRIES.mapTo(HashSet()) { (realPath, _) -> File(prefix, realPath) }
-        listOf("bin", "libexec", "lib").forEach { sub ->
-            File(prefix, sub).walkTopDown().forEach { f ->
-                // Manifest-covered paths are a symlink or hard link into nativeLibraryDir now,
-                // not this app's own extracted file - already executable (the OS sets that at
-                // install time), and not something this app can, or needs to, chmod itself.
-                if (f.isFile && !Files.isSymbolicLink(f.toPath()) && f !in manifestPaths) f.setExecutable(true)
-            }
-        }
-    }
-
     private data class BundledScript(val name: String, val body: String)
 
     private val BUNDLED_SCRIPTS: List<BundledScript>
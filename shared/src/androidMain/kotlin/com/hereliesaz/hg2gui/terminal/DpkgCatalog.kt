@@ -1,6 +1,15 @@
 package com.hereliesaz.hg2gui.terminal
 
+import com.hereliesaz.hg2gui.util.Utils
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
 
 /**
  * Real dpkg package-ownership metadata already sitting in the Termux prefix - which package
@@ -12,28 +21,148 @@ import java.io.File
  * of 82 base packages have one), so there is no live category metadata to read for a binary,
  * only which package owns it. `CommandTree`'s own hand-curated package→category map is what
  * actually turns this into a category.
+ *
+ * Every tree rebuild asks - at startup, and after every pkg/apt/dpkg command - and most of those
+ * changed one package or none. So [index] is incremental: each package's binaries are kept
+ * alongside its .list file's size and mtime, in memory and persisted beside the apt catalog's
+ * snapshot, and a rescan stats every .list but only reads the ones that were added or changed.
  */
 object DpkgCatalog {
 
+    /** Binary↔package ownership, both ways, as of the rescan that produced it. */
+    class Index internal constructor(private val byPackage: Map<String, List<String>>) {
+        // A name two packages both install (an alternatives pair) keeps every owner, in package
+        // name order - the same order on every rescan, whichever .list was re-read last.
+        private val byBinary: Map<String, List<String>> = HashMap<String, MutableList<String>>().apply {
+            for (pkg in byPackage.keys.sorted()) {
+                byPackage.getValue(pkg).forEach { getOrPut(it) { mutableListOf() }.add(pkg) }
+            }
+        }
+
+        val packages: Set<String> get() = byPackage.keys
+
+        /** The first of [binary]'s owners by package name - see [packagesOf] for all of them. */
+        fun packageOf(binary: String): String? = byBinary[binary]?.first()
+
+        /** Every package that installs [binary], by package name. */
+        fun packagesOf(binary: String): List<String> = byBinary[binary].orEmpty()
+
+        fun binariesOf(pkg: String): List<String> = byPackage[pkg].orEmpty()
+
+        /** Only packages that own at least one binary - the shape [binariesByPackage] always had. */
+        fun binariesByPackage(): Map<String, List<String>> = byPackage.filterValues { it.isNotEmpty() }
+    }
+
+    private data class Listing(val size: Long, val modifiedAt: Long, val binaries: List<String>)
+
+    private const val INDEX_PATH = "var/cache/hg2gui/dpkg-index.bin"
+    private const val INDEX_MAGIC = 0x48474450 // "HGDP"
+    private const val INDEX_VERSION = 1
+
+    private val lock = Any()
+    private var memo: Pair<File, Map<String, Listing>>? = null
+    private var memoIndex: Index? = null
+
     /** Maps each installed package's name to the binaries (bare names, under bin/) it owns. */
-    fun binariesByPackage(prefixDir: File): Map<String, List<String>> {
+    fun binariesByPackage(prefixDir: File): Map<String, List<String>> = index(prefixDir).binariesByPackage()
+
+    /**
+     * The current ownership index, brought up to date with var/lib/dpkg/info: every .list is
+     * stat'ed, but only one whose size or mtime changed since the last rescan (this launch's, or
+     * the persisted one from a previous launch) is actually read. Blocking file I/O - call off
+     * the main thread.
+     */
+    fun index(prefixDir: File): Index = synchronized(lock) {
         val infoDir = File(prefixDir, "var/lib/dpkg/info")
-        val listFiles = infoDir.listFiles { f -> f.name.endsWith(".list") } ?: return emptyMap()
+        val listFiles = infoDir.listFiles { f -> f.name.endsWith(".list") }.orEmpty()
+        val stored = File(prefixDir, INDEX_PATH)
+        val previous = memo?.takeIf { it.first == stored }?.second ?: readIndex(stored)
 
-        val result = mutableMapOf<String, MutableList<String>>()
+        var changed = false
+        val next = HashMap<String, Listing>(listFiles.size)
         for (listFile in listFiles) {
             val pkg = listFile.name.removeSuffix(".list")
-            try {
-                listFile.forEachLine { path ->
-                    if (path.contains("/bin/") && !path.endsWith("/")) {
-                        val name = path.substringAfterLast('/')
-                        if (name.isNotBlank()) result.getOrPut(pkg) { mutableListOf() }.add(name)
+            val size = listFile.length()
+            val modifiedAt = listFile.lastModified()
+            val known = previous[pkg]
+            next[pkg] = if (known != null && known.size == size && known.modifiedAt == modifiedAt) {
+                known
+            } else {
+                changed = true
+                Listing(size, modifiedAt, readBinaries(listFile))
+            }
+        }
+        // Nothing added or re-read - but a package may still have been removed.
+        if (!changed) changed = previous.keys != next.keys
+
+        val cached = memoIndex
+        if (!changed && cached != null && memo?.first == stored) return cached
+        if (changed) writeIndex(stored, next)
+        memo = stored to next
+        Index(next.mapValues { it.value.binaries }).also { memoIndex = it }
+    }
+
+    private fun readBinaries(listFile: File): List<String> {
+        val binaries = mutableListOf<String>()
+        try {
+            listFile.forEachLine { path ->
+                if (path.contains("/bin/") && !path.endsWith("/")) {
+                    val name = path.substringAfterLast('/')
+                    if (name.isNotBlank()) binaries.add(name)
+                }
+            }
+        } catch (e: IOException) {
+            // This package's own listing is unreadable - skip it, keep the rest.
+            Utils.log(e)
+        }
+        return binaries
+    }
+
+    private fun readIndex(file: File): Map<String, Listing> {
+        if (!file.isFile) return emptyMap()
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION) return emptyMap()
+                val count = input.readInt()
+                HashMap<String, Listing>(count).apply {
+                    repeat(count) {
+                        val pkg = input.readUTF()
+                        val size = input.readLong()
+                        val modifiedAt = input.readLong()
+                        put(pkg, Listing(size, modifiedAt, List(input.readInt()) { input.readUTF() }))
                     }
                 }
-            } catch (e: Exception) {
-                // This package's own listing is unreadable - skip it, keep the rest.
             }
+        } catch (e: EOFException) {
+            // Truncated by a process that died mid-write - rescan everything, and rewrite it.
+            emptyMap()
+        } catch (e: IOException) {
+            Utils.log(e)
+            emptyMap()
+        }
+    }
+
+    private fun writeIndex(file: File, listings: Map<String, Listing>) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(INDEX_MAGIC)
+                out.writeInt(INDEX_VERSION)
+                out.writeInt(listings.size)
+                for ((pkg, listing) in listings) {
+                    out.writeUTF(pkg)
+                    out.writeLong(listing.size)
+                    out.writeLong(listing.modifiedAt)
+                    out.writeInt(listing.binaries.size)
+                    listing.binaries.forEach { out.writeUTF(it) }
+                }
+            }
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: IOException) {
+            // The in-memory index is already current; only the next launch's first rescan pays.
+            Utils.log(e)
+            tmp.delete()
         }
-        return result
     }
 }
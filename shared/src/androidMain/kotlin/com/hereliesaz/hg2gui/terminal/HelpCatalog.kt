@@ -1,8 +1,10 @@
 package com.hereliesaz.hg2gui.terminal
 
 import android.content.Context
-import androidx.core.content.edit
 import com.hereliesaz.hg2gui.util.Utils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
@@ -13,44 +15,149 @@ import java.util.concurrent.TimeUnit
  * SHELL_HINTS - which only ever covered the handful of commands worth hand-picking for, leaving
  * every other binary on PATH with nothing but a bare file… child.
  *
- * [MenuNode.resolveChildren] runs synchronously during composition (see PillMenu's own
- * `remember(anchor.id) { anchor.resolveChildren?.invoke() }`) - spawning a process and blocking
- * on it there would jank the UI for however long that binary takes to print its help text (or
- * hang, for one that doesn't actually understand `--help`). So this isn't a live probe: [warm]
- * runs once in the background, well before any pill actually needs the result, and [hintsFor] -
- * the one function a resolveChildren lambda actually calls - only ever reads the cache [warm]
+ * [hintsFor] runs for every binary on every `CommandTree.from` rebuild, and a
+ * [MenuNode.resolveChildren] result is awaited by an open pill band (see PillMenu's
+ * ChildrenCache) - spawning a process and blocking on it from either would stall the menu for
+ * however long that binary takes to print its help text (or hang, for one that doesn't actually
+ * understand `--help`). So this isn't a live probe: [warm] runs once in the background, well
+ * before any pill actually needs the result, and [hintsFor] only ever reads the cache [warm]
  * already filled in, never runs a process itself.
+ *
+ * [warm] probes [PARALLELISM] binaries at once - almost all of a probe is waiting on a child
+ * process, so a few hundred of them one after another took minutes - taking whatever the user
+ * has most recently opened in the menu first (see [prioritize]). Results live in one small file,
+ * rewritten once per [BATCH_SIZE] probes rather than a SharedPreferences commit per binary (each
+ * of which rewrote the whole XML), and each is stamped with the binary's path, size and mtime,
+ * so an upgraded binary gets probed again instead of keeping its old version's flags forever.
  */
 object HelpCatalog {
-    private const val PREFS_NAME = "hg2gui_help_cache"
-    private const val FIELD_SEP = ""
+    private const val CACHE_FILE = "help-cache.tsv"
+    // Where this cache lived before it was a file of its own - deleted once, on first load.
+    private const val LEGACY_PREFS_NAME = "hg2gui_help_cache"
+    private const val FLAG_SEP = '\u001F'
+    private const val FIELD_COUNT = 5
     private const val TIMEOUT_SECONDS = 3L
     private const val MAX_FLAGS_PER_BINARY = 6
     private const val MAX_OUTPUT_CHARS = 8_000
+    private const val BATCH_SIZE = 24
+    private val PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+    private data class Probe(val path: String, val size: Long, val modifiedAt: Long, val flags: List<String>)
 
-    private fun prefs(context: Context) = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    // Everything below is guarded by [lock] - [warm]'s workers, [prioritize] from the UI, and
+    // [hintsFor] from a tree rebuild all land here from different threads.
+    private val lock = Any()
+    private var cache: HashMap<String, Probe>? = null
+    private var unsaved = 0
+    private var wanted: Set<String> = emptySet()
 
     /** Cached flag hints for [binaryName] - empty before [warm] has covered it, or if none were
      *  found (no `--help` support, timed out, nothing recognizable in its output). Read-only and
-     *  synchronous - safe to call from a resolveChildren lambda. */
-    fun hintsFor(context: Context, binaryName: String): List<String> {
-        val raw = prefs(context).getString(binaryName, null) ?: return emptyList()
-        return if (raw.isEmpty()) emptyList() else raw.split(FIELD_SEP)
+     *  synchronous - safe to call from a tree rebuild or a resolveChildren lambda. */
+    fun hintsFor(context: Context, binaryName: String): List<String> = synchronized(lock) {
+        loaded(context)[binaryName]?.flags.orEmpty()
+    }
+
+    /** Moves [binaries] to the front of any [warm] in progress (or the next one) - called with
+     *  the binaries under whatever the user just opened, since those are the hints about to be
+     *  looked at. The most recent call wins over earlier ones. */
+    fun prioritize(binaries: Collection<String>) {
+        if (binaries.isEmpty()) return
+        synchronized(lock) { wanted = LinkedHashSet(binaries).apply { addAll(wanted) } }
+    }
+
+    /** Runs `<binDir>/<name> --help` for every name in [binaries] not already cached with the
+     *  binary's current path, size and mtime (from a previous [warm] call, possibly a previous
+     *  app run - the cache persists), parsing out whatever flags it can find. Suspends for as
+     *  long as the slowest still-uncached binaries take to answer (bounded per-binary by
+     *  [TIMEOUT_SECONDS]), probing [PARALLELISM] at a time on the IO dispatcher. Safe to call
+     *  repeatedly - a second call after `apt install`ing something new only probes the new (or
+     *  upgraded) binaries, and names no longer in [binaries] are dropped from the cache. */
+    suspend fun warm(context: Context, binDir: File, binaries: List<String>) {
+        val pending = synchronized(lock) {
+            val known = loaded(context)
+            val present = binaries.toSet()
+            if (known.keys.retainAll(present)) unsaved++
+            binaries.filterTo(LinkedHashSet()) { name ->
+                val file = File(binDir, name)
+                val probe = known[name]
+                probe == null || probe.path != file.path || probe.size != file.length() || probe.modifiedAt != file.lastModified()
+            }
+        }
+        try {
+            coroutineScope {
+                repeat(PARALLELISM) {
+                    launch(Dispatchers.IO) {
+                        while (true) {
+                            val name = nextOf(pending) ?: break
+                            val file = File(binDir, name)
+                            // Stamped before the probe, not after - an upgrade landing mid-probe
+                            // then reads as stale next time rather than cached as current.
+                            val stamp = Probe(file.path, file.length(), file.lastModified(), emptyList())
+                            record(context, name, stamp.copy(flags = probe(file)))
+                        }
+                    }
+                }
+            }
+        } finally {
+            synchronized(lock) { if (unsaved > 0) save(context) }
+        }
+    }
+
+    private fun nextOf(pending: MutableSet<String>): String? = synchronized(lock) {
+        val pick = wanted.firstOrNull { it in pending } ?: pending.firstOrNull()
+        pick?.also { pending.remove(it) }
+    }
+
+    private fun record(context: Context, name: String, probe: Probe) = synchronized(lock) {
+        loaded(context)[name] = probe
+        if (++unsaved >= BATCH_SIZE) save(context)
+    }
+
+    // Callers hold [lock].
+    private fun loaded(context: Context): HashMap<String, Probe> {
+        cache?.let { return it }
+        val file = File(context.filesDir, CACHE_FILE)
+        val result = HashMap<String, Probe>()
+        if (file.isFile) {
+            try {
+                file.forEachLine { line ->
+                    val fields = line.split('\t')
+                    if (fields.size != FIELD_COUNT) return@forEachLine
+                    val size = fields[2].toLongOrNull() ?: return@forEachLine
+                    val modifiedAt = fields[3].toLongOrNull() ?: return@forEachLine
+                    val flags = if (fields[4].isEmpty()) emptyList() else fields[4].split(FLAG_SEP)
+                    result[fields[0]] = Probe(fields[1], size, modifiedAt, flags)
+                }
+            } catch (e: IOException) {
+                // Unreadable - everything gets probed again, and the file rewritten.
+                Utils.log(e)
+                result.clear()
+            }
+        } else {
+            context.deleteSharedPreferences(LEGACY_PREFS_NAME)
+        }
+        cache = result
+        return result
     }
 
-    /** Runs `<binDir>/<name> --help` for every name in [binaries] not already cached (from a
-     *  previous [warm] call, possibly a previous app run - the cache persists), parsing out
-     *  whatever flags it can find. Meant to run off the main thread; blocks the calling thread
-     *  for as long as each still-uncached binary takes to answer (bounded per-binary by
-     *  [TIMEOUT_SECONDS]), not the composition PillMenu itself runs on. Safe to call repeatedly -
-     *  already-cached names are skipped, so a second call after `apt install`ing something new
-     *  only probes the newly-discovered binaries. */
-    fun warm(context: Context, binDir: File, binaries: List<String>) {
-        val p = prefs(context)
-        for (name in binaries) {
-            if (p.contains(name)) continue
-            val flags = probe(File(binDir, name))
-            p.edit { putString(name, flags.joinToString(FIELD_SEP)) }
+    // Callers hold [lock].
+    private fun save(context: Context) {
+        val entries = cache ?: return
+        val file = File(context.filesDir, CACHE_FILE)
+        val tmp = File(file.path + ".tmp")
+        try {
+            tmp.bufferedWriter().use { out ->
+                for ((name, probe) in entries) {
+                    out.write("$name\t${probe.path}\t${probe.size}\t${probe.modifiedAt}\t${probe.flags.joinToString(FLAG_SEP.toString())}")
+                    out.newLine()
+                }
+            }
+            if (!tmp.renameTo(file)) tmp.delete()
+            unsaved = 0
+        } catch (e: IOException) {
+            Utils.log(e)
+            tmp.delete()
         }
     }
 
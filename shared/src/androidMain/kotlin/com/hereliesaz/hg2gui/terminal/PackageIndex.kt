@@ -0,0 +1,113 @@
+package com.hereliesaz.hg2gui.terminal
+
+import kotlin.math.ln
+
+/**
+ * Full-text search over [AptCatalog]'s packages - names and descriptions both - for when what's
+ * wanted is "something that converts images", not a package name already known. The install
+ * pill only ever offered the catalog a category at a time, and the Find host (CommandIndex) only
+ * matches labels; neither finds imagemagick from "convert image".
+ *
+ * An inverted index, ranked BM25F-style: one posting list per term, each posting a package and
+ * the term's weighted frequency in it, a name occurrence counting [NAME_WEIGHT] times a
+ * description one. Every query term also matches as a prefix - the last one being typed is
+ * usually incomplete - through a sorted vocabulary, scored below an exact match. Built once per
+ * catalog (AptCatalog keeps it next to its own parse) and then only ever read: a query touches
+ * the postings of its own few terms, never the catalog itself.
+ */
+internal class PackageIndex(entries: List<AptCatalog.Entry>) {
+
+    private class Postings(val docs: IntArray, val weights: FloatArray)
+
+    private val postings: Map<String, Postings>
+    private val vocabulary: Array<String>
+    private val docLength: FloatArray
+    private val averageLength: Float
+    private val names: Array<String> = Array(entries.size) { entries[it].name.lowercase() }
+
+    init {
+        val byTerm = HashMap<String, HashMap<Int, Float>>()
+        docLength = FloatArray(entries.size)
+        entries.forEachIndexed { doc, entry ->
+            val nameTerms = tokenize(entry.name)
+            val descriptionTerms = tokenize(entry.description)
+            for (term in nameTerms) byTerm.getOrPut(term) { HashMap() }.merge(doc, NAME_WEIGHT, Float::plus)
+            for (term in descriptionTerms) byTerm.getOrPut(term) { HashMap() }.merge(doc, 1f, Float::plus)
+            docLength[doc] = nameTerms.size * NAME_WEIGHT + descriptionTerms.size
+        }
+        postings = byTerm.mapValues { (_, docs) ->
+            val sorted = docs.keys.sorted()
+            Postings(sorted.toIntArray(), FloatArray(sorted.size) { docs.getValue(sorted[it]) })
+        }
+        vocabulary = postings.keys.sorted().toTypedArray()
+        averageLength = if (entries.isEmpty()) 1f else docLength.average().toFloat().coerceAtLeast(1f)
+    }
+
+    /** Indices into the catalog this was built from, best match first - at most [limit]. */
+    fun search(query: String, limit: Int): List<Int> {
+        val terms = tokenize(query).distinct()
+        if (terms.isEmpty() || limit <= 0) return emptyList()
+        val scores = HashMap<Int, Float>()
+        for (term in terms) {
+            // Per term, a package scores by its best-matching expansion rather than their sum -
+            // otherwise "lib" would reward whichever package mentions the most lib* words.
+            val best = HashMap<Int, Float>()
+            expansions(term).forEach { (expanded, factor) ->
+                val list = postings[expanded] ?: return@forEach
+                val idf = idf(list.docs.size)
+                for (i in list.docs.indices) {
+                    val doc = list.docs[i]
+                    val score = factor * idf * saturate(list.weights[i], docLength[doc])
+                    if (score > (best[doc] ?: 0f)) best[doc] = score
+                }
+            }
+            best.forEach { (doc, score) -> scores.merge(doc, score, Float::plus) }
+        }
+        val whole = query.trim().lowercase()
+        names.indexOf(whole).takeIf { it >= 0 }?.let { scores.merge(it, EXACT_NAME_BONUS, Float::plus) }
+        return scores.entries
+            .sortedWith(compareByDescending<Map.Entry<Int, Float>> { it.value }.thenBy { names[it.key] })
+            .take(limit)
+            .map { it.key }
+    }
+
+    /** [term] itself at full weight, then up to [MAX_EXPANSIONS] longer terms it prefixes. */
+    private fun expansions(term: String): List<Pair<String, Float>> = buildList {
+        add(term to 1f)
+        if (term.length < MIN_PREFIX) return@buildList
+        var at = vocabulary.binarySearch(term).let { if (it < 0) -(it + 1) else it + 1 }
+        while (at < vocabulary.size && size <= MAX_EXPANSIONS && vocabulary[at].startsWith(term)) {
+            add(vocabulary[at++] to PREFIX_FACTOR)
+        }
+    }
+
+    private fun idf(documentFrequency: Int): Float =
+        ln(1f + (names.size - documentFrequency + 0.5f) / (documentFrequency + 0.5f))
+
+    private fun saturate(frequency: Float, length: Float): Float =
+        frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength))
+
+    companion object {
+        private const val K1 = 1.2f
+        private const val B = 0.75f
+        private const val NAME_WEIGHT = 3f
+        private const val PREFIX_FACTOR = 0.6f
+        private const val MIN_PREFIX = 2
+        private const val MAX_EXPANSIONS = 64
+        private const val EXACT_NAME_BONUS = 10f
+        private const val MIN_TERM = 2
+        private const val PLURAL_MIN = 4
+
+        private val STOP_WORDS = setOf("a", "an", "and", "for", "in", "is", "of", "on", "or", "the", "to", "with")
+
+        /** Lowercased alphanumeric runs, stop words dropped and a plain plural "s" stripped -
+         *  enough that "converts images" and "image converter" share terms. */
+        fun tokenize(text: String): List<String> =
+            text.lowercase()
+                .split(NON_WORD)
+                .filter { it.length >= MIN_TERM && it !in STOP_WORDS }
+                .map { if (it.length >= PLURAL_MIN && it.endsWith('s') && !it.endsWith("ss")) it.dropLast(1) else it }
+
+        private val NON_WORD = Regex("[^a-z0-9]+")
+    }
+}
@@ -0,0 +1,314 @@
+package com.hereliesaz.hg2gui.ui.editor
+
+import com.hereliesaz.hg2gui.util.replaceFile
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+
+/**
+ * An [EditorDocument] that never holds the file it edits: the original bytes stay memory-mapped
+ * and untouched, everything typed is appended to one growing add buffer, and the document is the
+ * list of pieces - (buffer, start, length) - that reads through the two in order. Opening costs one
+ * pass to find the original's line breaks; an edit costs a few pieces, not a copy of the file; a
+ * line that was never edited is never decoded unless it's on screen, and goes back to disk byte for
+ * byte, invalid UTF-8 and all.
+ *
+ * Each piece knows how many breaks it holds, and [rebuild] keeps running totals of bytes and breaks
+ * across the pieces, so finding line n is a binary search over pieces and then over the original's
+ * break offsets - no walk from the top of the file.
+ *
+ * The mapping is shared with the file, so it's only as good as the file is left alone: rewritten
+ * in place, the break index no longer matches the bytes, and truncated, reading past the new end
+ * faults the process. VfsManager and [Snapshot.saveTo] only ever replace a file by renaming over
+ * it, which leaves the mapped inode untouched; for anything else - a shell's `>` - [changedOnDisk]
+ * tells, and a save refuses to go ahead on top of it.
+ *
+ * Not thread-safe: edits and reads belong to one thread (the UI's). [snapshot] is the exception,
+ * made to be taken there and saved from anywhere.
+ */
+class PieceTable private constructor(
+    private val original: ByteBuffer,
+    // Offsets of every '\n' in [original], ascending; only the first [originalBreakCount] are real.
+    private val originalBreaks: IntArray,
+    private val originalBreakCount: Int,
+    private val origin: Origin
+) : EditorDocument {
+
+    /** The file [original] was mapped from, as it was then: its inode - fileKey, where the
+     *  platform has one - size and mtime. */
+    internal class Origin(val file: File, val key: Any?, val size: Long, val modifiedAt: FileTime?) {
+        /** Whether the mapped file itself has been written since. A file renamed over the path (a
+         *  save, this one's or anyone's) or deleted is a different inode - the mapping still holds
+         *  the old one, which nothing can reach to write any more. */
+        fun changed(): Boolean {
+            val now = try {
+                Files.readAttributes(file.toPath(), BasicFileAttributes::class.java)
+            } catch (e: IOException) {
+                return false
+            }
+            if (key != null && now.fileKey() != key) return false
+            return now.size() != size || now.lastModifiedTime() != modifiedAt
+        }
+
+        fun checkUnchanged() {
+            if (changed()) throw IOException("${file.name} was changed on disk since it was opened - reopen it to edit it.")
+        }
+    }
+
+    internal class Piece(val inAdd: Boolean, val start: Int, val length: Int, val breaks: Int)
+
+    private var add = ByteArray(ADD_INITIAL_BYTES)
+    private var addLength = 0
+
+    // The add buffer up to here may be read by a [Snapshot] being saved, so it's never reclaimed.
+    private var sealedLength = 0
+
+    private val pieces = ArrayList<Piece>()
+
+    // byteStarts[p] and breakStarts[p] are the bytes and breaks before pieces[p]; the last slot
+    // of each is the document's total.
+    private var byteStarts = LongArray(1)
+    private var breakStarts = IntArray(1)
+
+    /** Bumped on every edit, so a save can tell whether anything changed while it wrote. */
+    @Volatile var edits = 0
+        private set
+
+    init {
+        if (original.capacity() > 0) pieces.add(Piece(false, 0, original.capacity(), originalBreakCount))
+        rebuild()
+    }
+
+    override val lineCount: Int get() = breakStarts[pieces.size] + 1
+
+    override fun line(index: Int): String {
+        val start = lineStart(index)
+        val end = if (index == lineCount - 1) byteStarts[pieces.size] else lineStart(index + 1) - 1
+        return String(bytes(start, end), Charsets.UTF_8)
+    }
+
+    override fun replaceLines(first: Int, last: Int, text: String) {
+        require(first in 0..last && last < lineCount) { "lines $first..$last of $lineCount" }
+        val end = if (last == lineCount - 1) byteStarts[pieces.size] else lineStart(last + 1) - 1
+        replace(lineStart(first), end, text.toByteArray(Charsets.UTF_8))
+    }
+
+    /** True once something else has written to the file this was opened on - see the class
+     *  doc. Its lines may no longer read right, and nothing may be saved from it. */
+    fun changedOnDisk(): Boolean = origin.changed()
+
+    /** The document as it stands, to [Snapshot.saveTo] off the UI thread while editing goes on. */
+    fun snapshot(): Snapshot {
+        sealedLength = addLength
+        return Snapshot(original, add, ArrayList(pieces), edits, origin)
+    }
+
+    /** Pieces and buffers frozen at [edits]: later edits only ever append past [sealedLength] or
+     *  swap [add] for a bigger copy, so nothing this reads changes under it. */
+    class Snapshot internal constructor(
+        private val original: ByteBuffer,
+        private val add: ByteArray,
+        private val pieces: List<Piece>,
+        val edits: Int,
+        private val origin: Origin
+    ) {
+        /**
+         * Streams the pieces into a file beside [target] and renames it over [target] - see
+         * replaceFile. The original stays readable afterwards: the mapping holds on to the
+         * replaced file's data until it's unmapped, so later edits and saves still read the bytes
+         * they were made against. Throws IOException, writing nothing, if the opened file was
+         * changed in place meanwhile - what would be saved is no longer what the user saw.
+         */
+        fun saveTo(target: File) {
+            origin.checkUnchanged()
+            replaceFile(target) { out ->
+                val channel = out.channel
+                for (piece in pieces) {
+                    val buffer = if (piece.inAdd) {
+                        ByteBuffer.wrap(add, piece.start, piece.length)
+                    } else {
+                        original.duplicate().apply {
+                            position(piece.start)
+                            limit(piece.start + piece.length)
+                        }
+                    }
+                    while (buffer.hasRemaining()) channel.write(buffer)
+                }
+                // Again, now that every original byte has been read: a write that landed
+                // mid-copy would otherwise go out torn.
+                origin.checkUnchanged()
+            }
+        }
+    }
+
+    // Offset of line [index]'s first byte: just past break number [index].
+    private fun lineStart(index: Int): Long {
+        if (index == 0) return 0L
+        val p = pieceWithBreak(index)
+        val piece = pieces[p]
+        val at = breakIn(piece, index - breakStarts[p] - 1)
+        return byteStarts[p] + (at - piece.start) + 1
+    }
+
+    // The piece holding break number [n] (1-based): the last whose preceding total is below it.
+    private fun pieceWithBreak(n: Int): Int {
+        var lo = 0
+        var hi = pieces.size - 1
+        while (lo < hi) {
+            val mid = (lo + hi + 1) ushr 1
+            if (breakStarts[mid] < n) lo = mid else hi = mid - 1
+        }
+        return lo
+    }
+
+    // The piece [offset] falls in, or pieces.size if it's the end of the document.
+    private fun pieceAt(offset: Long): Int {
+        if (offset >= byteStarts[pieces.size]) return pieces.size
+        var lo = 0
+        var hi = pieces.size - 1
+        while (lo < hi) {
+            val mid = (lo + hi + 1) ushr 1
+            if (byteStarts[mid] <= offset) lo = mid else hi = mid - 1
+        }
+        return lo
+    }
+
+    // Buffer offset of the [k]th (0-based) break inside [piece].
+    private fun breakIn(piece: Piece, k: Int): Int {
+        if (!piece.inAdd) return originalBreaks[firstBreakAtOrAfter(piece.start) + k]
+        var seen = 0
+        for (i in piece.start until piece.start + piece.length) {
+            if (add[i] == NEWLINE && seen++ == k) return i
+        }
+        error("break $k not in piece")
+    }
+
+    private fun firstBreakAtOrAfter(offset: Int): Int {
+        var lo = 0
+        var hi = originalBreakCount
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (originalBreaks[mid] < offset) lo = mid + 1 else hi = mid
+        }
+        return lo
+    }
+
+    private fun breaksIn(inAdd: Boolean, start: Int, length: Int): Int =
+        if (inAdd) (start until start + length).count { add[it] == NEWLINE }
+        else firstBreakAtOrAfter(start + length) - firstBreakAtOrAfter(start)
+
+    private fun slice(piece: Piece, from: Int, to: Int): Piece? =
+        if (from >= to) null
+        else Piece(piece.inAdd, piece.start + from, to - from, breaksIn(piece.inAdd, piece.start + from, to - from))
+
+    private fun bytes(from: Long, to: Long): ByteArray {
+        val out = ByteArray((to - from).toInt())
+        var written = 0
+        var p = pieceAt(from)
+        var offset = (from - byteStarts[p]).toInt()
+        while (written < out.size) {
+            val piece = pieces[p]
+            val n = minOf(piece.length - offset, out.size - written)
+            if (piece.inAdd) {
+                System.arraycopy(add, piece.start + offset, out, written, n)
+            } else {
+                original.duplicate().apply { position(piece.start + offset) }.get(out, written, n)
+            }
+            written += n
+            offset = 0
+            p++
+        }
+        return out
+    }
+
+    private fun replace(from: Long, to: Long, inserted: ByteArray) {
+        val first = pieceAt(from)
+        val last = pieceAt(to)
+        val removedUntil = if (last < pieces.size) last + 1 else pieces.size
+
+        // Retyping one line replaces it whole on every keystroke. When what's going is the add
+        // buffer's own tail - that line's previous version - reuse the space instead of letting
+        // the buffer grow by a line per key.
+        for (p in first until removedUntil) {
+            val piece = pieces[p]
+            if (piece.inAdd && piece.start + piece.length == addLength && piece.start >= sealedLength &&
+                byteStarts[p] >= from && byteStarts[p] + piece.length <= to
+            ) {
+                addLength = piece.start
+            }
+        }
+
+        val replacement = ArrayList<Piece>(3)
+        if (first < pieces.size) slice(pieces[first], 0, (from - byteStarts[first]).toInt())?.let(replacement::add)
+        if (inserted.isNotEmpty()) {
+            val start = append(inserted)
+            replacement.add(Piece(true, start, inserted.size, breaksIn(true, start, inserted.size)))
+        }
+        if (last < pieces.size) {
+            val piece = pieces[last]
+            slice(piece, (to - byteStarts[last]).toInt(), piece.length)?.let(replacement::add)
+        }
+        pieces.subList(first, removedUntil).clear()
+        pieces.addAll(first, replacement)
+        rebuild()
+        edits++
+    }
+
+    private fun append(bytes: ByteArray): Int {
+        if (addLength + bytes.size > add.size) {
+            add = add.copyOf(maxOf(add.size * 2, addLength + bytes.size))
+        }
+        System.arraycopy(bytes, 0, add, addLength, bytes.size)
+        return addLength.also { addLength += bytes.size }
+    }
+
+    private fun rebuild() {
+        byteStarts = LongArray(pieces.size + 1)
+        breakStarts = IntArray(pieces.size + 1)
+        pieces.forEachIndexed { i, piece ->
+            byteStarts[i + 1] = byteStarts[i] + piece.length
+            breakStarts[i + 1] = breakStarts[i] + piece.breaks
+        }
+    }
+
+    companion object {
+        private const val NEWLINE = '\n'.code.toByte()
+        private const val ADD_INITIAL_BYTES = 16 * 1024
+        private const val SCAN_BYTES = 64 * 1024
+
+        /** Maps [file] and indexes its line breaks. Throws IOException for a file past 2GB - one
+         *  mapping's limit, and far past anything worth editing on a phone. */
+        fun open(file: File): PieceTable {
+            // Stat'ed before mapping: a write between the two shows up as changed, not missed.
+            val attributes = Files.readAttributes(file.toPath(), BasicFileAttributes::class.java)
+            val origin = Origin(file, attributes.fileKey(), attributes.size(), attributes.lastModifiedTime())
+            val size = attributes.size()
+            if (size > Int.MAX_VALUE) throw IOException("${file.name} is too big to edit here.")
+            // The mapping outlives the channel it came from, so the file isn't held open.
+            val original: ByteBuffer = if (size == 0L) ByteBuffer.allocate(0) else {
+                RandomAccessFile(file, "r").use { it.channel.map(FileChannel.MapMode.READ_ONLY, 0, size) }
+            }
+            var breaks = IntArray(1024)
+            var count = 0
+            val chunk = ByteArray(SCAN_BYTES)
+            val reader = original.duplicate()
+            var base = 0
+            while (reader.hasRemaining()) {
+                val n = minOf(chunk.size, reader.remaining())
+                reader.get(chunk, 0, n)
+                for (i in 0 until n) {
+                    if (chunk[i] != NEWLINE) continue
+                    if (count == breaks.size) breaks = breaks.copyOf(breaks.size * 2)
+                    breaks[count++] = base + i
+                }
+                base += n
+            }
+            return PieceTable(original, breaks, count, origin)
+        }
+    }
+}
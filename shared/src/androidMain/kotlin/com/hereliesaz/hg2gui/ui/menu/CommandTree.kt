@@ -10,6 +10,8 @@ import com.hereliesaz.hg2gui.terminal.DpkgCatalog
 import com.hereliesaz.hg2gui.terminal.HelpCatalog
 import com.hereliesaz.hg2gui.ui.ssh.SshFlow
 import java.io.File
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 
 /*
  * The suggestion tree. Shell is discovered live from the Termux bootstrap's own PATH; System,
@@ -39,6 +41,16 @@ object CommandTree {
     /** Built-ins whose argument is a file, not a literal choice - they get a file… picker child. */
     private val FILE_PARAM_COMMANDS = setOf("edit")
 
+    /** Ids of the two nodes whose resolved children come from a store the user can add to
+     *  without rebuilding the tree - the caller invalidates these after saving to either. */
+    const val SSH_ID = "sh/ssh"
+    const val WORKFLOWS_ID = "wf"
+
+    /** Ids of the `install` pills, whose resolved children come from the apt index rather than
+     *  the tree - the caller invalidates these after a package-manager run even when [from]
+     *  hands back the same tree, since `apt update` changes what they list. */
+    val INSTALL_IDS: List<String> = listOf("pkg", "apt", "apt-get").map { "sh/$it/install" }
+
     /** Command names whose invocation can plausibly change what's installed / on PATH - the only
      *  ones worth re-scanning [from] for afterward. Reuses the same package-manager binaries
      *  SHELL_HINTS already special-cases below, rather than inventing a second list. */
@@ -61,17 +73,12 @@ object CommandTree {
         "dpkg" to listOf("-l", "-L", "-S", "-i")
     )
 
-    // A single category can carry far more names than the fan-out animation is built to show at
-    // once; this caps the count per category rather than silently rendering (or hanging on) an
-    // unbounded list.
-    private const val MAX_SHELL_ENTRIES = 300
-
     /**
      * Which category a package's binaries belong to. Termux's own packages carry no Debian
      * "Section" field to read this from (verified against a real bootstrap - 0 of 82 base
      * packages have one), so unlike SHELL_HINTS this can't fall back to "discover it, hint it";
      * there is no live source of truth at all, only which package owns a binary
-     * (`DpkgCatalog.binariesByPackage`). Covers every package the base bootstrap actually
+     * (`DpkgCatalog.index`). Covers every package the base bootstrap actually
      * installs, plus common `pkg install` targets; anything else still shows up, just under
      * "Other".
      */
@@ -146,58 +153,63 @@ object CommandTree {
      *  host/user/port/key wizard (PillMenu's onWizard) instead of drilling into more pills - ssh
      *  needs to accumulate several fields, which a plain pill chain can't do (see PillMenu.kt).
      *  resolveChildren (not eager children) means a freshly-saved preset shows up the next time
-     *  this pill opens, without waiting on the next unrelated command's tree rebuild. */
+     *  this pill opens, without waiting on the next unrelated command's tree rebuild - as long as
+     *  whoever saved it invalidates [SSH_ID] in PillMenu's ChildrenCache. */
     private fun sshLeaf(context: Context): MenuNode = MenuNode(
-        id = "sh/ssh",
+        id = SSH_ID,
         label = "ssh",
         value = "ssh",
-        resolveChildren = {
-            val presets = SshPresets.list(context).map { p ->
-                MenuNode(
-                    id = "sh/ssh/preset/${p.name}",
-                    label = p.name,
-                    cap = "pick",
-                    value = SshFlow.argsFor(p.user, p.host, p.port, p.keyPath)
-                )
-            }
-            presets + MenuNode(
-                id = "sh/ssh/new",
-                label = "new…",
-                cap = "new",
-                emitsToken = false,
-                wizardId = "ssh-new"
+        resolveChildren = sshChildren(context)
+    )
+
+    private fun sshChildren(context: Context): suspend () -> List<MenuNode> = {
+        val presets = withContext(Dispatchers.IO) { SshPresets.list(context) }.map { p ->
+            MenuNode(
+                id = "sh/ssh/preset/${p.name}",
+                label = p.name,
+                cap = "pick",
+                value = SshFlow.argsFor(p.user, p.host, p.port, p.keyPath)
             )
         }
-    )
+        presets + MenuNode(
+            id = "sh/ssh/new",
+            label = "new…",
+            cap = "new",
+            emitsToken = false,
+            wizardId = "ssh-new"
+        )
+    }
 
     /** The Workflows root pill: saved templates as picks (each launches its own fill-in-the-
      *  placeholders wizard), plus a "new…" leaf that launches the save wizard. Same lazy
      *  resolveChildren reasoning as [sshLeaf] - a freshly-saved workflow shows up next time this
-     *  pill opens. This is a synthesized root like sys/apps/feat, not a shell binary, so it's
+     *  pill opens, once [WORKFLOWS_ID] is invalidated. This is a synthesized root like sys/apps/feat, not a shell binary, so it's
      *  added in [from] rather than discovered from PATH. */
     private fun workflowsRoot(context: Context): MenuNode = MenuNode(
-        id = "wf",
+        id = WORKFLOWS_ID,
         label = "Workflows",
         emitsToken = false,
-        resolveChildren = {
-            val saved = WorkflowStore.list(context).map { workflow ->
-                MenuNode(
-                    id = "wf/${workflow.name}",
-                    label = workflow.name,
-                    cap = "run",
-                    emitsToken = false,
-                    wizardId = "workflow-run:${workflow.name}"
-                )
-            }
-            saved + MenuNode(
-                id = "wf/new",
-                label = "new…",
-                cap = "new",
+        resolveChildren = workflowChildren(context)
+    )
+
+    private fun workflowChildren(context: Context): suspend () -> List<MenuNode> = {
+        val saved = withContext(Dispatchers.IO) { WorkflowStore.list(context) }.map { workflow ->
+            MenuNode(
+                id = "wf/${workflow.name}",
+                label = workflow.name,
+                cap = "run",
                 emitsToken = false,
-                wizardId = "workflow-new"
+                wizardId = "workflow-run:${workflow.name}"
             )
         }
-    )
+        saved + MenuNode(
+            id = "wf/new",
+            label = "new…",
+            cap = "new",
+            emitsToken = false,
+            wizardId = "workflow-new"
+        )
+    }
 
     /** The AI root pill: one leaf that opens the AI chat screen (a wizardId consumer that
      *  navigates rather than collecting prompt answers - a valid reuse of the same "the tree
@@ -335,8 +347,8 @@ object CommandTree {
         return curated + discovered
     }
 
-    private fun shellLeaf(context: Context, fullName: String, label: String): MenuNode {
-        val hints = hintsForBinary(context, fullName).map { hint -> hintChild(context, fullName, hint) }
+    private fun shellLeaf(context: Context, fullName: String, label: String, hintsOf: (String) -> List<String>): MenuNode {
+        val hints = hintsOf(fullName).map { hint -> hintChild(context, fullName, hint) }
         val children = hints + FileBrowser.pickerNode("sh/$fullName/file")
         return MenuNode(
             id = "sh/$fullName",
@@ -350,15 +362,29 @@ object CommandTree {
     /** The "install" pill under apt/pkg/apt-get: still contributes "install" to the command
      *  line like any other hint (it really is the next literal word), but instead of stopping
      *  there, drills into [AptCatalog]'s categorized package list - resolved lazily since
-     *  parsing ~2900 index entries on every tree rebuild would be wasted work the vast majority
-     *  of the time this pill never actually gets opened. */
+     *  reading ~2900 index entries on every tree rebuild would be wasted work the vast majority
+     *  of the time this pill never actually gets opened, and on the IO dispatcher since PillMenu
+     *  usually prefetches it the moment its package manager's band fans out. */
     private fun installNode(context: Context, id: String): MenuNode = MenuNode(
         id = id,
         label = "install",
         cap = "browse",
-        resolveChildren = { installCategories(context) }
+        resolveChildren = installChildren(context)
     )
 
+    private fun installChildren(context: Context): suspend () -> List<MenuNode> =
+        { withContext(Dispatchers.IO) { installCategories(context) } }
+
+    /** The resolver the node with [id] is built with, for re-attaching to a node read back from
+     *  a [TreeSnapshot] - which can store that a node resolves lazily, but not how. */
+    private fun resolverFor(context: Context, id: String): (suspend () -> List<MenuNode>)? = when {
+        id == SSH_ID -> sshChildren(context)
+        id == WORKFLOWS_ID -> workflowChildren(context)
+        id.endsWith("/install") && id.removePrefix("sh/").removeSuffix("/install") in PACKAGE_MANAGER_COMMANDS ->
+            installChildren(context)
+        else -> null
+    }
+
     /** A category is purely navigational, same reasoning as [scanShell]'s own category nodes -
      *  "Libraries" or "Networking" is never itself part of the command line, only whatever
      *  package a pick resolves to inside it. */
@@ -374,25 +400,13 @@ object CommandTree {
                 )
             )
         }
-        val byCategory = AptCatalog.all(prefix)
-            .groupBy { AptCatalog.categoryOf(it.name, it.description) }
+        val byCategory = AptCatalog.all(prefix).groupBy { it.category }
 
         return byCategory.entries.sortedBy { it.key }.map { (category, members) ->
-            val sorted = members.sortedBy { it.name }
-            val capped = sorted.take(MAX_SHELL_ENTRIES)
-            val children = capped.map { pkg ->
+            // Uncapped: PillMenu only composes the rows near its visible window, so a category
+            // of a few thousand packages costs the same per frame as one of a dozen.
+            val children = members.sortedBy { it.name }.map { pkg ->
                 MenuNode(id = "aptcat/$category/${pkg.name}", label = pkg.name)
-            } + if (sorted.size > capped.size) {
-                listOf(
-                    MenuNode(
-                        id = "aptcat/$category/more",
-                        label = "+${sorted.size - capped.size} more",
-                        cap = "…",
-                        emitsToken = false
-                    )
-                )
-            } else {
-                emptyList()
             }
             MenuNode(
                 id = "aptcat/$category",
@@ -411,7 +425,7 @@ object CommandTree {
      * siblings count toward the "at least 2" threshold: a lone hyphenated name isn't worth a
      * parent of its own, and a name with no hyphen was never part of a family to begin with.
      */
-    private fun groupByFamily(context: Context, names: List<String>): List<MenuNode> {
+    private fun groupByFamily(context: Context, names: List<String>, hintsOf: (String) -> List<String>): List<MenuNode> {
         val families = names.filter { it.contains('-') }
             .groupBy { it.substringBefore('-') }
             .filterValues { it.size >= 2 }
@@ -429,12 +443,12 @@ object CommandTree {
             // real SHELL_HINTS of its own would never be able to show them, since this host's
             // children were always just the family list.
             val bareHints = if (hasBare) {
-                hintsForBinary(context, prefix).map { hint -> hintChild(context, prefix, hint) }
+                hintsOf(prefix).map { hint -> hintChild(context, prefix, hint) }
             } else {
                 emptyList()
             }
             val children = bareHints +
-                members.sorted().map { full -> shellLeaf(context, full, full.removePrefix("$prefix-")) }
+                members.sorted().map { full -> shellLeaf(context, full, full.removePrefix("$prefix-"), hintsOf) }
             nodes.add(
                 MenuNode(
                     id = "sh/$prefix",
@@ -451,7 +465,7 @@ object CommandTree {
 
         for (name in names) {
             if (name in consumed) continue
-            nodes.add(if (name == "ssh") sshLeaf(context) else shellLeaf(context, name, name))
+            nodes.add(if (name == "ssh") sshLeaf(context) else shellLeaf(context, name, name, hintsOf))
         }
 
         return nodes.sortedBy { it.label }
@@ -466,7 +480,7 @@ object CommandTree {
      * command available at that point, the one that fixes that.
      *
      * Once there's a real prefix, dpkg's own bookkeeping already records which package every
-     * binary belongs to (`DpkgCatalog.binariesByPackage`); CATEGORY_OF_PACKAGE turns that into a
+     * binary belongs to (`DpkgCatalog.index`); CATEGORY_OF_PACKAGE turns that into a
      * root category. A binary from a package not in that map - or not owned by dpkg at all -
      * still shows up, just under "Other".
      */
@@ -488,67 +502,240 @@ object CommandTree {
 
     /** Kicks off (or continues) background discovery of `--help` flags for every real binary on
      *  PATH, so the next tree rebuild's [hintsForBinary] calls can pick up whatever this finds -
-     *  see [HelpCatalog]. Blocks the calling thread for as long as any still-uncached binary
-     *  takes to answer, so callers must run this off the main thread. Safe to call repeatedly:
+     *  see [HelpCatalog]. Suspends for as long as any still-uncached binary takes to answer;
+     *  HelpCatalog runs the probes themselves on the IO dispatcher. Safe to call repeatedly:
      *  already-cached binaries are skipped, so a call after `apt install`ing something new only
      *  probes what's newly there. */
-    fun warmHelpCache(context: Context) {
+    suspend fun warmHelpCache(context: Context) {
         val (binDir, names) = discoverBinaries(context) ?: return
         HelpCatalog.warm(context, binDir, names)
     }
 
+    /** The binaries reachable under [node] - a Shell category, a family host, a single binary -
+     *  which are exactly the pills whose `--help` hints opening it is about to show. */
+    fun binariesUnder(node: MenuNode): List<String> = buildList {
+        fun visit(n: MenuNode) {
+            val binary = n.value
+            if (binary != null && n.id == "sh/$binary") add(binary)
+            n.children.forEach(::visit)
+        }
+        visit(node)
+    }
+
+    /** Every executable on PATH - what a FuzzyDictionary correction should prefer. Empty before a
+     *  bootstrap exists. Lists a directory; call off the main thread. */
+    fun binaryNames(context: Context): List<String> = discoverBinaries(context)?.second.orEmpty()
+
     private fun scanShell(context: Context): List<MenuNode> {
         val (binDir, names) = discoverBinaries(context)
             ?: return listOf(MenuNode("sh", "Shell", "1", listOf(MenuNode(id = "sh/bootstrap", label = "bootstrap", cap = "run"))))
         val prefix = binDir.parentFile ?: DistroManager.prefixDir(context)
 
-        val categoryOf = mutableMapOf<String, String>()
-        for ((pkg, binaries) in DpkgCatalog.binariesByPackage(prefix)) {
-            val category = CATEGORY_OF_PACKAGE[pkg] ?: continue
-            for (b in binaries) categoryOf[b] = category
-        }
-        categoryOf.putAll(CATEGORY_OF_BINARY)
-        val byCategory = names.groupBy { categoryOf[it] ?: UNCATEGORIZED }
+        val owners = DpkgCatalog.index(prefix)
+        return shellCategories(
+            context,
+            names,
+            categoryOf = { name ->
+                // Any owner with a category, not just the first: a binary two packages ship
+                // shouldn't land in "Other" because the uncategorized one happens to sort first.
+                CATEGORY_OF_BINARY[name]
+                    ?: owners.packagesOf(name).firstNotNullOfOrNull { CATEGORY_OF_PACKAGE[it] }
+                    ?: UNCATEGORIZED
+            },
+            hintsOf = { name -> hintsForBinary(context, name) }
+        )
+    }
 
-        return byCategory.entries.sortedBy { it.key }.map { (category, members) ->
-            val capped = members.take(MAX_SHELL_ENTRIES)
-            val children = groupByFamily(context, capped) + if (members.size > capped.size) {
-                listOf(
-                    MenuNode(
-                        id = "sh/$category/more",
-                        label = "+${members.size - capped.size} more",
-                        cap = "…",
-                        emitsToken = false
-                    )
-                )
+    /** What one Shell category was last built from, and the node that came out of it. */
+    private class BuiltCategory(val members: List<String>, val hints: List<List<String>>, val node: MenuNode)
+
+    private val buildLock = Any()
+    private var builtFor: Context? = null
+    private val builtCategories = HashMap<String, BuiltCategory>()
+
+    /**
+     * One root per category of [names], each built from its members' families and hints - or,
+     * when a category's members and every member's hints are exactly what they were on the last
+     * build, that build's node itself. A `pkg install jq` rebuild then allocates only the
+     * "Text & files" subtree; every other category comes back as the same instance, which
+     * PillMenu's and CommandIndex's per-node state can keep trusting. Only the last build is
+     * remembered, and only for the same [context] - reused nodes' resolvers capture it.
+     */
+    internal fun shellCategories(
+        context: Context,
+        names: List<String>,
+        categoryOf: (String) -> String,
+        hintsOf: (String) -> List<String>
+    ): List<MenuNode> = synchronized(buildLock) {
+        if (builtFor !== context) {
+            builtCategories.clear()
+            builtFor = context
+        }
+        val byCategory = names.groupBy(categoryOf)
+        val next = HashMap<String, BuiltCategory>(byCategory.size)
+        val roots = byCategory.entries.sortedBy { it.key }.map { (category, members) ->
+            val hints = members.map(hintsOf)
+            val previous = builtCategories[category]
+            val built = if (previous != null && previous.members == members && previous.hints == hints) {
+                previous
             } else {
-                emptyList()
+                // Every binary on PATH, no cap - see installCategories.
+                val children = groupByFamily(context, members, hintsOf)
+                val node = MenuNode(
+                    id = "sh/$category",
+                    label = category,
+                    cap = children.size.toString(),
+                    children = children,
+                    // A category is purely navigational - "Development" or "Network" is never
+                    // itself a runnable command, only whatever real binary gets picked inside it.
+                    emitsToken = false
+                )
+                BuiltCategory(members, hints, node)
             }
-            MenuNode(
-                id = "sh/$category",
-                label = category,
-                cap = children.size.toString(),
-                children = children,
-                // A category is purely navigational - "Development" or "Network" is never
-                // itself a runnable command, only whatever real binary gets picked inside it.
-                emitsToken = false
-            )
+            next[category] = built
+            built.node
+        }
+        // Replaced wholesale, so a category emptied by an uninstall doesn't linger.
+        builtCategories.clear()
+        builtCategories.putAll(next)
+        roots
+    }
+
+    /**
+     * Search entries for every package in the apt index, each pathed through the tree's own
+     * `install` pill (pkg's if there is one, else apt's or apt-get's) into the same category node
+     * [installCategories] files it under - so picking one lands exactly where browsing to it by
+     * hand would, `pkg install <name>` already on the command line. Empty before `apt update` has
+     * ever run, or if [tree] has no package manager to install through. Reads every index file;
+     * call off the main thread.
+     */
+    fun searchEntries(context: Context, tree: List<MenuNode>): List<CommandIndex.Entry> {
+        val prefix = DistroManager.prefixDir(context)
+        if (!AptCatalog.hasIndex(prefix)) return emptyList()
+        val installPath = installPathIn(tree) ?: return emptyList()
+        return AptCatalog.all(prefix).map { packageEntry(installPath, it) }
+    }
+
+    /** [searchEntries]' shape, for just the packages [AptCatalog.search] ranks highest for
+     *  [query] - by description as well as name. Call off the main thread. */
+    fun searchPackages(context: Context, tree: List<MenuNode>, query: String): List<CommandIndex.Entry> {
+        val prefix = DistroManager.prefixDir(context)
+        if (!AptCatalog.hasIndex(prefix)) return emptyList()
+        val installPath = installPathIn(tree) ?: return emptyList()
+        return AptCatalog.search(prefix, query).map { packageEntry(installPath, it) }
+    }
+
+    private fun installPathIn(tree: List<MenuNode>): List<String>? =
+        listOf("pkg", "apt", "apt-get").firstNotNullOfOrNull { manager -> pathTo(tree, "sh/$manager/install") }
+
+    private fun packageEntry(installPath: List<String>, pkg: AptCatalog.Entry) = CommandIndex.Entry(
+        idPath = installPath + "aptcat/${pkg.category}" + "aptcat/${pkg.category}/${pkg.name}",
+        label = pkg.name,
+        where = pkg.category,
+        context = "install ${pkg.category}"
+    )
+
+    /** The id path, root first, to the node with [id] among [nodes]' eager descendants. */
+    private fun pathTo(nodes: List<MenuNode>, id: String): List<String>? {
+        for (node in nodes) {
+            if (node.id == id) return listOf(node.id)
+            pathTo(node.children, id)?.let { return listOf(node.id) + it }
+        }
+        return null
+    }
+
+    // The last whole tree [from] returned - handed back as-is when nothing in it was rebuilt.
+    private var lastTree: List<MenuNode>? = null
+
+    private const val SNAPSHOT_FILE = "command-tree.bin"
+
+    private fun snapshotFile(context: Context) = File(context.filesDir, SNAPSHOT_FILE)
+
+    /**
+     * The tree the last [from] built, read back from its [TreeSnapshot] - what a cold start draws
+     * while [from] rebuilds it live. A few milliseconds of reading one file, against listing bin/
+     * and reading dpkg's lists and every store. Null if no snapshot has been written yet. The next
+     * [from] returns this same list if the live tree turns out identical, so nothing redraws.
+     */
+    fun restore(context: Context): List<MenuNode>? {
+        val app = context.applicationContext ?: context
+        val restored = TreeSnapshot.read(snapshotFile(app)) { id -> resolverFor(app, id) } ?: return null
+        return synchronized(buildLock) {
+            lastTree ?: restored.also { lastTree = it }
         }
     }
 
+    /** Synthesized roots that never change for the life of the process; built once. */
+    private val fixedRoots: List<MenuNode> by lazy {
+        listOf(
+            MenuNode("sys", "Device", SYSTEM.size.toString(), SYSTEM.sorted().map { node(it) }, emitsToken = false),
+            MenuNode("apps", "Apps & nav", APPS.size.toString(), APPS.sorted().map { node(it) }, emitsToken = false),
+            MenuNode("feat", "Features", FEATURES.size.toString(), FEATURES.sorted().map { node(it) }, emitsToken = false)
+        )
+    }
+
+    /**
+     * The whole tree. Cheap to call again after a package-manager run: the Shell categories
+     * whose binaries didn't change come back as the previous build's nodes (see
+     * [shellCategories]), and when none changed at all - `apt update`, a failed install - this
+     * returns the previous list itself, so the caller's state doesn't even see a new tree. A
+     * tree that did change is also written out for the next cold start's [restore].
+     */
     fun from(context: Context): List<MenuNode> {
-        val shellRoots = scanShell(context)
+        // Reused nodes outlive the activity that first asked for them; capture the application
+        // context in their resolvers, never an activity.
+        val app = context.applicationContext ?: context
+        val shellRoots = scanShell(app)
         val os = OsContextStore.current(context)
         val osRoots = if (os == "local") emptyList() else listOf(osReferenceRoot(os))
 
-        return shellRoots + osRoots + listOf(
-            MenuNode("sys", "Device", SYSTEM.size.toString(), SYSTEM.sorted().map { node(it) }, emitsToken = false),
-            MenuNode("apps", "Apps & nav", APPS.size.toString(), APPS.sorted().map { node(it) }, emitsToken = false),
-            MenuNode("feat", "Features", FEATURES.size.toString(), FEATURES.sorted().map { node(it) }, emitsToken = false),
-            workflowsRoot(context),
+        val rest = osRoots + fixedRoots + listOf(
+            workflowsRoot(app),
             aiRoot(),
             azpRoot(),
             contextRoot(context)
         )
+        return synchronized(buildLock) {
+            val previous = lastTree
+            val roots = keepShown(previous.orEmpty(), shellRoots + rest)
+            val unchanged = previous != null && previous.size == roots.size && roots.indices.all { previous[it] === roots[it] }
+            if (unchanged && previous != null) {
+                previous
+            } else {
+                roots.also {
+                    lastTree = it
+                    TreeSnapshot.write(snapshotFile(app), it)
+                }
+            }
+        }
     }
+
+    /**
+     * [built], except that any root which would render the same as [shown]'s root of that id is
+     * [shown]'s instance - including on the first build after [restore], whose restored nodes
+     * [shellCategories] never built. A swapped-in Shell category also becomes the node
+     * [shellCategories] reuses while that category is unchanged, so a later build that does
+     * change something still keeps the restored instance of every category it didn't touch.
+     */
+    internal fun keepShown(shown: List<MenuNode>, built: List<MenuNode>): List<MenuNode> = synchronized(buildLock) {
+        val shownById = shown.associateBy { it.id }
+        built.map { node ->
+            val same = shownById[node.id]
+            if (same == null || same === node || !sameShape(same, node)) return@map node
+            // Not a Shell category if no entry holds it - nothing more to swap.
+            builtCategories.entries.firstOrNull { it.value.node === node }
+                ?.let { it.setValue(BuiltCategory(it.value.members, it.value.hints, same)) }
+            same
+        }
+    }
+
+    /** Whether [a] and [b] would render and behave identically - every field but the resolver
+     *  closure compared, which only ever captures the same application context anyway. */
+    private fun sameShape(a: MenuNode, b: MenuNode): Boolean =
+        a.id == b.id && a.label == b.label && a.cap == b.cap && a.value == b.value &&
+            a.emitsToken == b.emitsToken && a.wizardId == b.wizardId &&
+            a.settleBeforeWizard == b.settleBeforeWizard && a.jumpTo == b.jumpTo &&
+            (a.resolveChildren == null) == (b.resolveChildren == null) &&
+            a.children.size == b.children.size &&
+            a.children.indices.all { sameShape(a.children[it], b.children[it]) }
 }
@@ -0,0 +1,135 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import com.hereliesaz.hg2gui.util.Utils
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * The last-built command tree, on disk - so a cold start can draw the pill menu straight away
+ * instead of after CommandTree.from has listed bin/, read dpkg's lists and asked every store.
+ * Every field of every [MenuNode] except [MenuNode.resolveChildren], which is code: the snapshot
+ * only records that a node has one, and [read] asks its caller for it back by id.
+ *
+ * A binary file of nested records, written beside itself and renamed over it like every other
+ * cache here; any snapshot that can't be read in full, or doesn't make sense once read, is
+ * treated as no snapshot at all - the cold start just builds live.
+ */
+internal object TreeSnapshot {
+
+    private const val MAGIC = 0x48475453 // "HGTS"
+    private const val VERSION = 1
+
+    private const val EMITS_TOKEN = 1
+    private const val SETTLE_BEFORE_WIZARD = 2
+    private const val RESOLVES = 4
+    private const val JUMPS = 8
+
+    // Far past any real tree - a count or a nesting beyond these is a corrupt file, not a tree.
+    private const val MAX_COUNT = 1 shl 16
+    private const val MAX_DEPTH = 64
+
+    fun write(file: File, tree: List<MenuNode>) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(VERSION)
+                out.writeInt(tree.size)
+                tree.forEach { writeNode(out, it) }
+            }
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: IOException) {
+            // Only the next cold start pays - it builds live, as it always did.
+            Utils.log(e)
+            tmp.delete()
+        }
+    }
+
+    /** The tree [write] stored in [file], with [resolverFor] asked for each node that had a
+     *  resolver - one it can't supply leaves that node with no children. Null if there's no
+     *  readable snapshot. */
+    fun read(file: File, resolverFor: (String) -> (suspend () -> List<MenuNode>)?): List<MenuNode>? {
+        if (!file.isFile) return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                List(readCount(input)) { readNode(input, resolverFor, 0) }
+            }
+        } catch (e: EOFException) {
+            null
+        } catch (e: IOException) {
+            Utils.log(e)
+            null
+        } catch (e: RuntimeException) {
+            // Whatever else a damaged file trips - it must never fail every cold start after it.
+            Utils.log(e)
+            null
+        }
+    }
+
+    private fun writeNode(out: DataOutputStream, node: MenuNode) {
+        out.writeUTF(node.id)
+        out.writeUTF(node.label)
+        writeOptional(out, node.cap)
+        writeOptional(out, node.value)
+        writeOptional(out, node.wizardId)
+        val jumpTo = node.jumpTo
+        var flags = 0
+        if (node.emitsToken) flags = flags or EMITS_TOKEN
+        if (node.settleBeforeWizard) flags = flags or SETTLE_BEFORE_WIZARD
+        if (node.resolveChildren != null) flags = flags or RESOLVES
+        if (jumpTo != null) flags = flags or JUMPS
+        out.writeByte(flags)
+        if (jumpTo != null) {
+            out.writeInt(jumpTo.size)
+            jumpTo.forEach { out.writeUTF(it) }
+        }
+        out.writeInt(node.children.size)
+        node.children.forEach { writeNode(out, it) }
+    }
+
+    private fun readNode(input: DataInputStream, resolverFor: (String) -> (suspend () -> List<MenuNode>)?, depth: Int): MenuNode {
+        if (depth > MAX_DEPTH) throw IOException("Command tree snapshot nested too deep")
+        val id = input.readUTF()
+        val label = input.readUTF()
+        val cap = readOptional(input)
+        val value = readOptional(input)
+        val wizardId = readOptional(input)
+        val flags = input.readByte().toInt()
+        val jumpTo = if (flags and JUMPS != 0) List(readCount(input)) { input.readUTF() } else null
+        val children = List(readCount(input)) { readNode(input, resolverFor, depth + 1) }
+        return MenuNode(
+            id = id,
+            label = label,
+            cap = cap,
+            children = children,
+            resolveChildren = if (flags and RESOLVES != 0) resolverFor(id) else null,
+            value = value,
+            emitsToken = flags and EMITS_TOKEN != 0,
+            wizardId = wizardId,
+            settleBeforeWizard = flags and SETTLE_BEFORE_WIZARD != 0,
+            jumpTo = jumpTo
+        )
+    }
+
+    private fun writeOptional(out: DataOutputStream, text: String?) {
+        out.writeBoolean(text != null)
+        if (text != null) out.writeUTF(text)
+    }
+
+    private fun readCount(input: DataInputStream): Int {
+        val count = input.readInt()
+        if (count !in 0..MAX_COUNT) throw IOException("Bad count $count in command tree snapshot")
+        return count
+    }
+
+    private fun readOptional(input: DataInputStream): String? = if (input.readBoolean()) input.readUTF() else null
+}
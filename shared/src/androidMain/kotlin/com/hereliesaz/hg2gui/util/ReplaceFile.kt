@@ -0,0 +1,46 @@
+package com.hereliesaz.hg2gui.util
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.file.Files
+
+/**
+ * Writes [target] by way of a sibling file renamed over it, rather than truncating and rewriting
+ * it in place: a crash or a full disk mid-write leaves the old contents whole, and anything that
+ * has the old file open or mapped - the editor's PieceTable - goes on reading the bytes it opened
+ * instead of having them change, or vanish, under it.
+ *
+ * A rename brings the new file's inode along with it, so [target]'s permission bits are copied
+ * onto it first - a script saved this way would otherwise lose its executable bit. [write] gets
+ * the stream to fill; it's synced to disk before the rename, so a crash can't leave [target]
+ * naming a file that was never written. Throws IOException, with [target] untouched.
+ *
+ * A symlinked [target] - a dotfile under a dotfile manager, a distro's config link - is
+ * resolved first, and the file it points at is the one replaced: renaming over the link itself
+ * would swap it for a plain file and leave the real one as it was.
+ */
+fun replaceFile(target: File, write: (FileOutputStream) -> Unit) {
+    val real = if (target.exists()) target.toPath().toRealPath().toFile() else target
+    val tmp = File(real.parentFile, ".${real.name}.saving")
+    try {
+        FileOutputStream(tmp).use { out ->
+            write(out)
+            out.fd.sync()
+        }
+        copyPermissions(real, tmp)
+        if (!tmp.renameTo(real)) throw IOException("Could not replace ${target.name}")
+    } catch (e: IOException) {
+        tmp.delete()
+        throw e
+    }
+}
+
+private fun copyPermissions(from: File, to: File) {
+    if (!from.exists()) return
+    try {
+        Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()))
+    } catch (e: UnsupportedOperationException) {
+        // No POSIX bits on this filesystem (a FAT-formatted mount) - nothing to lose, then.
+    }
+}
@@ -47,6 +47,13 @@ object Utils {
         }
     }
 
+    /** Logs how long [phase] took since [startNanos] (a System.nanoTime reading) - at info, not
+     *  error, since these are just cold-start timings to read back with `logcat -s hg2gui`. */
+    @JvmStatic
+    fun logTiming(phase: String, startNanos: Long) {
+        Log.i("hg2gui", "$phase: ${(System.nanoTime() - startNanos) / 1_000_000}ms")
+    }
+
     /** Appends a crash report to a file in app-private storage - best-effort, swallows its own
      *  failures since it only ever runs from an already-failing thread's exception handler. */
     @JvmStatic
@@ -8,4 +8,8 @@ package com.hereliesaz.hg2gui.mcp
  * `McpToolGateTest` in commonTest. `McpTools.callTool` (androidMain) is the only caller.
  */
 fun isShellToolGated(toolName: String, shellExecEnabled: Boolean): Boolean =
-    toolName.startsWith("shell.") && !shellExecEnabled
+    isShellTool(toolName) && !shellExecEnabled
+
+/** True iff [toolName] names a `shell.*` tool - one that runs on the calling client's own shell
+ *  session rather than in-process. */
+fun isShellTool(toolName: String): Boolean = toolName.startsWith("shell.")
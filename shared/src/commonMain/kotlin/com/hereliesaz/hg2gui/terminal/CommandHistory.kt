@@ -0,0 +1,224 @@
+package com.hereliesaz.hg2gui.terminal
+
+/**
+ * Every command line ever run, across every session and every launch - the durable counterpart
+ * to SessionUiState.commandHistory, which stays what it always was (this session's own up-arrow
+ * list, capped, gone on restart). One [Record] per distinct line: how often it has run, when it
+ * last did, where, and how that went.
+ *
+ * What it exists for is autosuggest. ShellAliases.autosuggest scans a session's 200 lines from
+ * the end and offers the newest that shares the input's prefix, which is fine for 200 lines and
+ * wrong for twenty thousand - both because a linear scan per keystroke stops being free, and
+ * because "newest" stops being a good guess once there's enough history for a one-off to shadow
+ * the command actually run every day. Here lines are kept in a sorted index, so a prefix is a
+ * binary search to the start of its range, and whatever is in that range is ranked by frecency
+ * (see [frecency]) rather than position.
+ *
+ * Pure and platform-free; persistence is the platform's job (CommandHistoryStore, on Android),
+ * fed by [encode]/[decode] and [snapshot]. Not thread-safe - built off the main thread, then only
+ * ever touched from it.
+ */
+class CommandHistory {
+
+    data class Record(
+        val line: String,
+        val count: Int,
+        val lastUsedMs: Long,
+        val cwd: String,
+        // Null when the run never reported one - interrupted, or a builtin with no status.
+        val exitCode: Int?
+    )
+
+    private val records = HashMap<String, Record>()
+    private val sorted = ArrayList<String>()
+
+    // Recency is measured back from the newest record, not the wall clock - "an hour before the
+    // last thing you ran" ranks the same after a week away as it did at the time, and this stays
+    // free of any platform clock.
+    private var latestMs = 0L
+
+    val size: Int get() = records.size
+
+    /** Bumped by every [add] - what a caller caching a ranking keys it on. */
+    var revision: Int = 0
+        private set
+
+    /**
+     * Folds one run (or, replaying a compacted log, many runs' worth - [Record.count] of them)
+     * into the history. A later timestamp's cwd and exit code replace an earlier one's; an
+     * out-of-order older one only adds to the count.
+     */
+    fun add(event: Record) {
+        val previous = records[event.line]
+        records[event.line] = when {
+            previous == null -> {
+                val at = sorted.binarySearch(event.line)
+                sorted.add(-(at + 1), event.line)
+                event
+            }
+            event.lastUsedMs >= previous.lastUsedMs -> event.copy(count = previous.count + event.count)
+            else -> previous.copy(count = previous.count + event.count)
+        }
+        if (event.lastUsedMs > latestMs) latestMs = event.lastUsedMs
+        revision++
+    }
+
+    /**
+     * Up to [limit] recorded lines extending [prefix], best first - ranked by [frecency] from
+     * [cwd], the more recent of two equal scores first. Only the prefix's own range of the sorted
+     * index is ever looked at, in one pass that keeps just the best [limit] seen so far - a
+     * one-letter prefix can cover most of the history, and this runs per keystroke, so the range
+     * is never collected or sorted whole. For autosuggest's limit of 1 that's a plain max-scan.
+     */
+    fun suggestions(prefix: String, cwd: String, limit: Int = DEFAULT_LIMIT): List<Record> {
+        if (prefix.isBlank() || limit <= 0) return emptyList()
+        // Best first, never more than [limit]; scores are worked out once per candidate.
+        val best = ArrayList<Ranked>(limit + 1)
+        var at = lowerBound(prefix)
+        while (at < sorted.size && sorted[at].startsWith(prefix)) {
+            val line = sorted[at++]
+            if (line.length <= prefix.length) continue
+            val candidate = records.getValue(line).let { Ranked(frecency(it, cwd), it) }
+            if (best.size == limit && !candidate.outranks(best.last())) continue
+            var i = best.size
+            while (i > 0 && candidate.outranks(best[i - 1])) i--
+            best.add(i, candidate)
+            if (best.size > limit) best.removeAt(best.lastIndex)
+        }
+        return best.map { it.record }
+    }
+
+    private class Ranked(val score: Double, val record: Record) {
+        fun outranks(other: Ranked): Boolean =
+            score > other.score || (score == other.score && record.lastUsedMs > other.record.lastUsedMs)
+    }
+
+    /** The best-ranked line extending [input], minus [input] itself - ShellAliases.autosuggest's shape. */
+    fun autosuggest(input: String, cwd: String): String? =
+        suggestions(input, cwd, limit = 1).firstOrNull()?.line?.removePrefix(input)
+
+    /** Every distinct first word ever run successfully - "did you mean"'s vocabulary. */
+    fun commandWords(): List<String> =
+        records.values.filter { it.exitCode == null || it.exitCode == 0 }.map { it.line.substringBefore(' ') }.distinct()
+
+    /**
+     * One [Record] per distinct line, oldest first, dropping the lowest-ranked beyond [maxRecords]
+     * - what a compacted log is rewritten from.
+     */
+    fun snapshot(maxRecords: Int = MAX_RECORDS): List<Record> {
+        val kept = if (records.size <= maxRecords) {
+            records.values
+        } else {
+            records.values.sortedByDescending { frecency(it, cwd = null) }.take(maxRecords)
+        }
+        return kept.sortedBy { it.lastUsedMs }
+    }
+
+    /**
+     * Count, weighted by how recently the line last ran (Firefox's frecency buckets, roughly),
+     * boosted when it last ran in [cwd] - `make` in a project directory means that project's
+     * build - and sunk when it last failed, so a typo that happened to run once doesn't keep
+     * coming back as the suggestion.
+     */
+    private fun frecency(record: Record, cwd: String?): Double {
+        val age = latestMs - record.lastUsedMs
+        val recency = when {
+            age < HOUR_MS -> WEIGHT_HOUR
+            age < DAY_MS -> WEIGHT_DAY
+            age < WEEK_MS -> WEIGHT_WEEK
+            else -> WEIGHT_OLDER
+        }
+        var score = record.count * recency
+        if (cwd != null && record.cwd == cwd) score *= CWD_BOOST
+        if (record.exitCode != null && record.exitCode != 0) score *= FAILED_PENALTY
+        return score
+    }
+
+    private fun lowerBound(prefix: String): Int {
+        var lo = 0
+        var hi = sorted.size
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (sorted[mid] < prefix) lo = mid + 1 else hi = mid
+        }
+        return lo
+    }
+
+    companion object {
+        private const val DEFAULT_LIMIT = 8
+        const val MAX_RECORDS = 50_000
+
+        private const val HOUR_MS = 60L * 60 * 1000
+        private const val DAY_MS = 24 * HOUR_MS
+        private const val WEEK_MS = 7 * DAY_MS
+        private const val WEIGHT_HOUR = 4.0
+        private const val WEIGHT_DAY = 2.0
+        private const val WEIGHT_WEEK = 1.0
+        private const val WEIGHT_OLDER = 0.25
+        private const val CWD_BOOST = 2.0
+        private const val FAILED_PENALTY = 0.25
+
+        private const val FIELD_COUNT = 5
+
+        /**
+         * One log line: `lastUsedMs \t count \t exitCode \t cwd \t line`, tabs/newlines/backslashes
+         * escaped so a multi-line paste still takes exactly one line of the log. A freshly run
+         * command is written with a count of 1; a compacted log's lines carry the whole count.
+         */
+        fun encode(record: Record): String = listOf(
+            record.lastUsedMs.toString(),
+            record.count.toString(),
+            record.exitCode?.toString().orEmpty(),
+            escape(record.cwd),
+            escape(record.line)
+        ).joinToString("\t")
+
+        /** The [Record] [encoded] holds, or null for anything malformed - including a last line
+         *  cut short by the process dying mid-append, which is simply dropped. */
+        fun decode(encoded: String): Record? {
+            val fields = encoded.split('\t')
+            if (fields.size != FIELD_COUNT) return null
+            val line = unescape(fields[4])
+            if (line.isBlank()) return null
+            return Record(
+                line = line,
+                count = fields[1].toIntOrNull()?.takeIf { it > 0 } ?: return null,
+                lastUsedMs = fields[0].toLongOrNull() ?: return null,
+                cwd = unescape(fields[3]),
+                exitCode = fields[2].toIntOrNull()
+            )
+        }
+
+        private fun escape(text: String): String = buildString(text.length) {
+            for (c in text) {
+                when (c) {
+                    '\\' -> append("\\\\")
+                    '\t' -> append("\\t")
+                    '\n' -> append("\\n")
+                    '\r' -> append("\\r")
+                    else -> append(c)
+                }
+            }
+        }
+
+        private fun unescape(text: String): String {
+            if ('\\' !in text) return text
+            return buildString(text.length) {
+                var i = 0
+                while (i < text.length) {
+                    val c = text[i++]
+                    if (c != '\\' || i == text.length) {
+                        append(c)
+                        continue
+                    }
+                    when (val next = text[i++]) {
+                        't' -> append('\t')
+                        'n' -> append('\n')
+                        'r' -> append('\r')
+                        else -> append(next)
+                    }
+                }
+            }
+        }
+    }
+}
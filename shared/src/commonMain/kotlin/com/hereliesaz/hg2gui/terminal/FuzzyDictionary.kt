@@ -0,0 +1,144 @@
+package com.hereliesaz.hg2gui.terminal
+
+import kotlin.jvm.Synchronized
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * "Did you mean" over every name a failed command could plausibly have meant - the binaries on
+ * PATH, ShellAliases' own table, every command the user has run, and every package `apt install`
+ * could fetch - as a BK-tree, so a lookup measures edit distance against a few dozen nodes rather
+ * than all of them.
+ * ShellAliases.didYouMean builds a full Levenshtein matrix per known name, which is nothing for
+ * its own alias table and a few thousand matrices for a full install plus the apt index.
+ *
+ * The tree is keyed on plain Levenshtein distance - a true metric, which the pruning depends on
+ * (a transposition-aware distance would read "gti" as one edit from "git" but breaks the
+ * triangle inequality, and with it the guarantee that pruned branches hold nothing closer).
+ *
+ * Incremental: [sync] replaces one [Source]'s word list, inserting only what's new and
+ * tombstoning what's gone rather than rebuilding - a BK-tree can't cheaply delete a node its
+ * children hang off, and a rescan after one `pkg install` shouldn't cost a rebuild. Synchronized,
+ * since the platform syncs off the main thread while composition queries on it.
+ */
+class FuzzyDictionary {
+
+    /** Where a word came from, in order of preference when two corrections are equally close. */
+    enum class Source { COMMAND, ALIAS, HISTORY, PACKAGE }
+
+    /** [source] is the most preferred of the word's sources - a package whose binary is already
+     *  installed comes back as a [Source.COMMAND], never as something to install. */
+    data class Correction(val word: String, val distance: Int, val source: Source)
+
+    private class Node(val word: String) {
+        // One bit per Source. Zero once every source that listed this word has dropped it - the
+        // node stays, since its children hang off it, but is never returned.
+        var sources = 0
+        val children = HashMap<Int, Node>(2)
+    }
+
+    private var root: Node? = null
+    private val nodes = HashMap<String, Node>()
+    private val bySource = Array(Source.entries.size) { emptySet<String>() }
+
+    // Reused across lookups - guarded by the same lock as everything else.
+    private var previousRow = IntArray(INITIAL_ROW)
+    private var currentRow = IntArray(INITIAL_ROW)
+
+    init {
+        sync(Source.ALIAS, ShellAliases.table.keys + ShellAliases.table.values.map { it.substringBefore(' ') })
+    }
+
+    /** Makes [words] the complete list for [source]: anything new is inserted, anything no
+     *  longer listed stops being returned for it. */
+    @Synchronized
+    fun sync(source: Source, words: Collection<String>) {
+        val bit = 1 shl source.ordinal
+        val next = words.filterTo(HashSet()) { it.isNotBlank() }
+        val current = bySource[source.ordinal]
+        for (gone in current) {
+            if (gone !in next) nodes[gone]?.let { it.sources = it.sources and bit.inv() }
+        }
+        for (word in next) {
+            if (word in current) continue
+            val node = insert(word)
+            node.sources = node.sources or bit
+        }
+        bySource[source.ordinal] = next
+    }
+
+    /**
+     * Up to [limit] known words within edit distance of [word], closest first and then by
+     * [Source] - including [word] itself at distance 0, if it's known (for a package, that's the
+     * "not installed, but installable" case). Within [radiusFor] of [word], and within the same
+     * length-relative tolerance ShellAliases.didYouMean always applied to each candidate.
+     */
+    @Synchronized
+    fun corrections(word: String, limit: Int = DEFAULT_LIMIT): List<Correction> {
+        val start = root ?: return emptyList()
+        if (word.isBlank() || limit <= 0) return emptyList()
+        val radius = radiusFor(word)
+        val found = ArrayList<Correction>()
+        val pending = ArrayDeque<Node>()
+        pending.addLast(start)
+        while (pending.isNotEmpty()) {
+            val node = pending.removeLast()
+            val d = distance(word, node.word)
+            if (d <= radius && node.sources != 0 && d <= node.word.length / 2 + 1) {
+                found += Correction(node.word, d, Source.entries[node.sources.countTrailingZeroBits()])
+            }
+            // Triangle inequality: anything within [radius] of [word] sits at distance
+            // d-radius..d+radius from this node, so only those edges can lead to it.
+            for ((edge, child) in node.children) {
+                if (abs(edge - d) <= radius) pending.addLast(child)
+            }
+        }
+        return found
+            .sortedWith(compareBy<Correction> { it.distance }.thenBy { it.source }.thenBy { it.word })
+            .take(limit)
+    }
+
+    private fun insert(word: String): Node {
+        nodes[word]?.let { return it }
+        val node = Node(word)
+        nodes[word] = node
+        var at = root ?: return node.also { root = it }
+        while (true) {
+            val d = distance(word, at.word)
+            val parent = at
+            at = parent.children[d] ?: return node.also { parent.children[d] = it }
+        }
+    }
+
+    // Two-row Levenshtein, rows reused between calls - the matrix ShellAliases.levenshtein
+    // allocates per candidate is most of what made a miss expensive.
+    private fun distance(a: String, b: String): Int {
+        if (a == b) return 0
+        if (currentRow.size <= b.length) {
+            previousRow = IntArray(b.length + 1)
+            currentRow = IntArray(b.length + 1)
+        }
+        for (j in 0..b.length) previousRow[j] = j
+        for (i in 1..a.length) {
+            currentRow[0] = i
+            for (j in 1..b.length) {
+                val substitute = previousRow[j - 1] + if (a[i - 1] == b[j - 1]) 0 else 1
+                currentRow[j] = min(substitute, min(previousRow[j], currentRow[j - 1]) + 1)
+            }
+            val swap = previousRow
+            previousRow = currentRow
+            currentRow = swap
+        }
+        return previousRow[b.length]
+    }
+
+    companion object {
+        private const val DEFAULT_LIMIT = 3
+        private const val INITIAL_ROW = 32
+        private const val LONG_WORD = 8
+
+        /** How far a lookup searches: two edits, three for a word long enough to hold that many
+         *  typos without becoming some other word entirely. */
+        fun radiusFor(word: String): Int = if (word.length > LONG_WORD) 3 else 2
+    }
+}
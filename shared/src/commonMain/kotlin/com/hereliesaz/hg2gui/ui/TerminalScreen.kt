@@ -45,15 +45,21 @@ import androidx.compose.ui.unit.em
 import androidx.compose.ui.unit.sp
 import com.hereliesaz.hg2gui.managers.StyledSpan
 import com.hereliesaz.hg2gui.managers.TerminalHistoryEntry
+import com.hereliesaz.hg2gui.terminal.CommandHistory
+import com.hereliesaz.hg2gui.terminal.FuzzyDictionary
 import com.hereliesaz.hg2gui.terminal.ShellAliases
 import com.hereliesaz.hg2gui.ui.menu.Azphalt
+import com.hereliesaz.hg2gui.ui.menu.ChildrenCache
+import com.hereliesaz.hg2gui.ui.menu.CommandIndex
 import com.hereliesaz.hg2gui.ui.menu.onPage
 import com.hereliesaz.hg2gui.ui.menu.pageBrush
 import com.hereliesaz.hg2gui.ui.menu.MenuNode
 import com.hereliesaz.hg2gui.ui.menu.PillMenu
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 // SH-5: each entry's own VT100 scrollback is already capped independently - this bounds the
 // outer list of commands itself, which used to grow without limit for the life of a session.
@@ -90,6 +96,28 @@ fun TerminalScreen(
     // session itself - see ShellSession.interrupt's own doc comment for what "stop" means on each
     // tier. A no-op if nothing is running there.
     onInterrupt: (sessionId: String) -> Unit = {},
+    // PillMenu's resolved-children cache, keyed on [tree] by default so a rebuilt tree never
+    // serves the previous tree's resolutions - hoisted so the platform layer can invalidate one
+    // node (a saved ssh preset, a new workflow) without rebuilding anything.
+    childrenCache: ChildrenCache = remember(tree) { ChildrenCache() },
+    // Search entries for pills [tree] only reaches through a resolver - apt's package names, on
+    // Android - indexed alongside the tree's own eager pills. See CommandIndex.
+    searchExtras: List<CommandIndex.Entry> = emptyList(),
+    // Full-text matches for a Find query among what the platform can install - by description
+    // as well as name, which [searchExtras]' label matching can't do. Run off composition,
+    // debounced; each result pathed the same way a searchExtras entry is.
+    searchPackages: suspend (query: String) -> List<CommandIndex.Entry> = { emptyList() },
+    // Every node the pill menu fans out - see PillMenu's onOpen.
+    onMenuOpen: (MenuNode) -> Unit = {},
+    // Every session's runs, across launches - ranks autosuggest and feeds "did you mean". Null
+    // until the platform has loaded it, during which this session's own commandHistory stands in.
+    history: CommandHistory? = null,
+    // Fired once per command that actually ran, after it finishes - the platform stamps it and
+    // adds it to [history] (and wherever it persists that).
+    onCommandFinished: (line: String, cwd: String, exitCode: Int?) -> Unit = { _, _, _ -> },
+    // Corrections for a command that wasn't found - see FuzzyDictionary. The platform keeps
+    // [history]'s command words in it too, synced off the main thread; null offers no fix.
+    dictionary: FuzzyDictionary? = null,
     onRun: suspend (
         sessionId: String,
         line: String,
@@ -103,6 +131,29 @@ fun TerminalScreen(
     val active = sessions.first { it.id == activeSessionId }
     val scope = rememberCoroutineScope()
     val listState = remember(active.id) { LazyListState() }
+    // Rebuilt off the main thread whenever the tree (or the platform's extras) changes, reusing
+    // every segment of the previous index whose root didn't - see CommandIndex.build. Null only
+    // until the very first build lands, during which the Find host simply doesn't appear.
+    var commandIndex by remember { mutableStateOf<CommandIndex?>(null) }
+    LaunchedEffect(tree, searchExtras) {
+        val previous = commandIndex
+        commandIndex = withContext(Dispatchers.Default) { CommandIndex.build(tree, searchExtras, previous) }
+    }
+    // What the Find host searches for - the input line's text, but held separately from it: tapping
+    // any root (Find itself included) hands PillMenu's onRun an empty pick, which clears the input
+    // line, and a Find host that vanished the moment it was opened could never be picked from.
+    // Cleared once the pill menu actually produces a command, a command runs, or esc is pressed.
+    var findQuery by remember(active.id) { mutableStateOf("") }
+    var packageHits by remember(active.id) { mutableStateOf(emptyList<CommandIndex.Entry>()) }
+    LaunchedEffect(findQuery) {
+        // Dropped rather than kept while the query changes - the previous query's matches,
+        // mixed into this one's, would read as matches for it.
+        packageHits = emptyList()
+        if (findQuery.length < MIN_FIND_QUERY) return@LaunchedEffect
+        // Restarted by every keystroke - only a query the user has paused on gets searched.
+        delay(FIND_DEBOUNCE_MS)
+        packageHits = searchPackages(findQuery)
+    }
 
     val executeCommand = {
         val session = active
@@ -132,11 +183,13 @@ fun TerminalScreen(
 
             if (fullLine.isNotEmpty() && !session.running) {
                 session.running = true
+                findQuery = ""
                 if (session.commandHistory.isEmpty() || session.commandHistory.last() != fullLine) {
                     session.commandHistory = (session.commandHistory + fullLine).takeLast(MAX_BUFFER_ENTRIES)
                 }
                 session.historyIndex = -1
                 val lineToRun = fullLine
+                val ranIn = session.cwd
                 // Aliases are expanded only for what actually reaches the shell - hintForRanCommand
                 // needs the line the user actually typed, unexpanded, to know whether they already
                 // used the shortcut.
@@ -192,6 +245,7 @@ fun TerminalScreen(
                             session.buffer = session.buffer.takeLast(MAX_BUFFER_ENTRIES)
                         }
                         session.running = false
+                        onCommandFinished(lineToRun, ranIn, exitCode)
                     }
 
                     if (session.buffer.isNotEmpty()) {
@@ -311,8 +365,20 @@ fun TerminalScreen(
         // root in the same stack every other command lives in - not a second PillMenu next to
         // it. Whichever of these lands last fans out from the row closest to the command line -
         // a pending answer takes that spot over a suggestion, since it's the more urgent one.
-        val suggestionNode = suggestionNodeFor(active)
-        val effectiveTree = tree + listOfNotNull(suggestionNode, answerNode)
+        // Looked up once per failed command, not on every recomposition while it's on screen.
+        val failedWord = active.buffer.lastOrNull()
+            ?.takeIf { ShellAliases.looksLikeNotFound(it.output) }
+            ?.command?.substringBefore(' ')
+        val corrections = remember(dictionary, failedWord) {
+            failedWord?.let { dictionary?.corrections(it) }.orEmpty()
+        }
+        // Ranked once per input, cwd and history change, not on every recomposition.
+        val historySuggestion = remember(history, history?.revision, active.inputText, active.cwd) {
+            active.inputText.takeIf { it.isNotBlank() }?.let { history?.autosuggest(it, active.cwd) }
+        }
+        val suggestionNode = suggestionNodeFor(active, historySuggestion, corrections)
+        val findNode = remember(commandIndex, findQuery, packageHits) { findNodeFor(commandIndex, findQuery, packageHits) }
+        val effectiveTree = tree + listOfNotNull(findNode, suggestionNode, answerNode)
 
         PillMenu(
             roots = effectiveTree,
@@ -320,13 +386,16 @@ fun TerminalScreen(
             onRun = { picked, isTerminal ->
                 active.tokens = picked
                 active.inputText = ""
+                if (picked.isNotEmpty()) findQuery = ""
                 // A pick that just fully resolved every parameter a command needs runs right
                 // away instead of waiting for a separate tap on RUN - or, if a prompt is
                 // pending, sends the pick as that prompt's answer the same way.
                 if (isTerminal) executeCommand()
             },
             onWizard = onWizard,
-            onCrumbPositioned = onCrumbPositioned
+            onCrumbPositioned = onCrumbPositioned,
+            childrenCache = childrenCache,
+            onOpen = onMenuOpen
         )
 
         // A password/passphrase prompt (ssh, sudo, su - anything ShellSession's own idle-gap
@@ -338,7 +407,10 @@ fun TerminalScreen(
         CommandLine(
             tokens = active.tokens,
             inputText = active.inputText,
-            onInputTextChange = { active.inputText = it },
+            onInputTextChange = {
+                active.inputText = it
+                findQuery = it.trim()
+            },
             hint = when {
                 pendingPrompt != null -> pendingPrompt.substringAfterLast('\n').ifBlank { "Waiting for input…" }
                 active.running -> "Running…"
@@ -379,6 +451,7 @@ fun TerminalScreen(
                     "esc" -> {
                         active.tokens = emptyList()
                         active.inputText = ""
+                        findQuery = ""
                     }
                     "tab" -> {
                         if (active.inputText.isNotEmpty() && !active.inputText.endsWith(" ")) {
@@ -952,12 +1025,16 @@ private fun CommandLine(
  * real shell line editor to attach to - ShellSession only ever sends one complete line at a
  * time and reads a complete result back - so this is the delivery mechanism instead.
  */
-private fun suggestionNodeFor(session: SessionUiState): MenuNode? {
+private fun suggestionNodeFor(
+    session: SessionUiState,
+    historySuggestion: String?,
+    corrections: List<FuzzyDictionary.Correction>
+): MenuNode? {
     val children = buildList {
         if (session.inputText.isNotBlank()) {
-            ShellAliases.autosuggest(session.inputText, session.commandHistory)?.let { rest ->
-                add(MenuNode(id = "suggest-tab", label = session.inputText + rest, cap = "TAB"))
-            }
+            val rest = historySuggestion
+                ?: ShellAliases.autosuggest(session.inputText, session.commandHistory)
+            if (rest != null) add(MenuNode(id = "suggest-tab", label = session.inputText + rest, cap = "TAB"))
         }
 
         val idle = !session.running && session.inputText.isBlank() && session.tokens.isEmpty()
@@ -969,11 +1046,16 @@ private fun suggestionNodeFor(session: SessionUiState): MenuNode? {
             session.buffer.lastOrNull()?.let { lastEntry ->
                 if (ShellAliases.looksLikeNotFound(lastEntry.output)) {
                     val failedWord = lastEntry.command.substringBefore(' ')
-                    val known = session.commandHistory.map { it.substringBefore(' ') }.distinct()
-                    ShellAliases.didYouMean(failedWord, known)?.let { fix ->
+                    // The dictionary knows what's on PATH, in the apt index and in the history.
+                    val fix = corrections.firstOrNull { it.distance > 0 && it.source != FuzzyDictionary.Source.PACKAGE }?.word
+                    if (fix != null) {
                         val corrected = fix + lastEntry.command.removePrefix(failedWord)
                         add(MenuNode(id = "suggest-fix", label = corrected, cap = "FIX"))
                     }
+                    // A package by exactly that name - the binary just isn't installed yet - or,
+                    // failing any closer fix, the nearest package name to it.
+                    corrections.firstOrNull { it.source == FuzzyDictionary.Source.PACKAGE && (it.distance == 0 || fix == null) }
+                        ?.let { add(MenuNode(id = "suggest-install", label = "pkg install ${it.word}", cap = "INSTALL")) }
                 }
             }
         }
@@ -986,6 +1068,35 @@ private fun suggestionNodeFor(session: SessionUiState): MenuNode? {
     )
 }
 
+// Below this, a query matches too much of the tree to be worth a host of its own - one letter
+// is what the suggestion host's own autosuggest is for.
+private const val MIN_FIND_QUERY = 2
+private const val FIND_DEBOUNCE_MS = 150L
+
+/** The Find host: [index]'s best matches for [query], each a pill that jumps straight to where
+ *  it lives in the tree (see [MenuNode.jumpTo]) rather than settling into this band's trail. */
+private fun findNodeFor(index: CommandIndex?, query: String, packageHits: List<CommandIndex.Entry>): MenuNode? {
+    if (index == null || query.length < MIN_FIND_QUERY) return null
+    // Label matches first, then whatever only the package descriptions matched.
+    val entries = (index.search(query).map { it.entry } + packageHits).distinctBy { it.idPath.last() }
+    if (entries.isEmpty()) return null
+    return MenuNode(
+        id = "find",
+        label = "Find",
+        cap = entries.size.toString(),
+        children = entries.map { entry ->
+            MenuNode(
+                id = "find/${entry.idPath.last()}",
+                label = entry.label,
+                cap = entry.where.ifEmpty { null },
+                emitsToken = false,
+                jumpTo = entry.idPath
+            )
+        },
+        emitsToken = false
+    )
+}
+
 @Composable
 private fun ModifierKeys(
     keys: List<String> = listOf("ctrl", "alt", "esc", "tab", "↑", "↓"),
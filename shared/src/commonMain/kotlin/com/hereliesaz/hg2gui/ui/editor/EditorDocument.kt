@@ -0,0 +1,19 @@
+package com.hereliesaz.hg2gui.ui.editor
+
+/**
+ * The text [EditorScreen] edits, reached a line at a time - never as one String - so a file of a
+ * few hundred MB costs the screen no more than the handful of lines it's showing. The storage
+ * behind it lives on the platform side (a piece table over the memory-mapped file, on Android).
+ *
+ * Lines are split on '\n' alone; a '\r' before one is just part of its line's text, so a CRLF
+ * file saves back as CRLF. There's always at least one line - an empty file is one empty line.
+ */
+interface EditorDocument {
+    val lineCount: Int
+
+    fun line(index: Int): String
+
+    /** Replaces lines [first]..[last] (inclusive, with the breaks between them) by [text], which
+     *  may itself run over several lines or none - the line count changes to suit. */
+    fun replaceLines(first: Int, last: Int, text: String)
+}
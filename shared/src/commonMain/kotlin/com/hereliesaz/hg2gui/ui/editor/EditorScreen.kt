@@ -2,24 +2,41 @@ package com.hereliesaz.hg2gui.ui.editor
 
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
+import androidx.compose.foundation.gestures.detectTapGestures
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
 import androidx.compose.foundation.layout.fillMaxSize
 import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.PaddingValues
 import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.lazy.LazyColumn
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.foundation.text.BasicTextField
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.runtime.withFrameNanos
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
+import androidx.compose.ui.focus.FocusRequester
+import androidx.compose.ui.focus.focusRequester
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.graphics.SolidColor
+import androidx.compose.ui.input.pointer.pointerInput
+import androidx.compose.ui.text.TextLayoutResult
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.TextStyle
 import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.input.TextFieldValue
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.em
 import androidx.compose.ui.unit.sp
@@ -32,15 +49,18 @@ import com.hereliesaz.hg2gui.ui.menu.pageBrush
  * bootstrap pill, but running it through a non-pty ShellSession would render garbled. No
  * embedded command line like the old vi-like editor had: Save and Back are real pills, same
  * page, same capsule primitive as the rest of Azphalt.
+ *
+ * The text is an [EditorDocument], not a String: only the rows on screen are read, laid out or
+ * composed, and only the row being edited is a text field - see [LineEditor].
  */
 
 @Composable
 fun EditorScreen(
     fileName: String,
-    content: String?,
+    document: EditorDocument?,
     error: String?,
     dirty: Boolean,
-    onContentChange: (String) -> Unit,
+    onEdit: () -> Unit,
     onSave: () -> Unit,
     onBack: () -> Unit,
     modifier: Modifier = Modifier
@@ -60,7 +80,7 @@ fun EditorScreen(
                 modifier = Modifier.weight(1f)
             )
             Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
-                if (content != null && dirty) {
+                if (document != null && dirty) {
                     Pill("SAVE", Azphalt.Ink, Azphalt.Yellow, onSave)
                 }
                 Pill("BACK", Azphalt.Ink.copy(alpha = .14f), Azphalt.currentGround.onPage, onBack)
@@ -73,24 +93,148 @@ fun EditorScreen(
                 style = MaterialTheme.typography.bodyMedium.copy(color = Azphalt.currentGround.onPage.copy(alpha = .7f), fontSize = 13.sp),
                 modifier = Modifier.padding(20.dp)
             )
-            content == null -> Text(
+            document == null -> Text(
                 "LOADING…",
                 style = MaterialTheme.typography.labelSmall.copy(color = Azphalt.currentGround.onPage.copy(alpha = .4f), fontSize = 10.sp),
                 modifier = Modifier.padding(20.dp)
             )
-            else -> BasicTextField(
-                value = content,
-                onValueChange = onContentChange,
-                modifier = Modifier.weight(1f).fillMaxWidth().padding(horizontal = 20.dp, vertical = 4.dp),
-                textStyle = MaterialTheme.typography.bodyMedium.copy(
-                    color = Azphalt.currentGround.onPage, fontSize = 13.sp, lineHeight = 19.sp
-                ),
-                cursorBrush = SolidColor(Azphalt.currentGround.onPage)
-            )
+            else -> LineEditor(document, onEdit, Modifier.weight(1f).fillMaxWidth())
         }
     }
 }
 
+// Leads the editing row's field text, so a backspace at the start of the line - which no soft
+// keyboard reports as a key event - shows up as this going missing, and joins the line above.
+private const val ANCHOR = "\u200B"
+
+/**
+ * One lazy row per line, read from [document] only while it's on screen. A single BasicTextField
+ * over the whole file re-lays out every line on every keystroke; here the row being edited is the
+ * only field, every other row plain text, and a keystroke rewrites just that line in [document].
+ * Enter or a multi-line paste splits the row into several, a backspace at its start joins it onto
+ * the one above, and the caret follows either way.
+ */
+@Composable
+private fun LineEditor(document: EditorDocument, onEdit: () -> Unit, modifier: Modifier) {
+    val style = MaterialTheme.typography.bodyMedium.copy(
+        color = Azphalt.currentGround.onPage, fontSize = 13.sp, lineHeight = 19.sp
+    )
+    // Lines live in [document], not in snapshot state - this is what tells the rows on screen
+    // that theirs may have changed.
+    var version by remember(document) { mutableStateOf(0) }
+    var active by remember(document) { mutableStateOf<Int?>(null) }
+    var field by remember(document) { mutableStateOf(TextFieldValue(ANCHOR)) }
+    val listState = rememberLazyListState()
+    val focus = remember { FocusRequester() }
+
+    fun activate(index: Int, text: String, caret: Int) {
+        active = index
+        field = TextFieldValue(ANCHOR + text, TextRange(caret + 1))
+    }
+
+    fun changed() {
+        version++
+        onEdit()
+    }
+
+    fun edit(index: Int, value: TextFieldValue) {
+        val before = field.text.removePrefix(ANCHOR)
+        val anchored = value.text.startsWith(ANCHOR)
+        if (!anchored && index > 0 && value.text == before && value.selection.collapsed) {
+            val above = document.line(index - 1)
+            document.replaceLines(index - 1, index, above + before)
+            activate(index - 1, above + before, above.length)
+            changed()
+            return
+        }
+        // Anything else that took the anchor with it (select-all and type, or a backspace on the
+        // first line) is an ordinary edit - the anchor just goes back. Only the anchor itself is
+        // ever taken out, and only if it's still in there somewhere: any other U+200B is the
+        // file's own, and not the editor's to drop.
+        val body = when {
+            anchored -> value.text.substring(1)
+            value.text.count { it == ANCHOR[0] } > before.count { it == ANCHOR[0] } -> value.text.replaceFirst(ANCHOR, "")
+            else -> value.text
+        }
+        val shift = if (anchored) 1 else 0
+        val caret = (value.selection.end - shift).coerceIn(0, body.length)
+        when {
+            '\n' in body -> {
+                document.replaceLines(index, index, body)
+                val head = body.substring(0, caret)
+                val down = head.count { it == '\n' }
+                val lineStart = head.lastIndexOf('\n') + 1
+                activate(index + down, body.substring(lineStart).substringBefore('\n'), caret - lineStart)
+                changed()
+            }
+            !anchored -> {
+                document.replaceLines(index, index, body)
+                activate(index, body, caret)
+                changed()
+            }
+            else -> {
+                field = value.copy(
+                    selection = TextRange(value.selection.start.coerceAtLeast(1), value.selection.end.coerceAtLeast(1))
+                )
+                if (body != before) {
+                    document.replaceLines(index, index, body)
+                    changed()
+                }
+            }
+        }
+    }
+
+    // A split or join moves editing to another row, which may be just off screen and is always
+    // newly composed - bring it into view, let it compose, then hand it the keyboard.
+    LaunchedEffect(active) {
+        val index = active ?: return@LaunchedEffect
+        if (listState.layoutInfo.visibleItemsInfo.none { it.index == index }) listState.scrollToItem(index)
+        withFrameNanos { }
+        try {
+            focus.requestFocus()
+        } catch (e: IllegalStateException) {
+            // Scrolled away again before it composed; tapping it will pick it back up.
+        }
+    }
+
+    val lineCount = remember(document, version) { document.lineCount }
+    LazyColumn(
+        modifier,
+        state = listState,
+        contentPadding = PaddingValues(horizontal = 20.dp, vertical = 4.dp)
+    ) {
+        items(lineCount) { index ->
+            if (index == active) {
+                BasicTextField(
+                    value = field,
+                    onValueChange = { edit(index, it) },
+                    modifier = Modifier.fillMaxWidth().focusRequester(focus),
+                    textStyle = style,
+                    cursorBrush = SolidColor(Azphalt.currentGround.onPage)
+                )
+            } else {
+                val text = remember(document, version, index) { document.line(index) }
+                LineRow(text, style) { caret -> activate(index, text, caret) }
+            }
+        }
+    }
+}
+
+/** A line not being edited: plain text, which a tap turns into the editing row with the caret
+ *  where the tap landed. */
+@Composable
+private fun LineRow(text: String, style: TextStyle, onTap: (Int) -> Unit) {
+    var layout by remember { mutableStateOf<TextLayoutResult?>(null) }
+    Text(
+        text,
+        style = style,
+        onTextLayout = { layout = it },
+        modifier = Modifier.fillMaxWidth().pointerInput(text) {
+            detectTapGestures { position -> onTap(layout?.getOffsetForPosition(position) ?: text.length) }
+        }
+    )
+}
+
 @Composable
 private fun Pill(label: String, background: Color, foreground: Color, onClick: () -> Unit) {
     Row(
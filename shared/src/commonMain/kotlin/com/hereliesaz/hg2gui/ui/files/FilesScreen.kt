@@ -7,6 +7,7 @@ import androidx.compose.animation.core.Animatable
 import androidx.compose.animation.core.CubicBezierEasing
 import androidx.compose.animation.core.LinearEasing
 import androidx.compose.animation.core.tween
+import androidx.compose.foundation.Image
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.combinedClickable
@@ -30,6 +31,7 @@ import androidx.compose.runtime.getValue
 import androidx.compose.runtime.key
 import androidx.compose.runtime.mutableStateListOf
 import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.setValue
@@ -39,9 +41,17 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.graphics.ImageBitmap
 import androidx.compose.ui.graphics.SolidColor
+import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.layout.LayoutCoordinates
+import androidx.compose.ui.layout.onGloballyPositioned
+import androidx.compose.ui.layout.positionInWindow
+import androidx.compose.ui.platform.LocalWindowInfo
+import androidx.compose.ui.text.font.FontFamily
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.em
 import androidx.compose.ui.unit.sp
@@ -49,6 +59,13 @@ import com.hereliesaz.hg2gui.ui.ConfirmDialog
 import com.hereliesaz.hg2gui.ui.menu.Azphalt
 import com.hereliesaz.hg2gui.ui.menu.onPage
 import com.hereliesaz.hg2gui.ui.menu.pageBrush
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.launch
 
 /*
@@ -75,6 +92,8 @@ private enum class RecencyFilter(val label: String) { ANY("Any time"), TODAY("To
 
 private const val DAY_MS = 24L * 60 * 60 * 1000
 private const val WEEK_MS = 7 * DAY_MS
+private const val GREP_DEBOUNCE_MS = 300L
+private const val PREFETCH_SCREENS = 0.5f
 
 private fun sortEntries(list: List<VfsEntry>, mode: SortMode): List<VfsEntry> = when (mode) {
     SortMode.NAME -> list.sortedWith(compareBy({ !it.isDirectory }, { it.name.lowercase() }))
@@ -109,8 +128,15 @@ fun FilesScreen(
     fullscreen: Boolean,
     nowMillis: Long,
     listDir: suspend (path: String) -> List<VfsEntry>,
-    search: suspend (query: String) -> List<VfsSearchResult>,
+    search: (query: String) -> Flow<VfsSearchResult>,
+    grep: (query: String) -> Flow<VfsGrepHit>,
+    // A photo tile's downsampled image, or null if it can't be decoded - suspends for as long
+    // as a decode takes, and is cancelled outright when the tile goes out of range.
+    thumbnail: suspend (VfsEntry) -> ImageBitmap?,
     storageStats: suspend () -> StorageStats,
+    // Every set of identical files, each sent as soon as it's confirmed - the Storage screen's
+    // DUPLICATES tab.
+    findDuplicates: () -> Flow<VfsDuplicateGroup>,
     onOpenFile: (path: String) -> Unit,
     // VFS-13: every one of these used to discard its own success/failure - create-with-an-
     // existing-name reported fake success (the underlying call is a no-op that still returns
@@ -120,8 +146,10 @@ fun FilesScreen(
     onCreateFile: suspend (parentPath: String, name: String) -> Boolean,
     onDelete: suspend (path: String) -> Boolean,
     onRename: suspend (path: String, newName: String) -> Boolean,
-    onMove: suspend (path: String, targetDirPath: String) -> Boolean,
-    onCopy: suspend (path: String, targetDirPath: String) -> Boolean,
+    // A batch MOVE/COPY of every path into [targetDirPath] as one transfer, reporting progress
+    // until it's over - cancelling the collection cancels the transfer. Collected outside this
+    // screen's own scope - see RunningTransfer.
+    transfer: (paths: Set<String>, targetDirPath: String, move: Boolean) -> Flow<VfsTransferProgress>,
     onShare: (path: String) -> Unit,
     // VFS-4: a batch share used to just forEach the single-file callback, firing N independent
     // ACTION_SEND choosers in a row instead of one ACTION_SEND_MULTIPLE - only the last one was
@@ -141,8 +169,12 @@ fun FilesScreen(
     var openChain by remember { mutableStateOf<List<VfsEntry>>(emptyList()) }
     // One listing per currently-relevant path: "/" plus every entry currently open in
     // [openChain]. Keyed by path rather than depth so a stale listing from a chain that's since
-    // been trimmed just falls out of use rather than needing to be explicitly discarded.
+    // been trimmed just falls out of use rather than needing to be explicitly discarded. Raw,
+    // as [listDir] returned it - sorting and filtering are views over it, see [levelViews].
     var levelCache by remember { mutableStateOf<Map<String, List<VfsEntry>>>(emptyMap()) }
+    // Levels a mutation has changed since they were last listed - the only ones a refresh
+    // re-lists; every other open level keeps the listing it has.
+    var staleLevels by remember { mutableStateOf<Set<String>>(emptySet()) }
     var sortMode by remember { mutableStateOf(SortMode.NAME) }
     var kindFilter by remember { mutableStateOf(KindFilter.ALL) }
     var recencyFilter by remember { mutableStateOf(RecencyFilter.ANY) }
@@ -152,6 +184,9 @@ fun FilesScreen(
     var searchActive by remember { mutableStateOf(false) }
     var searchQuery by remember { mutableStateOf("") }
     var searchResults by remember { mutableStateOf<List<VfsSearchResult>>(emptyList()) }
+    // Names (the default) or file contents - one query well, toggled from inside it.
+    var searchContents by remember { mutableStateOf(false) }
+    var grepResults by remember { mutableStateOf<List<VfsGrepHit>>(emptyList()) }
     // Most-recent-first, capped, no duplicates - just enough to let a tap re-run a search that
     // was actually submitted, not every half-typed query.
     val recentSearches = remember { mutableStateListOf<String>() }
@@ -167,7 +202,10 @@ fun FilesScreen(
     var storage by remember { mutableStateOf<StorageStats?>(null) }
     var opError by remember { mutableStateOf<String?>(null) }
 
-    // VFS-2/VFS-3: every one of these gates a call into onDelete/onRename/onMove/onCopy behind a
+    // The batch MOVE/COPY in flight, if any - see [RunningTransfer].
+    val running = RunningTransfer
+
+    // VFS-2/VFS-3: every one of these gates a call into onDelete/onRename/transfer behind a
     // ConfirmDialog rather than firing on the tap itself - deleteTarget and batchDeleteConfirm for
     // the two delete entry points, pendingRenameOverwrite/pendingBatchOverwrite for the silent-
     // clobber case where a rename/move/copy resolves onto a name that's already there.
@@ -183,19 +221,34 @@ fun FilesScreen(
     LaunchedEffect(Unit) { chromeIn.animateTo(1f, tween(360, easing = CubicBezierEasing(0f, .9f, .1f, 1f))) }
 
     val scope = rememberCoroutineScope()
-    fun refresh() { refreshTick++ }
+    // [changedDirs] are the folders whose own listing a mutation just changed - the parent of
+    // whatever was created, renamed or deleted, or a transfer's destination.
+    fun refresh(vararg changedDirs: String) {
+        staleLevels = staleLevels + changedDirs
+        refreshTick++
+    }
 
     val currentTargetDir = openChain.lastOrNull()?.path ?: "/"
 
     fun List<VfsEntry>.filteredAndSorted() = sortEntries(filtered(kindFilter, showHidden, recencyFilter, nowMillis), sortMode)
 
-    // Reloads root plus every currently-open ancestor's own listing whenever the chain changes
-    // depth (a tap drilled in or backed out) or the filter/sort/refresh state changes - the
-    // direct generalization of the old three fixed LaunchedEffects (root/level-0/record) to
-    // however many levels happen to be open right now.
-    LaunchedEffect(openChain, sortMode, kindFilter, recencyFilter, showHidden, refreshTick) {
+    // Lists root plus every currently-open ancestor - but only the ones not listed yet (a tap
+    // just drilled in) or marked stale by a mutation. Sort and filter changes never come through
+    // here at all: they're re-derived from what's already loaded, without touching the disk.
+    LaunchedEffect(openChain, refreshTick) {
         val paths = listOf("/") + openChain.map { it.path }
-        levelCache = paths.associateWith { listDir(it).filteredAndSorted() }
+        val reload = paths.filter { it !in levelCache || it in staleLevels }
+        val loaded = reload.associateWith { listDir(it) }
+        levelCache = levelCache.filterKeys { it in paths } + loaded
+        // Cleared only once re-listed, so a reload cancelled partway by another tap is redone.
+        // A stale level no longer open goes with its listing, above.
+        staleLevels = staleLevels.filterTo(mutableSetOf()) { it in paths && it !in reload }
+    }
+
+    // Not keyed on nowMillis: it's a fresh value every recomposition, and the recency cutoff
+    // moving by a few seconds isn't worth re-deriving every level on every frame.
+    val levelViews = remember(levelCache, sortMode, kindFilter, recencyFilter, showHidden) {
+        levelCache.mapValues { (_, entries) -> entries.filteredAndSorted() }
     }
 
     // VFS-14: null means "this depth's listing hasn't come back from [listDir] yet," distinct
@@ -205,23 +258,45 @@ fun FilesScreen(
     // "NOTHING HERE" for a frame before the real listing replaced it.
     fun entriesAt(depth: Int): List<VfsEntry>? {
         val path = if (depth == 0) "/" else openChain.getOrNull(depth - 1)?.path ?: return emptyList()
-        return levelCache[path]
+        return levelViews[path]
     }
 
-    LaunchedEffect(searchQuery, showHidden, refreshTick) {
-        val results = if (searchQuery.isNotBlank()) search(searchQuery) else emptyList()
+    // Restarted on every keystroke, which cancels the previous query's collection - its later
+    // results never land over this one's. The previous results stay up until this query's first
+    // match (or its end, if it has none), so typing doesn't blank the list between letters.
+    LaunchedEffect(searchQuery, showHidden, refreshTick, searchContents) {
+        if (searchQuery.isBlank()) {
+            searchResults = emptyList()
+            grepResults = emptyList()
+            return@LaunchedEffect
+        }
         // Hidden means "living inside a dotted path," the same rule the browse view applies to
         // every ancestor - checking only the leaf's own name let a result surface here that the
         // browse view would never show, since a file itself can be plainly named while every
         // folder above it is dotted.
-        searchResults = if (showHidden) {
-            results
-        } else {
-            results.filter { r ->
-                !r.entry.name.startsWith(".") &&
-                    r.parentPath.split('/').none { segment -> segment.startsWith(".") }
+        fun hidden(path: String) = path.split('/').any { segment -> segment.startsWith(".") }
+        if (searchContents) {
+            // Reading every file is worth waiting out a burst of typing for, unlike a name
+            // lookup - a keystroke inside this window cancels it before anything is read.
+            delay(GREP_DEBOUNCE_MS)
+            val shown = mutableListOf<VfsGrepHit>()
+            grep(searchQuery).collect { hit ->
+                if (showHidden || !hidden(hit.entry.path)) {
+                    shown.add(hit)
+                    grepResults = shown.toList()
+                }
+            }
+            grepResults = shown.toList()
+            return@LaunchedEffect
+        }
+        val shown = mutableListOf<VfsSearchResult>()
+        search(searchQuery).collect { r ->
+            if (showHidden || !hidden(r.entry.path)) {
+                shown.add(r)
+                searchResults = shown.toList()
             }
         }
+        searchResults = shown.toList()
     }
 
     fun openEntry(depth: Int, entry: VfsEntry) {
@@ -259,6 +334,33 @@ fun FilesScreen(
     fun moveOrCopyErrorMessage(failed: Int, total: Int, isMove: Boolean): String? =
         if (failed > 0) "$failed of $total didn't ${if (isMove) "move" else "copy"}." else null
 
+    // Runs in the background with its own banner, rather than holding the picker open until
+    // it's done - so the selection is cleared up front, the way it used to be once it finished.
+    fun startTransfer(paths: Set<String>, target: String, isMove: Boolean) {
+        selected = emptySet()
+        selectMode = false
+        running.isMove = isMove
+        running.job = running.scope.launch {
+            var failed = paths
+            try {
+                transfer(paths, target, isMove).collect { running.progress = it; failed = it.failedPaths }
+                opError = moveOrCopyErrorMessage(failed.size, paths.size, isMove)
+                // Only a move actually removes the source - a copy leaves the open folder
+                // right where it was.
+                if (isMove) closeChainIfAffected(paths - failed)
+            } catch (e: CancellationException) {
+                opError = if (isMove) "Move cancelled." else "Copy cancelled."
+                // Some may have gone before the cancel landed - which ones isn't known here.
+                if (isMove) closeChainIfAffected(paths)
+                throw e
+            } finally {
+                running.job = null
+                running.progress = null
+                refresh(target, *paths.map(::vfsParentPath).toTypedArray())
+            }
+        }
+    }
+
     fun recordSearch(query: String) {
         val trimmed = query.trim()
         if (trimmed.isEmpty()) return
@@ -312,16 +414,7 @@ fun FilesScreen(
                 (if (isMove) "moving" else "copying") + " here replaces it. This can't be undone.",
             confirmLabel = if (isMove) "MOVE" else "COPY",
             onConfirm = {
-                scope.launch {
-                    val failed = paths.filterNot { path -> if (isMove) onMove(path, target) else onCopy(path, target) }.toSet()
-                    opError = moveOrCopyErrorMessage(failed.size, paths.size, isMove)
-                    // Only a move actually removes the source - a copy leaves the open folder
-                    // right where it was.
-                    if (isMove) closeChainIfAffected(paths - failed)
-                    selected = emptySet()
-                    selectMode = false
-                    refresh()
-                }
+                startTransfer(paths, target, isMove)
                 pendingBatchOverwrite = null
             },
             onDismiss = { pendingBatchOverwrite = null }
@@ -342,13 +435,8 @@ fun FilesScreen(
                         screen = FMScreen.Browse
                         pendingBatchOverwrite = Triple(selected, target, isMove)
                     } else {
-                        val failed = selected.filterNot { path -> if (isMove) onMove(path, target) else onCopy(path, target) }.toSet()
-                        opError = moveOrCopyErrorMessage(failed.size, selected.size, isMove)
-                        if (isMove) closeChainIfAffected(selected - failed)
-                        selected = emptySet()
-                        selectMode = false
                         screen = FMScreen.Browse
-                        refresh()
+                        startTransfer(selected, target, isMove)
                     }
                 }
             },
@@ -361,10 +449,11 @@ fun FilesScreen(
         LaunchedEffect(Unit) { storage = storageStats() }
         StorageScreen(
             stats = storage,
+            findDuplicates = findDuplicates,
             onDelete = { path ->
                 scope.launch {
                     if (!onDelete(path)) opError = "Couldn't delete that."
-                    storage = storageStats(); refresh()
+                    storage = storageStats(); refresh(vfsParentPath(path))
                 }
             },
             onBack = { screen = FMScreen.Browse },
@@ -438,6 +527,12 @@ fun FilesScreen(
                             keyboardOptions = KeyboardOptions(imeAction = ImeAction.Search),
                             keyboardActions = KeyboardActions(onSearch = { recordSearch(searchQuery) })
                         )
+                        Text(
+                            if (searchContents) "IN FILES" else "NAMES",
+                            color = Azphalt.currentGround.onPage.copy(alpha = if (searchContents) 1f else .55f),
+                            fontSize = 9.sp, fontWeight = FontWeight.ExtraBold, letterSpacing = 0.1.em,
+                            modifier = Modifier.clickable { searchContents = !searchContents }
+                        )
                         Text(
                             "✕", color = Azphalt.currentGround.onPage.copy(alpha = .6f), fontSize = 13.sp,
                             modifier = Modifier.clickable {
@@ -528,6 +623,10 @@ fun FilesScreen(
             }
         }
 
+        if (running.job != null) {
+            TransferBanner(running.progress, running.isMove, onCancel = { running.job?.cancel() })
+        }
+
         // --- Content ------------------------------------------------------------------------
         if (searchActive) {
             if (searchQuery.isBlank()) {
@@ -536,6 +635,8 @@ fun FilesScreen(
                     screen = FMScreen.Search
                     recordSearch(q)
                 }
+            } else if (searchContents) {
+                GrepResults(results = grepResults, onOpen = { hit -> onOpenFile(hit.entry.path) })
             } else {
                 SearchResults(
                     results = searchResults,
@@ -570,7 +671,8 @@ fun FilesScreen(
                         onLongPress = { selectMode = true; selected = selected + it.path },
                         onRename = { renameTarget = it; renameInput = it.name },
                         onDelete = { deleteTarget = it },
-                        onShare = { onShare(it.path) }
+                        onShare = { onShare(it.path) },
+                        thumbnail = thumbnail
                     )
                 }
             }
@@ -591,7 +693,7 @@ fun FilesScreen(
                                 null -> true
                             }
                             opError = if (!ok) "$name already exists here." else null
-                            refresh()
+                            refresh(currentTargetDir)
                         }
                     }
                     creating = null; createInput = ""
@@ -622,7 +724,7 @@ fun FilesScreen(
                                     val ok = onRename(target.path, name)
                                     opError = if (!ok) "Couldn't rename that." else null
                                     if (ok) renameChainIfAffected(target.path, name)
-                                    refresh()
+                                    refresh(vfsParentPath(target.path))
                                 }
                             }
                         }
@@ -644,7 +746,7 @@ fun FilesScreen(
                         val ok = onRename(target.path, newName)
                         opError = if (!ok) "Couldn't rename that." else null
                         if (ok) renameChainIfAffected(target.path, newName)
-                        refresh()
+                        refresh(vfsParentPath(target.path))
                     }
                     pendingRenameOverwrite = null
                 },
@@ -662,8 +764,12 @@ fun FilesScreen(
             horizontalArrangement = Arrangement.spacedBy(6.dp)
         ) {
             if (selectMode) {
-                Chip("MOVE", onClick = { screen = FMScreen.PickMove })
-                Chip("COPY", onClick = { screen = FMScreen.PickCopy })
+                // One transfer at a time - the banner above has room for one, and CANCEL has
+                // to mean something unambiguous.
+                if (running.job == null) {
+                    Chip("MOVE", onClick = { screen = FMScreen.PickMove })
+                    Chip("COPY", onClick = { screen = FMScreen.PickCopy })
+                }
                 Chip("SHARE", onClick = { onShareMultiple(selected) })
                 Spacer(Modifier.weight(1f))
                 Chip("DELETE", background = Azphalt.hues[6], foreground = Azphalt.White, onClick = {
@@ -691,7 +797,7 @@ fun FilesScreen(
                         val ok = onDelete(entry.path)
                         opError = if (!ok) "Couldn't delete ${entry.name}." else null
                         if (ok) closeChainIfAffected(setOf(entry.path))
-                        refresh()
+                        refresh(vfsParentPath(entry.path))
                     }
                     deleteTarget = null
                 },
@@ -710,7 +816,8 @@ fun FilesScreen(
                         val failed = selected.filterNot { onDelete(it) }.toSet()
                         opError = if (failed.isNotEmpty()) "${failed.size} of ${selected.size} didn't delete." else null
                         closeChainIfAffected(selected - failed)
-                        selected = emptySet(); selectMode = false; refresh()
+                        val parents = selected.map(::vfsParentPath).toTypedArray()
+                        selected = emptySet(); selectMode = false; refresh(*parents)
                     }
                     batchDeleteConfirm = false
                 },
@@ -744,7 +851,8 @@ private fun ExpandableLevel(
     onLongPress: (VfsEntry) -> Unit,
     onRename: (VfsEntry) -> Unit,
     onDelete: (VfsEntry) -> Unit,
-    onShare: (VfsEntry) -> Unit
+    onShare: (VfsEntry) -> Unit,
+    thumbnail: suspend (VfsEntry) -> ImageBitmap?
 ) {
     val entries = entriesAt(depth)
     val openEntry = openChain.getOrNull(depth)
@@ -815,7 +923,8 @@ private fun ExpandableLevel(
                             onLongPress = onLongPress,
                             onRename = onRename,
                             onDelete = onDelete,
-                            onShare = onShare
+                            onShare = onShare,
+                            thumbnail = thumbnail
                         )
                     }
                 }
@@ -851,7 +960,74 @@ private fun ExpandableLevel(
                     modifier = Modifier.padding(top = 4.dp)
                 )
             }
-            FileRows(files, selectMode, selected, { onTap(depth, it) }, onLongPress, onRename, onDelete, onShare)
+            FileRows(files, selectMode, selected, { onTap(depth, it) }, onLongPress, onRename, onDelete, onShare, thumbnail)
+        }
+    }
+}
+
+/**
+ * The batch MOVE/COPY in flight, if any: the job the banner's CANCEL stops, and the latest progress
+ * it shows (null until the first report comes in). Held for the life of the process, not one
+ * FilesScreen's - leaving the screen mid-transfer mustn't cancel it, since a cancel rolls back
+ * whatever hadn't finished, and coming back picks its banner up again.
+ */
+private object RunningTransfer {
+    val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+    var job by mutableStateOf<Job?>(null)
+    var progress by mutableStateOf<VfsTransferProgress?>(null)
+    var isMove by mutableStateOf(false)
+}
+
+/** A running batch MOVE/COPY: how far it's got, how fast, and a way to stop it. Ink, like an
+ *  open pill - it's the one thing on screen that's currently busy. */
+@Composable
+private fun TransferBanner(progress: VfsTransferProgress?, isMove: Boolean, onCancel: () -> Unit) {
+    // Bytes when there are any to count; a move that's all renames has none, only entries.
+    val fraction = when {
+        progress == null -> 0f
+        progress.bytesTotal > 0 -> progress.bytesDone.toFloat() / progress.bytesTotal
+        progress.itemsTotal > 0 -> progress.itemsDone.toFloat() / progress.itemsTotal
+        else -> 0f
+    }
+    Column(
+        Modifier
+            .fillMaxWidth()
+            .padding(start = 20.dp, end = 20.dp, top = 8.dp)
+            .clip(RoundedCornerShape(26.dp))
+            .background(Azphalt.Ink)
+            .padding(start = 16.dp, end = 4.dp, top = 4.dp, bottom = 12.dp)
+    ) {
+        Row(verticalAlignment = Alignment.CenterVertically, modifier = Modifier.fillMaxWidth()) {
+            Text(
+                buildString {
+                    append(if (isMove) "MOVING" else "COPYING")
+                    if (progress != null) {
+                        append(" ${progress.itemsDone}/${progress.itemsTotal}")
+                        if (progress.bytesTotal > 0) {
+                            append(" · ${formatFileSize(progress.bytesDone)} OF ${formatFileSize(progress.bytesTotal)}")
+                            append(" · ${formatFileSize(progress.bytesPerSecond)}/S")
+                        }
+                    }
+                },
+                color = Azphalt.Yellow, fontSize = 10.sp, fontWeight = FontWeight.ExtraBold, maxLines = 1,
+                overflow = TextOverflow.Ellipsis, modifier = Modifier.weight(1f)
+            )
+            Box(
+                Modifier.defaultMinSize(minWidth = 48.dp, minHeight = 48.dp).clickable(onClick = onCancel),
+                contentAlignment = Alignment.Center
+            ) {
+                Text("CANCEL", color = Azphalt.White.copy(alpha = .7f), fontSize = 8.sp, fontWeight = FontWeight.Bold)
+            }
+        }
+        Box(
+            Modifier
+                .padding(end = 12.dp)
+                .fillMaxWidth()
+                .height(3.dp)
+                .clip(RoundedCornerShape(percent = 50))
+                .background(Azphalt.White.copy(alpha = .2f))
+        ) {
+            Box(Modifier.fillMaxWidth(fraction.coerceIn(0f, 1f)).fillMaxHeight().background(Azphalt.Yellow))
         }
     }
 }
@@ -917,9 +1093,11 @@ private fun FileRows(
     onLongPress: (VfsEntry) -> Unit,
     onRename: (VfsEntry) -> Unit,
     onDelete: (VfsEntry) -> Unit,
-    onShare: (VfsEntry) -> Unit
+    onShare: (VfsEntry) -> Unit,
+    thumbnail: suspend (VfsEntry) -> ImageBitmap?
 ) {
     val images = files.filter { it.isImage }
+    val windowHeight = LocalWindowInfo.current.containerSize.height
     val others = files.filterNot { it.isImage }
 
     Column(verticalArrangement = Arrangement.spacedBy(6.dp)) {
@@ -937,14 +1115,25 @@ private fun FileRows(
                 verticalArrangement = Arrangement.spacedBy(5.dp)
             ) {
                 items(images, key = { it.path }) { img ->
+                    // The grid is laid out whole inside one LazyColumn item, so every tile is
+                    // composed whether it's on screen or not - range is tracked by hand instead.
+                    var inRange by remember { mutableStateOf(false) }
+                    val image by produceState<ImageBitmap?>(null, img.path, img.modifiedAt, inRange) {
+                        if (inRange) value = thumbnail(img)
+                    }
                     Box(
                         Modifier
                             .aspectRatio(1f)
+                            .onGloballyPositioned { inRange = it.withinPrefetchRange(windowHeight) }
                             .clip(RoundedCornerShape(7.dp))
                             // The tile's own hue never changes on selection - only the mark does.
+                            // It's also the placeholder until (or if never) the thumbnail lands.
                             .background(Azphalt.hues[Azphalt.hueOf(img.path)])
                             .combinedClickable(onClick = { onTap(img) }, onLongClick = { onLongPress(img) })
                     ) {
+                        image?.let {
+                            Image(it, contentDescription = img.name, contentScale = ContentScale.Crop, modifier = Modifier.matchParentSize())
+                        }
                         Text(
                             img.name, color = Azphalt.White.copy(alpha = .8f), fontSize = 7.sp,
                             fontWeight = FontWeight.Bold, maxLines = 1,
@@ -996,6 +1185,19 @@ private fun FileRows(
     }
 }
 
+/**
+ * Whether this tile is on screen or within [PREFETCH_SCREENS] window-heights of it. Anything in
+ * range has its thumbnail loaded - so the rows just past either edge are ready before a scroll
+ * reaches them - and a tile that drifts further out has its load cancelled, so a fast fling
+ * through a big folder doesn't leave a queue of decodes for photos long gone from view.
+ */
+private fun LayoutCoordinates.withinPrefetchRange(windowHeight: Int): Boolean {
+    if (!isAttached) return false
+    val top = positionInWindow().y
+    val margin = windowHeight * PREFETCH_SCREENS
+    return top + size.height > -margin && top < windowHeight + margin
+}
+
 @Composable
 private fun SelectMark(selected: Boolean, dark: Boolean) {
     Box(
@@ -1098,6 +1300,52 @@ private fun ColumnScope.SearchResults(results: List<VfsSearchResult>, onOpen: (V
     }
 }
 
+@Composable
+private fun ColumnScope.GrepResults(results: List<VfsGrepHit>, onOpen: (VfsGrepHit) -> Unit) {
+    if (results.isEmpty()) {
+        Text(
+            "NOTHING", color = Azphalt.Ink.copy(alpha = .4f),
+            fontSize = 12.sp, fontWeight = FontWeight.ExtraBold, letterSpacing = 0.1.em,
+            modifier = Modifier.padding(start = 20.dp, top = 20.dp)
+        )
+        return
+    }
+    LazyColumn(
+        Modifier.fillMaxWidth().weight(1f).padding(horizontal = 20.dp, vertical = 12.dp),
+        verticalArrangement = Arrangement.spacedBy(2.dp)
+    ) {
+        items(results, key = { "${it.entry.path}:${it.lineNumber}" }) { hit ->
+            Column(
+                Modifier.fillMaxWidth().clickable { onOpen(hit) }.padding(vertical = 10.dp)
+            ) {
+                Text(
+                    "${hit.entry.name}:${hit.lineNumber}",
+                    color = Azphalt.Ink, fontSize = 13.sp, fontWeight = FontWeight.ExtraBold
+                )
+                Text(vfsParentPath(hit.entry.path), color = Azphalt.Ink.copy(alpha = .5f), fontSize = 10.sp)
+                Spacer(Modifier.height(4.dp))
+                hit.before.forEach { ContextLine(it, match = false) }
+                ContextLine(hit.line, match = true)
+                hit.after.forEach { ContextLine(it, match = false) }
+            }
+            Box(Modifier.fillMaxWidth().height(1.dp).background(Azphalt.Ink.copy(alpha = .12f)))
+        }
+    }
+}
+
+@Composable
+private fun ContextLine(text: String, match: Boolean) {
+    Text(
+        text,
+        color = Azphalt.Ink.copy(alpha = if (match) 1f else .45f),
+        fontSize = 10.sp,
+        fontFamily = FontFamily.Monospace,
+        fontWeight = if (match) FontWeight.Bold else FontWeight.Normal,
+        maxLines = 1,
+        overflow = TextOverflow.Ellipsis
+    )
+}
+
 @Composable
 private fun NamePrompt(label: String, name: String, onNameChange: (String) -> Unit, onConfirm: () -> Unit, onCancel: () -> Unit) {
     Row(
@@ -10,6 +10,7 @@ import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
@@ -20,6 +21,7 @@ import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.em
 import androidx.compose.ui.unit.sp
@@ -27,14 +29,16 @@ import com.hereliesaz.hg2gui.ui.ConfirmDialog
 import com.hereliesaz.hg2gui.ui.menu.Azphalt
 import com.hereliesaz.hg2gui.ui.menu.onPage
 import com.hereliesaz.hg2gui.ui.menu.pageBrush
+import kotlinx.coroutines.flow.Flow
 
 /*
  * Storage broken down by content type - real numbers from a recursive walk of the sandbox. The
  * headline "USED OF n GB" / percent figure needs the device's actual capacity though, which this
  * commonMain screen has no way to ask the OS for itself - so it's plumbed in as an optional
  * [StorageStats.totalCapacityBytes] the platform layer fills in (Android does this with
- * `StatFs`); when it's null the header just falls back to the sandbox total alone. Two tabs: the
- * breakdown, and the worst offenders named.
+ * `StatFs`); when it's null the header just falls back to the sandbox total alone. Three tabs: the
+ * breakdown, the worst offenders named, and sets of identical files - the one kind of space that
+ * can be freed without losing anything.
  */
 
 // docs/HG2Gui File Manager.html's own mock predates this taxonomy - it illustrates a 4-category
@@ -47,11 +51,12 @@ private val CATEGORY_HUES = mapOf(
     "Images" to 0, "Documents" to 2, "Code" to 9, "Archives" to 5, "Other" to 4
 )
 
-private enum class StorageTab { BY_TYPE, LARGEST }
+private enum class StorageTab { BY_TYPE, LARGEST, DUPLICATES }
 
 @Composable
 fun StorageScreen(
     stats: StorageStats?,
+    findDuplicates: () -> Flow<VfsDuplicateGroup>,
     onDelete: (path: String) -> Unit,
     onBack: () -> Unit,
     fullscreen: Boolean,
@@ -68,6 +73,23 @@ fun StorageScreen(
     var tab by remember { mutableStateOf(StorageTab.BY_TYPE) }
     var deleteTarget by remember { mutableStateOf<VfsEntry?>(null) }
 
+    // Found on first opening DUPLICATES, most reclaimable first as each set arrives. A scan cut
+    // short by switching tabs starts over next time - cheaply, since hashes are cached.
+    var duplicates by remember { mutableStateOf<List<VfsDuplicateGroup>>(emptyList()) }
+    var duplicatesScanned by remember { mutableStateOf(false) }
+    var scanning by remember { mutableStateOf(false) }
+    LaunchedEffect(tab) {
+        if (tab != StorageTab.DUPLICATES || duplicatesScanned) return@LaunchedEffect
+        duplicates = emptyList()
+        scanning = true
+        try {
+            findDuplicates().collect { group -> duplicates = (duplicates + group).sortedByDescending { it.reclaimableBytes } }
+            duplicatesScanned = true
+        } finally {
+            scanning = false
+        }
+    }
+
     Column(
         modifier
             .fillMaxSize()
@@ -168,6 +190,7 @@ fun StorageScreen(
         ) {
             Chip("BY TYPE", filled = tab == StorageTab.BY_TYPE, onClick = { tab = StorageTab.BY_TYPE })
             Chip("LARGEST", filled = tab == StorageTab.LARGEST, onClick = { tab = StorageTab.LARGEST })
+            Chip("DUPLICATES", filled = tab == StorageTab.DUPLICATES, onClick = { tab = StorageTab.DUPLICATES })
             // No bulk-cleanup flow of its own - the sensible existing action is just surfacing
             // the worst offenders, so this jumps to LARGEST (where DELETE is one tap away) and
             // also hands off to whatever the caller wants to do with it.
@@ -237,6 +260,28 @@ fun StorageScreen(
                     }
                 }
             }
+
+            StorageTab.DUPLICATES -> LazyColumn(
+                Modifier.weight(1f).fillMaxWidth().padding(horizontal = 20.dp),
+                verticalArrangement = Arrangement.spacedBy(8.dp)
+            ) {
+                item(key = "summary") {
+                    val reclaimable = duplicates.sumOf { it.reclaimableBytes }
+                    Text(
+                        when {
+                            scanning -> "COMPARING… · ${formatFileSize(reclaimable)} RECLAIMABLE SO FAR"
+                            duplicates.isEmpty() -> "NO DUPLICATES"
+                            else -> "${formatFileSize(reclaimable)} RECLAIMABLE · ${duplicates.size} SETS"
+                        },
+                        color = Azphalt.currentGround.onPage.copy(alpha = .55f),
+                        fontSize = 9.sp, fontWeight = FontWeight.ExtraBold, letterSpacing = 0.18.em,
+                        modifier = Modifier.padding(bottom = 4.dp)
+                    )
+                }
+                items(duplicates, key = { it.files.first().path }) { group ->
+                    DuplicateGroupCard(group, onDelete = { deleteTarget = it })
+                }
+            }
         }
 
         deleteTarget?.let { entry ->
@@ -248,13 +293,63 @@ fun StorageScreen(
                     "This deletes ${entry.name}. This can't be undone."
                 },
                 confirmLabel = "DELETE",
-                onConfirm = { onDelete(entry.path); deleteTarget = null },
+                onConfirm = {
+                    onDelete(entry.path)
+                    // A set down to one file isn't a set of duplicates any more.
+                    duplicates = duplicates
+                        .map { group -> group.copy(files = group.files.filter { it.path != entry.path }) }
+                        .filter { it.files.size > 1 }
+                    deleteTarget = null
+                },
                 onDismiss = { deleteTarget = null }
             )
         }
     }
 }
 
+/** One set of identical files - full paths, since every name in it may well be the same. */
+@Composable
+private fun DuplicateGroupCard(group: VfsDuplicateGroup, onDelete: (VfsEntry) -> Unit) {
+    Column(
+        Modifier
+            .fillMaxWidth()
+            .clip(RoundedCornerShape(26.dp))
+            .background(Azphalt.Ink.copy(alpha = .10f))
+            .padding(start = 16.dp, end = 8.dp, top = 12.dp, bottom = 6.dp)
+    ) {
+        Row(verticalAlignment = Alignment.CenterVertically, horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+            Text(
+                "${formatFileSize(group.reclaimableBytes)} RECLAIMABLE", color = Azphalt.currentGround.onPage,
+                fontSize = 12.sp, fontWeight = FontWeight.ExtraBold, letterSpacing = 0.06.em
+            )
+            Text(
+                "${group.files.size} × ${formatFileSize(group.sizeBytes)}",
+                color = Azphalt.currentGround.onPage.copy(alpha = .55f), fontSize = 9.sp
+            )
+        }
+        group.files.forEach { f ->
+            Row(
+                Modifier.fillMaxWidth(),
+                verticalAlignment = Alignment.CenterVertically,
+                horizontalArrangement = Arrangement.SpaceBetween
+            ) {
+                Text(
+                    f.path, color = Azphalt.currentGround.onPage.copy(alpha = .8f), fontSize = 10.sp,
+                    fontWeight = FontWeight.Bold, maxLines = 1, overflow = TextOverflow.StartEllipsis,
+                    modifier = Modifier.weight(1f)
+                )
+                // Same 48dp tap zone as the Files screen's own row menus.
+                Box(
+                    Modifier.defaultMinSize(minWidth = 48.dp, minHeight = 40.dp).clickable { onDelete(f) },
+                    contentAlignment = Alignment.Center
+                ) {
+                    Text("×", color = Azphalt.currentGround.onPage.copy(alpha = .7f), fontSize = 15.sp)
+                }
+            }
+        }
+    }
+}
+
 @Composable
 private fun Chip(
     label: String,
@@ -18,6 +18,34 @@ data class VfsEntry(
 /** [entry]'s own containing directory, so a search result can show where it lives. */
 data class VfsSearchResult(val entry: VfsEntry, val parentPath: String)
 
+/** One matching line of a content search: [lineNumber] (1-based) of [entry], with the lines
+ *  just [before] and [after] it for context. */
+data class VfsGrepHit(
+    val entry: VfsEntry,
+    val lineNumber: Int,
+    val line: String,
+    val before: List<String>,
+    val after: List<String>
+)
+
+/** How far a batch move/copy has got: [itemsDone] of the [itemsTotal] entries picked, and
+ *  [bytesDone] of the [bytesTotal] that actually have to be copied - 0 of 0 for a move that's
+ *  nothing but renames. [failedPaths] is final only once the transfer is over. */
+data class VfsTransferProgress(
+    val itemsDone: Int,
+    val itemsTotal: Int,
+    val bytesDone: Long,
+    val bytesTotal: Long,
+    val bytesPerSecond: Long,
+    val failedPaths: Set<String>
+)
+
+/** [files] all have the same [sizeBytes] of identical contents - keeping any one of them frees
+ *  [reclaimableBytes]. */
+data class VfsDuplicateGroup(val sizeBytes: Long, val files: List<VfsEntry>) {
+    val reclaimableBytes: Long get() = sizeBytes * (files.size - 1)
+}
+
 data class StorageCategoryStat(val label: String, val bytes: Long)
 
 /** [totalCapacityBytes] and [usedCapacityBytes] are the real device/partition capacity and usage,
@@ -0,0 +1,117 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+
+/**
+ * Resolved [MenuNode.resolveChildren] results, one entry per node id, shared across every visit
+ * to that node until something [invalidate]s it. [MenuNode.resolveChildren] used to run inline
+ * in PillMenu's own composition (`remember(anchor.id) { anchor.resolveChildren?.invoke() }`) -
+ * tapping `install` parsed every apt `_Packages` file on the UI thread, and the ssh/Workflows
+ * pills read SharedPreferences there too. It's a suspend provider now; this is where it actually
+ * runs, off the main thread, at most once per id however many times the pill is reopened or
+ * [prefetch]ed in the meantime.
+ *
+ * Not thread-safe, deliberately: every call comes from PillMenu's own composition or its
+ * LaunchedEffects, which all run on the main thread - only the resolver itself hops off it.
+ *
+ * Invalidation is explicit, not time-based. A whole-tree rebuild (`CommandTree.from`) reuses
+ * every node it didn't change, so the owner keeps one cache across rebuilds and [invalidate]s
+ * only the ids whose resolvers read something the rebuild's cause changed (the install pills,
+ * after a package-manager run); a change to one node's backing store that doesn't rebuild the
+ * tree (a new ssh preset, a saved workflow) calls [invalidate] with that node's id the same way.
+ */
+class ChildrenCache {
+    // A null result is a resolver that threw - kept out of [peek] and dropped by [resolve], never
+    // served as if it were a real, empty list of children.
+    private val resolved = mutableMapOf<String, Deferred<List<MenuNode>?>>()
+    // How often each node has been picked while this cache was alive - the only signal
+    // [prefetch] has for which of a band's pills is the likely next tap.
+    private val picks = mutableMapOf<String, Int>()
+
+    /** [node]'s children if they're already known without waiting - its eager [MenuNode.children]
+     *  when it has no resolver, a completed resolution otherwise - or null while one is still
+     *  outstanding (or was never started). */
+    @OptIn(kotlinx.coroutines.ExperimentalCoroutinesApi::class)
+    fun peek(node: MenuNode): List<MenuNode>? {
+        if (node.resolveChildren == null) return node.children
+        val pending = resolved[node.id] ?: return null
+        return if (pending.isCompleted && !pending.isCancelled) pending.getCompleted() else null
+    }
+
+    /** [node]'s children, resolving them on [scope] if no earlier call (or [prefetch]) already
+     *  has. A resolver that throws yields no children and isn't cached, so the next open retries
+     *  it rather than remembering the failure. */
+    suspend fun resolve(scope: CoroutineScope, node: MenuNode): List<MenuNode> {
+        val resolver = node.resolveChildren ?: return node.children
+        while (true) {
+            val pending = resolved[node.id]?.takeUnless { it.isCancelled }
+                ?: start(scope, node.id, resolver)
+            try {
+                val children = pending.await()
+                if (children == null && resolved[node.id] === pending) resolved.remove(node.id)
+                return children.orEmpty()
+            } catch (e: CancellationException) {
+                // Either this caller is itself being cancelled (rethrown by ensureActive), or the
+                // deferred it was waiting on was - an [invalidate] mid-flight, or a prefetch started
+                // on a scope that has since gone away. The latter just starts a fresh resolution.
+                if (resolved[node.id] === pending) resolved.remove(node.id)
+                currentCoroutineContext().ensureActive()
+            }
+        }
+    }
+
+    // The resolver's own failure is caught inside the async block rather than left to surface
+    // from await(): an async that fails cancels the scope it was started on, and that scope is
+    // PillMenu's own rememberCoroutineScope - one unreadable index file would take every other
+    // in-flight pill animation down with it.
+    private fun start(scope: CoroutineScope, id: String, resolver: suspend () -> List<MenuNode>): Deferred<List<MenuNode>?> =
+        scope.async(Dispatchers.Default) {
+            try {
+                resolver()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                null
+            }
+        }.also { resolved[id] = it }
+
+    /** Starts resolving up to [limit] of [candidates] in the background - the ones picked most
+     *  often so far first, falling back to list order - so the band they open is usually ready
+     *  by the time the pick's own drop-and-grow hand-off finishes. Never waits on anything. */
+    fun prefetch(scope: CoroutineScope, candidates: List<MenuNode>, limit: Int = PREFETCH_LIMIT) {
+        candidates
+            .filter { it.resolveChildren != null && it.id !in resolved }
+            .sortedByDescending { picks[it.id] ?: 0 }
+            .take(limit)
+            .forEach { node ->
+                val resolver = node.resolveChildren ?: return@forEach
+                start(scope, node.id, resolver)
+            }
+    }
+
+    fun recordPick(node: MenuNode) {
+        picks[node.id] = (picks[node.id] ?: 0) + 1
+    }
+
+    /** Forgets [id]'s resolved children, so the next open re-runs its resolver. */
+    fun invalidate(id: String) {
+        resolved.remove(id)?.cancel()
+    }
+
+    fun invalidateAll() {
+        resolved.values.forEach { it.cancel() }
+        resolved.clear()
+    }
+
+    private companion object {
+        // Enough to cover a package manager's own install/search-style drill-ins without kicking
+        // off a resolver for every pill in a band of hundreds the moment it fans out.
+        const val PREFETCH_LIMIT = 3
+    }
+}
@@ -0,0 +1,251 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * A search index over every pill in a command tree - label, value, and the ancestors it sits
+ * under (so a discovered `--help` flag is findable as "ls -l", not just "-l") - plus whatever
+ * extra [Entry]s the platform adds for pills that only exist behind a resolver (apt's package
+ * names, under `install`). Finding a binary used to mean drilling category → family → leaf, or
+ * typing its name blind; this is what backs the "Find" host TerminalScreen offers instead.
+ *
+ * Built once per tree, off the main thread, then queried on every keystroke from composition -
+ * so [search] is the part that has to be cheap. Candidates come from two indexes rather than a
+ * scan: a sorted array of labels (a binary-searched prefix range, for the first keystroke or
+ * two) and label trigrams (for everything from the third on, including a typo or two). Only
+ * when those turn up fewer than a page of results across the whole index does it fall back to a
+ * plain subsequence scan, for abbreviations like "gst" that share no trigram with anything.
+ *
+ * Incremental per root: [build] reuses a previous index's segment for every root whose
+ * structure hasn't changed, so the `pkg install` that rebuilds the tree only re-indexes the one
+ * Shell category that actually gained a binary.
+ */
+class CommandIndex private constructor(private val segments: List<Segment>) {
+
+    /**
+     * One searchable pill. [idPath] runs root first and is what PillMenu walks to reach it (see
+     * [MenuNode.jumpTo]) - ids, not the nodes themselves, so a result always lands on whatever
+     * the *current* tree holds at that path rather than a node from the tree it was indexed
+     * from. [where] is the parent's label, shown on the result's own pill; [context] is every
+     * ancestor's label, searched alongside [label] for multi-word queries.
+     */
+    data class Entry(
+        val idPath: List<String>,
+        val label: String,
+        val where: String = "",
+        val context: String = where,
+        val value: String? = null
+    )
+
+    data class Hit(val entry: Entry, val score: Int)
+
+    /** How many of this index's segments were carried over unchanged from the previous one. */
+    internal var reusedSegments = 0
+        private set
+
+    /** The best [limit] matches for [query], highest score first. Empty for a blank query. */
+    fun search(query: String, limit: Int = DEFAULT_LIMIT): List<Hit> {
+        val q = query.trim().lowercase()
+        if (q.isEmpty() || limit <= 0) return emptyList()
+        val hits = ArrayList<Hit>()
+        val queryTrigrams = trigramsOf(q)
+        val found = segments.map { segment ->
+            segment.indexed(q, queryTrigrams).also { segment.score(q, it, queryTrigrams.size, hits) }
+        }
+        // Counted over every segment, not per segment - nearly every segment alone has fewer than
+        // a page of hits, and scanning each of them on every keystroke is the linear search the
+        // indexes are here to avoid.
+        if (hits.size < limit) {
+            segments.forEachIndexed { s, segment -> segment.scan(q, found[s], queryTrigrams.size, hits) }
+        }
+        return hits
+            .sortedWith(compareByDescending<Hit> { it.score }.thenBy { it.entry.label.length }.thenBy { it.entry.label })
+            .distinctBy { it.entry.idPath }
+            .take(limit)
+    }
+
+    private data class RootKey(val id: String, val fingerprint: Long)
+
+    private class Segment(val key: Any, val entries: List<Entry>) {
+        private val labels = Array(entries.size) { entries[it].label.lowercase() }
+        private val texts = Array(entries.size) { i ->
+            val e = entries[i]
+            listOfNotNull(e.context, e.label, e.value?.takeIf { it != e.label }).joinToString(" ").lowercase()
+        }
+        private val byLabel: IntArray = entries.indices.sortedBy { labels[it] }.toIntArray()
+        private val trigrams: Map<Long, IntArray> = buildMap<Long, MutableList<Int>> {
+            labels.forEachIndexed { i, label ->
+                trigramsOf(label).forEach { getOrPut(it) { mutableListOf() }.add(i) }
+            }
+        }.mapValues { it.value.toIntArray() }
+
+        /** Entries the prefix range or the trigrams turn up, each with its shared trigram count. */
+        fun indexed(q: String, queryTrigrams: Set<Long>): Map<Int, Int> {
+            val shared = HashMap<Int, Int>()
+            // The prefix range of the sorted labels - capped, since a one-letter query's range
+            // can be most of a category.
+            var at = lowerBound(q)
+            var taken = 0
+            while (at < byLabel.size && taken < PREFIX_SCAN_CAP && labels[byLabel[at]].startsWith(q)) {
+                shared.getOrPut(byLabel[at]) { 0 }
+                at++
+                taken++
+            }
+            for (tri in queryTrigrams) {
+                trigrams[tri]?.forEach { i -> shared[i] = (shared[i] ?: 0) + 1 }
+            }
+            return shared
+        }
+
+        fun score(q: String, candidates: Map<Int, Int>, queryTrigrams: Int, out: MutableList<Hit>) {
+            for ((i, count) in candidates) {
+                val score = score(q, i, count, queryTrigrams)
+                if (score > 0) out.add(Hit(entries[i], score))
+            }
+        }
+
+        /** The subsequence fallback: every entry [indexed] didn't already turn up. */
+        fun scan(q: String, indexed: Map<Int, Int>, queryTrigrams: Int, out: MutableList<Hit>) {
+            for (i in entries.indices) {
+                if (i in indexed || subsequenceScore(q, texts[i]) < 0) continue
+                val score = score(q, i, 0, queryTrigrams)
+                if (score > 0) out.add(Hit(entries[i], score))
+            }
+        }
+
+        private fun lowerBound(q: String): Int {
+            var lo = 0
+            var hi = byLabel.size
+            while (lo < hi) {
+                val mid = (lo + hi) ushr 1
+                if (labels[byLabel[mid]] < q) lo = mid + 1 else hi = mid
+            }
+            return lo
+        }
+
+        private fun score(q: String, i: Int, sharedTrigrams: Int, queryTrigrams: Int): Int {
+            val label = labels[i]
+            val contains = label.indexOf(q)
+            val base = when {
+                label == q -> SCORE_EXACT
+                contains == 0 -> SCORE_PREFIX - (label.length - q.length)
+                contains > 0 -> SCORE_CONTAINS - contains
+                else -> {
+                    val inLabel = subsequenceScore(q, label)
+                    val inContext = if (inLabel < 0) subsequenceScore(q, texts[i]) else -1
+                    when {
+                        inLabel >= 0 -> SCORE_SUBSEQUENCE + inLabel
+                        inContext >= 0 -> SCORE_CONTEXT + inContext / 2
+                        // Mostly the same trigrams as the query, in no subsequence order - a typo.
+                        queryTrigrams > 0 && sharedTrigrams * 2 >= queryTrigrams ->
+                            SCORE_TYPO + SCORE_TYPO_SPAN * sharedTrigrams / queryTrigrams
+                        else -> return 0
+                    }
+                }
+            }
+            // A shallower pill wins a tie - `git` itself over some deeper `git` flag.
+            return base - entries[i].idPath.size * DEPTH_PENALTY
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_LIMIT = 24
+        private const val PREFIX_SCAN_CAP = 512
+        private const val DEPTH_PENALTY = 8
+        private const val SCORE_EXACT = 1000
+        private const val SCORE_PREFIX = 800
+        private const val SCORE_CONTAINS = 600
+        private const val SCORE_SUBSEQUENCE = 400
+        private const val SCORE_CONTEXT = 250
+        private const val SCORE_TYPO = 100
+        private const val SCORE_TYPO_SPAN = 100
+
+        /**
+         * Indexes every pill reachable through [roots]' eager children (a resolver's own pill is
+         * indexed, never what it would resolve to - that's what [extras] is for), reusing any of
+         * [previous]'s segments whose root - or whose extras list - is structurally unchanged.
+         */
+        fun build(roots: List<MenuNode>, extras: List<Entry> = emptyList(), previous: CommandIndex? = null): CommandIndex {
+            val reusable = previous?.segments.orEmpty().associateBy { it.key }
+            var reused = 0
+            val segments = roots.map { root ->
+                val key = RootKey(root.id, fingerprint(root))
+                reusable[key]?.also { reused++ } ?: Segment(key, entriesUnder(root))
+            } + if (extras.isEmpty()) {
+                emptyList()
+            } else {
+                listOf(reusable[extras]?.also { reused++ } ?: Segment(extras, extras))
+            }
+            return CommandIndex(segments).also { it.reusedSegments = reused }
+        }
+
+        // Everything that shows up in an Entry or decides which pills exist - not the resolver
+        // closures themselves, which are new objects on every rebuild even when nothing changed.
+        private fun fingerprint(node: MenuNode): Long {
+            var h = node.id.hashCode().toLong()
+            h = h * 31 + node.label.hashCode()
+            h = h * 31 + node.value.hashCode()
+            h = h * 31 + node.cap.hashCode()
+            h = h * 31 + (if (node.resolveChildren != null) 1 else 0)
+            for (child in node.children) h = h * 31 + fingerprint(child)
+            return h
+        }
+
+        private fun entriesUnder(root: MenuNode): List<Entry> = buildList {
+            fun visit(node: MenuNode, idPath: List<String>, ancestors: List<String>) {
+                add(
+                    Entry(
+                        idPath = idPath,
+                        label = node.label,
+                        where = ancestors.lastOrNull().orEmpty(),
+                        context = ancestors.joinToString(" "),
+                        value = node.value
+                    )
+                )
+                val below = ancestors + node.label
+                for (child in node.children) visit(child, idPath + child.id, below)
+            }
+            visit(root, listOf(root.id), emptyList())
+        }
+    }
+}
+
+private val WORD_BOUNDARIES = setOf(' ', '-', '_', '/', '.')
+private const val SUBSEQUENCE_MATCH = 16
+private const val SUBSEQUENCE_CONSECUTIVE = 12
+private const val SUBSEQUENCE_BOUNDARY = 10
+private const val SUBSEQUENCE_MAX_GAP_PENALTY = 6
+
+/**
+ * Whether [query]'s characters appear in [text] in order, and how well: -1 if not at all, else a
+ * non-negative score rewarding runs of consecutive characters and matches at the start of a word
+ * ("gst" hits git-STatus's word starts), and penalising the gaps in between. Greedy leftmost, not
+ * the optimal alignment - plenty to rank a few dozen candidates by.
+ */
+internal fun subsequenceScore(query: String, text: String): Int {
+    var from = 0
+    var previous = -2
+    var score = 0
+    for (c in query) {
+        val at = text.indexOf(c, from)
+        if (at < 0) return -1
+        score += SUBSEQUENCE_MATCH
+        if (at == previous + 1) score += SUBSEQUENCE_CONSECUTIVE
+        if (at == 0 || text[at - 1] in WORD_BOUNDARIES) score += SUBSEQUENCE_BOUNDARY
+        score -= min(at - from, SUBSEQUENCE_MAX_GAP_PENALTY)
+        previous = at
+        from = at + 1
+    }
+    return max(score, 0)
+}
+
+/** Every distinct run of three characters in [text], packed into one Long each. */
+internal fun trigramsOf(text: String): Set<Long> {
+    if (text.length < 3) return emptySet()
+    val out = HashSet<Long>(text.length)
+    for (i in 0..text.length - 3) {
+        out.add((text[i].code.toLong() shl 32) or (text[i + 1].code.toLong() shl 16) or text[i + 2].code.toLong())
+    }
+    return out
+}
@@ -2,7 +2,6 @@ package com.hereliesaz.hg2gui.ui.menu
 
 import androidx.compose.animation.core.Animatable
 import androidx.compose.animation.core.AnimationState
-import androidx.compose.animation.core.AnimationVector1D
 import androidx.compose.animation.core.CubicBezierEasing
 import androidx.compose.animation.core.DecayAnimationSpec
 import androidx.compose.animation.core.Easing
@@ -10,7 +9,6 @@ import androidx.compose.animation.core.calculateTargetValue
 import androidx.compose.animation.core.LinearEasing
 import androidx.compose.animation.core.Spring
 import androidx.compose.animation.core.animateTo
-import androidx.compose.animation.core.keyframes
 import androidx.compose.animation.core.spring
 import androidx.compose.animation.core.tween
 import androidx.compose.animation.rememberSplineBasedDecay
@@ -37,6 +35,7 @@ import androidx.compose.ui.graphics.luminance
 import androidx.compose.ui.layout.boundsInRoot
 import androidx.compose.ui.layout.layout
 import androidx.compose.ui.layout.onGloballyPositioned
+import androidx.compose.ui.layout.onSizeChanged
 import androidx.compose.ui.platform.LocalDensity
 import androidx.compose.ui.semantics.Role
 import androidx.compose.ui.semantics.role
@@ -49,9 +48,10 @@ import androidx.compose.ui.unit.em
 import androidx.compose.ui.zIndex
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
-import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlin.math.ceil
+import kotlin.math.floor
 import kotlin.math.roundToInt
 
 /*
@@ -318,7 +318,11 @@ private const val BAND_BASE_ROW = 1
 // actually dragged or flung the stack at least once - without that guard, whichever pill starts
 // out sitting at row 0 (the stack's own resting position, before any input) rendered ink from
 // the very first frame, reading as something already auto-selected.
-private class StackScroll(val modifier: Modifier, val offsetPx: Float, val alignedRow: Int)
+// [window] is the only rows a stack actually composes - see [visibleRows]. [offsetPx] is a
+// lambda, not a value, so a scroll frame is read inside each pill's graphicsLayer and never
+// recomposes the stack; [alignedRow] and [window] are derived states that only change (and only
+// recompose anything) when a row boundary is actually crossed.
+private class StackScroll(val modifier: Modifier, val offsetPx: () -> Float, val alignedRow: Int, val window: IntRange)
 
 @Composable
 private fun rememberStackScroll(rowMin: Int, rowMax: Int, resetKey: Any? = Unit): StackScroll {
@@ -333,6 +337,7 @@ private fun rememberStackScroll(rowMin: Int, rowMax: Int, resetKey: Any? = Unit)
     // from a scroll the new stack never had.
     var offsetPx by remember(resetKey) { mutableStateOf(0f) }
     var hasScrolled by remember(resetKey) { mutableStateOf(false) }
+    var viewportPx by remember { mutableStateOf(0) }
     // [offsetPx] is added on top of every pill's own already-correct resting `lift` (row R rests
     // at -pitchPx*R, so translationY = -pitchPx*R + offsetPx; row R lands exactly on the
     // breadcrumb, translationY 0, when offsetPx == +pitchPx*R - always non-negative, since every
@@ -361,13 +366,44 @@ private fun rememberStackScroll(rowMin: Int, rowMax: Int, resetKey: Any? = Unit)
         consumed
     }
     val flingBehavior = rememberSlotFlingBehavior(pitchPx = pitchPx) { offsetPx }
-    val modifier = Modifier.scrollable(
-        orientation = Orientation.Vertical,
-        state = scrollState,
-        flingBehavior = flingBehavior
-    )
-    val alignedRow = if (hasScrolled && pitchPx > 0f) (offsetPx / pitchPx).roundToInt() else -1
-    return StackScroll(modifier, offsetPx, alignedRow)
+    val modifier = Modifier
+        .onSizeChanged { viewportPx = it.height }
+        .scrollable(
+            orientation = Orientation.Vertical,
+            state = scrollState,
+            flingBehavior = flingBehavior
+        )
+    val alignedRow by remember(resetKey, pitchPx) {
+        derivedStateOf { if (hasScrolled && pitchPx > 0f) (offsetPx / pitchPx).roundToInt() else -1 }
+    }
+    val window by remember(resetKey, pitchPx, rowMin, rowMax) {
+        derivedStateOf(structuralEqualityPolicy()) { visibleRows(offsetPx, viewportPx, pitchPx, rowMin..rowMax) }
+    }
+    return StackScroll(modifier, { offsetPx }, alignedRow, window)
+}
+
+// Rows composed past either edge of the viewport. Enough to cover the furthest any entrance
+// carries a pill from its resting row (Deal's two pitches, Drop's 1.4) plus a fast fling's
+// worth of frames before the window catches up, so nothing is ever seen popping into place at
+// an edge. Split and Telescope also start every row down at row 0; for a stack taller than the
+// screen, rows outside this margin simply aren't there to be seen leaving it.
+private const val WINDOW_MARGIN_ROWS = 6
+// Before the first layout pass reports a real height - one frame - assume a tall phone's worth.
+private const val FALLBACK_VIEWPORT_ROWS = 40
+
+/**
+ * Which of a stack's rows are close enough to the visible slot window to be worth composing. Row
+ * R sits `pitchPx * R - offsetPx` above the stack's base, so the rows on screen run from
+ * `offsetPx / pitchPx` up to `(offsetPx + viewportPx) / pitchPx`. Everything outside that (plus
+ * [WINDOW_MARGIN_ROWS]) isn't composed at all - which is what lets a band hold every binary on
+ * PATH rather than a capped few hundred: the per-frame cost is the window's, not the band's.
+ */
+private fun visibleRows(offsetPx: Float, viewportPx: Int, pitchPx: Float, rows: IntRange): IntRange {
+    if (pitchPx <= 0f || rows.isEmpty()) return rows
+    val viewportRows = if (viewportPx > 0) ceil(viewportPx / pitchPx).toInt() else FALLBACK_VIEWPORT_ROWS
+    val first = floor(offsetPx / pitchPx).toInt() - WINDOW_MARGIN_ROWS
+    val last = first + viewportRows + 2 * WINDOW_MARGIN_ROWS + 1
+    return first.coerceAtLeast(rows.first)..last.coerceAtMost(rows.last)
 }
 
 /**
@@ -425,10 +461,11 @@ data class MenuNode(
     val cap: String? = null,
     val children: List<MenuNode> = emptyList(),
     // Resolves this node's real children on demand - a directory listing, a PATH scan - instead
-    // of a list fully materialized up front. Takes priority over [children] when present. Called
-    // once per navigation into this node (see PillMenu's `effectiveChildren`), not on every
-    // recomposition, since it can do real I/O.
-    val resolveChildren: (() -> List<MenuNode>)? = null,
+    // of a list fully materialized up front. Takes priority over [children] when present. A
+    // suspend provider, never called from composition itself: PillMenu runs it through its
+    // [ChildrenCache] off the main thread, showing a loading pill until it lands, and reuses the
+    // result on every later visit until the cache is invalidated - see ChildrenCache.kt.
+    val resolveChildren: (suspend () -> List<MenuNode>)? = null,
     // The token text this node contributes when picked, if different from what's shown on the
     // pill - e.g. a file leaf displays just its name but contributes its full path.
     val value: String? = null,
@@ -446,8 +483,18 @@ data class MenuNode(
     // onWizard fires only after the crumb has actually settled into the trail and reported its
     // position via onCrumbPositioned, instead of firing immediately like every other wizard.
     val settleBeforeWizard: Boolean = false,
+    // Non-null for a search result (see CommandIndex): the id path, root first, of the pill it
+    // stands for somewhere else in the tree. Picking it doesn't settle into this band's trail -
+    // PillMenu walks that path and lands there instead, that root open as host and the rest of
+    // the path settled as its trail, exactly as if it had been drilled into by hand.
+    val jumpTo: List<String>? = null,
 )
 
+/** The placeholder band shown while [ChildrenCache] is still resolving [anchorId]'s children -
+ *  purely a signal, never picked (its band is rendered non-interactive). */
+private fun loadingNode(anchorId: String): MenuNode =
+    MenuNode(id = "$anchorId/loading", label = "loading…", cap = "…", emitsToken = false)
+
 /** The literal command-line text this node contributes when picked, or null if it never does. */
 private fun MenuNode.tokenValue(): String? = if (emitsToken) (value ?: label) else null
 
@@ -473,7 +520,13 @@ fun PillMenu(
     onWizard: (wizardId: String) -> Unit = {},
     // Reports a trail crumb's on-screen rect (root coordinates) every time it's laid out - only
     // consumed by a settleBeforeWizard pick that needs to anchor an animation to it.
-    onCrumbPositioned: (id: String, rect: Rect) -> Unit = { _, _ -> }
+    onCrumbPositioned: (id: String, rect: Rect) -> Unit = { _, _ -> },
+    // Where resolveChildren results live between visits. Hoisted so the caller can invalidate a
+    // single node when its backing store changes without a whole-tree rebuild (see ChildrenCache).
+    childrenCache: ChildrenCache = remember { ChildrenCache() },
+    // Fired once each time a band fans out for a node - a root opened, or a pick drilled into -
+    // for a caller that wants to get ahead of what's about to be looked at.
+    onOpen: (MenuNode) -> Unit = {}
 ) {
     var phase by remember { mutableStateOf<Phase>(Phase.Browsing) }
     // Everything picked below the root host. Each pick drops out of the band it was chosen
@@ -491,6 +544,11 @@ fun PillMenu(
     // rows in the same arrival could disagree about which entrance they're playing. Root-only:
     // a child band keeps its own fixed cascade, unaffected by this roll.
     val entrance = remember(rootArrivalToken) { StackEntrance.roll() }
+    // One frame clock per arrival, shared by every root pill - see StackMotion.kt. A fresh one
+    // per arrival rather than one for the menu's whole life, so each arrival's entrance starts
+    // from its own zero instead of some leftover time the previous stack settled at.
+    val stackClock = remember(rootArrivalToken) { StackClock() }
+    LaunchedEffect(stackClock) { stackClock.drive() }
     val scope = rememberCoroutineScope()
 
     fun openHost(node: MenuNode) {
@@ -509,18 +567,67 @@ fun PillMenu(
         }
     }
 
+    // Resolved through the same cache every ordinary drill-in uses, so a result under a resolver
+    // (an apt package under `install`) costs the one catalog parse browsing there by hand would.
+    // A path that no longer resolves - the tree was rebuilt and that pill is gone - closes back to
+    // Browsing, the same way a vanished contextual host does below.
+    fun jumpTo(idPath: List<String>) {
+        scope.launch {
+            val root = roots.firstOrNull { it.id == idPath.firstOrNull() }
+            var at = root
+            val path = mutableListOf<MenuNode>()
+            for (id in idPath.drop(1)) {
+                at = at?.let { node -> childrenCache.resolve(scope, node).firstOrNull { it.id == id } }
+                at?.let { path += it }
+            }
+            // Same beat as an ordinary pick: let the picked result's own drop-and-grow play out
+            // before the whole stack swaps underneath it.
+            delay((Azphalt.DROP_MS + Azphalt.SWING_MS).toLong())
+            if (root == null || at == null) {
+                trail = emptyList()
+                tokens = emptyList()
+                phase = Phase.Browsing
+                rootArrivalToken++
+                return@launch
+            }
+            trail = path
+            tokens = path.mapNotNull { it.tokenValue() }
+            phase = Phase.Open(root.id)
+            // Never auto-runs, even when the path ends on a terminal leaf: a search result is a
+            // place to land, not a confirmation - `pkg install <name>` should still wait for RUN.
+            onRun(tokens, false)
+        }
+    }
+
     Box(modifier.fillMaxSize()) {
         when (val p = phase) {
             is Phase.Browsing, is Phase.Leaving -> {
                 val leavingHost = (p as? Phase.Leaving)?.hostId
+                val leaveAt = remember(stackClock, leavingHost) {
+                    leavingHost?.let { stackClock.mark(Azphalt.SLIDE_MS.toFloat()) }
+                }
+                // A root with a resolver of its own (Workflows) is as likely a next pick as any
+                // pill in an open band - start it now rather than on the tap.
+                LaunchedEffect(roots) { childrenCache.prefetch(scope, roots) }
                 val stackScroll = rememberStackScroll(
                     rowMin = 0,
                     rowMax = (roots.size - 1).coerceAtLeast(0),
                     resetKey = rootArrivalToken
                 )
 
+                // Every root's mark is taken up front, not when its pill first composes: a root
+                // outside the composed window would otherwise start its entrance whenever it was
+                // first scrolled to, long after the rest of the stack had arrived.
+                val rootMarks = remember(stackClock) { StackMarks(stackClock) }
+                remember(rootMarks, roots) { roots.forEach { rootMarks.of(it.id, entranceDurationMs(entrance, roots.size)) } }
+                val hostIndex = roots.indexOfFirst { it.id == leavingHost }
+
                 Box(Modifier.fillMaxSize().padding(bottom = 12.dp).then(stackScroll.modifier)) {
                     roots.forEachIndexed { i, node ->
+                        val inWindow = roots.size - 1 - i in stackScroll.window
+                        // The pill becoming the host stays composed whatever the window says - its
+                        // leave sweep is the hand-off HostPill picks up from.
+                        if (!inWindow && i != hostIndex) return@forEachIndexed
                         // Roots aren't always a fixed static list - a contextual entry like the
                         // suggestions host can appear or disappear between recompositions - so
                         // each pill's remembered animation state has to travel with its id, not
@@ -531,11 +638,10 @@ fun PillMenu(
                             StackPill(
                                 node = node,
                                 position = StackPillPosition(row, roots.size, stackScroll.offsetPx),
-                                arrival = StackPillArrival(entrance, rootArrivalToken),
+                                arrival = StackPillArrival(entrance, stackClock, rootMarks.of(node.id, 0f), leaveAt),
                                 phase = StackPillPhase(
                                     leaving = leavingHost != null,
                                     isHost = node.id == leavingHost,
-                                    entering = leavingHost == null,
                                     aligned = row == stackScroll.alignedRow
                                 ),
                                 onClick = { openHost(node) }
@@ -559,10 +665,20 @@ fun PillMenu(
                 } else {
                     val rowsBelow = roots.size - 1 - roots.indexOf(host)
                     val anchor = trail.lastOrNull() ?: host
-                    // Resolved once per anchor, not on every recomposition - resolveChildren can do
-                    // real I/O (a directory listing, a PATH scan), and remember(anchor.id) keeps
-                    // that to one call per navigation into this node.
-                    val effectiveChildren = remember(anchor.id) { anchor.resolveChildren?.invoke() ?: anchor.children }
+                    // Never resolved inline - resolveChildren can do real I/O (a directory
+                    // listing, a PATH scan, every apt index file). An already-cached (or
+                    // prefetched) result shows on the very first frame; anything else shows the
+                    // loading band below until ChildrenCache hands it back.
+                    var effectiveChildren by remember(anchor.id) { mutableStateOf(childrenCache.peek(anchor)) }
+                    LaunchedEffect(anchor.id) {
+                        onOpen(anchor)
+                        if (effectiveChildren == null) effectiveChildren = childrenCache.resolve(scope, anchor)
+                    }
+                    // The likely next picks out of this band - whichever of its own pills have a
+                    // resolver - start resolving while the band is still cascading in.
+                    LaunchedEffect(anchor.id, effectiveChildren) {
+                        effectiveChildren?.let { childrenCache.prefetch(scope, it) }
+                    }
                     // ChildBand's own `selected == null` check only guards against a second tap
                     // landing on one of ITS OWN sibling pills - it has no way to know about
                     // HostPill or TrailRow, which sit outside it and keep accepting taps for the
@@ -574,13 +690,21 @@ fun PillMenu(
                     // exactly when the next band takes over.
                     var pendingPick by remember(anchor.id) { mutableStateOf(false) }
 
-                    if (effectiveChildren.isNotEmpty()) {
+                    val children = effectiveChildren
+                    if (children == null) {
+                        key("${anchor.id}/loading") {
+                            ChildBand(children = listOf(loadingNode(anchor.id)), interactive = false, onPick = {})
+                        }
+                    } else if (children.isNotEmpty()) {
                         key(anchor.id) {
                             ChildBand(
-                                children = effectiveChildren,
+                                children = children,
                                 onPick = { child ->
                                     pendingPick = true
-                                    if (child.wizardId != null && child.settleBeforeWizard) {
+                                    childrenCache.recordPick(child)
+                                    if (child.jumpTo != null) {
+                                        jumpTo(child.jumpTo)
+                                    } else if (child.wizardId != null && child.settleBeforeWizard) {
                                         // This wizard anchors an animation to the crumb's actual
                                         // landing spot, so it can't fire until the crumb exists and
                                         // has reported its position - unlike every other wizard,
@@ -656,16 +780,22 @@ fun PillMenu(
 
 /** Which row this pill is, how many rows are in the stack, and the root stack's own scroll
  *  offset - bundled together (rather than a separate parameter) to keep [StackPill] under
- *  detekt's LongParameterList ceiling. See [StackEntranceMotion.play] for row/rowCount. */
-private data class StackPillPosition(val row: Int, val rowCount: Int, val scrollOffsetPx: Float)
-
-/** The stack-wide entrance roll and the arrival identity it was rolled against - see PillMenu's
- *  own `rootArrivalToken` comment for why the root stack needs an explicit identity here where a
- *  child band can just key on its anchor's id. */
-private data class StackPillArrival(val entrance: StackEntrance, val entranceKey: Int)
+ *  detekt's LongParameterList ceiling. See [entrancePoseAt] for row/rowCount. */
+private data class StackPillPosition(val row: Int, val rowCount: Int, val scrollOffsetPx: () -> Float)
+
+/** The stack-wide entrance roll, the clock every pill in this arrival is posed off, the mark this
+ *  pill's own entrance started at, and - once a host has been tapped - the mark the leaving sweep
+ *  started at. See PillMenu's own `rootArrivalToken` comment for why the root stack keys a fresh
+ *  clock per arrival where a child band can just key on its anchor's id. */
+private data class StackPillArrival(
+    val entrance: StackEntrance,
+    val clock: StackClock,
+    val bornAt: FloatState,
+    val leaveAt: FloatState?
+)
 
-/** The four booleans that describe where in the host hand-off this pill currently sits. */
-private data class StackPillPhase(val leaving: Boolean, val isHost: Boolean, val entering: Boolean, val aligned: Boolean)
+/** The three booleans that describe where in the host hand-off this pill currently sits. */
+private data class StackPillPhase(val leaving: Boolean, val isHost: Boolean, val aligned: Boolean)
 
 @Composable
 private fun StackPill(
@@ -676,11 +806,10 @@ private fun StackPill(
     onClick: () -> Unit
 ) {
     val (row, rowCount, scrollOffsetPx) = position
-    val (entrance, entranceKey) = arrival
-    // Not destructured (detekt caps that at 3 components) - read straight off the bundle instead.
+    // Not destructured (detekt caps that at 3 components) - read straight off the bundles instead.
+    val entrance = arrival.entrance
     val leaving = phase.leaving
     val isHost = phase.isHost
-    val entering = phase.entering
     val aligned = phase.aligned
     val restWidthFraction = if (isHost) HOST_WIDTH else rootWidthFraction(row)
     val target = when {
@@ -690,81 +819,42 @@ private fun StackPill(
     }
     val density = LocalDensity.current
     val pitchPx = with(density) { ROW_PITCH.toPx() }
-    // The row a pill rests on is now a fixed value, not an Animatable of its own - only a
-    // StackEntrance variant's own riseY (see StackEntranceMotion) supplies any vertical entrance
-    // motion, always settling back to 0, so translationY = restLift + riseY.value is correct on
-    // every frame without a LaunchedEffect keeping it in sync.
+    // The row a pill rests on is a fixed value - only a StackEntrance variant's own riseY (see
+    // entrancePoseAt) supplies any vertical entrance motion, always settling back to 0, so
+    // translationY = restLift + riseY is correct on every frame.
     val restLift = -pitchPx * row
     val geometry = StackRowGeometry(row, rowCount, pitchPx, restWidthFraction)
 
-    // `offset` doubles as the leaving sweep's own translateX and Stack Entrances' `slideX`
-    // (fraction of the pill's OWN width, per offsetByFractionOfParent's own semantics - it runs
-    // after fillMaxWidth in this modifier chain, so its `constraints.maxWidth` is already this
-    // pill's own target width, not the full screen's).
-    // Keyed on entranceKey, not left unkeyed: `key(node.id)` above keeps the same root pill's
-    // composable slot alive across an entire open-then-back-to-Browsing cycle, so an unkeyed
-    // remember here only ever seeds StackEntranceMotion's initial pose once, the very first time
-    // this node is ever composed - every later re-arrival (closing an open category back to
-    // Browsing is the everyday case, not a rare one) reused that same instance, already settled
-    // at its previous entrance's rest pose, and depended on the entrance LaunchedEffect's own
-    // async snapTo() to hide it again - reintroducing the exact flash this seeding exists to
-    // prevent, just on every re-arrival after the first instead of on first mount.
-    val motion = remember(entranceKey) { StackEntranceMotion(initialPoseFor(entering, entrance, row, geometry)) }
-    val sway = remember { Animatable(0f) } // degrees, additive wobble - see PillWobble.kt
-
-    // Keyed on the stack's own arrival identity (entranceKey), not `entering` alone: a pill
-    // composed while already resting must still animate when a later stack arrives with a new
-    // entrance (audit bug B1's fix, generalised - `remember` seeding from a value that changes is
-    // the trap here, not any one Animatable in particular).
-    LaunchedEffect(leaving, entering, entrance, entranceKey) {
-        motion.enterOrLeave(entering, entrance, target, geometry, sway)
-    }
-    LaunchedEffect(entering, entrance, entranceKey) {
-        playStackSway(sway, entering, entrance, row)
-    }
+    // bornAt comes from PillMenu's per-arrival StackMarks rather than being remembered here: the
+    // marks are keyed on the arrival's own clock, so every re-arrival replays the entrance, and
+    // they outlive this pill's own composition, so scrolling it out of the window and back never
+    // restarts it. A root that first appears mid-visit (the suggestion host) gets a mark of its
+    // own at that point, so it still plays the stack's entrance rather than popping in at rest.
+    val timeline = StackPillTimeline(entrance, geometry, arrival.clock, arrival.bornAt, arrival.leaveAt, target)
 
     StackPillVisual(
         StackPillContext(node, row, restWidthFraction, restLift, scrollOffsetPx, leaving, isHost, aligned, entrance),
-        motion,
-        sway,
+        timeline,
         onClick
     )
 }
 
-/** One row's worth of the geometry a [StackEntrance] variant needs - see [StackEntranceMotion.play]. */
+/** One row's worth of the geometry a [StackEntrance] variant needs - see [entrancePoseAt]. */
 private data class StackRowGeometry(val row: Int, val rowCount: Int, val pitchPx: Float, val restWidthFraction: Float)
 
-/** Everything [StackPillVisual] needs besides the two Animatable bundles - see its own doc. */
+/** Everything [StackPillVisual] needs besides the timeline - see its own doc. */
 private data class StackPillContext(
     val node: MenuNode,
     val row: Int,
     val restWidthFraction: Float,
     val restLift: Float,
-    val scrollOffsetPx: Float,
+    val scrollOffsetPx: () -> Float,
     val leaving: Boolean,
     val isHost: Boolean,
     val aligned: Boolean,
     val entrance: StackEntrance
 )
 
-// The wobble accompanies any entrance that travels as a pile. Three are excluded, for the same
-// reason: Unfold does not move at all, while Cascade and Deal move one row at a time. A sway
-// needs a pile in motion together; a single pill swinging alone has nothing to sway against.
-private suspend fun playStackSway(
-    sway: Animatable<Float, AnimationVector1D>,
-    entering: Boolean,
-    entrance: StackEntrance,
-    row: Int
-) {
-    if (!entering) return
-    val amplitudeScale = when (entrance) {
-        StackEntrance.Unfold, StackEntrance.Cascade, StackEntrance.Deal -> return
-        StackEntrance.Rally -> 2f
-        else -> 1f
-    }
-    sway.wobble(row, Azphalt.SLIDE_MS, amplitudeScale)
-}
-
 // The vertical component of every "pivot on the right (or left) tip" TransformOrigin below -
 // dead centre of the pill's own height, never the top or bottom edge.
 private const val ORIGIN_CENTER_Y = .5f
@@ -772,8 +862,7 @@ private const val ORIGIN_CENTER_Y = .5f
 @Composable
 private fun StackPillVisual(
     ctx: StackPillContext,
-    motion: StackEntranceMotion,
-    sway: Animatable<Float, AnimationVector1D>,
+    timeline: StackPillTimeline,
     onClick: () -> Unit
 ) {
     Box(Modifier.fillMaxSize()) {
@@ -793,10 +882,13 @@ private fun StackPillVisual(
                 // HostPill renders once this phase completes, or `target`'s offset below (derived
                 // assuming HOST_WIDTH) lands the wrong row's right edge somewhere other than
                 // HOST_RIGHT_EDGE and then visibly pops into place the instant HostPill takes over.
-                .fillMaxWidth(ctx.restWidthFraction * motion.lenFrac.value)
-                .offsetByFractionOfParent(motion.offset.value)
+                // Read at measure time, not composition: Unfold and Split animate real width (a
+                // scaleX would squash the label at the capsule's right end), so they relayout this
+                // one pill per frame - every other variant never reads the clock here at all.
+                .fillMaxWidthOf { ctx.restWidthFraction * timeline.lenFracNow() }
                 .absoluteBleed(OVERHANG)
                 .graphicsLayer {
+                    val pose = timeline.poseNow()
                     transformOrigin = when (ctx.entrance) {
                         StackEntrance.Deal -> TransformOrigin(1f, 1f) // hinged bottom-right
                         StackEntrance.Cascade ->
@@ -807,26 +899,25 @@ private fun StackPillVisual(
                             }
                         else -> TransformOrigin(1f, ORIGIN_CENTER_Y) // the visible right end
                     }
-                    rotationZ = motion.turn.value + motion.tilt.value + sway.value
-                    translationY = ctx.restLift + motion.riseY.value + ctx.scrollOffsetPx
-                    alpha = motion.alpha.value
+                    rotationZ = pose.turn + pose.tilt + timeline.swayNow()
+                    // `offset` is a fraction of the pill's own resting width - what
+                    // offsetByFractionOfParent used to place it by, before this moved out of
+                    // layout. The layer is that width plus absoluteBleed's own overhang.
+                    translationX = pose.offset * (size.width - OVERHANG.toPx())
+                    translationY = ctx.restLift + pose.riseY + ctx.scrollOffsetPx()
+                    alpha = pose.alpha
                 }
                 .clickable(enabled = !ctx.leaving, onClick = onClick)
         )
     }
 }
 
-/**
- * The five Animatables a [StackEntrance] variant can drive for one [StackPill], bundled so
- * [play] - and every per-variant function it dispatches to - stays a short, single-purpose
- * function instead of one function switching on all eight variants at once.
- */
 // How far off the pill's own width a slide starts/ends, as a fraction of it - comfortably clear
 // of the bled-left/right edges regardless of row width.
 private const val OFFSCREEN_FRACTION = 1.7f
 private const val SLIDE_CORRECT_MS = 90 // Slide's own top-row correction window
 private const val SLIDE_OVERSHOOT_FRACTION = 0.06f // of a row pitch, past the resting slot
-private const val UNFOLD_STAGGER_MS = 26L // per-row delay, bottom to top
+private const val UNFOLD_STAGGER_MS = 26 // per-row delay, bottom to top
 private const val DROP_START_MULTIPLIER = 1.4f // of a row pitch, above the resting row
 private const val DROP_SHORT_FRACTION = 0.04f // of a row pitch, short of the resting row
 private const val DROP_SETTLE_MS = 60
@@ -837,15 +928,14 @@ private const val DEAL_START_Y_MULTIPLIER = 2f
 private const val DEAL_TILT_DEG = 18f
 private const val TELESCOPE_STEP_MS = 120
 
-/** A [StackEntranceMotion]'s five Animatables, as plain values - see [initialPoseFor]. Defaults
- *  are the at-rest pose (nothing displaced), the correct starting point for a pill that mounts
- *  already [StackPillPhase.entering] false. */
+/** One root pill's pose at one instant. Defaults are the at-rest pose (nothing displaced). */
 private data class StackEntrancePose(
+    // Fraction of the pill's own resting width - see StackPillVisual's translationX.
     val offset: Float = 0f,
-    val riseY: Float = 0f,
-    val lenFrac: Float = 1f,
-    val turn: Float = 0f,
-    val tilt: Float = 0f,
+    val riseY: Float = 0f, // px, added to the pill's resting row lift
+    val lenFrac: Float = 1f, // fraction of the pill's own resting width
+    val turn: Float = 0f, // degrees
+    val tilt: Float = 0f, // degrees
     // 1f (fully visible) for every variant except Cascade/Telescope: those two are the only ones
     // that "hide" a waiting row by parking it at the row below's own position rather than off-
     // canvas or at zero width - a trick that never actually worked, since rotating a full 360°
@@ -861,224 +951,176 @@ private data class StackEntrancePose(
 )
 
 /**
- * The pose a [StackEntrance] variant's own `play*` function snaps to before it starts animating -
- * mirrored here as a pure function so [StackPill] can seed [StackEntranceMotion]'s Animatables
- * with it directly, at construction, instead of leaving them at their own generic defaults (the
- * pill's fully-visible, at-rest pose) for the frame or two between first composition and this
- * pill's own entrance [LaunchedEffect] actually reaching its first `snapTo()` call. That gap was
- * a real, visible one: every pill in a freshly-arrived stack would flash into view at its final
- * row position - "hidden behind each other" only after the animation caught up with itself,
- * rather than from the very first frame. Each `play*` function's own `snapTo()` calls are left in
- * place as a harmless no-op safety net (they re-set the same value this function already seeded),
- * so the two can never drift into disagreement silently - a changed starting pose only has one
- * place, this function, that actually needs updating.
+ * Everything one root pill's graphicsLayer needs to pose itself off its stack's [StackClock].
+ * Plain, not remembered: rebuilt on every composition of [StackPill], which - now that nothing
+ * here is read during composition - only happens when the stack itself changes, never per frame.
  */
-private fun initialPoseFor(entering: Boolean, entrance: StackEntrance, row: Int, geometry: StackRowGeometry): StackEntrancePose {
-    if (!entering) return StackEntrancePose()
-    val pitchPx = geometry.pitchPx
-    return when (entrance) {
-        StackEntrance.Slide -> StackEntrancePose(offset = -OFFSCREEN_FRACTION)
-        StackEntrance.Unfold -> StackEntrancePose(lenFrac = 0f)
-        StackEntrance.Drop -> StackEntrancePose(riseY = -pitchPx * DROP_START_MULTIPLIER)
-        StackEntrance.Cascade -> StackEntrancePose(
-            riseY = pitchPx,
-            turn = if (row % 2 == 0) -CASCADE_TURN_DEG else CASCADE_TURN_DEG,
-            alpha = 0f
-        )
-        StackEntrance.Deal -> StackEntrancePose(
-            offset = DEAL_START_X_FRACTION,
-            riseY = pitchPx * DEAL_START_Y_MULTIPLIER,
-            tilt = DEAL_TILT_DEG
-        )
-        StackEntrance.Split -> StackEntrancePose(
-            offset = -OFFSCREEN_FRACTION,
-            riseY = pitchPx * row,
-            lenFrac = HOST_WIDTH / geometry.restWidthFraction
-        )
-        StackEntrance.Telescope ->
-            if (row == 0) {
-                StackEntrancePose(offset = -OFFSCREEN_FRACTION)
-            } else {
-                StackEntrancePose(riseY = pitchPx * row, alpha = 0f)
-            }
-        StackEntrance.Rally -> StackEntrancePose(offset = if (row % 2 == 0) -OFFSCREEN_FRACTION else OFFSCREEN_FRACTION)
-    }
-}
-
-private class StackEntranceMotion(pose: StackEntrancePose) {
-    // Fraction of the pill's own width - see StackPill's own comment on why offsetByFractionOfParent
-    // makes that true, not full-screen fraction.
-    val offset = Animatable(pose.offset)
-    val riseY = Animatable(pose.riseY) // px, added to the pill's resting row lift
-    val lenFrac = Animatable(pose.lenFrac) // fraction of the pill's own resting width
-    val turn = Animatable(pose.turn) // degrees
-    val tilt = Animatable(pose.tilt) // degrees
-    val alpha = Animatable(pose.alpha) // 0..1, see StackEntrancePose's own doc comment
+private class StackPillTimeline(
+    private val entrance: StackEntrance,
+    private val geometry: StackRowGeometry,
+    private val clock: StackClock,
+    private val bornAt: FloatState,
+    private val leaveAt: FloatState?,
+    private val leaveTarget: Float
+) {
+    private val entranceMs = entranceDurationMs(entrance, geometry.rowCount)
 
     /**
-     * The exit never varies - always the same sweep left, whichever entrance brought this pill
-     * in - so this is also where a pill leaving mid-entrance (a host tapped again before a slow
-     * entrance like Drop's wobble has settled) gets reset: a stray riseY/turn/tilt left over from
+     * The exit never varies - always the same sweep, whichever entrance brought this pill in - so
+     * a pill leaving mid-entrance (a host tapped again before a slow entrance like Drop's has
+     * settled) drops every other channel straight to rest: a stray riseY/turn/tilt left over from
      * the interrupted entrance would otherwise leave the pill visibly off its row while it sweeps
-     * away. (Folded into one function rather than a separate resetToRest(), to keep this class's
-     * own function count under detekt's TooManyFunctions ceiling.)
+     * away. Only the offset carries over, from wherever the entrance had it at the moment of the tap.
      */
-    suspend fun enterOrLeave(
-        entering: Boolean,
-        entrance: StackEntrance,
-        leaveTarget: Float,
-        geometry: StackRowGeometry,
-        sway: Animatable<Float, AnimationVector1D>
-    ) {
-        if (!entering) {
-            riseY.snapTo(0f)
-            lenFrac.snapTo(1f)
-            turn.snapTo(0f)
-            tilt.snapTo(0f)
-            alpha.snapTo(1f)
-            sway.snapTo(0f)
-            offset.animateTo(leaveTarget, tween(Azphalt.SLIDE_MS, easing = LinearEasing))
-            return
+    fun poseNow(): StackEntrancePose {
+        val leave = leaveAt ?: return entrancePoseAt(entrance, geometry, clock.elapsedSince(bornAt.floatValue, entranceMs))
+        val leftAtMs = leave.floatValue
+        val enteredForMs = when {
+            bornAt.floatValue.isNaN() -> 0f
+            leftAtMs.isNaN() -> clock.elapsedSince(bornAt.floatValue, entranceMs)
+            else -> (leftAtMs - bornAt.floatValue).coerceIn(0f, entranceMs)
         }
-        play(entrance, geometry)
+        val from = entrancePoseAt(entrance, geometry, enteredForMs).offset
+        val slide = Azphalt.SLIDE_MS.toFloat()
+        return StackEntrancePose(offset = mix(from, leaveTarget, progress(clock.elapsedSince(leftAtMs, slide), 0f, slide)))
     }
 
-    private suspend fun play(entrance: StackEntrance, geometry: StackRowGeometry) {
-        // Not destructured (detekt caps that at 3 components) - read straight off the bundle.
-        val row = geometry.row
-        val rowCount = geometry.rowCount
-        val pitchPx = geometry.pitchPx
-        val restWidthFraction = geometry.restWidthFraction
-        when (entrance) {
-            StackEntrance.Slide -> playSlide(row, rowCount)
-            StackEntrance.Unfold -> playUnfold(row)
-            StackEntrance.Drop -> playDrop(pitchPx)
-            StackEntrance.Cascade -> playCascade(row, rowCount, pitchPx)
-            StackEntrance.Deal -> playDeal(row, rowCount, pitchPx)
-            StackEntrance.Split -> playSplit(row, pitchPx, restWidthFraction)
-            StackEntrance.Telescope -> playTelescope(row, rowCount, pitchPx)
-            StackEntrance.Rally -> playRally(row)
-        }
+    fun lenFracNow(): Float {
+        if (leaveAt != null || (entrance != StackEntrance.Unfold && entrance != StackEntrance.Split)) return 1f
+        return poseNow().lenFrac
     }
 
-    private suspend fun playSlide(row: Int, rowCount: Int) {
-        val slide = Azphalt.SLIDE_MS
-        offset.snapTo(-OFFSCREEN_FRACTION)
-        if (row == rowCount - 1) {
-            // The top row alone leaves late and overshoots, correcting once it has landed - the
-            // one piece of character in an otherwise rigid, one-clock arrival (Amendment 7: no
-            // per-row stagger here - that belongs to Cascade).
-            offset.animateTo(0f, keyframes {
-                durationMillis = slide + SLIDE_CORRECT_MS
-                -OFFSCREEN_FRACTION at 0 using LinearEasing
-                SLIDE_OVERSHOOT_FRACTION at slide using LinearEasing
-                0f at slide + SLIDE_CORRECT_MS
-            })
-        } else {
-            offset.animateTo(0f, tween(slide, easing = LinearEasing))
+    // The wobble accompanies any entrance that travels as a pile. Three are excluded, for the same
+    // reason: Unfold does not move at all, while Cascade and Deal move one row at a time. A sway
+    // needs a pile in motion together; a single pill swinging alone has nothing to sway against.
+    fun swayNow(): Float {
+        if (leaveAt != null) return 0f
+        val amplitudeScale = when (entrance) {
+            StackEntrance.Unfold, StackEntrance.Cascade, StackEntrance.Deal -> return 0f
+            StackEntrance.Rally -> 2f
+            else -> 1f
         }
-    }
-
-    private suspend fun playUnfold(row: Int) {
-        // Length only, so nothing wobbles. `offset` stays 0 (its resting value) the whole time -
-        // the pill is anchored at its own LEFT edge (the end that bleeds offscreen in the real
-        // menu) via offsetByFractionOfParent(0), and lenFrac scales the width from that fixed
-        // left edge, so the right tip is what advances. Anchoring at the right tip instead would
-        // make the tip the fixed point and the offscreen edge would travel - invisible, reading
-        // as nothing happening.
-        lenFrac.snapTo(0f)
-        delay(row * UNFOLD_STAGGER_MS)
-        lenFrac.animateTo(1f, tween(Azphalt.UNFOLD_MS, easing = Azphalt.PAGE_EASE))
-    }
-
-    private suspend fun playDrop(pitchPx: Float) {
         val slide = Azphalt.SLIDE_MS
-        riseY.snapTo(-pitchPx * DROP_START_MULTIPLIER)
-        // Stops short by 4% of a row pitch; the wobble (StackPill's own sway) resolves the
-        // remainder - the one entrance where the sway is load-bearing rather than decorative.
-        riseY.animateTo(pitchPx * DROP_SHORT_FRACTION, tween(slide, easing = LinearEasing))
-        riseY.animateTo(0f, tween(DROP_SETTLE_MS, easing = LinearEasing))
+        return wobbleAt(geometry.row, slide, clock.elapsedSince(bornAt.floatValue, slide.toFloat()), amplitudeScale)
     }
+}
 
-    private suspend fun playCascade(row: Int, rowCount: Int, pitchPx: Float) {
-        // The child hinge, applied to roots. Strictly sequential: a row does not begin until the
-        // one below it finishes.
-        val step = stackInterval(Azphalt.SWING_MS, rowCount)
-        riseY.snapTo(pitchPx) // stacked on the row below
-        turn.snapTo(if (row % 2 == 0) -CASCADE_TURN_DEG else CASCADE_TURN_DEG)
-        alpha.snapTo(0f) // genuinely hidden - see StackEntrancePose's own doc comment
-        delay(row * step.toLong())
-        coroutineScope {
-            launch { turn.animateTo(0f, tween(step, easing = LinearEasing)) }
-            launch {
-                // Lift folded into the final tenth, so turn and lift land on one frame.
-                riseY.animateTo(0f, keyframes {
-                    durationMillis = step
-                    pitchPx at 0 using LinearEasing
-                    pitchPx at (step * Azphalt.LIFT_FRACTION).toInt() using LinearEasing
-                    0f at step
-                })
-            }
-            launch {
-                // Fades in as soon as the turn actually starts unwinding, not held until the
-                // final-tenth lift - holding it that long hid the swing itself, the one thing
-                // this entrance exists to show, and left only a pop at the very end to look at.
-                alpha.animateTo(1f, tween((step * Azphalt.REVEAL_FRACTION).toInt(), easing = LinearEasing))
-            }
-        }
+/** How long a whole [entrance] runs across [rowCount] rows, sway included - past this, every
+ *  row's [entrancePoseAt] is its rest pose and the stack's clock can stop. */
+private fun entranceDurationMs(entrance: StackEntrance, rowCount: Int): Float {
+    val slide = Azphalt.SLIDE_MS
+    val rows = rowCount.coerceAtLeast(1)
+    val ms = when (entrance) {
+        StackEntrance.Slide -> slide + SLIDE_CORRECT_MS
+        StackEntrance.Unfold -> (rows - 1) * UNFOLD_STAGGER_MS + Azphalt.UNFOLD_MS
+        StackEntrance.Drop -> slide + DROP_SETTLE_MS
+        StackEntrance.Cascade -> rows * stackInterval(Azphalt.SWING_MS, rowCount)
+        StackEntrance.Deal -> (rows + 1) * stackInterval(DEAL_STEP_MS, rowCount)
+        StackEntrance.Split -> slide * 2
+        StackEntrance.Telescope -> slide + (rows - 1) * stackInterval(TELESCOPE_STEP_MS, rowCount)
+        StackEntrance.Rally -> slide
     }
+    return maxOf(ms, slide).toFloat()
+}
 
-    private suspend fun playDeal(row: Int, rowCount: Int, pitchPx: Float) {
-        val step = stackInterval(DEAL_STEP_MS, rowCount)
-        offset.snapTo(DEAL_START_X_FRACTION)
-        riseY.snapTo(pitchPx * DEAL_START_Y_MULTIPLIER)
-        tilt.snapTo(DEAL_TILT_DEG)
-        delay(row * step.toLong())
-        coroutineScope {
-            launch { offset.animateTo(0f, tween(step * 2, easing = LinearEasing)) }
-            launch { riseY.animateTo(0f, tween(step * 2, easing = LinearEasing)) }
-            launch { tilt.animateTo(0f, tween(step * 2, easing = LinearEasing)) }
+/**
+ * Where a [StackEntrance] variant has one row [tMs] into its arrival - each variant's tweens and
+ * keyframes evaluated at that instant rather than played. At tMs = 0 this is the variant's
+ * starting pose, which is what a freshly arrived stack renders on its very first frame: no gap
+ * between composition and the first animation step where every pill could flash into view at
+ * its final row position before the entrance caught up with itself.
+ */
+private fun entrancePoseAt(entrance: StackEntrance, geometry: StackRowGeometry, tMs: Float): StackEntrancePose {
+    val row = geometry.row
+    val pitchPx = geometry.pitchPx
+    val slide = Azphalt.SLIDE_MS.toFloat()
+    return when (entrance) {
+        StackEntrance.Slide -> slidePoseAt(row, geometry.rowCount, tMs)
+        // Length only, so nothing wobbles. `offset` stays 0 the whole time - the pill is anchored
+        // at its own LEFT edge (the end that bleeds offscreen in the real menu), and lenFrac
+        // scales the width from that fixed left edge, so the right tip is what advances.
+        // Anchoring at the right tip instead would make the tip the fixed point and the offscreen
+        // edge would travel - invisible, reading as nothing happening.
+        StackEntrance.Unfold -> StackEntrancePose(
+            lenFrac = Azphalt.PAGE_EASE.transform(progress(tMs, (row * UNFOLD_STAGGER_MS).toFloat(), Azphalt.UNFOLD_MS.toFloat()))
+        )
+        // Stops short by 4% of a row pitch before settling; the sway (swayNow) is what resolves the
+        // remainder - the one entrance where the sway is load-bearing rather than decorative.
+        StackEntrance.Drop -> StackEntrancePose(
+            riseY = keyframesAt(
+                tMs,
+                0f, -pitchPx * DROP_START_MULTIPLIER,
+                slide, pitchPx * DROP_SHORT_FRACTION,
+                slide + DROP_SETTLE_MS, 0f
+            )
+        )
+        StackEntrance.Cascade -> cascadePoseAt(geometry, tMs)
+        StackEntrance.Deal -> {
+            val step = stackInterval(DEAL_STEP_MS, geometry.rowCount).toFloat()
+            val f = progress(tMs, row * step, step * 2)
+            StackEntrancePose(
+                offset = mix(DEAL_START_X_FRACTION, 0f, f),
+                riseY = mix(pitchPx * DEAL_START_Y_MULTIPLIER, 0f, f),
+                tilt = mix(DEAL_TILT_DEG, 0f, f)
+            )
         }
-    }
-
-    private suspend fun playSplit(row: Int, pitchPx: Float, restWidthFraction: Float) {
         // Enters as ONE pill at host width on row 0, then divides upward.
-        val slide = Azphalt.SLIDE_MS
-        offset.snapTo(-OFFSCREEN_FRACTION)
-        riseY.snapTo(pitchPx * row)
-        lenFrac.snapTo(HOST_WIDTH / restWidthFraction)
-        offset.animateTo(0f, tween(slide, easing = LinearEasing))
-        coroutineScope {
-            launch { riseY.animateTo(0f, tween(slide, easing = LinearEasing)) }
-            launch { lenFrac.animateTo(1f, tween(slide, easing = LinearEasing)) }
+        StackEntrance.Split -> {
+            val divide = progress(tMs, slide, slide)
+            StackEntrancePose(
+                offset = mix(-OFFSCREEN_FRACTION, 0f, progress(tMs, 0f, slide)),
+                riseY = mix(pitchPx * row, 0f, divide),
+                lenFrac = mix(HOST_WIDTH / geometry.restWidthFraction, 1f, divide)
+            )
         }
+        StackEntrance.Telescope -> telescopePoseAt(geometry, tMs)
+        // Alternate sides, one clock, no stagger. Struck from both directions, so swayNow runs at
+        // double amplitude.
+        StackEntrance.Rally -> StackEntrancePose(
+            offset = mix(if (row % 2 == 0) -OFFSCREEN_FRACTION else OFFSCREEN_FRACTION, 0f, progress(tMs, 0f, slide))
+        )
     }
+}
 
-    private suspend fun playTelescope(row: Int, rowCount: Int, pitchPx: Float) {
-        val slide = Azphalt.SLIDE_MS
-        val step = stackInterval(TELESCOPE_STEP_MS, rowCount)
-        if (row == 0) {
-            offset.snapTo(-OFFSCREEN_FRACTION)
-            offset.animateTo(0f, tween(slide, easing = LinearEasing))
-        } else {
-            // Drawn out from behind the row below, already at final length.
-            riseY.snapTo(pitchPx * row)
-            alpha.snapTo(0f) // genuinely hidden - see StackEntrancePose's own doc comment
-            delay(slide + (row - 1) * step.toLong())
-            coroutineScope {
-                launch { riseY.animateTo(0f, tween(step, easing = LinearEasing)) }
-                launch { alpha.animateTo(1f, tween(step, easing = LinearEasing)) }
-            }
-        }
+private fun slidePoseAt(row: Int, rowCount: Int, tMs: Float): StackEntrancePose {
+    val slide = Azphalt.SLIDE_MS.toFloat()
+    // The top row alone leaves late and overshoots, correcting once it has landed - the one
+    // piece of character in an otherwise rigid, one-clock arrival (Amendment 7: no per-row
+    // stagger here - that belongs to Cascade).
+    val offset = if (row == rowCount - 1) {
+        keyframesAt(tMs, 0f, -OFFSCREEN_FRACTION, slide, SLIDE_OVERSHOOT_FRACTION, slide + SLIDE_CORRECT_MS, 0f)
+    } else {
+        mix(-OFFSCREEN_FRACTION, 0f, progress(tMs, 0f, slide))
     }
+    return StackEntrancePose(offset = offset)
+}
 
-    private suspend fun playRally(row: Int) {
-        // Alternate sides, one clock, no stagger. Struck from both directions, so StackPill's
-        // own sway runs at double amplitude.
-        val slide = Azphalt.SLIDE_MS
-        offset.snapTo(if (row % 2 == 0) -OFFSCREEN_FRACTION else OFFSCREEN_FRACTION)
-        offset.animateTo(0f, tween(slide, easing = LinearEasing))
-    }
+private fun cascadePoseAt(geometry: StackRowGeometry, tMs: Float): StackEntrancePose {
+    // The child hinge, applied to roots. Strictly sequential: a row does not begin until the one
+    // below it finishes. Until then it sits stacked on the row below, turned, and hidden.
+    val row = geometry.row
+    val pitchPx = geometry.pitchPx
+    val step = stackInterval(Azphalt.SWING_MS, geometry.rowCount).toFloat()
+    val start = row * step
+    return StackEntrancePose(
+        turn = mix(if (row % 2 == 0) -CASCADE_TURN_DEG else CASCADE_TURN_DEG, 0f, progress(tMs, start, step)),
+        // Lift folded into the final tenth, so turn and lift land on one frame.
+        riseY = keyframesAt(tMs, start + step * Azphalt.LIFT_FRACTION, pitchPx, start + step, 0f),
+        // Fades in as soon as the turn actually starts unwinding, not held until the final-tenth
+        // lift - holding it that long hid the swing itself, the one thing this entrance exists to
+        // show, and left only a pop at the very end to look at.
+        alpha = progress(tMs, start, step * Azphalt.REVEAL_FRACTION)
+    )
+}
+
+private fun telescopePoseAt(geometry: StackRowGeometry, tMs: Float): StackEntrancePose {
+    val row = geometry.row
+    val slide = Azphalt.SLIDE_MS.toFloat()
+    if (row == 0) return StackEntrancePose(offset = mix(-OFFSCREEN_FRACTION, 0f, progress(tMs, 0f, slide)))
+    // Drawn out from behind the row below, already at final length.
+    val step = stackInterval(TELESCOPE_STEP_MS, geometry.rowCount).toFloat()
+    val f = progress(tMs, slide + (row - 1) * step, step)
+    return StackEntrancePose(riseY = mix(geometry.pitchPx * row, 0f, f), alpha = f)
 }
 
 @Composable
@@ -1129,7 +1171,10 @@ private fun HostPill(node: MenuNode, rowsBelow: Int, onClick: () -> Unit) {
 @Composable
 private fun ChildBand(
     children: List<MenuNode>,
-    onPick: (MenuNode) -> Unit
+    onPick: (MenuNode) -> Unit,
+    // False only for the loading placeholder band - it cascades in like any other band, but a
+    // tap on it must not start the pick hand-off for a pill that stands for nothing.
+    interactive: Boolean = true
 ) {
     // No key needed here - the call site already wraps this whole band in key(anchor.id), so a
     // new anchor tears down and recreates this state automatically.
@@ -1138,20 +1183,41 @@ private fun ChildBand(
         rowMin = BAND_BASE_ROW,
         rowMax = (BAND_BASE_ROW + children.size - 1).coerceAtLeast(BAND_BASE_ROW)
     )
+    // The one clock every pill in this band is posed off - see StackMotion.kt. The pick's mark is
+    // shared too: the picked pill's drop and every sibling's leave start on the same frame.
+    val clock = remember { StackClock() }
+    LaunchedEffect(clock) { clock.drive() }
+    val pickAt = remember(selected) {
+        selected?.let { clock.mark(maxOf(Azphalt.DROP_MS, Azphalt.SLIDE_MS).toFloat()) }
+    }
+    // Marked for the whole band at once, the same frame, whether or not a pill is in the composed
+    // window yet - so row 200 scrolled into view is exactly as far through its cascade as it would
+    // have been had it been composed all along, rather than starting its own delay from the moment
+    // it appeared.
+    val marks = remember(clock) { StackMarks(clock) }
+    val stepMs = childCascadeStepMs(children.size)
+    remember(marks, children) {
+        children.forEachIndexed { idx, child -> marks.of(child.id, ChildPillTimeline.durationMs(idx, stepMs)) }
+    }
+    val selectedIndex = children.indexOfFirst { it.id == selected }
+    val window = stackScroll.window
 
     Box(Modifier.fillMaxSize().then(stackScroll.modifier)) {
-        children.forEachIndexed { idx, child ->
+        // Only the window's own indices are even visited - the band can be thousands long.
+        val indices = (window.first - BAND_BASE_ROW)..(window.last - BAND_BASE_ROW)
+        val composed = if (selectedIndex < 0 || selectedIndex in indices) indices.asIterable() else indices + selectedIndex
+        for (idx in composed) {
+            val child = children.getOrNull(idx) ?: continue
             key(child.id) {
                 val isSelected = child.id == selected
                 ChildPill(
                     node = child,
                     localIndex = idx,
                     scrollOffsetPx = stackScroll.offsetPx,
-                    leaving = selected != null && !isSelected,
-                    droppingOut = isSelected,
+                    hand = ChildPillHand(clock, marks.of(child.id, 0f), pickAt, selected != null && !isSelected, isSelected, stepMs),
                     alignedRow = stackScroll.alignedRow,
                     onClick = {
-                        if (selected == null) {
+                        if (interactive && selected == null) {
                             selected = child.id
                             onPick(child)
                         }
@@ -1162,13 +1228,137 @@ private fun ChildBand(
     }
 }
 
+/** The band's shared clock, this pill's entrance mark and the band's pick mark, which side of that
+ *  pick this pill is on, and the band's cascade step - bundled to keep [ChildPill] under detekt's
+ *  LongParameterList ceiling. */
+private data class ChildPillHand(
+    val clock: StackClock,
+    val bornAt: FloatState,
+    val pickAt: FloatState?,
+    val leaving: Boolean,
+    val droppingOut: Boolean,
+    val cascadeStepMs: Float
+)
+
+// However long the band, its cascade has this long to finish starting - a band of a few hundred
+// binaries would otherwise keep its lower rows hidden (and the clock ticking) for most of a minute.
+private const val CHILD_CASCADE_BUDGET_MS = 8f * Azphalt.SWING_MS
+
+/** Delay between one child's entrance and the next in a band of [count]: a full swing apiece
+ *  while the band is short, then [CHILD_CASCADE_BUDGET_MS] shared out between them. */
+private fun childCascadeStepMs(count: Int): Float =
+    minOf(Azphalt.SWING_MS.toFloat(), CHILD_CASCADE_BUDGET_MS / count.coerceAtLeast(1))
+
+private const val CHILD_TURN_DEG = 360f
+// Where the hinge has unwound to by the time the final-tenth lift starts.
+private const val CHILD_TURN_HELD_DEG = 36f
+private const val LEAVE_OFFSET_FRACTION = -1.7f
+private const val DROP_GROW_SCALE = 1.15f
+
+/** One child pill's pose at one instant - see [ChildPillTimeline]. */
+private data class ChildPillPose(
+    val turn: Float,
+    val lift: Float,
+    val alpha: Float,
+    val leaveOffset: Float = 0f,
+    val scale: Float = 1f,
+    val sway: Float = 0f
+)
+
+/**
+ * A child pill's entrance and hand-off, evaluated off its band's [StackClock]. Timeline zero is
+ * the frame the band arrived on (its [ChildPillHand.bornAt] mark); the pick, if any, is the
+ * band's shared [ChildPillHand.pickAt], re-expressed on that same timeline.
+ */
+private class ChildPillTimeline(
+    private val localIndex: Int,
+    private val pitchPx: Float,
+    private val hand: ChildPillHand
+) {
+    private val absoluteRow = BAND_BASE_ROW + localIndex
+    private val startMs = Azphalt.DROP_MS + localIndex * hand.cascadeStepMs
+    private val entranceEndMs = startMs + Azphalt.SWING_MS
+
+    fun poseNow(): ChildPillPose {
+        val born = hand.bornAt.floatValue
+        val pickedAt = hand.pickAt?.floatValue
+        val pickMs = when {
+            pickedAt == null -> null
+            born.isNaN() || pickedAt.isNaN() -> Float.NaN
+            else -> pickedAt - born
+        }
+        val doneAfterMs = when {
+            pickMs == null -> entranceEndMs
+            pickMs.isNaN() -> Float.MAX_VALUE
+            hand.droppingOut -> pickMs + Azphalt.DROP_MS
+            else -> maxOf(entranceEndMs, pickMs + Azphalt.SLIDE_MS)
+        }
+        val t = hand.clock.elapsedSince(born, doneAfterMs)
+        val entrance = entrancePoseAt(t)
+        if (pickMs == null) return entrance
+        // A pick whose mark hasn't landed yet is a pick happening right now.
+        val pick = if (pickMs.isNaN()) t else pickMs
+        return when {
+            // A tap can land while this pill is still mid-entrance (still hidden, alpha < 1) -
+            // becoming the host is its own reveal, so it must not stay invisible through it.
+            hand.droppingOut -> {
+                val atPick = entrancePoseAt(pick)
+                val f = progress(t, pick, Azphalt.DROP_MS.toFloat())
+                val drop = Azphalt.DROP_MS.toFloat()
+                ChildPillPose(
+                    turn = mix(atPick.turn, 0f, f),
+                    lift = mix(atPick.lift, 0f, f),
+                    alpha = mix(atPick.alpha, 1f, f),
+                    scale = keyframesAt(t - pick, 0f, 1f, drop * 2 / 3, DROP_GROW_SCALE, drop, 1f)
+                )
+            }
+            hand.leaving -> entrance.copy(
+                leaveOffset = mix(0f, LEAVE_OFFSET_FRACTION, progress(t, pick, Azphalt.SLIDE_MS.toFloat())),
+                sway = wobbleAt(absoluteRow, Azphalt.SLIDE_MS, t - pick)
+            )
+            else -> entrance
+        }
+    }
+
+    private fun entrancePoseAt(tMs: Float): ChildPillPose {
+        val swing = Azphalt.SWING_MS.toFloat()
+        val held = startMs + swing * Azphalt.LIFT_FRACTION
+        val turnFrom = if (localIndex % 2 == 0) -CHILD_TURN_DEG else CHILD_TURN_DEG
+        val turnHeld = if (localIndex % 2 == 0) -CHILD_TURN_HELD_DEG else CHILD_TURN_HELD_DEG
+        return ChildPillPose(
+            turn = keyframesAt(tMs, startMs, turnFrom, held, turnHeld, entranceEndMs, 0f),
+            // A child begins exactly behind the pill before it - the first one row above the host
+            // (row 0 belongs to the host's own trail), every later one behind wherever its
+            // predecessor lands - and holds there until the final-tenth lift, or a pill three or
+            // more deep in the band would visibly drift upward through its held rows instead of
+            // sitting invisibly at the one it's hidden behind.
+            lift = keyframesAt(
+                tMs,
+                held, -pitchPx * (absoluteRow - 1).coerceAtLeast(BAND_BASE_ROW),
+                entranceEndMs, -pitchPx * absoluteRow
+            ),
+            // Position (lift) alone was never enough to actually hide a pill waiting behind its
+            // predecessor: rotating a full 360° reads identically to 0°, and childWidthFraction
+            // cycles rather than shrinking monotonically, so a wider waiting row isn't reliably
+            // covered by a narrower one in front of it either. Starts genuinely invisible and
+            // fades in as soon as the turn actually starts unwinding - holding it until the
+            // final-tenth lift hid the swing itself, the one thing this entrance exists to show.
+            alpha = progress(tMs, startMs, swing * Azphalt.REVEAL_FRACTION)
+        )
+    }
+
+    companion object {
+        fun durationMs(localIndex: Int, stepMs: Float): Float =
+            Azphalt.DROP_MS + localIndex * stepMs + Azphalt.SWING_MS
+    }
+}
+
 @Composable
 private fun ChildPill(
     node: MenuNode,
     localIndex: Int,
-    scrollOffsetPx: Float,
-    leaving: Boolean,
-    droppingOut: Boolean,
+    scrollOffsetPx: () -> Float,
+    hand: ChildPillHand,
     alignedRow: Int,
     onClick: () -> Unit
 ) {
@@ -1176,76 +1366,15 @@ private fun ChildPill(
     val pitchPx = with(density) { ROW_PITCH.toPx() }
 
     val absoluteRow = BAND_BASE_ROW + localIndex
-    val aligned = absoluteRow == alignedRow && !leaving && !droppingOut
-
-    val turn = remember(node.id) { Animatable(if (localIndex % 2 == 0) -360f else 360f) }
-    // A child begins exactly behind the pill before it - the first one row above the host (row 0
-    // belongs to the host's own trail), every later one behind wherever its predecessor lands -
-    // matching the keyframe's own 90%-hold target below exactly, or a pill three or more deep in
-    // the band would visibly drift upward through its held rows instead of sitting invisibly at
-    // the one it's hidden behind until the final 10% lift.
-    val lift = remember(node.id) { Animatable(-pitchPx * (absoluteRow - 1).coerceAtLeast(BAND_BASE_ROW)) }
-    // Position (lift) alone was never enough to actually hide a pill waiting behind its
-    // predecessor: rotating a full 360° (turn's own starting value below) reads identically to 0°,
-    // and childWidthFraction cycles rather than shrinking monotonically, so a wider waiting row
-    // isn't reliably covered by a narrower one in front of it either. This starts genuinely
-    // invisible and only rises to 1 in the same final-tenth window that lift actually moves the
-    // pill into its resting spot - see the entrance LaunchedEffect below.
-    val pillAlpha = remember(node.id) { Animatable(0f) }
-    val leaveOffset = remember(node.id) { Animatable(0f) }
-    val scale = remember(node.id) { Animatable(1f) }
-    // Only while leaving - a cascading child turns alone, not with a pile, so it has nothing to
-    // sway against; the band's siblings leaving together are a pile again. See PillWobble.kt.
-    val sway = remember(node.id) { Animatable(0f) }
-
-    // Keyed on localIndex too, not just node.id: a band re-sort or a sibling filtered out changes
-    // every subsequent localIndex without changing any id, so the delay computed from it would go
-    // stale silently - the cascade would keep the old ordering, arriving in a sequence that no
-    // longer matches where the pills actually sit.
-    LaunchedEffect(node.id, localIndex) {
-        delay((Azphalt.DROP_MS + localIndex * Azphalt.SWING_MS).toLong())
-        launch {
-            turn.animateTo(0f, keyframes {
-                durationMillis = Azphalt.SWING_MS
-                (if (localIndex % 2 == 0) -360f else 360f) at 0 using LinearEasing
-                (if (localIndex % 2 == 0) -36f else 36f) at (Azphalt.SWING_MS * Azphalt.LIFT_FRACTION).toInt() using LinearEasing
-                0f at Azphalt.SWING_MS
-            })
-        }
-        launch {
-            lift.animateTo(-pitchPx * absoluteRow, keyframes {
-                durationMillis = Azphalt.SWING_MS
-                (-pitchPx * (absoluteRow - 1).coerceAtLeast(BAND_BASE_ROW)) at (Azphalt.SWING_MS * Azphalt.LIFT_FRACTION).toInt() using LinearEasing
-            })
-        }
-        launch {
-            // Fades in as soon as the turn actually starts unwinding, not held until the
-            // final-tenth lift - holding it that long hid the swing itself, the one thing this
-            // entrance exists to show, and left only a pop at the very end to look at.
-            pillAlpha.animateTo(1f, tween((Azphalt.SWING_MS * Azphalt.REVEAL_FRACTION).toInt(), easing = LinearEasing))
-        }
-    }
+    val aligned = absoluteRow == alignedRow && !hand.leaving && !hand.droppingOut
 
-    // A newly-chosen pill drops to the shared bottom row and grows a little as it settles there;
-    // its siblings leave exactly like the root stack's unselected pills do.
-    LaunchedEffect(leaving, droppingOut) {
-        if (droppingOut) {
-            // A tap can land while this pill is still mid-entrance (still hidden, alpha < 1) -
-            // becoming the host is its own reveal, so it must not stay invisible through it.
-            launch { pillAlpha.animateTo(1f, tween(Azphalt.DROP_MS, easing = LinearEasing)) }
-            launch { turn.animateTo(0f, tween(Azphalt.DROP_MS, easing = LinearEasing)) }
-            launch { lift.animateTo(0f, tween(Azphalt.DROP_MS, easing = LinearEasing)) }
-            launch {
-                scale.animateTo(1.15f, tween(Azphalt.DROP_MS * 2 / 3, easing = LinearEasing))
-                scale.animateTo(1f, tween(Azphalt.DROP_MS / 3, easing = LinearEasing))
-            }
-        } else if (leaving) {
-            launch { leaveOffset.animateTo(-1.7f, tween(Azphalt.SLIDE_MS, easing = LinearEasing)) }
-            launch { sway.wobble(absoluteRow, Azphalt.SLIDE_MS) }
-        }
-    }
+    // Nothing remembered here: the cascade's own per-row delay is computed from localIndex inside
+    // the timeline on every frame, and the band owns the mark it counts from, so a band re-sort (or
+    // a sibling filtered out) re-times this pill against its new position, and scrolling it out of
+    // the composed window and back loses nothing.
+    val timeline = ChildPillTimeline(localIndex, pitchPx, hand)
 
-    Box(Modifier.fillMaxSize().zIndex(if (droppingOut) 100f else 50f - absoluteRow)) {
+    Box(Modifier.fillMaxSize().zIndex(if (hand.droppingOut) 100f else 50f - absoluteRow)) {
         Pill(
             label = node.label,
             cap = node.cap,
@@ -1260,15 +1389,19 @@ private fun ChildPill(
             modifier = Modifier
                 .align(Alignment.BottomStart)
                 .fillMaxWidth(childWidthFraction(localIndex))
-                .offsetByFractionOfParent(CHILD_LEFT + leaveOffset.value)
+                .offsetByFractionOfParent(CHILD_LEFT)
                 .graphicsLayer {
+                    val pose = timeline.poseNow()
                     transformOrigin =
                         if (localIndex % 2 == 0) TransformOrigin(0f, 0.5f) else TransformOrigin(1f, 0.5f)
-                    rotationZ = turn.value + sway.value
-                    translationY = lift.value + scrollOffsetPx
-                    scaleX = scale.value
-                    scaleY = scale.value
-                    alpha = pillAlpha.value
+                    rotationZ = pose.turn + pose.sway
+                    // The leave sweep, as a fraction of the pill's own width - the layer is exactly
+                    // that width here, there being no bleed on a child pill.
+                    translationX = pose.leaveOffset * size.width
+                    translationY = pose.lift + scrollOffsetPx()
+                    scaleX = pose.scale
+                    scaleY = pose.scale
+                    alpha = pose.alpha
                 }
                 .clickable(onClick = onClick)
         )
@@ -1495,6 +1628,14 @@ private fun Modifier.offsetByFractionOfParent(fraction: Float) = layout { measur
     }
 }
 
+// fillMaxWidth(fraction), with the fraction read during measure rather than composition - a
+// width that animates then costs a relayout of this one pill per frame, not a recomposition.
+private fun Modifier.fillMaxWidthOf(fraction: () -> Float) = layout { measurable, constraints ->
+    val width = (constraints.maxWidth * fraction()).roundToInt().coerceIn(constraints.minWidth, constraints.maxWidth)
+    val placeable = measurable.measure(constraints.copy(minWidth = width, maxWidth = width))
+    layout(placeable.width, placeable.height) { placeable.placeRelative(0, 0) }
+}
+
 private fun Modifier.absoluteBleed(by: Dp) = layout { measurable, constraints ->
     val extra = by.roundToPx()
     val placeable = measurable.measure(constraints.copy(maxWidth = constraints.maxWidth + extra))
@@ -46,6 +46,21 @@ suspend fun Animatable<Float, AnimationVector1D>.wobble(row: Int, durationMs: In
     })
 }
 
+/** [wobble]'s own keyframes evaluated [elapsedMs] into the move, for a pill posed off a shared
+ *  [StackClock] rather than animating an Animatable of its own. Same additive convention. */
+fun wobbleAt(row: Int, durationMs: Int, elapsedMs: Float, amplitudeScale: Float = 1f): Float {
+    val a = wobbleAmplitude(row) * amplitudeScale
+    val d = durationMs.toFloat()
+    return keyframesAt(
+        elapsedMs,
+        0f, 0f,
+        d * SWING_1_FRACTION, a,
+        d * SWING_2_FRACTION, -a * SWING_2_SCALE,
+        d * SWING_3_FRACTION, a * SWING_3_SCALE,
+        d, 0f
+    )
+}
+
 // Three diminishing swings, each a fraction of the move's own duration and a scale of the first
 // swing's own amplitude.
 private const val SWING_1_FRACTION = 0.30f
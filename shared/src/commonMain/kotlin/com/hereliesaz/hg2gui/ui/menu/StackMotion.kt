@@ -0,0 +1,119 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import androidx.compose.runtime.FloatState
+import androidx.compose.runtime.MutableFloatState
+import androidx.compose.runtime.Stable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableFloatStateOf
+import androidx.compose.runtime.setValue
+import androidx.compose.runtime.snapshots.Snapshot
+import androidx.compose.runtime.withFrameNanos
+import kotlinx.coroutines.channels.Channel
+import kotlin.math.max
+
+/*
+ * One frame clock per stack, instead of one set of Animatables (and one coroutine per
+ * Animatable) per pill. Every pill used to own six Animatables plus a sway, each animated from
+ * its own launch{} - a band fanning out a few hundred shell binaries started thousands of
+ * coroutines, and since several of those values were read during composition (the width and
+ * the horizontal offset fed layout modifiers directly), the whole band recomposed on every frame
+ * of the cascade. Now a stack owns a single [StackClock] ticking off a single withFrameNanos
+ * loop, and each pill's pose is a pure function of "milliseconds since my timeline started" -
+ * the same keyframes and tweens the per-pill Animatables used to play, just evaluated rather than
+ * run. Those functions are only ever called from inside graphicsLayer (or layout) lambdas, so a
+ * tick invalidates layers, never composition.
+ */
+
+private const val NANOS_PER_MS = 1_000_000f
+
+@Stable
+internal class StackClock {
+    /** Milliseconds since this clock's first frame. Stale while idle: nothing ticks it between
+     *  timelines, which is the point - a settled stack costs nothing per frame. */
+    var nowMs by mutableFloatStateOf(0f)
+        private set
+
+    private var originNanos = -1L
+    private var endMs = 0f
+    private var pendingDurationMs = 0f
+    private val pendingMarks = mutableListOf<MutableFloatState>()
+    private val wake = Channel<Unit>(Channel.CONFLATED)
+
+    /**
+     * A timestamp for "whenever the next frame lands", NaN until it does, and a promise to keep
+     * ticking for [durationMs] past it. Not simply [nowMs]: an idle clock's [nowMs] is whatever
+     * the last timeline left it at, possibly seconds ago, so a timeline started from it would
+     * open already part-way (or all the way) through.
+     */
+    fun mark(durationMs: Float): FloatState {
+        val mark = mutableFloatStateOf(Float.NaN)
+        pendingMarks += mark
+        pendingDurationMs = max(pendingDurationMs, durationMs)
+        wake.trySend(Unit)
+        return mark
+    }
+
+    /** The one loop driving every pill on this stack - run it from a single LaunchedEffect. */
+    suspend fun drive() {
+        while (true) {
+            withFrameNanos { frame ->
+                if (originNanos < 0) originNanos = frame
+                val now = (frame - originNanos) / NANOS_PER_MS
+                nowMs = now
+                pendingMarks.forEach { it.floatValue = now }
+                pendingMarks.clear()
+                endMs = max(endMs, now + pendingDurationMs)
+                pendingDurationMs = 0f
+            }
+            if (nowMs >= endMs && pendingMarks.isEmpty()) wake.receive()
+        }
+    }
+
+    /**
+     * Milliseconds since [startMs] (a [mark]'s value), clamped to [doneAfterMs] - the point past
+     * which the caller's timeline no longer changes. Once clamped, [nowMs] is peeked without
+     * being observed, so a pill that has finished stops being invalidated by the ticks its
+     * siblings still need; until then it's a normal read, subscribing the calling lambda.
+     */
+    fun elapsedSince(startMs: Float, doneAfterMs: Float): Float {
+        if (startMs.isNaN()) return 0f
+        val peek = Snapshot.withoutReadObservation { nowMs } - startMs
+        return if (peek >= doneAfterMs) doneAfterMs else nowMs - startMs
+    }
+}
+
+/**
+ * Where each pill's timeline starts, per stack, keyed by node id. Held by the stack rather than
+ * the pill so it outlives the pill's own composition: a stack only composes the rows near its
+ * visible window, and a pill scrolled out of it and back must pick its timeline up where it is,
+ * not start it over.
+ */
+internal class StackMarks(private val clock: StackClock) {
+    private val marks = mutableMapOf<String, FloatState>()
+
+    /** [id]'s mark, taking a fresh one - ticking [durationMs] past it - the first time [id] is seen. */
+    fun of(id: String, durationMs: Float): FloatState = marks.getOrPut(id) { clock.mark(durationMs) }
+}
+
+/** How far [tMs] is through a tween starting at [startMs], 0 before it and 1 after. */
+internal fun progress(tMs: Float, startMs: Float, durationMs: Float): Float =
+    if (durationMs <= 0f) (if (tMs >= startMs) 1f else 0f) else ((tMs - startMs) / durationMs).coerceIn(0f, 1f)
+
+internal fun mix(from: Float, to: Float, fraction: Float): Float = from + (to - from) * fraction
+
+/**
+ * A linear keyframes{} spec evaluated at [tMs] - [frames] is flattened (time, value) pairs in
+ * ascending time order, held at the first value before it and the last after it. Flattened
+ * rather than a list of Pairs so evaluating a few hundred pills per frame boxes nothing.
+ */
+internal fun keyframesAt(tMs: Float, vararg frames: Float): Float {
+    if (tMs <= frames[0]) return frames[1]
+    var i = 2
+    while (i < frames.size) {
+        if (tMs <= frames[i]) {
+            return mix(frames[i - 1], frames[i + 1], progress(tMs, frames[i - 2], frames[i] - frames[i - 2]))
+        }
+        i += 2
+    }
+    return frames[frames.size - 1]
+}
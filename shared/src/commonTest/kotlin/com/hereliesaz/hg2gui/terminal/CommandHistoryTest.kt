@@ -0,0 +1,81 @@
+package com.hereliesaz.hg2gui.terminal
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class CommandHistoryTest {
+
+    private val hour = 60L * 60 * 1000
+
+    private fun run(line: String, atMs: Long, cwd: String = "/home", exitCode: Int? = 0) =
+        CommandHistory.Record(line, 1, atMs, cwd, exitCode)
+
+    @Test
+    fun frequentCommandOutranksANewerOneOff() {
+        val history = CommandHistory()
+        repeat(5) { history.add(run("git status", it * 1000L)) }
+        history.add(run("git stash drop", 10_000L))
+        assertEquals(" status", history.autosuggest("git", "/home"))
+    }
+
+    @Test
+    fun currentDirectoryBreaksATie() {
+        val history = CommandHistory()
+        history.add(run("make test", 1000L, cwd = "/a"))
+        history.add(run("make install", 2000L, cwd = "/b"))
+        assertEquals(" test", history.autosuggest("make", "/a"))
+        assertEquals(" install", history.autosuggest("make", "/b"))
+    }
+
+    @Test
+    fun failedAndStaleRunsSink() {
+        val history = CommandHistory()
+        history.add(run("ls -la", 0L))
+        history.add(run("ls -lz", 200 * hour, exitCode = 2))
+        history.add(run("ls -lh", 200 * hour + 1))
+        assertEquals(listOf("ls -lh", "ls -lz", "ls -la"), history.suggestions("ls -l", "/x").map { it.line })
+    }
+
+    @Test
+    fun aLimitedRanking_isTheTopOfTheFullOne() {
+        val history = CommandHistory()
+        for (i in 0 until 300) {
+            repeat(i % 7 + 1) { history.add(run("cmd $i", (i * 37 % 300) * hour, cwd = if (i % 3 == 0) "/a" else "/b")) }
+        }
+        val full = history.suggestions("cmd", "/a", limit = 300)
+        assertEquals(300, full.size)
+        assertEquals(full.take(5), history.suggestions("cmd", "/a", limit = 5))
+        assertEquals(full.first().line.removePrefix("cmd"), history.autosuggest("cmd", "/a"))
+    }
+
+    @Test
+    fun exactLineIsNotItsOwnSuggestion() {
+        val history = CommandHistory()
+        history.add(run("pwd", 0L))
+        assertNull(history.autosuggest("pwd", "/home"))
+    }
+
+    @Test
+    fun encodeDecode_roundTripsTabsAndNewlines() {
+        val record = CommandHistory.Record("printf 'a\tb\\n'\necho done", 3, 42L, "/tmp/with\ttab", null)
+        assertEquals(record, CommandHistory.decode(CommandHistory.encode(record)))
+    }
+
+    @Test
+    fun decode_dropsATruncatedLine() {
+        val encoded = CommandHistory.encode(run("echo hi", 5L))
+        assertNull(CommandHistory.decode(encoded.substringBeforeLast('\t')))
+    }
+
+    @Test
+    fun snapshot_replaysToTheSameCounts() {
+        val history = CommandHistory()
+        repeat(3) { history.add(run("top", it.toLong())) }
+        history.add(run("htop", 10L))
+        val replayed = CommandHistory()
+        history.snapshot().forEach(replayed::add)
+        assertEquals(history.snapshot(), replayed.snapshot())
+        assertEquals(3, replayed.suggestions("to", "/home").single().count)
+    }
+}
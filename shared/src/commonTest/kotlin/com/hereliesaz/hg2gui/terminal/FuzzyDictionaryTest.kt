@@ -0,0 +1,70 @@
+package com.hereliesaz.hg2gui.terminal
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class FuzzyDictionaryTest {
+
+    private fun dictionary(commands: List<String> = emptyList(), packages: List<String> = emptyList()) =
+        FuzzyDictionary().apply {
+            sync(FuzzyDictionary.Source.COMMAND, commands)
+            sync(FuzzyDictionary.Source.PACKAGE, packages)
+        }
+
+    @Test
+    fun typoFindsTheInstalledCommand() {
+        val d = dictionary(commands = listOf("grep", "git", "gzip", "python3"))
+        assertEquals("python3", d.corrections("pyhton3").first().word)
+    }
+
+    @Test
+    fun missingBinaryFindsItsPackageExactly() {
+        val d = dictionary(commands = listOf("ls"), packages = listOf("htop", "nmap"))
+        val top = d.corrections("htop").first()
+        assertEquals(FuzzyDictionary.Correction("htop", 0, FuzzyDictionary.Source.PACKAGE), top)
+    }
+
+    @Test
+    fun installedPackageIsReportedAsACommand() {
+        val d = dictionary(commands = listOf("git"), packages = listOf("git"))
+        assertEquals(FuzzyDictionary.Source.COMMAND, d.corrections("gitt").first().source)
+    }
+
+    @Test
+    fun syncDropsWhatIsNoLongerListed() {
+        val d = dictionary(commands = listOf("vim", "nano"))
+        d.sync(FuzzyDictionary.Source.COMMAND, listOf("nano"))
+        assertTrue(d.corrections("vimm").none { it.word == "vim" })
+        d.sync(FuzzyDictionary.Source.COMMAND, listOf("nano", "vim"))
+        assertEquals("vim", d.corrections("vimm").first().word)
+    }
+
+    @Test
+    fun prunedSearchMatchesABruteForceScan() {
+        val words = (0 until 400).map { i -> "w" + i.toString(36) + "xyz".take(i % 4) }
+        val d = dictionary(packages = words)
+        for (query in listOf("w1x", "wa", "w2xy", "wzz", "w10")) {
+            val expected = words
+                .map { it to levenshtein(query, it) }
+                .filter { (w, dist) -> dist <= FuzzyDictionary.radiusFor(query) && dist <= w.length / 2 + 1 }
+                .sortedWith(compareBy<Pair<String, Int>> { it.second }.thenBy { it.first })
+                .map { it.first }
+            // The alias table is always in there too; only the synced words are being checked.
+            val found = d.corrections(query, limit = Int.MAX_VALUE).map { it.word }.filter { it in words }
+            assertEquals(expected, found, "query $query")
+        }
+    }
+
+    private fun levenshtein(a: String, b: String): Int {
+        val dp = Array(a.length + 1) { IntArray(b.length + 1) }
+        for (i in 0..a.length) dp[i][0] = i
+        for (j in 0..b.length) dp[0][j] = j
+        for (i in 1..a.length) {
+            for (j in 1..b.length) {
+                dp[i][j] = if (a[i - 1] == b[j - 1]) dp[i - 1][j - 1] else 1 + minOf(dp[i - 1][j], dp[i][j - 1], dp[i - 1][j - 1])
+            }
+        }
+        return dp[a.length][b.length]
+    }
+}
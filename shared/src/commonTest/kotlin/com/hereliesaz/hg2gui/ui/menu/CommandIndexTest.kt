@@ -0,0 +1,85 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CommandIndexTest {
+
+    private val tree = listOf(
+        MenuNode(
+            id = "sh/Development",
+            label = "Development",
+            emitsToken = false,
+            children = listOf(
+                MenuNode(
+                    id = "sh/git",
+                    label = "git",
+                    value = "git",
+                    children = listOf(MenuNode("sh/git/status", "status"), MenuNode("sh/git/stash", "stash"))
+                ),
+                MenuNode("sh/gcc", "gcc")
+            )
+        ),
+        MenuNode(
+            id = "sh/Files",
+            label = "Files",
+            emitsToken = false,
+            children = listOf(MenuNode("sh/ls", "ls", children = listOf(MenuNode("sh/ls/-l", "-l"))))
+        )
+    )
+
+    @Test
+    fun exactLabel_ranksFirst_withItsFullPath() {
+        val top = CommandIndex.build(tree).search("git").first()
+        assertEquals(listOf("sh/Development", "sh/git"), top.entry.idPath)
+        assertEquals("Development", top.entry.where)
+    }
+
+    @Test
+    fun prefix_findsEveryCompletion() {
+        val labels = CommandIndex.build(tree).search("st").map { it.entry.label }
+        assertTrue("status" in labels && "stash" in labels)
+    }
+
+    @Test
+    fun multiWordQuery_matchesThroughAncestors() {
+        val top = CommandIndex.build(tree).search("git status").first()
+        assertEquals("sh/git/status", top.entry.idPath.last())
+    }
+
+    @Test
+    fun flagHint_isFindableUnderItsBinary() {
+        val hits = CommandIndex.build(tree).search("ls -l")
+        assertEquals("sh/ls/-l", hits.first().entry.idPath.last())
+    }
+
+    @Test
+    fun typo_stillFindsTheLabel() {
+        val labels = CommandIndex.build(tree).search("statsu").map { it.entry.label }
+        assertTrue("status" in labels)
+    }
+
+    @Test
+    fun extras_areSearchedAlongsideTheTree() {
+        val extras = listOf(
+            CommandIndex.Entry(listOf("sh/Files", "aptcat/Editors", "aptcat/Editors/vim"), "vim", "Editors", "install Editors")
+        )
+        val top = CommandIndex.build(tree, extras).search("vim").first()
+        assertEquals("aptcat/Editors/vim", top.entry.idPath.last())
+    }
+
+    @Test
+    fun rebuild_reusesUnchangedRoots() {
+        val first = CommandIndex.build(tree)
+        val changed = listOf(tree[0], tree[1].copy(children = tree[1].children + MenuNode("sh/cp", "cp")))
+        val second = CommandIndex.build(changed, previous = first)
+        assertEquals(1, second.reusedSegments)
+        assertEquals("cp", second.search("cp").first().entry.label)
+    }
+
+    @Test
+    fun blankQuery_findsNothing() {
+        assertTrue(CommandIndex.build(tree).search("  ").isEmpty())
+    }
+}
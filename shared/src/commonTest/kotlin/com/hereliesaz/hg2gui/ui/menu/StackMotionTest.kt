@@ -0,0 +1,39 @@
+package com.hereliesaz.hg2gui.ui.menu
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class StackMotionTest {
+
+    @Test
+    fun keyframes_holdOutsideTheirRange() {
+        assertEquals(-1.7f, keyframesAt(-50f, 0f, -1.7f, 100f, 0f), 0f)
+        assertEquals(0f, keyframesAt(500f, 0f, -1.7f, 100f, 0f), 0f)
+    }
+
+    @Test
+    fun keyframes_interpolateLinearlyWithinASegment() {
+        // The Slide top row's own shape: overshoot at 100ms, correct back to 0 by 190ms.
+        assertEquals(-0.82f, keyframesAt(50f, 0f, -1.7f, 100f, 0.06f, 190f, 0f), 0.0001f)
+        assertEquals(0.03f, keyframesAt(145f, 0f, -1.7f, 100f, 0.06f, 190f, 0f), 0.0001f)
+    }
+
+    @Test
+    fun keyframes_startingLateHoldTheFirstValueUntilThen() {
+        // A cascading row parked behind its predecessor until its own turn comes.
+        assertEquals(20f, keyframesAt(300f, 450f, 20f, 500f, 0f), 0f)
+    }
+
+    @Test
+    fun progress_ofAZeroLengthTweenIsAStep() {
+        assertEquals(0f, progress(9f, 10f, 0f), 0f)
+        assertEquals(1f, progress(10f, 10f, 0f), 0f)
+    }
+
+    @Test
+    fun wobble_returnsToRestAtBothEnds() {
+        assertEquals(0f, wobbleAt(row = 3, durationMs = 140, elapsedMs = 0f), 0f)
+        assertEquals(0f, wobbleAt(row = 3, durationMs = 140, elapsedMs = 140f), 0f)
+        assertEquals(wobbleAmplitude(3), wobbleAt(row = 3, durationMs = 140, elapsedMs = 140 * 0.30f), 0.0001f)
+    }
+}